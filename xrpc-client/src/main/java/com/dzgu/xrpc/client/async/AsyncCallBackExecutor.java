@@ -3,6 +3,7 @@ package com.dzgu.xrpc.client.async;
 import com.dzgu.xrpc.util.threadpool.ThreadPoolFactoryUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -30,4 +31,8 @@ public class AsyncCallBackExecutor {
         ThreadPoolExecutorHolder.callBackExecutor.execute(runnable);
     }
 
+    public static Executor executor() {
+        return ThreadPoolExecutorHolder.callBackExecutor;
+    }
+
 }
@@ -29,6 +29,16 @@ public abstract class ResponseCallback {
         });
     }
 
+    /**
+     * 请求没有收到响应就失败了，例如连接断开
+     */
+    public void fail(Exception e) {
+        AsyncCallBackExecutor.execute(() -> {
+            log.debug("AsyncReceiveHandler fail", e);
+            onException(null, e);
+        });
+    }
+
     /**
      * 重写此方法，添加异步接收到结果之后的业务逻辑
      *
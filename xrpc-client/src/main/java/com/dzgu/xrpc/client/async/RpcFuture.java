@@ -1,8 +1,16 @@
 package com.dzgu.xrpc.client.async;
 
+import com.dzgu.xrpc.client.core.CircuitBreaker;
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointStats;
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
+import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
 import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import io.netty.util.Timeout;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @description: 处理异步回调
@@ -10,10 +18,38 @@ import java.util.concurrent.*;
  * @Date： 2022/5/3 23:39
  */
 public class RpcFuture implements Future {
-    private RpcResponse<Object> response;
+    private volatile RpcResponse<Object> response;
+    /**
+     * 请求失败（如连接断开）的原因
+     */
+    private volatile RpcException cause;
 
     private ResponseCallback responseCallback;
     private CountDownLatch countDownLatch;
+    /**
+     * 响应、失败、超时可能并发到达，只有第一个生效
+     */
+    private final AtomicBoolean completed = new AtomicBoolean();
+    /**
+     * 超时任务，请求完成时取消
+     */
+    private volatile Timeout timeout;
+    /**
+     * 返回 CompletableFuture 的接口方法的结果。默认在完成请求的线程（EventLoop 或超时线程）上直接完成，
+     * 设置了 resultExecutor 时转到其中完成
+     */
+    private CompletableFuture<Object> resultFuture;
+    private Executor resultExecutor;
+    /**
+     * 请求发往的地址的统计，完成时记录延迟
+     */
+    private EndpointStats endpointStats;
+    private CircuitBreaker circuitBreaker;
+    /**
+     * 熔断器半开时发给该请求的探测令牌
+     */
+    private long probeToken;
+    private long sendNanos;
 
     public RpcFuture() {
         countDownLatch = new CountDownLatch(1);
@@ -31,7 +67,7 @@ public class RpcFuture implements Future {
 
     @Override
     public boolean isDone() {
-        return false;
+        return countDownLatch.getCount() == 0;
     }
 
     /**
@@ -40,23 +76,140 @@ public class RpcFuture implements Future {
     @Override
     public RpcResponse<Object> get() throws InterruptedException, ExecutionException {
         countDownLatch.await();
-        return response;
+        return report();
     }
 
     @Override
     public RpcResponse<Object> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
         if (countDownLatch.await(timeout, unit)) {
-            return response;
+            return report();
         }
         return null;
     }
 
-    public void complete(RpcResponse<Object> response) {
+    /**
+     * @return 已经完成过时返回 false
+     */
+    public boolean complete(RpcResponse<Object> response) {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelTimeout();
+        // 服务端过载时没有执行请求，按失败计入
+        record(response.getCode() == null || response.getCode() != RpcResponseCodeEnum.OVERLOAD.getCode());
         this.response = response;
         countDownLatch.countDown();
         if(responseCallback!=null){
             responseCallback.success(response);
         }
+        if (resultFuture != null) {
+            completeResult(response, null);
+        }
+        return true;
+    }
+
+    /**
+     * 请求失败，阻塞等待的调用方立即抛出异常，异步请求回调 onException
+     *
+     * @return 已经完成过时返回 false
+     */
+    public boolean fail(RpcException cause) {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelTimeout();
+        record(false);
+        this.cause = cause;
+        countDownLatch.countDown();
+        if (responseCallback != null) {
+            responseCallback.fail(cause);
+        }
+        if (resultFuture != null) {
+            completeResult(null, cause);
+        }
+        return true;
+    }
+
+    /**
+     * 关联超时任务，请求完成时取消它，让时间轮及时释放
+     */
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+        if (completed.get()) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 记录请求发往的地址，完成时更新它的在途请求数和延迟，须在发出请求前设置
+     */
+    public void setEndpointStats(EndpointStats endpointStats) {
+        this.endpointStats = endpointStats;
+        this.sendNanos = System.nanoTime();
+        endpointStats.onSend();
+    }
+
+    /**
+     * 记录请求发往的地址，完成时更新它的统计和熔断计数，须在发出请求前设置
+     */
+    public void setEndpoint(Endpoint endpoint) {
+        setEndpointStats(endpoint.getStats());
+        this.circuitBreaker = endpoint.getCircuitBreaker();
+        probeToken = circuitBreaker.onSend();
+    }
+
+    private void record(boolean success) {
+        if (endpointStats != null) {
+            long now = System.nanoTime();
+            endpointStats.onComplete(now - sendNanos, now, success);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onComplete(probeToken, success);
+        }
+    }
+
+    /**
+     * 请求完成时同时完成该 CompletableFuture，须在发出请求前设置
+     *
+     * @param executor 完成 CompletableFuture 的线程池，为 null 时直接在 IO 线程上完成，此时其后续回调中不能有阻塞操作
+     */
+    public void setResultFuture(CompletableFuture<Object> resultFuture, Executor executor) {
+        this.resultFuture = resultFuture;
+        this.resultExecutor = executor;
+    }
+
+    private void completeResult(RpcResponse<Object> response, RpcException cause) {
+        if (resultExecutor == null) {
+            doCompleteResult(response, cause);
+        } else {
+            resultExecutor.execute(() -> doCompleteResult(response, cause));
+        }
+    }
+
+    private void doCompleteResult(RpcResponse<Object> response, RpcException cause) {
+        if (cause != null) {
+            resultFuture.completeExceptionally(cause);
+        } else if (response.getCode() != null && response.getCode() == RpcResponseCodeEnum.OVERLOAD.getCode()) {
+            resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.SERVER_OVERLOADED));
+        } else if (response.getCode() == null || response.getCode() != RpcResponseCodeEnum.SUCCESS.getCode()) {
+            resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, response.getMessage()));
+        } else {
+            resultFuture.complete(response.getData());
+        }
+    }
+
+    private void cancelTimeout() {
+        Timeout t = timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    private RpcResponse<Object> report() throws ExecutionException {
+        if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+        return response;
     }
 
     public void setResponseCallback(ResponseCallback responseCallback) {
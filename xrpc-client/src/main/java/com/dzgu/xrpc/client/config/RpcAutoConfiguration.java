@@ -1,14 +1,23 @@
 package com.dzgu.xrpc.client.config;
 
+import com.dzgu.xrpc.client.async.AsyncCallBackExecutor;
+import com.dzgu.xrpc.client.core.CircuitBreakerPolicy;
 import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.faultTolerantInvoker.FailoverInvoker;
 import com.dzgu.xrpc.client.faultTolerantInvoker.FaultTolerantInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.HedgingInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.RetryBudget;
 import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.ConsistentHashLoadBalance;
 import com.dzgu.xrpc.client.proxy.ProxyFactory;
 import com.dzgu.xrpc.client.proxy.ProxyInjectProcessor;
+import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.extension.ExtensionLoader;
 import com.dzgu.xrpc.properties.RpcConfig;
 import com.dzgu.xrpc.register.Register;
 import com.dzgu.xrpc.register.RegisterFactory;
+import com.dzgu.xrpc.serializer.Serializer;
+import com.dzgu.xrpc.serializer.kryo.KryoSerializer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,22 +51,43 @@ public class RpcAutoConfiguration implements DisposableBean {
     }
 
     @Bean
-    public NettyClient nettyClient() {
-        nettyClient = new NettyClient();
+    public NettyClient nettyClient(@Autowired RpcConfig rpcConfig) {
+        configureKryo(rpcConfig.getKryo());
+        nettyClient = new NettyClient(rpcConfig.getChannelPoolSize(), rpcConfig.getTransport());
+        nettyClient.getCompressPolicy().configure(rpcConfig.getCompressThreshold(), rpcConfig.isCompressAdaptive(),
+                rpcConfig.getCompress(), rpcConfig.getResponseCompress());
+        RpcConfig.FlushConfig flushConfig = rpcConfig.getFlush();
+        nettyClient.configureFlush(flushConfig.isEnabled(), flushConfig.getMaxMessages(), flushConfig.getMaxBytes());
         return nettyClient;
     }
 
     @Bean
     public ProxyFactory proxyFactory(@Autowired RpcConfig rpcConfig) {
         LoadBalance loadBalance = ExtensionLoader.getExtensionLoader(LoadBalance.class).getExtension(rpcConfig.getLoadBalance());
+        if (loadBalance instanceof ConsistentHashLoadBalance) {
+            RpcConfig.ConsistentHashConfig consistentHash = rpcConfig.getConsistentHash();
+            ((ConsistentHashLoadBalance) loadBalance).configure(consistentHash.getReplicas(),
+                    consistentHash.getLoadFactor(), consistentHash.getArgumentIndex());
+        }
         FaultTolerantInvoker tolerantInvoker = ExtensionLoader.getExtensionLoader(FaultTolerantInvoker.class).getExtension(rpcConfig.getFaultTolerant());
+        if (tolerantInvoker instanceof FailoverInvoker) {
+            RpcConfig.RetryBudgetConfig retryBudget = rpcConfig.getRetryBudget();
+            ((FailoverInvoker) tolerantInvoker).setRetryBudget(new RetryBudget(retryBudget.getRatio(), retryBudget.getBurst()));
+        }
+        RpcConfig.HedgeConfig hedgeConfig = rpcConfig.getHedge();
+        HedgingInvoker hedgingInvoker = new HedgingInvoker();
+        hedgingInvoker.configure(hedgeConfig.getDelayMs(), hedgeConfig.getPercentile(), hedgeConfig.getRatio(), hedgeConfig.getBurst());
 
         proxyFactory = new ProxyFactory();
         proxyFactory.setNettyClient(nettyClient)
                 .setLoadBalance(loadBalance)
                 .setRegister(register)
                 .setFaultTolerantInvoker(tolerantInvoker)
+                .setHedgingInvoker(hedgingInvoker)
                 .setRetryTime(rpcConfig.getRetryTimes())
+                .setTimeout(rpcConfig.getTimeout())
+                .setFutureExecutor(rpcConfig.isFutureOnCallbackExecutor() ? AsyncCallBackExecutor.executor() : null)
+                .setCircuitBreakerPolicy(circuitBreakerPolicy(rpcConfig.getCircuitBreaker()))
                 .setCompress(rpcConfig.getCompress())
                 .setSerializer(rpcConfig.getSerializer());
         return proxyFactory;
@@ -71,6 +101,31 @@ public class RpcAutoConfiguration implements DisposableBean {
     }
 
 
+    private CircuitBreakerPolicy circuitBreakerPolicy(RpcConfig.CircuitBreakerConfig config) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        return new CircuitBreakerPolicy()
+                .setConsecutiveFailures(config.getConsecutiveFailures())
+                .setErrorRate(config.getErrorRate())
+                .setMinRequests(config.getMinRequests())
+                .setWindowMillis(config.getWindowMs())
+                .setBaseEjectionMillis(config.getBaseEjectionMs())
+                .setMaxEjectionMillis(config.getMaxEjectionMs())
+                .setMaxEjectionPercent(config.getMaxEjectionPercent())
+                .setLatencyFactor(config.getLatencyFactor())
+                .setMinOutlierLatencyMillis(config.getMinOutlierLatencyMs())
+                .setLatencyIntervalMillis(config.getLatencyIntervalMs());
+    }
+
+    /**
+     * kryo 的类注册需要与服务端保持一致
+     */
+    private void configureKryo(RpcConfig.KryoConfig kryoConfig) {
+        Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(SerializerTypeEnum.KRYO.getName());
+        ((KryoSerializer) serializer).configure(kryoConfig.isRegistrationRequired(), kryoConfig.isReferences(), kryoConfig.getRegistrations());
+    }
+
     @Override
     public void destroy() {
         register.stop();
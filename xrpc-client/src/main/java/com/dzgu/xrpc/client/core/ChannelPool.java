@@ -0,0 +1,344 @@
+package com.dzgu.xrpc.client.core;
+
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
+import com.dzgu.xrpc.exception.RpcException;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.dzgu.xrpc.consts.RpcConstants.MAX_RETRY;
+
+/**
+ * @description: 单个服务端地址的连接池，固定 size 个槽位，每个槽位保存一次建连的 Future。
+ * 连接按需建立：首个请求只等待一个连接，之后的请求在后台补齐其余槽位（预热）。
+ * Bootstrap 按轮询把新连接注册到不同的 EventLoop，多个连接即分散在多个 IO 线程上。
+ * 选择连接时优先可写的连接，其次在途请求最少的连接。
+ * 同一槽位同时只有一次建连，并发调用共享它的 Future；建连失败后进入冷却期（按连续失败次数指数增长），
+ * 冷却期内不再建连，请求直接失败，避免服务端不可用时调用方线程堆积
+ * @Author： dzgu
+ * @Date： 2022/5/14 16:05
+ */
+@Slf4j
+public class ChannelPool {
+    /**
+     * 下线的地址等待在途请求完成的最长时间和检查间隔
+     */
+    private static final long DRAIN_TIMEOUT_SECONDS = 30;
+    private static final long DRAIN_CHECK_MILLIS = 100;
+    private final InetSocketAddress address;
+    private final Function<InetSocketAddress, CompletableFuture<Channel>> connector;
+    private final AtomicReferenceArray<CompletableFuture<Channel>> slots;
+    /**
+     * 选中连接的次数
+     */
+    private final LongAdder selections = new LongAdder();
+    /**
+     * 所有连接都不可写、只能选中不可写连接的次数
+     */
+    private final LongAdder unwritableSelections = new LongAdder();
+    /**
+     * 建立的连接数，包括断线后重建的
+     */
+    private final LongAdder connects = new LongAdder();
+    /**
+     * 建连失败的次数
+     */
+    private final LongAdder connectFailures = new LongAdder();
+    /**
+     * 冷却期内直接失败的建连请求数
+     */
+    private final LongAdder rejectedConnects = new LongAdder();
+    /**
+     * 连续建连失败次数，成功后清零
+     */
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    /**
+     * 冷却期结束的时间，System.nanoTime()
+     */
+    private volatile long cooldownUntil;
+    private volatile boolean closed;
+
+    public ChannelPool(InetSocketAddress address, int size, Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        this.address = address;
+        this.connector = connector;
+        this.slots = new AtomicReferenceArray<>(Math.max(1, size));
+    }
+
+    /**
+     * 选出一个可用连接，没有可用连接时返回 null，此时调用 {@link #connect()} 建连。
+     * 同时在后台补齐空闲或断开的槽位
+     */
+    public Channel select() {
+        int size = slots.length();
+        // 从随机位置开始扫描，负载相同时不总是选中第一个连接
+        int start = size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+        Channel best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        boolean bestWritable = false;
+        int emptySlot = -1;
+        for (int i = 0; i < size; i++) {
+            int slot = (start + i) % size;
+            Channel channel = channelOf(slots.get(slot));
+            if (channel == null) {
+                if (emptySlot < 0 && isEmpty(slots.get(slot))) {
+                    emptySlot = slot;
+                }
+                continue;
+            }
+            boolean writable = channel.isWritable();
+            int load = inFlight(channel);
+            if (best == null || (writable && !bestWritable) || (writable == bestWritable && load < bestLoad)) {
+                best = channel;
+                bestLoad = load;
+                bestWritable = writable;
+            }
+        }
+        if (best != null) {
+            selections.increment();
+            if (!bestWritable) {
+                unwritableSelections.increment();
+            }
+            if (emptySlot >= 0 && !coolingDown()) {
+                connect(emptySlot);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 没有可用连接时调用。已有槽位在建连时共享它的 Future，否则占用一个空槽位建连，
+     * 即没有可用连接时每个地址同时只有一次建连；冷却期内或连接池已关闭时返回失败的 Future
+     */
+    public CompletableFuture<Channel> connect() {
+        if (closed || coolingDown()) {
+            rejectedConnects.increment();
+            CompletableFuture<Channel> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE,
+                    address + (closed ? " closed" : " cooling down")));
+            return failed;
+        }
+        for (int slot = 0; slot < slots.length(); slot++) {
+            CompletableFuture<Channel> future = slots.get(slot);
+            // 正在建连，或刚有其他线程建好了连接
+            if (future != null && (!future.isDone() || channelOf(future) != null)) {
+                return future;
+            }
+        }
+        for (int slot = 0; slot < slots.length(); slot++) {
+            CompletableFuture<Channel> connecting = connect(slot);
+            if (connecting != null) {
+                return connecting;
+            }
+        }
+        // 槽位被其他线程抢先占用，重新检查一遍
+        return connect();
+    }
+
+    /**
+     * 在指定槽位建连，槽位已被其他线程占用时返回 null
+     */
+    private CompletableFuture<Channel> connect(int slot) {
+        CompletableFuture<Channel> current = slots.get(slot);
+        if (!isEmpty(current)) {
+            return null;
+        }
+        CompletableFuture<Channel> future = new CompletableFuture<>();
+        if (!slots.compareAndSet(slot, current, future)) {
+            return null;
+        }
+        connector.apply(address).whenComplete((channel, cause) -> {
+            if (cause != null) {
+                connectFailures.increment();
+                int failures = consecutiveFailures.incrementAndGet();
+                long cooldownSeconds = 1L << Math.min(failures - 1, MAX_RETRY);
+                cooldownUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(cooldownSeconds);
+                log.warn("connect [{}] for channel pool slot {} failed, cooling down {}s: {}",
+                        address, slot, cooldownSeconds, cause.getMessage());
+                future.completeExceptionally(cause);
+            } else if (closed) {
+                // 建连期间连接池被关闭
+                channel.close();
+                future.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE, address + " closed"));
+            } else {
+                consecutiveFailures.set(0);
+                cooldownUntil = 0;
+                connects.increment();
+                log.info("channel pool [{}] slot {} connected: {}", address, slot, channel);
+                future.complete(channel);
+            }
+        });
+        return future;
+    }
+
+    private boolean coolingDown() {
+        long until = cooldownUntil;
+        return until != 0 && System.nanoTime() - until < 0;
+    }
+
+    /**
+     * 槽位是否需要（重新）建连：从未建连、建连失败或连接已断开
+     */
+    private static boolean isEmpty(CompletableFuture<Channel> future) {
+        if (future == null) {
+            return true;
+        }
+        if (!future.isDone()) {
+            return false;
+        }
+        return future.isCompletedExceptionally() || !future.join().isActive();
+    }
+
+    private static Channel channelOf(CompletableFuture<Channel> future) {
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        Channel channel = future.join();
+        return channel.isActive() ? channel : null;
+    }
+
+    private static int inFlight(Channel channel) {
+        PendingRpcRequests pendingRpcRequests = channel.attr(PendingRpcRequests.KEY).get();
+        return pendingRpcRequests == null ? 0 : pendingRpcRequests.inFlight();
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * 连接池大小
+     */
+    public int getSize() {
+        return slots.length();
+    }
+
+    /**
+     * 可用的连接数
+     */
+    public int getActiveCount() {
+        int active = 0;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            if (channelOf(slots.get(slot)) != null) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * 所有连接上的在途请求数
+     */
+    public int getInFlight() {
+        int inFlight = 0;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Channel channel = channelOf(slots.get(slot));
+            if (channel != null) {
+                inFlight += inFlight(channel);
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * 利用率：有在途请求的连接占连接池大小的比例
+     */
+    public double getUtilization() {
+        int busy = 0;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Channel channel = channelOf(slots.get(slot));
+            if (channel != null && inFlight(channel) > 0) {
+                busy++;
+            }
+        }
+        return (double) busy / slots.length();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public long getSelections() {
+        return selections.sum();
+    }
+
+    public long getUnwritableSelections() {
+        return unwritableSelections.sum();
+    }
+
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.sum();
+    }
+
+    public long getRejectedConnects() {
+        return rejectedConnects.sum();
+    }
+
+    /**
+     * 关闭所有连接，之后不再建连
+     */
+    public void close() {
+        closed = true;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Channel channel = channelOf(slots.get(slot));
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 不再建连，空闲的连接立即关闭，有在途请求的连接等请求全部完成后关闭，最多等待 DRAIN_TIMEOUT_SECONDS。
+     * 用于服务端地址从注册中心下线，在途请求不因为连接被关闭而失败
+     */
+    public void closeWhenIdle() {
+        closed = true;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Channel channel = channelOf(slots.get(slot));
+            if (channel != null) {
+                closeWhenIdle(channel, deadline);
+            }
+        }
+    }
+
+    private static void closeWhenIdle(Channel channel, long deadline) {
+        if (inFlight(channel) == 0 || System.nanoTime() - deadline >= 0) {
+            channel.close();
+            return;
+        }
+        channel.eventLoop().schedule(() -> closeWhenIdle(channel, deadline), DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ChannelPool{address=").append(address)
+                .append(", size=").append(getSize())
+                .append(", active=").append(getActiveCount())
+                .append(", inFlight=").append(getInFlight())
+                .append(", utilization=").append(String.format("%.2f", getUtilization()))
+                .append(", selections=").append(getSelections())
+                .append(", unwritableSelections=").append(getUnwritableSelections())
+                .append(", connects=").append(getConnects())
+                .append(", connectFailures=").append(getConnectFailures())
+                .append(", rejectedConnects=").append(getRejectedConnects())
+                .append(", coolingDown=").append(coolingDown())
+                .append(", channels=[");
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Channel channel = channelOf(slots.get(slot));
+            sb.append(slot == 0 ? "" : ", ").append(channel == null ? "-" : String.valueOf(inFlight(channel)));
+        }
+        return sb.append("]}").toString();
+    }
+}
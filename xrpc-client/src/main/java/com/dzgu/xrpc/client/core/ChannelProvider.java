@@ -3,38 +3,96 @@ package com.dzgu.xrpc.client.core;
 import io.netty.channel.Channel;
 
 import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
- * @description: channel复用
+ * @description: channel复用，每个服务端地址一个连接池
  * @Author： dzgu
  * @Date： 2022/4/25 9:03
  */
 public class ChannelProvider {
-    private final Map<InetSocketAddress, Channel> channelMap;
+    private final Map<InetSocketAddress, ChannelPool> channelPoolMap;
+    /**
+     * 每个服务端地址的连接数
+     */
+    private final int poolSize;
+    private final Function<InetSocketAddress, CompletableFuture<Channel>> connector;
+    /**
+     * 每个地址被多少个 Endpoint 引用，通过 acquire / release 维护
+     */
+    private final Map<InetSocketAddress, Integer> references = new HashMap<>();
 
-    public ChannelProvider() {
-        channelMap = new ConcurrentHashMap<>();
+    public ChannelProvider(int poolSize, Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        this.channelPoolMap = new ConcurrentHashMap<>();
+        this.poolSize = poolSize;
+        this.connector = connector;
     }
 
-    public Channel get(InetSocketAddress key) {
-        if (channelMap.containsKey(key)) {
-            Channel channel = channelMap.get(key);
-            if (channel != null && channel.isActive()) {
-                return channel;
-            } else {
-                channelMap.remove(key);
+    public ChannelPool get(InetSocketAddress key) {
+        ChannelPool pool = channelPoolMap.get(key);
+        if (pool == null) {
+            pool = channelPoolMap.computeIfAbsent(key, address -> new ChannelPool(address, poolSize, connector));
+        }
+        return pool;
+    }
+
+    /**
+     * 获取地址的连接池并增加引用计数。多个服务部署在同一个服务端时共用一个连接池，
+     * 每个引用它的 Endpoint 获取一次，不再使用时调用 {@link #release(InetSocketAddress)}
+     */
+    public ChannelPool acquire(InetSocketAddress key) {
+        synchronized (references) {
+            references.merge(key, 1, Integer::sum);
+            return get(key);
+        }
+    }
+
+    /**
+     * 减少引用计数，没有服务再引用该地址时移除连接池，等在途请求完成后关闭连接
+     */
+    public void release(InetSocketAddress key) {
+        ChannelPool pool;
+        synchronized (references) {
+            Integer count = references.get(key);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                references.put(key, count - 1);
+                return;
             }
+            references.remove(key);
+            pool = channelPoolMap.remove(key);
+        }
+        if (pool != null) {
+            pool.closeWhenIdle();
+        }
+    }
+
+    public void remove(InetSocketAddress inetSocketAddress) {
+        ChannelPool pool = channelPoolMap.remove(inetSocketAddress);
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    public void close() {
+        for (ChannelPool pool : channelPoolMap.values()) {
+            pool.close();
         }
-        return null;
     }
 
-    public void set(InetSocketAddress inetSocketAddress, Channel channel) {
-        channelMap.put(inetSocketAddress, channel);
+    public Collection<ChannelPool> getPools() {
+        return channelPoolMap.values();
     }
 
-    public void remove(InetSocketAddress inetSocketAddress){
-        channelMap.remove(inetSocketAddress);
+    @Override
+    public String toString() {
+        return "ChannelProvider{poolSize=" + poolSize + ", pools=" + channelPoolMap.values() + '}';
     }
 }
@@ -0,0 +1,210 @@
+package com.dzgu.xrpc.client.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description: 一个服务端地址的熔断状态：关闭（正常）、打开（摘除）、半开（放出一个探测请求）。
+ * 请求完成时只更新计数，状态在选择节点时由 {@link OutlierDetector} 按当前时间推进，不需要定时任务。
+ * 打开期满后进入半开，探测请求成功则关闭，失败则再次打开，时长按连续熔断次数增加。
+ * 半开时只认领到探测令牌的请求的结果，熔断前发出、半开后才完成的请求不影响状态
+ * @Author： dzgu
+ * @Date： 2022/5/17 19:10
+ */
+@Slf4j
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final long REQUEST = 1L << 32;
+    /**
+     * 不是探测请求
+     */
+    public static final long NO_PROBE = 0;
+
+    private final String url;
+    private volatile State state = State.CLOSED;
+    /**
+     * 当前统计窗口内的计数，高 32 位为请求数，低 32 位为失败数，一次原子操作同时更新
+     */
+    private final AtomicLong counts = new AtomicLong();
+    /**
+     * 统计窗口的开始时间，第一次推进状态时确定
+     */
+    private volatile long windowStartNanos = Long.MIN_VALUE;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    /**
+     * 连续熔断的次数
+     */
+    private int ejections;
+    private long openUntilNanos;
+    private long closedAtNanos;
+    /**
+     * 半开状态下发出的探测请求的令牌，尚未发出时为 {@link #NO_PROBE}
+     */
+    private final AtomicLong probe = new AtomicLong(NO_PROBE);
+    /**
+     * 生成探测令牌，每次半开时的探测请求各不相同
+     */
+    private final AtomicLong probeSequence = new AtomicLong();
+    /**
+     * 探测请求的结果：0 未完成，1 成功，-1 失败
+     */
+    private volatile int probeResult;
+
+    public CircuitBreaker(String url) {
+        this.url = url;
+    }
+
+    /**
+     * 请求发往该地址。半开时第一个请求领到探测令牌，并发选中该地址的其他请求的结果不计入
+     *
+     * @return 探测令牌，不是探测请求时返回 {@link #NO_PROBE}，完成时传给 {@link #onComplete(long, boolean)}
+     */
+    public long onSend() {
+        if (state != State.HALF_OPEN || probe.get() != NO_PROBE) {
+            return NO_PROBE;
+        }
+        long token = probeSequence.incrementAndGet();
+        return probe.compareAndSet(NO_PROBE, token) ? token : NO_PROBE;
+    }
+
+    /**
+     * 不是探测请求的请求完成
+     */
+    public void onComplete(boolean success) {
+        onComplete(NO_PROBE, success);
+    }
+
+    /**
+     * 请求完成。连接失败、超时、服务端过载计为失败，服务端返回的业务异常不计为失败
+     *
+     * @param token 发出时 {@link #onSend()} 返回的探测令牌
+     */
+    public void onComplete(long token, boolean success) {
+        State current = state;
+        if (current == State.HALF_OPEN) {
+            // 只认本次半开的探测请求，熔断前发出的请求和上一次半开的探测请求迟到的结果都忽略
+            if (token != NO_PROBE && token == probe.get()) {
+                probeResult = success ? 1 : -1;
+            }
+            return;
+        }
+        if (current == State.OPEN) {
+            // 摘除前发出的请求
+            return;
+        }
+        counts.addAndGet(success ? REQUEST : REQUEST + 1);
+        if (!success) {
+            consecutiveFailures.incrementAndGet();
+        } else if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 是否可以交给负载均衡：关闭状态，或者半开且还没有发出探测请求
+     */
+    boolean isAvailable() {
+        State current = state;
+        return current == State.CLOSED || (current == State.HALF_OPEN && probe.get() == NO_PROBE);
+    }
+
+    /**
+     * 按当前时间推进状态：打开期满进入半开，半开时按探测结果关闭或再次打开，关闭时滚动统计窗口
+     */
+    State evaluate(CircuitBreakerPolicy policy, long now) {
+        State current = state;
+        if (current == State.CLOSED) {
+            long windowStart = windowStartNanos;
+            if (windowStart == Long.MIN_VALUE) {
+                windowStartNanos = now;
+            } else if (now - windowStart >= policy.windowNanos()) {
+                // 与并发的计数更新竞争时丢失少量样本，不影响判断
+                windowStartNanos = now;
+                counts.set(0);
+            }
+            return current;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && now - openUntilNanos >= 0) {
+                probeResult = 0;
+                probe.set(NO_PROBE);
+                state = State.HALF_OPEN;
+                log.info("circuit breaker of [{}] half-open", url);
+            } else if (state == State.HALF_OPEN && probeResult != 0) {
+                if (probeResult > 0) {
+                    close(now);
+                } else {
+                    open(policy, now, "probe failed");
+                }
+            }
+            return state;
+        }
+    }
+
+    /**
+     * 关闭状态下是否达到熔断条件，返回原因，未达到时返回 null
+     */
+    String tripReason(CircuitBreakerPolicy policy) {
+        int consecutive = consecutiveFailures.get();
+        if (policy.getConsecutiveFailures() > 0 && consecutive >= policy.getConsecutiveFailures()) {
+            return consecutive + " consecutive failures";
+        }
+        long c = counts.get();
+        int requests = (int) (c >>> 32);
+        int failures = (int) c;
+        if (policy.getErrorRate() > 0 && requests >= policy.getMinRequests() && failures >= requests * policy.getErrorRate()) {
+            return "error rate " + failures + "/" + requests;
+        }
+        return null;
+    }
+
+    /**
+     * 打开熔断器
+     *
+     * @return 已经不是关闭状态时返回 false
+     */
+    synchronized boolean trip(CircuitBreakerPolicy policy, long now, String reason) {
+        if (state != State.CLOSED) {
+            return false;
+        }
+        if (ejections > 0 && now - closedAtNanos >= policy.maxEjectionNanos()) {
+            // 恢复后稳定了足够长时间，不再按连续熔断累加时长
+            ejections = 0;
+        }
+        open(policy, now, reason);
+        return true;
+    }
+
+    private void open(CircuitBreakerPolicy policy, long now, String reason) {
+        ejections++;
+        long ejectionNanos = policy.ejectionNanos(ejections);
+        openUntilNanos = now + ejectionNanos;
+        state = State.OPEN;
+        log.warn("circuit breaker of [{}] opened for {}ms: {}", url, ejectionNanos / 1000000, reason);
+    }
+
+    private void close(long now) {
+        counts.set(0);
+        consecutiveFailures.set(0);
+        windowStartNanos = now;
+        closedAtNanos = now;
+        state = State.CLOSED;
+        log.info("circuit breaker of [{}] closed", url);
+    }
+
+    @Override
+    public String toString() {
+        long c = counts.get();
+        return "CircuitBreaker{state=" + state + ", requests=" + (c >>> 32) + ", failures=" + (int) c
+                + ", consecutiveFailures=" + consecutiveFailures.get() + '}';
+    }
+}
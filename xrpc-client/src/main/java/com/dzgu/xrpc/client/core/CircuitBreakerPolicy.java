@@ -0,0 +1,79 @@
+package com.dzgu.xrpc.client.core;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 熔断与离群摘除的阈值，所有服务共用
+ * @Author： dzgu
+ * @Date： 2022/5/17 19:00
+ */
+@Data
+@Accessors(chain = true)
+public class CircuitBreakerPolicy {
+    /**
+     * 是否启用，未启用时不摘除任何节点
+     */
+    private boolean enabled = true;
+    /**
+     * 连续失败多少次后熔断，0 表示不按连续失败熔断
+     */
+    private int consecutiveFailures = 5;
+    /**
+     * 统计窗口内失败率达到该值时熔断，0 表示不按失败率熔断
+     */
+    private double errorRate = 0.5;
+    /**
+     * 统计窗口内请求数达到该值才按失败率判断
+     */
+    private int minRequests = 20;
+    /**
+     * 失败率的统计窗口，毫秒
+     */
+    private long windowMillis = 10000;
+    /**
+     * 第一次熔断的时长，毫秒，之后每次连续熔断增加一倍基础时长
+     */
+    private long baseEjectionMillis = 30000;
+    /**
+     * 熔断时长的上限，毫秒。恢复后超过这个时间没有再熔断，熔断时长重新从基础时长开始
+     */
+    private long maxEjectionMillis = 300000;
+    /**
+     * 一个服务最多摘除的节点比例，百分比，向下取整。只有一个节点时不摘除
+     */
+    private int maxEjectionPercent = 50;
+    /**
+     * 延迟超过各节点延迟中位数的多少倍时摘除，0 表示不按延迟摘除
+     */
+    private double latencyFactor = 3;
+    /**
+     * 延迟低于该值的节点不按延迟摘除，毫秒
+     */
+    private long minOutlierLatencyMillis = 50;
+    /**
+     * 按延迟检查离群节点的间隔，毫秒
+     */
+    private long latencyIntervalMillis = 10000;
+
+    long windowNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * 第 ejections 次连续熔断的时长
+     */
+    long ejectionNanos(int ejections) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.min(baseEjectionMillis * ejections, maxEjectionMillis));
+    }
+
+    long maxEjectionNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(maxEjectionMillis);
+    }
+
+    long latencyIntervalNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(latencyIntervalMillis);
+    }
+}
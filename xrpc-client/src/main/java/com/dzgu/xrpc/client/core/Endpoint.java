@@ -0,0 +1,65 @@
+package com.dzgu.xrpc.client.core;
+
+import java.net.InetSocketAddress;
+
+/**
+ * @description: 一个服务端地址。地址在注册中心推送时解析一次，连接池在创建时绑定，调用路径上不再解析字符串或查表
+ * @Author： dzgu
+ * @Date： 2022/5/16 16:20
+ */
+public class Endpoint {
+    /**
+     * 注册中心中的地址，host:port
+     */
+    private final String url;
+    private final InetSocketAddress address;
+    private final ChannelPool channelPool;
+    private final EndpointStats stats = new EndpointStats();
+    private final CircuitBreaker circuitBreaker;
+
+    public Endpoint(String url, InetSocketAddress address, ChannelPool channelPool) {
+        this.url = url;
+        this.address = address;
+        this.channelPool = channelPool;
+        this.circuitBreaker = new CircuitBreaker(url);
+    }
+
+    /**
+     * 解析 host:port
+     */
+    public static InetSocketAddress parseAddress(String url) {
+        int colon = url.lastIndexOf(':');
+        return new InetSocketAddress(url.substring(0, colon), Integer.parseInt(url.substring(colon + 1)));
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public ChannelPool getChannelPool() {
+        return channelPool;
+    }
+
+    /**
+     * 在途请求数和延迟统计，地址推送更新时随 Endpoint 一起保留
+     */
+    public EndpointStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 熔断状态，地址推送更新时随 Endpoint 一起保留
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
@@ -0,0 +1,69 @@
+package com.dzgu.xrpc.client.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @description: 某个服务的全部服务端地址的不可变快照。注册中心推送变更时整体替换，版本号加一；
+ * 同一版本内 urls 是同一个对象，负载均衡可以据此缓存按地址列表构建的结构
+ * @Author： dzgu
+ * @Date： 2022/5/16 16:25
+ */
+public final class EndpointSnapshot {
+    public static final EndpointSnapshot EMPTY = new EndpointSnapshot(0, new Endpoint[0]);
+
+    private final long version;
+    private final Endpoint[] endpoints;
+    private final List<String> urls;
+
+    public EndpointSnapshot(long version, Endpoint[] endpoints) {
+        this.version = version;
+        this.endpoints = endpoints;
+        String[] urlArray = new String[endpoints.length];
+        for (int i = 0; i < endpoints.length; i++) {
+            urlArray[i] = endpoints[i].getUrl();
+        }
+        this.urls = Collections.unmodifiableList(Arrays.asList(urlArray));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return endpoints.length;
+    }
+
+    public boolean isEmpty() {
+        return endpoints.length == 0;
+    }
+
+    public Endpoint get(int index) {
+        return endpoints[index];
+    }
+
+    /**
+     * 全部地址，不可修改
+     */
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    /**
+     * 按地址查找，不存在时返回 null
+     */
+    public Endpoint find(String url) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getUrl().equals(url)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointSnapshot{version=" + version + ", endpoints=" + urls + '}';
+    }
+}
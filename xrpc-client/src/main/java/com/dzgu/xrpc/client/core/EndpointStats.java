@@ -0,0 +1,96 @@
+package com.dzgu.xrpc.client.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @description: 一个服务端地址的在途请求数和 Peak-EWMA 延迟，请求完成（收到响应、失败或超时）时更新。
+ * 延迟高于当前值时直接取新值，慢节点立即被发现；低于当前值时按距上次更新的时间指数衰减，
+ * 没有新样本时读到的值也随时间衰减到 0，被避开的节点过一段时间会重新得到请求
+ * @Author： dzgu
+ * @Date： 2022/5/17 9:30
+ */
+public class EndpointStats {
+    /**
+     * 衰减时间常数，与 Finagle 的默认值相同
+     */
+    public static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    /**
+     * 失败（连接失败、过载）的请求按这个延迟计入，避免快速失败的节点吸走流量
+     */
+    public static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * 延迟估计，纳秒，0 表示还没有样本
+     */
+    private volatile double ewmaNanos;
+    private volatile long lastUpdateNanos;
+
+    /**
+     * 发出请求
+     */
+    public void onSend() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * 请求完成
+     *
+     * @param rttNanos 从发出到完成的时间
+     * @param now      当前时间，System.nanoTime()
+     * @param success  是否收到正常响应
+     */
+    public void onComplete(long rttNanos, long now, boolean success) {
+        inFlight.decrementAndGet();
+        observe(success ? rttNanos : Math.max(rttNanos, FAILURE_PENALTY_NANOS), now);
+    }
+
+    private synchronized void observe(long rttNanos, long now) {
+        double ewma = ewmaNanos;
+        if (rttNanos > ewma) {
+            ewmaNanos = rttNanos;
+        } else {
+            double w = Math.exp(-Math.max(now - lastUpdateNanos, 0) / (double) DECAY_NANOS);
+            ewmaNanos = ewma * w + rttNanos * (1 - w);
+        }
+        lastUpdateNanos = now;
+    }
+
+    /**
+     * 当前的延迟估计，按距上次更新的时间衰减
+     */
+    public double latencyNanos(long now) {
+        return decayed(now);
+    }
+
+    /**
+     * 选择代价：延迟估计 ×（在途请求数 + 1）。还没有样本的节点在途请求为 0 时代价最低，
+     * 有在途请求时按失败惩罚计算，第一个响应回来前不再继续压给它
+     */
+    public double cost(long now) {
+        int pending = inFlight.get();
+        double latency = decayed(now);
+        if (latency == 0) {
+            return pending == 0 ? 0 : FAILURE_PENALTY_NANOS + pending;
+        }
+        return latency * (pending + 1);
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private double decayed(long now) {
+        // 两个字段分开读，并发更新时可能读到新旧混合的值，只影响一次选择
+        double ewma = ewmaNanos;
+        long elapsed = now - lastUpdateNanos;
+        return elapsed <= 0 ? ewma : ewma * Math.exp(-elapsed / (double) DECAY_NANOS);
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointStats{inFlight=" + inFlight.get()
+                + ", latencyMs=" + String.format("%.2f", latencyNanos(System.nanoTime()) / 1e6) + '}';
+    }
+}
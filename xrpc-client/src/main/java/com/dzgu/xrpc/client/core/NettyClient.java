@@ -1,33 +1,39 @@
 package com.dzgu.xrpc.client.core;
 
-import com.dzgu.xrpc.client.async.ResponseCallback;
 import com.dzgu.xrpc.client.async.RpcContext;
 import com.dzgu.xrpc.client.async.RpcFuture;
+import com.dzgu.xrpc.codec.FlushBatchHandler;
+import com.dzgu.xrpc.codec.RpcCodec;
 import com.dzgu.xrpc.codec.RpcDecoder;
 import com.dzgu.xrpc.codec.RpcEncoder;
 import com.dzgu.xrpc.codec.Spliter;
+import com.dzgu.xrpc.compress.CompressPolicy;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionarySession;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
 import com.dzgu.xrpc.dto.RpcMessage;
-import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.dto.RpcResponse;
 import com.dzgu.xrpc.exception.RpcException;
-import com.dzgu.xrpc.util.SingletonFactory;
+import com.dzgu.xrpc.transport.NettyTransport;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
-import lombok.SneakyThrows;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static com.dzgu.xrpc.consts.RpcConstants.MAX_RETRY;
-
 /**
  * @description: Netty 客户端
  * @Author： dzgu
@@ -38,13 +44,42 @@ public class NettyClient {
     private final ChannelProvider channelProvider;
     private final Bootstrap bootstrap;
     private final EventLoopGroup eventLoopGroup;
-    private final PendingRpcRequests pendingRpcRequests;
+    /**
+     * 请求超时的时间轮，登记和取消都是 O(1)，与在途请求数无关。精度 10ms
+     */
+    private final HashedWheelTimer timeoutTimer;
+    /**
+     * 本客户端的编解码器，压缩策略只属于这个客户端，不与同一进程中的服务端共用
+     */
+    private final RpcCodec codec = new RpcCodec();
+    /**
+     * 合并 flush 的配置，maxMessages 为 0 时不启用，建连时读取
+     */
+    private volatile int flushMaxMessages;
+    private volatile int flushMaxBytes;
 
     public NettyClient() {
-        eventLoopGroup = new NioEventLoopGroup();
+        this(1);
+    }
+
+    /**
+     * @param channelPoolSize 每个服务端地址的连接数
+     */
+    public NettyClient(int channelPoolSize) {
+        this(channelPoolSize, NettyTransport.NIO.getName());
+    }
+
+    /**
+     * @param channelPoolSize 每个服务端地址的连接数
+     * @param transport       传输层，nio 或 epoll，epoll 不可用时退回 nio
+     */
+    public NettyClient(int channelPoolSize, String transport) {
+        NettyTransport nettyTransport = NettyTransport.resolve(transport);
+        eventLoopGroup = nettyTransport.eventLoopGroup(0, new DefaultThreadFactory("xrpc-client-worker"));
         bootstrap = new Bootstrap();
+        nettyTransport.configure(bootstrap);
         bootstrap.group(eventLoopGroup)
-                .channel(NioSocketChannel.class)
+                .channel(nettyTransport.channelClass())
                 .handler(new LoggingHandler(LogLevel.INFO))
                 // 连接超时时间
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
@@ -55,139 +90,283 @@ public class NettyClient {
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
+                        // 服务端下发的压缩字典按连接保存
+                        ch.attr(ZstdDictionarySession.KEY).set(new ZstdDictionarySession(ch));
+                        ch.attr(PendingRpcRequests.KEY).set(new PendingRpcRequests());
+                        if (flushMaxMessages > 0) {
+                            // 合并调用方线程并发发出的请求的 flush
+                            ch.pipeline().addLast(new FlushBatchHandler(flushMaxMessages, flushMaxBytes));
+                        }
                         ch.pipeline().addLast(new IdleStateHandler(0, 5, 0, TimeUnit.SECONDS));
-                        ch.pipeline().addLast(new RpcEncoder());
+                        ch.pipeline().addLast(new RpcEncoder(codec));
                         ch.pipeline().addLast(new Spliter());
-                        ch.pipeline().addLast(new RpcDecoder());
+                        ch.pipeline().addLast(new RpcDecoder(codec));
                         ch.pipeline().addLast(new NettyClientHandler());
                     }
                 });
-        this.channelProvider = SingletonFactory.getInstance(ChannelProvider.class);
-        this.pendingRpcRequests = SingletonFactory.getInstance(PendingRpcRequests.class);
+        this.channelProvider = new ChannelProvider(channelPoolSize, this::doConnect);
+        this.timeoutTimer = new HashedWheelTimer(new DefaultThreadFactory("xrpc-client-timeout"), 10, TimeUnit.MILLISECONDS, 512);
+    }
+
+
+    /**
+     * 配置合并 flush，对之后建立的连接生效
+     *
+     * @param enabled     是否启用
+     * @param maxMessages 攒够多少条消息时立即刷出
+     * @param maxBytes    攒够多少字节时立即刷出
+     */
+    public void configureFlush(boolean enabled, int maxMessages, int maxBytes) {
+        this.flushMaxBytes = maxBytes;
+        this.flushMaxMessages = enabled ? maxMessages : 0;
+        log.info("client flush batch configured, enabled: {}, maxMessages: {}, maxBytes: {}", enabled, maxMessages, maxBytes);
+    }
+
+    /**
+     * 在请求超时的时间轮上登记一个延迟任务，精度 10ms
+     */
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return timeoutTimer.newTimeout(task, delay, unit);
+    }
+
+    /**
+     * 地址对应的 Endpoint，绑定该地址的连接池
+     *
+     * @param url host:port
+     */
+    public Endpoint endpoint(String url) {
+        InetSocketAddress address = Endpoint.parseAddress(url);
+        return new Endpoint(url, address, channelProvider.get(address));
     }
 
+    /**
+     * 服务地址目录中长期持有的 Endpoint，引用该地址的连接池，不再使用时调用 {@link #release(Endpoint)}
+     */
+    public Endpoint acquireEndpoint(String url) {
+        InetSocketAddress address = Endpoint.parseAddress(url);
+        return new Endpoint(url, address, channelProvider.acquire(address));
+    }
+
+    /**
+     * 地址从服务地址目录中移除，没有其他服务引用该地址时关闭它的连接池
+     */
+    public void release(Endpoint endpoint) {
+        channelProvider.release(endpoint.getAddress());
+    }
 
     public RpcResponse<Object> sendRequest(RpcMessage rpcMessage, String targetServiceUrl, boolean isAsync) {
-        String[] socketAddressArray = targetServiceUrl.split(":");
-        String host = socketAddressArray[0];
-        int port = Integer.parseInt(socketAddressArray[1]);
-        InetSocketAddress remoteaddress = new InetSocketAddress(host, port);
+        return sendRequest(rpcMessage, endpoint(targetServiceUrl), isAsync);
+    }
+
+    public RpcResponse<Object> sendRequest(RpcMessage rpcMessage, Endpoint endpoint, boolean isAsync) {
         // 构造返回Future
         RpcFuture resultFuture = new RpcFuture();
-        // Channel复用，获取之前连接过的或者断线重连得Netty Channel
-        Channel channel = getChannel(remoteaddress);
         if (isAsync) {
-            return sendAsyncRequest(channel, resultFuture, rpcMessage);
-        } else {
-            return sendSyncRequest(channel, resultFuture, rpcMessage);
+            resultFuture.setResponseCallback(RpcContext.getCallback());
         }
+        dispatch(rpcMessage, endpoint, resultFuture);
+        if (isAsync) {
+            // 直接返回空的数据体
+            return RpcResponse.success(null);
+        }
+        return waitResponse(resultFuture);
+    }
 
-
+    /**
+     * 发送请求，调用方线程不等待，收到响应、失败或超时时完成返回的 CompletableFuture
+     *
+     * @param executor 完成 CompletableFuture 的线程池，为 null 时在 IO 线程上直接完成
+     * @return 响应的数据体，服务端返回失败时异常完成
+     */
+    public CompletableFuture<Object> sendRequestAsync(RpcMessage rpcMessage, String targetServiceUrl, Executor executor) {
+        return sendRequestAsync(rpcMessage, endpoint(targetServiceUrl), executor);
     }
 
-    private RpcResponse<Object> sendAsyncRequest(Channel channel, RpcFuture resultFuture, RpcMessage rpcMessage) {
-        RpcResponse<Object> rpcResponse = null;
-        String requestId = ((RpcRequest) rpcMessage.getData()).getRequestId();
-        ResponseCallback callback = RpcContext.getCallback();
-        resultFuture.setResponseCallback(callback);
+    public CompletableFuture<Object> sendRequestAsync(RpcMessage rpcMessage, Endpoint endpoint, Executor executor) {
+        RpcFuture resultFuture = new RpcFuture();
+        CompletableFuture<Object> completableFuture = new CompletableFuture<>();
+        resultFuture.setResultFuture(completableFuture, executor);
         try {
-            pendingRpcRequests.put(requestId, resultFuture);
-            // 发送请求
-            channel.writeAndFlush(rpcMessage).addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture future) {
-                    if (future.isSuccess()) {
-                        log.info("client send message: [{}]", rpcMessage);
-                    } else {
-                        future.channel().close();
-                        log.error("Send failed:", future.cause());
-                    }
+            dispatch(rpcMessage, endpoint, resultFuture);
+        } catch (RpcException e) {
+            resultFuture.fail(e);
+        }
+        return completableFuture;
+    }
+
+    private void dispatch(RpcMessage rpcMessage, Endpoint endpoint, RpcFuture resultFuture) {
+        // 超时从发起调用开始计算，包含建连时间；同步和异步调用都会到期失败
+        long timeout = rpcMessage.getTimeout() > 0 ? rpcMessage.getTimeout() : RpcConstants.DEFAULT_TIMEOUT;
+        if (rpcMessage.getDeadlineNanos() != 0) {
+            // 有截止时间时（重试、嵌套调用）不超过剩余的时间，已过期的请求不再发送
+            long remaining = TimeUnit.NANOSECONDS.toMillis(rpcMessage.getDeadlineNanos() - System.nanoTime());
+            if (remaining <= 0) {
+                resultFuture.fail(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT,
+                        "deadline exceeded, requestId: " + rpcMessage.getRequestId()));
+                return;
+            }
+            timeout = Math.min(timeout, remaining);
+        }
+        resultFuture.setEndpoint(endpoint);
+        RequestTimeoutTask timeoutTask = new RequestTimeoutTask(resultFuture, rpcMessage.getRequestId());
+        resultFuture.setTimeout(timeoutTimer.newTimeout(timeoutTask, timeout, TimeUnit.MILLISECONDS));
+        // Channel复用，有可用连接时直接写出，否则在建连完成后写出，调用方线程不等待建连
+        ChannelPool channelPool = endpoint.getChannelPool();
+        Channel channel = channelPool.select();
+        if (channel != null) {
+            write(channel, timeoutTask, rpcMessage);
+        } else {
+            channelPool.connect().whenComplete((connected, cause) -> {
+                if (cause != null) {
+                    resultFuture.fail(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE, endpoint.getUrl()));
+                } else if (!resultFuture.isDone()) {
+                    // 已超时的请求不再发送
+                    writeQuietly(connected, timeoutTask, rpcMessage);
                 }
             });
-            // 直接返回空的数据体
-            rpcResponse = RpcResponse.success(null, requestId);
-        } catch (Exception e) {
-            pendingRpcRequests.remove(requestId);
-            log.error("send request error: " + e.getMessage());
-            throw new RpcException("send request error:", e);
         }
-        return rpcResponse;
     }
 
-    private RpcResponse<Object> sendSyncRequest(Channel channel, RpcFuture resultFuture, RpcMessage rpcMessage) {
-        RpcResponse<Object> rpcResponse = null;
-        String requestId = ((RpcRequest) rpcMessage.getData()).getRequestId();
+    private RpcResponse<Object> waitResponse(RpcFuture resultFuture) {
         try {
-            // 将请求放入未完成请求的Map缓存中,key为请求的唯一ID, value存放异步回调Future
-            pendingRpcRequests.put(requestId, resultFuture);
-            // 发送请求
-            channel.writeAndFlush(rpcMessage).addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture future) {
-                    if (future.isSuccess()) {
-                        log.info("client send message: [{}]", rpcMessage);
-                    } else {
-                        future.channel().close();
-                        log.error("Send failed:", future.cause());
-                    }
-                }
-            });
-            // 阻塞等待调用请求的结果，当 Netty Client 收到对应请求的回复时，future.complete（response）,完成相应
-            rpcResponse = resultFuture.get(5, TimeUnit.SECONDS);
+            // 阻塞等待调用请求的结果（含建连时间），收到回复、连接断开或超时时唤醒
+            return resultFuture.get();
         } catch (Exception e) {
-            pendingRpcRequests.remove(requestId);
             log.error("send request error: " + e.getMessage());
+            throw new RpcException("send request error:", e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * 在建连回调中写出，失败时通过 Future 通知调用方
+     */
+    private void writeQuietly(Channel channel, RequestTimeoutTask timeoutTask, RpcMessage rpcMessage) {
+        try {
+            write(channel, timeoutTask, rpcMessage);
+        } catch (RpcException e) {
+            timeoutTask.future.fail(e);
+        }
+    }
+
+    /**
+     * 在 channel 的 EventLoop 中登记未完成请求并写出。登记和写出在同一个任务里，
+     * 响应不会先于登记到达；连接已断开时写出失败，请求随之失败
+     */
+    private void write(Channel channel, RequestTimeoutTask timeoutTask, RpcMessage rpcMessage) {
+        PendingRpcRequests pendingRpcRequests = channel.attr(PendingRpcRequests.KEY).get();
+        // 先计入在途请求，并发选择连接时能看到
+        pendingRpcRequests.reserve();
+        try {
+            channel.eventLoop().execute(() -> send(channel, pendingRpcRequests, timeoutTask, rpcMessage));
+        } catch (RejectedExecutionException e) {
+            // 客户端已关闭
+            pendingRpcRequests.release();
             throw new RpcException("send request error:", e);
         }
-        return rpcResponse;
+    }
+
+    private void send(Channel channel, PendingRpcRequests pendingRpcRequests, RequestTimeoutTask timeoutTask, RpcMessage rpcMessage) {
+        int requestId = rpcMessage.getRequestId();
+        RpcFuture resultFuture = timeoutTask.future;
+        // 将请求放入该连接未完成请求的表中, key为帧头的请求ID, value存放异步回调Future
+        pendingRpcRequests.put(requestId, resultFuture);
+        timeoutTask.channel = channel;
+        if (resultFuture.isDone()) {
+            // 排队期间已超时，不再发送
+            pendingRpcRequests.remove(requestId, resultFuture);
+            return;
+        }
+        channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                log.info("client send message: [{}]", rpcMessage);
+            } else {
+                log.error("Send failed:", future.cause());
+                if (pendingRpcRequests.remove(requestId, resultFuture)) {
+                    resultFuture.fail(new RpcException("send request error:", future.cause()));
+                }
+                future.channel().close();
+            }
+        });
     }
 
     /**
-     * 获取和指定地址连接的 channel，Channel复用，不用每次请求都重新连接
-     * 如果获取不到，则新建连接（重连）
+     * 从指定地址的连接池中获取最空闲的 channel，Channel复用，不用每次请求都重新连接。
+     * 没有可用连接时建连，同一槽位的并发调用共享一次建连；建连失败后冷却期内直接失败
      *
      * @param inetSocketAddress 待连接scoket地址
-     * @return: {@link Channel} 获取到的连接
-     */
-    @SneakyThrows
-    public Channel getChannel(InetSocketAddress inetSocketAddress) {
-        Channel channel = channelProvider.get(inetSocketAddress);
-        if (channel == null) {
-            // 阻塞等待，获取连接成功的channel
-            CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
-            channel = doConnect(completableFuture, inetSocketAddress, MAX_RETRY).get();
-            channelProvider.set(inetSocketAddress, channel);
-        }
-        return channel;
+     * @return: 获取到的连接的 Future
+     */
+    public CompletableFuture<Channel> getChannelAsync(InetSocketAddress inetSocketAddress) {
+        ChannelPool channelPool = channelProvider.get(inetSocketAddress);
+        Channel channel = channelPool.select();
+        return channel != null ? CompletableFuture.completedFuture(channel) : channelPool.connect();
     }
 
-
     /**
-     * 与服务端建立连接
+     * 与服务端建立连接，只尝试一次，失败后的重连由连接池的冷却控制
      */
-    @SneakyThrows
-    public CompletableFuture<Channel> doConnect(CompletableFuture<Channel> completableFuture, InetSocketAddress inetSocketAddress, int retry) {
-        bootstrap.connect(inetSocketAddress).addListener(future -> {
+    private CompletableFuture<Channel> doConnect(InetSocketAddress inetSocketAddress) {
+        CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
+        bootstrap.connect(inetSocketAddress).addListener((ChannelFutureListener) future -> {
             if (future.isSuccess()) {
                 log.info("The client has connected [{}] successful!", inetSocketAddress.toString());
-                completableFuture.complete(((ChannelFuture) future).channel());
-            } else if (retry == 0) {
-                log.error("the number of retries expired, connect fail. address:", inetSocketAddress.toString());
+                completableFuture.complete(future.channel());
             } else {
-                // 当前是第几次重连
-                int now = MAX_RETRY - retry + 1;
-                // 本次重连的时间间隔
-                int delay = 1 << now;
-                log.warn("connect fail, attempt to reconnect. retry:" + now);
-                bootstrap.config().group().schedule(() ->
-                        doConnect(completableFuture, inetSocketAddress, retry - 1), delay, TimeUnit.SECONDS);
+                log.error("connect [{}] fail: {}", inetSocketAddress.toString(), future.cause().getMessage());
+                completableFuture.completeExceptionally(future.cause());
             }
         });
         return completableFuture;
     }
 
+    /**
+     * 请求超时任务。到期时让请求以超时失败，已登记到连接上的请求在该连接的 EventLoop 中移除，之后到达的响应直接丢弃
+     */
+    private static class RequestTimeoutTask implements TimerTask {
+        private final RpcFuture future;
+        private final int requestId;
+        /**
+         * 请求登记到的连接，在 EventLoop 中先登记再赋值
+         */
+        private volatile Channel channel;
+
+        RequestTimeoutTask(RpcFuture future, int requestId) {
+            this.future = future;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (!future.fail(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, "requestId: " + requestId))) {
+                return;
+            }
+            // 先失败再读 channel：send 中登记后会检查是否已完成，两边至少有一边能移除登记
+            Channel registered = channel;
+            if (registered != null) {
+                try {
+                    registered.eventLoop().execute(() -> registered.attr(PendingRpcRequests.KEY).get().remove(requestId, future));
+                } catch (RejectedExecutionException e) {
+                    // 客户端已关闭
+                }
+            }
+        }
+    }
+
+    /**
+     * 本客户端的压缩策略，在建连前配置
+     */
+    public CompressPolicy getCompressPolicy() {
+        return codec.getCompressPolicy();
+    }
+
+    public ChannelProvider getChannelProvider() {
+        return channelProvider;
+    }
+
     public void stop() {
+        channelProvider.close();
         eventLoopGroup.shutdownGracefully();
+        timeoutTimer.stop();
     }
 
 }
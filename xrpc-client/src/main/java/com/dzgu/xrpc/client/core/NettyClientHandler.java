@@ -1,11 +1,14 @@
 package com.dzgu.xrpc.client.core;
 
+import com.dzgu.xrpc.codec.RpcCodec;
 import com.dzgu.xrpc.consts.RpcConstants;
 import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
 import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcMethodTable;
 import com.dzgu.xrpc.dto.RpcResponse;
-import com.dzgu.xrpc.util.SingletonFactory;
+import com.dzgu.xrpc.exception.RpcException;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -21,13 +24,8 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Slf4j
 public class NettyClientHandler extends SimpleChannelInboundHandler<RpcMessage> {
-    private final PendingRpcRequests pendingRpcRequests;
     protected volatile Channel channel;
 
-    public NettyClientHandler() {
-        this.pendingRpcRequests = SingletonFactory.getInstance(PendingRpcRequests.class);
-    }
-
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         log.debug("Connect to server successfully:{}", ctx);
@@ -45,9 +43,30 @@ public class NettyClientHandler extends SimpleChannelInboundHandler<RpcMessage>
             log.debug("heart receive[{}]", rpcMessage.getData());
         } else if (messageType == RpcConstants.RESPONSE_TYPE) {
             RpcResponse<Object> rpcResponse = (RpcResponse<Object>) rpcMessage.getData();
-            // 调用结果响应 绑定到对应的请求
-            pendingRpcRequests.complete(rpcResponse);
+            // 调用结果响应 按帧头的请求ID绑定到对应的请求
+            if (!channelHandlerContext.channel().attr(PendingRpcRequests.KEY).get().complete(rpcMessage.getRequestId(), rpcResponse)) {
+                log.warn("no pending request for response [{}], maybe timed out", rpcMessage.getRequestId());
+            }
+        } else if (messageType == RpcConstants.METHOD_TABLE_TYPE) {
+            // 之后该连接上的请求按 v2 协议编码
+            channelHandlerContext.channel().attr(RpcCodec.METHOD_TABLE_KEY).set((RpcMethodTable) rpcMessage.getData());
+        } else if (messageType == RpcConstants.DICTIONARY_TYPE) {
+            // 字典已在解码时保存到连接上
+            log.debug("zstd dictionary receive[{}]", rpcMessage.getData());
+        }
+    }
+
+    /**
+     * 连接断开，该连接上未完成的请求立即失败，不必等到超时
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        PendingRpcRequests pendingRpcRequests = ctx.channel().attr(PendingRpcRequests.KEY).get();
+        if (pendingRpcRequests != null) {
+            log.warn("connection to [{}] closed, fail {} pending requests", ctx.channel().remoteAddress(), pendingRpcRequests.size());
+            pendingRpcRequests.failAll(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE, String.valueOf(ctx.channel().remoteAddress())));
         }
+        super.channelInactive(ctx);
     }
 
     /**
@@ -61,7 +80,8 @@ public class NettyClientHandler extends SimpleChannelInboundHandler<RpcMessage>
                 log.debug("write idle happen [{}]", ctx.channel().remoteAddress());
                 RpcMessage rpcMessage = new RpcMessage();
                 rpcMessage.setCodec(SerializerTypeEnum.PROTOSTUFF.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                // 心跳没有消息体，不需要压缩
+                rpcMessage.setCompress(CompressTypeEnum.DUMMY.getCode());
                 rpcMessage.setMessageType(RpcConstants.HEARTBEAT_REQUEST_TYPE);
                 rpcMessage.setData(RpcConstants.PING);
                 channel.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
@@ -0,0 +1,156 @@
+package com.dzgu.xrpc.client.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description: 一个服务的离群节点摘除。每次调用选择节点前推进各节点的熔断状态，按连续失败和失败率熔断，
+ * 并定期把延迟远高于中位数的节点摘除，返回去掉被摘除节点的快照交给负载均衡。
+ * 摘除的节点数不超过 maxEjectionPercent，避免故障时把流量集中到少数节点上。
+ * 可用节点不变时返回同一个快照对象，负载均衡按地址列表缓存的结构不会失效
+ * @Author： dzgu
+ * @Date： 2022/5/17 19:30
+ */
+public class OutlierDetector {
+    private final CircuitBreakerPolicy policy;
+    /**
+     * 上一次过滤的结果
+     */
+    private volatile EndpointSnapshot available;
+    /**
+     * 下一次按延迟检查的时间，第一次过滤时确定
+     */
+    private final AtomicLong nextLatencyCheckNanos = new AtomicLong(Long.MIN_VALUE);
+
+    public OutlierDetector(CircuitBreakerPolicy policy) {
+        this.policy = policy;
+    }
+
+    public EndpointSnapshot filter(EndpointSnapshot all) {
+        return filter(all, System.nanoTime());
+    }
+
+    /**
+     * @param now 当前时间，System.nanoTime()
+     */
+    public EndpointSnapshot filter(EndpointSnapshot all, long now) {
+        int size = all.size();
+        int maxEjected = size * policy.getMaxEjectionPercent() / 100;
+        if (!policy.isEnabled() || maxEjected == 0) {
+            return all;
+        }
+        int ejected = 0;
+        for (int i = 0; i < size; i++) {
+            if (all.get(i).getCircuitBreaker().evaluate(policy, now) != CircuitBreaker.State.CLOSED) {
+                ejected++;
+            }
+        }
+        for (int i = 0; i < size && ejected < maxEjected; i++) {
+            CircuitBreaker breaker = all.get(i).getCircuitBreaker();
+            if (breaker.getState() == CircuitBreaker.State.CLOSED) {
+                String reason = breaker.tripReason(policy);
+                if (reason != null && breaker.trip(policy, now, reason)) {
+                    ejected++;
+                }
+            }
+        }
+        if (ejected < maxEjected) {
+            ejected += ejectLatencyOutliers(all, now, maxEjected - ejected);
+        }
+        if (ejected == 0) {
+            return all;
+        }
+        return availableOf(all, maxEjected);
+    }
+
+    /**
+     * 延迟超过中位数 latencyFactor 倍的关闭状态节点，每个间隔检查一次
+     *
+     * @return 本次摘除的节点数
+     */
+    private int ejectLatencyOutliers(EndpointSnapshot all, long now, int quota) {
+        long next = nextLatencyCheckNanos.get();
+        if (next == Long.MIN_VALUE) {
+            // 刚开始时样本太少，等一个间隔
+            nextLatencyCheckNanos.compareAndSet(next, now + policy.latencyIntervalNanos());
+            return 0;
+        }
+        if (policy.getLatencyFactor() <= 0 || now - next < 0
+                || !nextLatencyCheckNanos.compareAndSet(next, now + policy.latencyIntervalNanos())) {
+            return 0;
+        }
+        double[] latencies = new double[all.size()];
+        int n = 0;
+        for (int i = 0; i < all.size(); i++) {
+            Endpoint endpoint = all.get(i);
+            if (endpoint.getCircuitBreaker().getState() == CircuitBreaker.State.CLOSED) {
+                double latency = endpoint.getStats().latencyNanos(now);
+                if (latency > 0) {
+                    latencies[n++] = latency;
+                }
+            }
+        }
+        // 样本太少时中位数没有意义
+        if (n < 3) {
+            return 0;
+        }
+        double[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        double threshold = Math.max(sorted[n / 2] * policy.getLatencyFactor(), policy.getMinOutlierLatencyMillis() * 1e6);
+        int ejected = 0;
+        for (int i = 0; i < all.size() && ejected < quota; i++) {
+            Endpoint endpoint = all.get(i);
+            CircuitBreaker breaker = endpoint.getCircuitBreaker();
+            double latency = endpoint.getStats().latencyNanos(now);
+            if (breaker.getState() == CircuitBreaker.State.CLOSED && latency > threshold
+                    && breaker.trip(policy, now, String.format("latency %.1fms, threshold %.1fms", latency / 1e6, threshold / 1e6))) {
+                ejected++;
+            }
+        }
+        return ejected;
+    }
+
+    /**
+     * 可用节点组成的快照，与上一次结果相同时返回上一次的对象
+     */
+    private EndpointSnapshot availableOf(EndpointSnapshot all, int maxEjected) {
+        EndpointSnapshot previous = available;
+        if (previous != null && previous.getVersion() == all.getVersion() && sameMembers(previous, all, maxEjected)) {
+            return previous;
+        }
+        Endpoint[] endpoints = new Endpoint[all.size()];
+        int n = 0;
+        int excluded = 0;
+        for (int i = 0; i < all.size(); i++) {
+            Endpoint endpoint = all.get(i);
+            if (excluded < maxEjected && !endpoint.getCircuitBreaker().isAvailable()) {
+                excluded++;
+            } else {
+                endpoints[n++] = endpoint;
+            }
+        }
+        EndpointSnapshot result = excluded == 0 ? all : new EndpointSnapshot(all.getVersion(), Arrays.copyOf(endpoints, n));
+        available = result;
+        return result;
+    }
+
+    private static boolean sameMembers(EndpointSnapshot previous, EndpointSnapshot all, int maxEjected) {
+        int j = 0;
+        int excluded = 0;
+        for (int i = 0; i < all.size(); i++) {
+            Endpoint endpoint = all.get(i);
+            boolean include = excluded >= maxEjected || endpoint.getCircuitBreaker().isAvailable();
+            if (!include) {
+                excluded++;
+            }
+            boolean included = j < previous.size() && previous.get(j) == endpoint;
+            if (include != included) {
+                return false;
+            }
+            if (included) {
+                j++;
+            }
+        }
+        return j == previous.size();
+    }
+}
@@ -2,37 +2,117 @@ package com.dzgu.xrpc.client.core;
 
 import com.dzgu.xrpc.client.async.RpcFuture;
 import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * @description: 未收到回复的请求
+ * @description: 单个连接上未收到回复的请求，挂在 channel 的属性上。
+ * 以帧头中的 int requestId 为键，只在 channel 的 EventLoop 中访问，不需要并发容器；
+ * 另外维护一个可在任意线程读取的在途请求数，供连接池选择最空闲的连接
  * @Author： dzgu
  * @Date： 2022/4/25 22:01
  */
 public class PendingRpcRequests {
-    public static final Map<String, RpcFuture> PENDING_RESPONSE_FUTURES = new ConcurrentHashMap<>();
+    public static final AttributeKey<PendingRpcRequests> KEY = AttributeKey.valueOf("xrpc.pendingRpcRequests");
 
-    public void put(String requestId, RpcFuture future) {
-        PENDING_RESPONSE_FUTURES.put(requestId, future);
+    private final IntObjectMap<RpcFuture> futures = new IntObjectHashMap<>();
+    /**
+     * 在途请求数。调用方线程选中连接时预占，请求完成、失败或被移除时释放
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * 选中该连接发送请求时调用，之后必须 put 该请求，或调用 {@link #release()}
+     */
+    public void reserve() {
+        inFlight.incrementAndGet();
     }
 
-    public void remove(String requestId) {
-        PENDING_RESPONSE_FUTURES.remove(requestId);
+    /**
+     * 预占后请求没能登记时释放
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 登记请求。同一连接上请求 ID 重复时，被顶替的请求再也收不到响应，释放它的预占并让它立即失败
+     */
+    public void put(int requestId, RpcFuture future) {
+        RpcFuture previous = futures.put(requestId, future);
+        if (previous != null && previous != future) {
+            inFlight.decrementAndGet();
+            previous.fail(new RpcException("duplicate requestId: " + requestId, null));
+        }
+    }
+
+    public RpcFuture remove(int requestId) {
+        RpcFuture future = futures.remove(requestId);
+        if (future != null) {
+            inFlight.decrementAndGet();
+        }
+        return future;
+    }
+
+    /**
+     * 只有登记的仍是该请求时才移除。超时后的移除是延迟到 EventLoop 执行的，期间同一个 ID 可能已经登记了别的请求
+     *
+     * @return 是否移除
+     */
+    public boolean remove(int requestId, RpcFuture future) {
+        if (future == null || futures.get(requestId) != future) {
+            return false;
+        }
+        futures.remove(requestId);
+        inFlight.decrementAndGet();
+        return true;
     }
 
     /**
      * 将请求与调用结果响应绑定
      *
+     * @param requestId   响应帧头中的请求 ID
      * @param rpcResponse 收到服务端发来的调用结果
+     * @return 没有对应的请求（例如已超时）时返回 false
+     */
+    public boolean complete(int requestId, RpcResponse<Object> rpcResponse) {
+        RpcFuture future = remove(requestId);
+        if (future == null) {
+            return false;
+        }
+        future.complete(rpcResponse);
+        return true;
+    }
+
+    /**
+     * 连接断开时让所有未完成的请求立即失败
      */
-    public void complete(RpcResponse<Object> rpcResponse) {
-        RpcFuture future = PENDING_RESPONSE_FUTURES.remove(rpcResponse.getRequestId());
-        if (null != future) {
-            future.complete(rpcResponse);
-        } else {
-            throw new IllegalStateException();
+    public void failAll(RpcException cause) {
+        if (futures.isEmpty()) {
+            return;
+        }
+        List<RpcFuture> pending = new ArrayList<>(futures.values());
+        futures.clear();
+        inFlight.addAndGet(-pending.size());
+        for (RpcFuture future : pending) {
+            future.fail(cause);
         }
     }
+
+    public int size() {
+        return futures.size();
+    }
+
+    /**
+     * 在途请求数，可在任意线程调用
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
 }
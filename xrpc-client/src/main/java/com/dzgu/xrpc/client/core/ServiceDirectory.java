@@ -0,0 +1,132 @@
+package com.dzgu.xrpc.client.core;
+
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.register.Register;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description: 客户端本地的服务地址目录。每个服务第一次调用时向注册中心查询并订阅，之后由注册中心推送变更，
+ * 调用时只读取本地快照，不再访问注册中心。配置了熔断策略时去掉被摘除的节点
+ * @Author： dzgu
+ * @Date： 2022/5/16 16:40
+ */
+@Slf4j
+public class ServiceDirectory {
+    private final Register register;
+    private final NettyClient nettyClient;
+    /**
+     * 熔断与离群摘除的阈值，为 null 时不摘除节点
+     */
+    private final CircuitBreakerPolicy circuitBreakerPolicy;
+    private final Map<String, ServiceEndpoints> services = new ConcurrentHashMap<>();
+    /**
+     * 已经注册了监听的服务，包括第一次查询失败、还没有放进 services 的
+     */
+    private final Map<String, ServiceEndpoints> subscriptions = new ConcurrentHashMap<>();
+
+    public ServiceDirectory(Register register, NettyClient nettyClient) {
+        this(register, nettyClient, null);
+    }
+
+    public ServiceDirectory(Register register, NettyClient nettyClient, CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.register = register;
+        this.nettyClient = nettyClient;
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+    }
+
+    /**
+     * 服务当前可用的地址快照，没有可用地址时抛出 SERVICE_CAN_NOT_BE_FOUND
+     */
+    public EndpointSnapshot snapshot(String serviceKey) {
+        ServiceEndpoints serviceEndpoints = services.get(serviceKey);
+        if (serviceEndpoints == null) {
+            // 查询失败时不缓存，下次调用重新查询
+            serviceEndpoints = services.computeIfAbsent(serviceKey, this::subscribe);
+        }
+        EndpointSnapshot snapshot = serviceEndpoints.snapshot;
+        if (snapshot.isEmpty()) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND, serviceKey);
+        }
+        OutlierDetector outlierDetector = serviceEndpoints.outlierDetector;
+        return outlierDetector == null ? snapshot : outlierDetector.filter(snapshot);
+    }
+
+    /**
+     * 先注册监听再查询，查询与注册监听之间发生的变更不会丢失；查询失败时下次调用重新查询，但不重复注册监听
+     */
+    private ServiceEndpoints subscribe(String serviceKey) {
+        ServiceEndpoints serviceEndpoints = subscriptions.computeIfAbsent(serviceKey, key -> {
+            ServiceEndpoints created = new ServiceEndpoints(key);
+            register.subscribe(key, created::onPush);
+            return created;
+        });
+        serviceEndpoints.onLookup(register.lookupService(serviceKey));
+        return serviceEndpoints;
+    }
+
+    private class ServiceEndpoints {
+        private final String serviceKey;
+        private volatile EndpointSnapshot snapshot = EndpointSnapshot.EMPTY;
+        private final OutlierDetector outlierDetector;
+        /**
+         * 是否收到过推送。推送的地址列表不比查询结果旧，收到过推送后忽略查询结果
+         */
+        private boolean pushed;
+
+        ServiceEndpoints(String serviceKey) {
+            this.serviceKey = serviceKey;
+            this.outlierDetector = circuitBreakerPolicy == null ? null : new OutlierDetector(circuitBreakerPolicy);
+        }
+
+        synchronized void onPush(List<String> urls) {
+            pushed = true;
+            update(urls);
+        }
+
+        /**
+         * 查询返回时可能已经收到了更新的推送，此时不再用查询结果覆盖
+         */
+        synchronized void onLookup(List<String> urls) {
+            if (!pushed) {
+                update(urls);
+            }
+        }
+
+        /**
+         * 完整的地址列表。仍然存在的地址沿用原来的 Endpoint，保留其连接和统计；
+         * 移除的地址释放连接池的引用，没有其他服务使用时连接池在在途请求完成后关闭
+         */
+        private void update(List<String> urls) {
+            EndpointSnapshot current = snapshot;
+            Endpoint[] endpoints = new Endpoint[urls.size()];
+            Set<Endpoint> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < endpoints.length; i++) {
+                String url = urls.get(i);
+                Endpoint endpoint = current.find(url);
+                if (endpoint != null) {
+                    kept.add(endpoint);
+                } else {
+                    endpoint = nettyClient.acquireEndpoint(url);
+                }
+                endpoints[i] = endpoint;
+            }
+            snapshot = new EndpointSnapshot(current.getVersion() + 1, endpoints);
+            log.info("service [{}] endpoints updated: {}", serviceKey, snapshot);
+            // 不在新列表中的 Endpoint，重复出现的只释放一次
+            for (int i = 0; i < current.size(); i++) {
+                Endpoint removed = current.get(i);
+                if (kept.add(removed)) {
+                    nettyClient.release(removed);
+                }
+            }
+        }
+    }
+}
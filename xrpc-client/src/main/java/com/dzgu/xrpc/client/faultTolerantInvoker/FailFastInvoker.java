@@ -1,7 +1,5 @@
 package com.dzgu.xrpc.client.faultTolerantInvoker;
 
-import com.dzgu.xrpc.client.core.NettyClient;
-import com.dzgu.xrpc.dto.RpcMessage;
 import com.dzgu.xrpc.dto.RpcResponse;
 
 /**
@@ -11,7 +9,7 @@ import com.dzgu.xrpc.dto.RpcResponse;
  */
 public class FailFastInvoker implements FaultTolerantInvoker {
     @Override
-    public RpcResponse<Object> doinvoke(NettyClient nettyClient, RpcMessage rpcMessage, String targetServiceUrl,boolean isAsync) {
-        return nettyClient.sendRequest(rpcMessage, targetServiceUrl,isAsync);
+    public RpcResponse<Object> doinvoke(Invocation invocation) {
+        return invocation.getNettyClient().sendRequest(invocation.getRpcMessage(), invocation.select(), invocation.isAsync());
     }
 }
@@ -0,0 +1,119 @@
+package com.dzgu.xrpc.client.faultTolerantInvoker;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE;
+
+/**
+ * @description: 容错策略-故障转移。失败后通过负载均衡重新选择节点，排除已经失败过的节点；
+ * 重试受全局的重试预算限制，故障期间重试不会成倍放大负载。截止时间已过时不再重试
+ * @Author： dzgu
+ * @Date： 2022/5/17 17:00
+ */
+@Slf4j
+public class FailoverInvoker implements FaultTolerantInvoker {
+    private volatile RetryBudget retryBudget = new RetryBudget(0.1, 10);
+
+    public void setRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    @Override
+    public RpcResponse<Object> doinvoke(Invocation invocation) {
+        RetryBudget budget = retryBudget;
+        budget.deposit();
+        List<Endpoint> failed = null;
+        Endpoint endpoint = invocation.select();
+        RpcMessage rpcMessage = invocation.getRpcMessage();
+        for (int i = 0; ; i++) {
+            try {
+                RpcResponse<Object> result = invocation.getNettyClient().sendRequest(rpcMessage, endpoint, invocation.isAsync());
+                if (result != null && !overloaded(result)) {
+                    return result;
+                }
+                log.warn("server [{}] overloaded. retry times={}", endpoint, i);
+            } catch (RpcException ex) {
+                log.error("invoke [{}] error. retry times={}", endpoint, i, ex);
+            }
+            if (!canRetry(invocation, i + 1, budget)) {
+                break;
+            }
+            if (failed == null) {
+                failed = new ArrayList<>(invocation.getRetries());
+            }
+            failed.add(endpoint);
+            endpoint = invocation.select(failed);
+            if (endpoint == null) {
+                log.warn("all endpoints of [{}] failed", invocation.getRpcMessage().getServiceKey());
+                break;
+            }
+            rpcMessage = invocation.newAttempt();
+        }
+        throw new RpcException(SERVICE_INVOCATION_FAILURE);
+    }
+
+    @Override
+    public CompletableFuture<Object> doinvokeAsync(Invocation invocation) {
+        RetryBudget budget = retryBudget;
+        budget.deposit();
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        failoverAsync(invocation, budget, invocation.getRpcMessage(), invocation.select(), new ArrayList<>(invocation.getRetries()), result);
+        return result;
+    }
+
+    /**
+     * 上一次失败时在完成它的线程上选择新节点并发起请求，不阻塞任何线程
+     */
+    private void failoverAsync(Invocation invocation, RetryBudget budget, RpcMessage rpcMessage, Endpoint endpoint,
+                               List<Endpoint> failed, CompletableFuture<Object> result) {
+        invocation.getNettyClient().sendRequestAsync(rpcMessage, endpoint, invocation.getExecutor()).whenComplete((data, cause) -> {
+            if (cause == null) {
+                result.complete(data);
+                return;
+            }
+            log.error("invoke [{}] error. retry times={}", endpoint, failed.size(), cause);
+            failed.add(endpoint);
+            Endpoint next = canRetry(invocation, failed.size(), budget) ? invocation.select(failed) : null;
+            if (next != null) {
+                failoverAsync(invocation, budget, invocation.newAttempt(), next, failed, result);
+            } else {
+                result.completeExceptionally(new RpcException(SERVICE_INVOCATION_FAILURE));
+            }
+        });
+    }
+
+    /**
+     * @param attempts 已经尝试的次数
+     */
+    private static boolean canRetry(Invocation invocation, int attempts, RetryBudget budget) {
+        if (attempts >= invocation.getRetries()) {
+            return false;
+        }
+        RpcMessage rpcMessage = invocation.getRpcMessage();
+        if (rpcMessage.getDeadlineNanos() != 0 && rpcMessage.getDeadlineNanos() - System.nanoTime() <= 0) {
+            return false;
+        }
+        if (!budget.tryRetry()) {
+            log.warn("retry budget exhausted, give up retrying [{}]", rpcMessage.getServiceKey());
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean overloaded(RpcResponse<Object> result) {
+        return result.getCode() != null && result.getCode() == RpcResponseCodeEnum.OVERLOAD.getCode();
+    }
+}
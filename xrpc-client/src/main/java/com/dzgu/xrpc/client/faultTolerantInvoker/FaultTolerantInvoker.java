@@ -1,10 +1,10 @@
 package com.dzgu.xrpc.client.faultTolerantInvoker;
 
-import com.dzgu.xrpc.client.core.NettyClient;
-import com.dzgu.xrpc.dto.RpcMessage;
 import com.dzgu.xrpc.dto.RpcResponse;
 import com.dzgu.xrpc.extension.SPI;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @description: 集群容错
  * @Author： dzgu
@@ -12,5 +12,14 @@ import com.dzgu.xrpc.extension.SPI;
  */
 @SPI(value = "fail-fast")
 public interface FaultTolerantInvoker {
-    RpcResponse<Object> doinvoke(NettyClient nettyClient, RpcMessage rpcMessage, String targetServiceUrl,boolean isAsync);
+    RpcResponse<Object> doinvoke(Invocation invocation);
+
+    /**
+     * 返回 CompletableFuture 的接口方法的调用，不阻塞调用方线程
+     *
+     * @return 响应的数据体
+     */
+    default CompletableFuture<Object> doinvokeAsync(Invocation invocation) {
+        return invocation.getNettyClient().sendRequestAsync(invocation.getRpcMessage(), invocation.select(), invocation.getExecutor());
+    }
 }
@@ -0,0 +1,314 @@
+package com.dzgu.xrpc.client.faultTolerantInvoker;
+
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 对冲请求（backup request）。请求发出后超过对冲延迟还没有响应时，通过负载均衡选择另一个节点再发一份，
+ * 取先成功的响应，后到的响应直接丢弃。原请求和对冲请求各自经过容错策略，失败时按容错策略重试。
+ * 对冲延迟默认取该方法近期延迟的百分位（p95），只有慢于绝大多数请求的才会对冲；
+ * 对冲请求数受令牌桶限制，不超过请求数的 ratio 倍，节点普遍变慢时不会把负载翻倍。
+ * 只用于幂等的方法，在接口方法上通过 @RpcMethod(hedge = true) 开启
+ * @Author： dzgu
+ * @Date： 2022/5/17 21:00
+ */
+@Slf4j
+public class HedgingInvoker implements FaultTolerantInvoker {
+    /**
+     * 按百分位计算延迟时，样本数达到该值之前不对冲
+     */
+    private static final int MIN_SAMPLES = 100;
+    private static final FaultTolerantInvoker FAIL_FAST = new FailFastInvoker();
+
+    /**
+     * 固定的对冲延迟，毫秒，0 表示按百分位计算
+     */
+    private volatile long delayMillis = 0;
+    private volatile double percentile = 0.95;
+    private volatile RetryBudget hedgeBudget = new RetryBudget(0.1, 10);
+    /**
+     * 方法标识 -> 延迟样本和对冲统计
+     */
+    private final Map<String, HedgeStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param delayMillis 固定的对冲延迟，毫秒，0 表示按 percentile 计算
+     * @param percentile  按该方法近期延迟的百分位对冲，如 0.95
+     * @param ratio       对冲请求数占请求数的最大比例
+     * @param burst       令牌桶的容量
+     */
+    public void configure(long delayMillis, double percentile, double ratio, int burst) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be in (0, 1): " + percentile);
+        }
+        this.delayMillis = delayMillis;
+        this.percentile = percentile;
+        this.hedgeBudget = new RetryBudget(ratio, burst);
+        log.info("hedging configured, delayMillis: {}, percentile: {}, ratio: {}, burst: {}", delayMillis, percentile, ratio, burst);
+    }
+
+    public RetryBudget getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    /**
+     * 方法的对冲统计，还没有调用过时返回 null
+     */
+    public HedgeStats getStats(String methodKey) {
+        return stats.get(methodKey);
+    }
+
+    public Map<String, HedgeStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * 原请求和对冲请求都只发送一次，不重试
+     */
+    @Override
+    public RpcResponse<Object> doinvoke(Invocation invocation) {
+        return doinvoke(invocation, FAIL_FAST);
+    }
+
+    @Override
+    public CompletableFuture<Object> doinvokeAsync(Invocation invocation) {
+        return doinvokeAsync(invocation, FAIL_FAST);
+    }
+
+    /**
+     * @param delegate 原请求和对冲请求各自使用的容错策略
+     */
+    public RpcResponse<Object> doinvoke(Invocation invocation, FaultTolerantInvoker delegate) {
+        try {
+            return RpcResponse.success(doinvokeAsync(invocation, delegate).get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RpcException) {
+                throw (RpcException) e.getCause();
+            }
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE.getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param delegate 原请求和对冲请求各自使用的容错策略
+     */
+    public CompletableFuture<Object> doinvokeAsync(Invocation invocation, FaultTolerantInvoker delegate) {
+        String methodKey = invocation.getRpcRequest().getMethodKey();
+        HedgeStats methodStats = stats.get(methodKey);
+        if (methodStats == null) {
+            methodStats = stats.computeIfAbsent(methodKey, k -> new HedgeStats());
+        }
+        methodStats.requests.increment();
+        RetryBudget budget = hedgeBudget;
+        budget.deposit();
+        Hedge hedge = new Hedge(invocation, methodStats, delegate);
+        hedge.send(invocation, false);
+        long delayNanos = delayMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(delayMillis) : methodStats.percentileNanos(percentile);
+        if (delayNanos > 0 && !hedge.result.isDone()) {
+            hedge.timer = invocation.getNettyClient().newTimeout(t -> hedge.fire(budget), delayNanos, TimeUnit.NANOSECONDS);
+        }
+        return hedge.result;
+    }
+
+    /**
+     * 一次调用的原请求和对冲请求
+     */
+    private static class Hedge {
+        final Invocation invocation;
+        final HedgeStats stats;
+        final FaultTolerantInvoker delegate;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        /**
+         * 未完成的请求数
+         */
+        final AtomicInteger pending = new AtomicInteger(1);
+        final AtomicBoolean succeeded = new AtomicBoolean();
+        volatile Timeout timer;
+
+        Hedge(Invocation invocation, HedgeStats stats, FaultTolerantInvoker delegate) {
+            this.invocation = invocation;
+            this.stats = stats;
+            this.delegate = delegate;
+        }
+
+        void send(Invocation attempt, boolean backup) {
+            long start = System.nanoTime();
+            delegate.doinvokeAsync(attempt).whenComplete((data, cause) -> onComplete(data, cause, backup, start));
+        }
+
+        /**
+         * 对冲延迟到期，在时间轮线程上执行
+         */
+        void fire(RetryBudget budget) {
+            // 只有一个节点时没有另一个节点可以对冲
+            if (result.isDone() || invocation.getSnapshot().size() < 2) {
+                return;
+            }
+            if (!budget.tryRetry()) {
+                stats.throttled.increment();
+                return;
+            }
+            pending.incrementAndGet();
+            stats.hedged.increment();
+            // 排除原请求当前所在的节点
+            send(invocation.hedge(), true);
+        }
+
+        /**
+         * 先成功的响应作为结果；失败时如果另一个请求还没完成则等它，都失败时返回最后一个失败原因
+         *
+         * @param start 该请求发出的时间
+         */
+        void onComplete(Object data, Throwable cause, boolean backup, long start) {
+            int left = pending.decrementAndGet();
+            if (cause == null) {
+                if (succeeded.compareAndSet(false, true)) {
+                    cancelTimer();
+                    // 按先成功的请求自身的延迟计入样本，被抢先的请求不再计入。
+                    // 先记录统计再完成结果，调用方拿到结果时统计已经更新
+                    stats.record(System.nanoTime() - start);
+                    if (backup) {
+                        stats.hedgeWins.increment();
+                    }
+                    result.complete(data);
+                }
+            } else if (left == 0) {
+                // 原请求失败时还没到对冲延迟，不再对冲，直接失败
+                cancelTimer();
+                result.completeExceptionally(cause);
+            }
+        }
+
+        private void cancelTimer() {
+            Timeout t = timer;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+    }
+
+    /**
+     * 一个方法的近期延迟样本和对冲统计。样本保存在环形数组中，每写入一定数量后重新计算一次百分位
+     */
+    public static class HedgeStats {
+        private static final int SAMPLES = 1024;
+        private static final int RECOMPUTE_INTERVAL = 128;
+
+        private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+        private final AtomicLong count = new AtomicLong();
+        /**
+         * 上一次计算的百分位，整体替换，读到的百分位、延迟和样本批次总是同一次计算的结果
+         */
+        private volatile CachedPercentile cached;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder hedged = new LongAdder();
+        private final LongAdder hedgeWins = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+
+        void record(long latencyNanos) {
+            long n = count.getAndIncrement();
+            // 环形数组写满后覆盖最旧的样本
+            samples.set((int) (n & (SAMPLES - 1)), latencyNanos);
+        }
+
+        /**
+         * 近期延迟的百分位，样本不足时返回 0。每 RECOMPUTE_INTERVAL 个样本重新计算一次，
+         * 并发计算时各自得到完整的结果，后写入的覆盖先写入的
+         */
+        long percentileNanos(double percentile) {
+            long n = count.get();
+            if (n < MIN_SAMPLES) {
+                return 0;
+            }
+            long batch = n / RECOMPUTE_INTERVAL;
+            CachedPercentile current = cached;
+            if (current != null && current.batch == batch && current.percentile == percentile) {
+                return current.nanos;
+            }
+            int size = (int) Math.min(n, SAMPLES);
+            long[] copy = new long[size];
+            for (int i = 0; i < size; i++) {
+                copy[i] = samples.get(i);
+            }
+            Arrays.sort(copy);
+            long nanos = copy[(int) Math.min(size - 1, (long) (size * percentile))];
+            cached = new CachedPercentile(percentile, batch, nanos);
+            return nanos;
+        }
+
+        /**
+         * 调用次数
+         */
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        /**
+         * 发出的对冲请求数
+         */
+        public long getHedged() {
+            return hedged.sum();
+        }
+
+        /**
+         * 对冲请求先于原请求成功的次数
+         */
+        public long getHedgeWins() {
+            return hedgeWins.sum();
+        }
+
+        /**
+         * 因令牌不足没有发出的对冲请求数
+         */
+        public long getThrottled() {
+            return throttled.sum();
+        }
+
+        /**
+         * 近期延迟的百分位，只用于测试和监控
+         */
+        public long getPercentileNanos(double percentile) {
+            return percentileNanos(percentile);
+        }
+
+        @Override
+        public String toString() {
+            return "HedgeStats{requests=" + getRequests() + ", hedged=" + getHedged() + ", hedgeWins=" + getHedgeWins()
+                    + ", throttled=" + getThrottled() + '}';
+        }
+    }
+
+    private static class CachedPercentile {
+        final double percentile;
+        /**
+         * 计算时的样本批次，样本数 / RECOMPUTE_INTERVAL
+         */
+        final long batch;
+        final long nanos;
+
+        CachedPercentile(double percentile, long batch, long nanos) {
+            this.percentile = percentile;
+            this.batch = batch;
+            this.nanos = nanos;
+        }
+    }
+}
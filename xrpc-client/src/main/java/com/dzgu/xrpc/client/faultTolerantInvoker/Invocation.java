@@ -0,0 +1,114 @@
+package com.dzgu.xrpc.client.faultTolerantInvoker;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+/**
+ * @description: 一次远程调用，容错策略据此选择节点、发送请求，失败时决定是否换一个节点重试
+ * @Author： dzgu
+ * @Date： 2022/5/17 16:30
+ */
+@Getter
+public class Invocation {
+    private final NettyClient nettyClient;
+    private final RpcMessage rpcMessage;
+    private final RpcRequest rpcRequest;
+    /**
+     * 发起调用时服务的地址快照
+     */
+    private final EndpointSnapshot snapshot;
+    private final LoadBalance loadBalance;
+    /**
+     * 最多尝试的次数，包含第一次
+     */
+    private final int retries;
+    /**
+     * 回调方式的异步调用
+     */
+    private final boolean isAsync;
+    /**
+     * 完成 CompletableFuture 返回值的线程池，为 null 时直接在 IO 线程上完成
+     */
+    private final Executor executor;
+    /**
+     * 选择节点时排除的节点，对冲请求用它避开原请求所在的节点，为 null 时不排除
+     */
+    private final Endpoint excluded;
+    /**
+     * 最近一次选中的节点
+     */
+    private volatile Endpoint selected;
+
+    @Builder
+    private Invocation(NettyClient nettyClient, RpcMessage rpcMessage, RpcRequest rpcRequest, EndpointSnapshot snapshot,
+                       LoadBalance loadBalance, int retries, boolean isAsync, Executor executor, Endpoint excluded) {
+        this.nettyClient = nettyClient;
+        this.rpcMessage = rpcMessage;
+        this.rpcRequest = rpcRequest;
+        this.snapshot = snapshot;
+        this.loadBalance = loadBalance;
+        this.retries = retries;
+        this.isAsync = isAsync;
+        this.executor = executor;
+        this.excluded = excluded;
+    }
+
+    /**
+     * 重试或对冲时发送的消息：使用新的请求 ID，其余与原请求相同，截止时间也相同。
+     * 上一次尝试超时后它在连接上的登记要等 EventLoop 移除，沿用同一个 ID 会与之冲突，迟到的响应也会被当成新请求的结果
+     */
+    public RpcMessage newAttempt() {
+        return RpcMessage.builder()
+                .messageType(rpcMessage.getMessageType())
+                .codec(rpcMessage.getCodec())
+                .compress(rpcMessage.getCompress())
+                .requestId(RpcConstants.REQUEST_ID.getAndIncrement())
+                .data(rpcMessage.getData())
+                .serviceKey(rpcMessage.getServiceKey())
+                .timeout(rpcMessage.getTimeout())
+                .deadlineNanos(rpcMessage.getDeadlineNanos()).build();
+    }
+
+    /**
+     * 对冲调用：使用新的请求 ID，排除原调用最近一次选中的节点，重试策略与原调用相同
+     */
+    public Invocation hedge() {
+        return new Invocation(nettyClient, newAttempt(), rpcRequest, snapshot, loadBalance, retries, isAsync, executor, selected);
+    }
+
+    public Endpoint select() {
+        Endpoint endpoint = excluded == null ? loadBalance.select(snapshot, rpcRequest)
+                : loadBalance.select(snapshot, rpcRequest, Collections.singletonList(excluded));
+        selected = endpoint;
+        return endpoint;
+    }
+
+    /**
+     * 排除已经失败的节点后重新选择，全部被排除时返回 null
+     */
+    public Endpoint select(Collection<Endpoint> failed) {
+        Collection<Endpoint> excludes = failed;
+        if (excluded != null && !failed.contains(excluded)) {
+            excludes = new ArrayList<>(failed.size() + 1);
+            excludes.addAll(failed);
+            excludes.add(excluded);
+        }
+        Endpoint endpoint = loadBalance.select(snapshot, rpcRequest, excludes);
+        if (endpoint != null) {
+            selected = endpoint;
+        }
+        return endpoint;
+    }
+}
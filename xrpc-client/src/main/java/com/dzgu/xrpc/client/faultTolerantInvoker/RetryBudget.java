@@ -0,0 +1,83 @@
+package com.dzgu.xrpc.client.faultTolerantInvoker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 重试预算（令牌桶）。每个请求存入 ratio 个令牌，每次重试取走一个，桶里最多 burst 个令牌。
+ * 稳定时重试数不超过请求数的 ratio 倍；故障时所有调用都失败，重试很快耗尽预算，不会把负载放大数倍
+ * @Author： dzgu
+ * @Date： 2022/5/17 16:45
+ */
+public class RetryBudget {
+    /**
+     * 令牌按千分之一计数
+     */
+    private static final long UNIT = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param ratio 每个请求允许的重试数，如 0.1 表示重试不超过请求数的 10%
+     * @param burst 桶的容量，也是初始令牌数，请求较少时也允许少量重试
+     */
+    public RetryBudget(double ratio, int burst) {
+        if (ratio < 0 || burst < 0) {
+            throw new IllegalArgumentException("ratio and burst must not be negative");
+        }
+        this.deposit = Math.round(ratio * UNIT);
+        this.capacity = Math.max(burst * UNIT, deposit);
+        this.balance = new AtomicLong(burst * UNIT);
+    }
+
+    /**
+     * 发起一个请求（不含重试）时调用
+     */
+    public void deposit() {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= capacity) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(current + deposit, capacity)));
+    }
+
+    /**
+     * 重试前调用
+     *
+     * @return 预算内可以重试
+     */
+    public boolean tryRetry() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < UNIT) {
+                rejected.increment();
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - UNIT));
+        retried.increment();
+        return true;
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    /**
+     * 因预算不足没有重试的次数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget{balance=" + balance.get() / (double) UNIT + ", retried=" + getRetried() + ", rejected=" + getRejected() + '}';
+    }
+}
@@ -1,16 +1,18 @@
 package com.dzgu.xrpc.client.faultTolerantInvoker;
 
-import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
 import com.dzgu.xrpc.dto.RpcMessage;
 import com.dzgu.xrpc.dto.RpcResponse;
 import com.dzgu.xrpc.exception.RpcException;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CompletableFuture;
 
 import static com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE;
 
 /**
- * @description: 容错策略-重试
+ * @description: 容错策略-重试，在同一个节点上重试
  * @Author： dzgu
  * @Date： 2022/5/1 23:58
  */
@@ -19,14 +21,22 @@ public class RetryInvoker implements FaultTolerantInvoker {
     /**
      * 默认重试次数
      */
-    public static int DEFAULT_RETRY_TIMES = 3;
+    public static final int DEFAULT_RETRY_TIMES = 3;
 
 
     @Override
-    public RpcResponse<Object> doinvoke(NettyClient nettyClient, RpcMessage rpcMessage, String targetServiceUrl,boolean isAsync) {
-        for (int i = 0; i < DEFAULT_RETRY_TIMES; i++) {
+    public RpcResponse<Object> doinvoke(Invocation invocation) {
+        Endpoint endpoint = invocation.select();
+        for (int i = 0; i < invocation.getRetries(); i++) {
+            // 每次重试使用新的请求 ID
+            RpcMessage rpcMessage = i == 0 ? invocation.getRpcMessage() : invocation.newAttempt();
             try {
-                RpcResponse<Object> result = nettyClient.sendRequest( rpcMessage, targetServiceUrl,isAsync);
+                RpcResponse<Object> result = invocation.getNettyClient().sendRequest(rpcMessage, endpoint, invocation.isAsync());
+                if (result != null && result.getCode() != null && result.getCode() == RpcResponseCodeEnum.OVERLOAD.getCode()) {
+                    // 服务端线程池已满，请求没有执行，可以安全重试
+                    log.warn("server overloaded. retry times=" + i);
+                    continue;
+                }
                 if (result != null) {
                     return result;
                 }
@@ -36,4 +46,29 @@ public class RetryInvoker implements FaultTolerantInvoker {
         }
         throw new RpcException(SERVICE_INVOCATION_FAILURE);
     }
+
+    @Override
+    public CompletableFuture<Object> doinvokeAsync(Invocation invocation) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        retryAsync(invocation, invocation.getRpcMessage(), invocation.select(), 0, result);
+        return result;
+    }
+
+    /**
+     * 上一次失败时在完成它的线程上发起下一次请求，不阻塞任何线程。每次重试使用新的请求 ID
+     */
+    private void retryAsync(Invocation invocation, RpcMessage rpcMessage, Endpoint endpoint, int times, CompletableFuture<Object> result) {
+        invocation.getNettyClient().sendRequestAsync(rpcMessage, endpoint, invocation.getExecutor()).whenComplete((data, cause) -> {
+            if (cause == null) {
+                result.complete(data);
+                return;
+            }
+            log.error("invoke error. retry times=" + times, cause);
+            if (times + 1 < invocation.getRetries()) {
+                retryAsync(invocation, invocation.newAttempt(), endpoint, times + 1, result);
+            } else {
+                result.completeExceptionally(new RpcException(SERVICE_INVOCATION_FAILURE));
+            }
+        });
+    }
 }
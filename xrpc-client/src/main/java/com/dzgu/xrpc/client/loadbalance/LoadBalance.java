@@ -1,9 +1,13 @@
 package com.dzgu.xrpc.client.loadbalance;
 
 import cn.hutool.core.collection.CollectionUtil;
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.extension.SPI;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -24,4 +28,36 @@ public interface LoadBalance {
         }
         return doSelect(serviceAddresses, rpcRequest);
     }
+
+    /**
+     * 从本地地址快照中选择，快照不为空。默认按地址列表选择后取对应的 Endpoint
+     */
+    default Endpoint select(EndpointSnapshot snapshot, RpcRequest rpcRequest) {
+        if (snapshot.size() == 1) {
+            return snapshot.get(0);
+        }
+        return snapshot.find(doSelect(snapshot.getUrls(), rpcRequest));
+    }
+
+    /**
+     * 排除指定的节点后选择，全部被排除时返回 null。默认用剩下的节点组成临时快照再选择；
+     * 按地址列表缓存结构的实现应覆盖该方法，临时快照的地址列表每次都是新对象，会让缓存失效
+     */
+    default Endpoint select(EndpointSnapshot snapshot, RpcRequest rpcRequest, Collection<Endpoint> excluded) {
+        if (excluded == null || excluded.isEmpty()) {
+            return select(snapshot, rpcRequest);
+        }
+        Endpoint[] candidates = new Endpoint[snapshot.size()];
+        int n = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            Endpoint endpoint = snapshot.get(i);
+            if (!excluded.contains(endpoint)) {
+                candidates[n++] = endpoint;
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        return select(new EndpointSnapshot(snapshot.getVersion(), Arrays.copyOf(candidates, n)), rpcRequest);
+    }
 }
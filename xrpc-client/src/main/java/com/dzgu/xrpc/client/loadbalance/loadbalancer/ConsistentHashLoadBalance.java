@@ -1,111 +1,358 @@
 package com.dzgu.xrpc.client.loadbalance.loadbalancer;
 
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
 import com.dzgu.xrpc.client.loadbalance.LoadBalance;
 import com.dzgu.xrpc.dto.RpcRequest;
 import lombok.extern.slf4j.Slf4j;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
- * refer to dubbo consistent hash load balance: https://github.com/apache/dubbo/blob/2d9583adf26a2d8bd6fb646243a9fe80a77e65d5/dubbo-cluster/src/main/java/org/apache/dubbo/rpc/cluster/loadbalance/ConsistentHashLoadBalance.java
+ * @description: 一致性哈希。每个服务一个环，环用排好序的 long[] 哈希值和对应的节点下标保存，选择时二分查找，不分配对象。
+ * 节点和请求键都用 64 位混合哈希（murmur3 fmix64），不再每次调用计算 MD5。地址列表变化时只计算新增节点的虚拟节点，
+ * 与保留下来的部分归并，不重建整个环。
+ * 可选有界负载（consistent hashing with bounded loads）：节点的在途请求数超过平均值的 loadFactor 倍时，
+ * 沿环顺时针交给下一个未超限的节点，热点键溢出到相邻节点而不是压垮一个节点
+ * @Author： dzgu
+ * @Date： 2022/5/17 14:20
  */
 @Slf4j
 public class ConsistentHashLoadBalance implements LoadBalance {
-    private final ConcurrentHashMap<String, ConsistentHashSelector> selectors = new ConcurrentHashMap<>();
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    /**
+     * 类型是否覆盖了 Object.hashCode，按类缓存
+     */
+    private static final ClassValue<Boolean> OVERRIDES_HASH_CODE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("hashCode").getDeclaringClass() != Object.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * 接口名 -> 版本 -> 环，查找时不拼接字符串
+     */
+    private final Map<String, Map<String, Ring>> rings = new ConcurrentHashMap<>();
+    /**
+     * 每个节点的虚拟节点数
+     */
+    private volatile int replicas = 160;
+    /**
+     * 有界负载系数，大于 1 时生效，0 表示不限制
+     */
+    private volatile double loadFactor = 0;
+    /**
+     * 参与哈希的参数下标，小于 0 时使用全部参数
+     */
+    private volatile int argumentIndex = 0;
+    /**
+     * 自定义的哈希键，设置后 argumentIndex 不再生效
+     */
+    private volatile Function<RpcRequest, Object> keyExtractor;
+
+    /**
+     * @param replicas      每个节点的虚拟节点数，对之后重建的环生效
+     * @param loadFactor    有界负载系数，大于 1 时生效，0 表示不限制
+     * @param argumentIndex 参与哈希的参数下标，小于 0 时使用全部参数
+     */
+    public void configure(int replicas, double loadFactor, int argumentIndex) {
+        if (replicas <= 0) {
+            throw new IllegalArgumentException("replicas must be positive: " + replicas);
+        }
+        if (loadFactor != 0 && loadFactor <= 1) {
+            throw new IllegalArgumentException("loadFactor must be greater than 1: " + loadFactor);
+        }
+        this.replicas = replicas;
+        this.loadFactor = loadFactor;
+        this.argumentIndex = argumentIndex;
+        log.info("consistent hash configured, replicas: {}, loadFactor: {}, argumentIndex: {}", replicas, loadFactor, argumentIndex);
+    }
+
+    /**
+     * 按请求计算哈希键，例如取参数对象中的用户 ID。返回值按 {@link #hashKey(Object)} 计算哈希
+     */
+    public void setKeyExtractor(Function<RpcRequest, Object> keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
 
     @Override
     public String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest) {
-        // 用来识别Invoker列表是否发生变更的Hash码
-        int identityHashCode = System.identityHashCode(serviceAddresses);
-        String rpcServiceName = rpcRequest.getMethodName();
-        ConsistentHashSelector selector = selectors.get(rpcServiceName);
-        // 若不存在"接口.方法名"对应的选择器，或是Invoker列表已经发生了变更，则初始化一个选择器
-        if (selector == null || selector.identityHashCode != identityHashCode) {
-            selectors.put(rpcServiceName, new ConsistentHashSelector(serviceAddresses, 160, identityHashCode));
-            selector = selectors.get(rpcServiceName);
-        }
-        return selector.select(rpcServiceName + Arrays.stream(rpcRequest.getParameters()));
+        Ring ring = ring(serviceAddresses, rpcRequest);
+        return serviceAddresses.get(ring.owners[ring.locate(requestHash(rpcRequest))]);
     }
 
+    @Override
+    public Endpoint select(EndpointSnapshot snapshot, RpcRequest rpcRequest) {
+        if (snapshot.size() == 1) {
+            return snapshot.get(0);
+        }
+        return select(snapshot, rpcRequest, null);
+    }
 
-    static class ConsistentHashSelector {
-        // 存储Hash值与节点映射关系的TreeMap
-        private final TreeMap<Long, String> virtualInvokers;
-        // 用来识别Invoker列表是否发生变更的Hash码
-        private final int identityHashCode;
-
-        ConsistentHashSelector(List<String> invokers, int replicaNumber, int identityHashCode) {
-            this.virtualInvokers = new TreeMap<>();
-            this.identityHashCode = identityHashCode;
-            // 对每个invoker生成replicaNumber个虚拟结点，并存放于TreeMap中
-            for (String invoker : invokers) {
-                for (int i = 0; i < replicaNumber / 4; i++) {
-                    // 根据md5算法为每4个结点生成一个消息摘要，摘要长为16字节128位。
-                    byte[] digest = md5(invoker + i);
-                    // 随后将128位分为4部分，0-31,32-63,64-95,95-128，并生成4个32位数，存于long中，long的高32位都为0
-                    // 并作为虚拟结点的key。
-                    for (int h = 0; h < 4; h++) {
-                        long m = hash(digest, h);
-                        virtualInvokers.put(m, invoker);
-                    }
+    /**
+     * 不为排除后的节点单独建环：在完整地址列表的环上顺时针跳过被排除的节点，
+     * 结果与去掉这些节点后重建的环相同，缓存的环也不会被重试和对冲请求替换掉
+     */
+    @Override
+    public Endpoint select(EndpointSnapshot snapshot, RpcRequest rpcRequest, Collection<Endpoint> excluded) {
+        boolean excluding = excluded != null && !excluded.isEmpty();
+        Ring ring = ring(snapshot.getUrls(), rpcRequest);
+        int start = ring.locate(requestHash(rpcRequest));
+        double factor = loadFactor;
+        if (factor == 0 && !excluding) {
+            return snapshot.get(ring.owners[start]);
+        }
+        double capacity = Double.MAX_VALUE;
+        if (factor != 0) {
+            int total = 0;
+            int available = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                Endpoint endpoint = snapshot.get(i);
+                if (!excluding || !excluded.contains(endpoint)) {
+                    total += endpoint.getStats().getInFlight();
+                    available++;
                 }
             }
+            if (available == 0) {
+                return null;
+            }
+            // 每个节点最多承担平均在途请求数（计入本次）的 loadFactor 倍
+            capacity = Math.ceil(factor * (total + 1) / available);
         }
-
-        static byte[] md5(String key) {
-            MessageDigest md;
-            try {
-                md = MessageDigest.getInstance("MD5");
-                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-                md.update(bytes);
-            } catch (NoSuchAlgorithmException e) {
-                throw new IllegalStateException(e.getMessage(), e);
+        Endpoint first = null;
+        int length = ring.points.length;
+        for (int i = 0; i < length; i++) {
+            int index = start + i;
+            Endpoint endpoint = snapshot.get(ring.owners[index < length ? index : index - length]);
+            if (excluding && excluded.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.getStats().getInFlight() < capacity) {
+                return endpoint;
+            }
+            if (first == null) {
+                first = endpoint;
             }
+        }
+        return first;
+    }
+
+    /**
+     * 服务当前地址列表对应的环。地址列表是不可变快照，按引用判断是否变化
+     */
+    private Ring ring(List<String> urls, RpcRequest rpcRequest) {
+        String version = rpcRequest.getVersion() == null ? "" : rpcRequest.getVersion();
+        Map<String, Ring> versions = rings.get(rpcRequest.getClassName());
+        if (versions == null) {
+            versions = rings.computeIfAbsent(rpcRequest.getClassName(), k -> new ConcurrentHashMap<>());
+        }
+        Ring ring = versions.get(version);
+        if (ring == null || ring.urls != urls) {
+            // 并发时可能重复构建，结果相同
+            ring = ring == null || ring.replicas != replicas ? Ring.build(urls, replicas) : ring.update(urls);
+            versions.put(version, ring);
+        }
+        return ring;
+    }
+
+    private long requestHash(RpcRequest rpcRequest) {
+        Function<RpcRequest, Object> extractor = keyExtractor;
+        if (extractor != null) {
+            return hashKey(extractor.apply(rpcRequest));
+        }
+        Object[] parameters = rpcRequest.getParameters();
+        if (parameters == null || parameters.length == 0) {
+            return hashKey(rpcRequest.getMethodName());
+        }
+        int index = argumentIndex;
+        if (index >= 0 && index < parameters.length) {
+            return hashKey(parameters[index]);
+        }
+        long h = SEED;
+        for (Object parameter : parameters) {
+            h = fmix64(h ^ hashKey(parameter));
+        }
+        return h;
+    }
+
+    /**
+     * 哈希键的 64 位哈希，在不同客户端上结果相同：字符串按字符、整数按数值、枚举按名称计算，
+     * 其他类型按 hashCode 计算，要求它覆盖了 Object.hashCode 且只取决于键的值，不能依赖对象地址或枚举的 hashCode。
+     * 没有覆盖 hashCode 的类型（包括数组）按对象地址计算，同一个键每次落到不同节点，直接拒绝，
+     * 此时需要通过 argumentIndex 换一个参数，或用 {@link #setKeyExtractor(Function)} 取出其中的字段
+     *
+     * @throws IllegalArgumentException 键的类型没有覆盖 hashCode
+     */
+    public static long hashKey(Object key) {
+        if (key == null) {
+            return fmix64(SEED);
+        }
+        if (key instanceof CharSequence) {
+            return hashChars((CharSequence) key);
+        }
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return fmix64(((Number) key).longValue() ^ SEED);
+        }
+        if (key instanceof Enum) {
+            return hashChars(((Enum<?>) key).name());
+        }
+        if (!OVERRIDES_HASH_CODE.get(key.getClass())) {
+            throw new IllegalArgumentException("consistent hash key type " + key.getClass().getName()
+                    + " does not override hashCode, use a key extractor instead");
+        }
+        return fmix64(key.hashCode() ^ SEED);
+    }
+
+    private static long hashChars(CharSequence chars) {
+        long h = SEED ^ chars.length();
+        for (int i = 0; i < chars.length(); i++) {
+            h = (h ^ chars.charAt(i)) * 0x100000001B3L;
+        }
+        return fmix64(h);
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
 
-            return md.digest();
+    /**
+     * 环上一段按哈希值排好序的虚拟节点，owners 为对应节点在地址列表中的下标
+     */
+    private static class Segment {
+        final long[] points;
+        final int[] owners;
+
+        Segment(long[] points, int[] owners) {
+            this.points = points;
+            this.owners = owners;
         }
+    }
+
+    static final class Ring extends Segment {
+        /**
+         * 构建时的地址列表
+         */
+        final List<String> urls;
+        final int replicas;
 
-        // hash算法这里实际上是MD5hash算法的变种，能够最大限度的让所有位都参与运算，
-        // 这样hash值才更加均匀；除了MD5hash算法之外，还有FNV1hash
-        // number = 0 ，digest数组倒置，右起
-        // 数组下标3，先&掩码FF，左移24位（高位字节1）
-        // 数组下标2，先&掩码FF，左移16位（高位字节2）
-        // 数组下标1，先&掩码FF，左移8位（高位字节3）
-        // 数组下标0，先&掩码FF，无需移位，最后一个字节字，
-        // 然后这4个字节做或运算，其实就是直接拼起来
-        // 最后再跟掩码做与运算
-        static long hash(byte[] digest, int idx) {
-            return ((long) (digest[3 + idx * 4] & 255) << 24 | (long) (digest[2 + idx * 4] & 255) << 16 | (long) (digest[1 + idx * 4] & 255) << 8 | (long) (digest[idx * 4] & 255)) & 4294967295L;
+        private Ring(List<String> urls, int replicas, Segment segment) {
+            super(segment.points, segment.owners);
+            this.urls = urls;
+            this.replicas = replicas;
+        }
+
+        static Ring build(List<String> urls, int replicas) {
+            List<Segment> segments = new ArrayList<>(urls.size());
+            for (int i = 0; i < urls.size(); i++) {
+                segments.add(nodeSegment(urls.get(i), i, replicas));
+            }
+            return new Ring(urls, replicas, mergeAll(segments, 0, segments.size()));
         }
 
         /**
-         *  选择节点
+         * 保留仍然存在的节点的虚拟节点并改写为新下标，只为新增节点计算哈希，再归并
          */
-        public String select(String rpcServiceKey) {
-            //生成消息摘要
-            byte[] digest = md5(rpcServiceKey);
-            //调用hash(digest, 0)，将消息摘要转换为hashCode，这里仅取0-31位来生成HashCode
-            return selectForKey(hash(digest, 0));
+        Ring update(List<String> newUrls) {
+            Map<String, Integer> newIndexes = new HashMap<>(newUrls.size() * 2);
+            for (int i = 0; i < newUrls.size(); i++) {
+                newIndexes.put(newUrls.get(i), i);
+            }
+            int[] remap = new int[urls.size()];
+            int kept = 0;
+            for (int i = 0; i < urls.size(); i++) {
+                Integer newIndex = newIndexes.remove(urls.get(i));
+                remap[i] = newIndex == null ? -1 : newIndex;
+                if (newIndex != null) {
+                    kept++;
+                }
+            }
+            List<Segment> segments = new ArrayList<>(newIndexes.size() + 1);
+            if (kept > 0) {
+                long[] keptPoints = new long[replicas * kept];
+                int[] keptOwners = new int[keptPoints.length];
+                int n = 0;
+                for (int i = 0; i < points.length; i++) {
+                    int owner = remap[owners[i]];
+                    if (owner >= 0) {
+                        keptPoints[n] = points[i];
+                        keptOwners[n++] = owner;
+                    }
+                }
+                segments.add(new Segment(keptPoints, keptOwners));
+            }
+            // 剩下的是新增节点
+            for (Map.Entry<String, Integer> added : newIndexes.entrySet()) {
+                segments.add(nodeSegment(added.getKey(), added.getValue(), replicas));
+            }
+            return new Ring(newUrls, replicas, mergeAll(segments, 0, segments.size()));
         }
 
         /**
-         *  根据hashCode选择结点
+         * 第一个哈希值不小于 hash 的虚拟节点，超过最大值时回到环首
          */
-        public String selectForKey(long hashCode) {
-            // 1、先找当前key对应的entity，若不存在，走2
-            // 2、找环上hash比key大，且最近的 entry
-            // 3、若无则返回null
-            Map.Entry<Long, String> entry = virtualInvokers.ceilingEntry(hashCode);
-            if (entry == null) {
-                // 若找不到，则直接返回环上第一个entry
-                entry = virtualInvokers.firstEntry();
-            }
-            // 返回具体invoker
-            return entry.getValue();
+        int locate(long hash) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == points.length ? 0 : index;
+        }
+
+        private static Segment nodeSegment(String url, int owner, int replicas) {
+            long base = hashChars(url);
+            long[] points = new long[replicas];
+            for (int i = 0; i < replicas; i++) {
+                points[i] = fmix64(base + (i + 1) * SEED);
+            }
+            Arrays.sort(points);
+            int[] owners = new int[replicas];
+            Arrays.fill(owners, owner);
+            return new Segment(points, owners);
+        }
+
+        private static Segment mergeAll(List<Segment> segments, int from, int to) {
+            if (to == from) {
+                return new Segment(new long[0], new int[0]);
+            }
+            if (to - from == 1) {
+                return segments.get(from);
+            }
+            int mid = (from + to) >>> 1;
+            return merge(mergeAll(segments, from, mid), mergeAll(segments, mid, to));
+        }
+
+        private static Segment merge(Segment a, Segment b) {
+            long[] points = new long[a.points.length + b.points.length];
+            int[] owners = new int[points.length];
+            int i = 0;
+            int j = 0;
+            for (int n = 0; n < points.length; n++) {
+                if (j == b.points.length || (i < a.points.length && a.points[i] <= b.points[j])) {
+                    points[n] = a.points[i];
+                    owners[n] = a.owners[i++];
+                } else {
+                    points[n] = b.points[j];
+                    owners[n] = b.owners[j++];
+                }
+            }
+            return new Segment(points, owners);
         }
     }
 }
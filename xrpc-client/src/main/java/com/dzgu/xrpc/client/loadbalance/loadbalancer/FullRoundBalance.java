@@ -1,20 +1,33 @@
 package com.dzgu.xrpc.client.loadbalance.loadbalancer;
 
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
 import com.dzgu.xrpc.client.loadbalance.LoadBalance;
 import com.dzgu.xrpc.dto.RpcRequest;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @description: 轮询
  */
 public class FullRoundBalance implements LoadBalance {
-    private int index;
+    /**
+     * 多个调用线程共享，按当前列表长度取模，列表变短时不会越界
+     */
+    private final AtomicInteger index = new AtomicInteger();
+
     @Override
     public String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest) {
-        if(serviceAddresses.size()==index){
-            index=0;
-        }
-        return serviceAddresses.get(index++);
+        return serviceAddresses.get(next(serviceAddresses.size()));
+    }
+
+    @Override
+    public Endpoint select(EndpointSnapshot snapshot, RpcRequest rpcRequest) {
+        return snapshot.get(next(snapshot.size()));
+    }
+
+    private int next(int size) {
+        return (index.getAndIncrement() & Integer.MAX_VALUE) % size;
     }
 }
@@ -0,0 +1,51 @@
+package com.dzgu.xrpc.client.loadbalance.loadbalancer;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.dto.RpcRequest;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @description: Peak-EWMA + 随机选二（power of two choices）。随机取两个地址，选延迟估计 ×（在途请求数 + 1）较小的一个。
+ * 慢节点或 GC 停顿中的节点延迟升高、在途请求堆积，很快就被避开；只比较两个节点，不需要全局排序，
+ * 也不会让所有客户端同时涌向同一个“最快”的节点
+ * @Author： dzgu
+ * @Date： 2022/5/17 10:10
+ */
+public class PeakEwmaLoadBalance implements LoadBalance {
+
+    /**
+     * 没有统计信息的地址列表，退化为随机
+     */
+    @Override
+    public String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest) {
+        return serviceAddresses.get(ThreadLocalRandom.current().nextInt(serviceAddresses.size()));
+    }
+
+    @Override
+    public Endpoint select(EndpointSnapshot snapshot, RpcRequest rpcRequest) {
+        return select(snapshot, System.nanoTime());
+    }
+
+    /**
+     * @param now 当前时间，System.nanoTime()
+     */
+    public Endpoint select(EndpointSnapshot snapshot, long now) {
+        int size = snapshot.size();
+        if (size == 1) {
+            return snapshot.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(size);
+        int b = random.nextInt(size - 1);
+        if (b >= a) {
+            b++;
+        }
+        Endpoint first = snapshot.get(a);
+        Endpoint second = snapshot.get(b);
+        return first.getStats().cost(now) <= second.getStats().cost(now) ? first : second;
+    }
+}
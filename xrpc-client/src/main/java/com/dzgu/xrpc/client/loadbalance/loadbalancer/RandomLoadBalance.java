@@ -1,11 +1,13 @@
 package com.dzgu.xrpc.client.loadbalance.loadbalancer;
 
 
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
 import com.dzgu.xrpc.client.loadbalance.LoadBalance;
 import com.dzgu.xrpc.dto.RpcRequest;
 
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @description: 随机
@@ -13,7 +15,11 @@ import java.util.Random;
 public class RandomLoadBalance implements LoadBalance {
     @Override
     public String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest) {
-        Random random = new Random();
-        return serviceAddresses.get(random.nextInt(serviceAddresses.size()));
+        return serviceAddresses.get(ThreadLocalRandom.current().nextInt(serviceAddresses.size()));
+    }
+
+    @Override
+    public Endpoint select(EndpointSnapshot snapshot, RpcRequest rpcRequest) {
+        return snapshot.get(ThreadLocalRandom.current().nextInt(snapshot.size()));
     }
 }
@@ -1,8 +1,13 @@
 package com.dzgu.xrpc.client.proxy;
 
+import com.dzgu.xrpc.annotation.RpcMethod;
+import com.dzgu.xrpc.client.core.CircuitBreakerPolicy;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
 import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.core.ServiceDirectory;
 import com.dzgu.xrpc.client.faultTolerantInvoker.FaultTolerantInvoker;
-import com.dzgu.xrpc.client.faultTolerantInvoker.RetryInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.HedgingInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.Invocation;
 import com.dzgu.xrpc.client.loadbalance.LoadBalance;
 import com.dzgu.xrpc.consts.RpcConstants;
 import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
@@ -10,10 +15,14 @@ import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
 import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
 import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcMethodTable;
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.dto.RpcResponse;
 import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.extension.ExtensionLoader;
 import com.dzgu.xrpc.register.Register;
+import com.dzgu.xrpc.serializer.Serializer;
+import com.dzgu.xrpc.util.DeadlineContext;
 import com.dzgu.xrpc.util.ServiceUtil;
 import lombok.Setter;
 import lombok.SneakyThrows;
@@ -24,9 +33,10 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import static com.dzgu.xrpc.consts.RpcConstants.REQUEST_ID;
 
@@ -46,9 +56,30 @@ public class ProxyFactory {
     private LoadBalance loadBalance;
 
     private FaultTolerantInvoker faultTolerantInvoker;
+    /**
+     * @RpcMethod(hedge = true) 的方法使用对冲请求，原请求和对冲请求各自经过容错策略
+     */
+    private HedgingInvoker hedgingInvoker = new HedgingInvoker();
     private int retryTime = 3;
     private String compress;
     private String serializer;
+    /**
+     * 全局默认超时时间，毫秒
+     */
+    private long timeout = RpcConstants.DEFAULT_TIMEOUT;
+    /**
+     * 完成 CompletableFuture 返回值的线程池，为 null 时直接在 IO 线程上完成
+     */
+    private Executor futureExecutor;
+    /**
+     * 熔断与离群摘除的阈值，为 null 时不摘除节点
+     */
+    private CircuitBreakerPolicy circuitBreakerPolicy;
+
+    /**
+     * 本地的服务地址快照，首次使用时创建
+     */
+    private volatile ServiceDirectory serviceDirectory;
 
     private Map<String, Object> objectCache = new HashMap<>();
 
@@ -59,34 +90,79 @@ public class ProxyFactory {
      * 获取被调用服务的动态代理类
      */
     public <T> T getProxy(Class<T> interfaceClass, String version, boolean isAsync) {
-        if (isAsync) {
-            return (T) asyncObjectCache.computeIfAbsent(interfaceClass.getName() + version, clz ->
-                    Proxy.newProxyInstance(
-                            interfaceClass.getClassLoader(),
-                            new Class<?>[]{interfaceClass},
-                            new ObjectProxy<T>(interfaceClass, version, isAsync)
-                    )
-            );
-        } else {
-            return (T) objectCache.computeIfAbsent(interfaceClass.getName() + version, clz ->
-                    Proxy.newProxyInstance(
-                            interfaceClass.getClassLoader(),
-                            new Class<?>[]{interfaceClass},
-                            new ObjectProxy<T>(interfaceClass, version, isAsync)
-                    )
+        return getProxy(interfaceClass, version, isAsync, 0);
+    }
+
+    /**
+     * 获取被调用服务的动态代理类
+     *
+     * @param timeout 该引用的超时时间，毫秒，0 表示使用全局配置
+     */
+    public <T> T getProxy(Class<T> interfaceClass, String version, boolean isAsync, long timeout) {
+        Map<String, Object> cache = isAsync ? asyncObjectCache : objectCache;
+        return (T) cache.computeIfAbsent(interfaceClass.getName() + version + "#" + timeout, clz -> {
+            // 提前完成序列化的初始化工作，首批请求不再承担；只在创建代理时做一次，之后取缓存的代理不再重复
+            ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(serializer).prepare(interfaceClass);
+            return Proxy.newProxyInstance(
+                    interfaceClass.getClassLoader(),
+                    new Class<?>[]{interfaceClass},
+                    new ObjectProxy<T>(interfaceClass, version, isAsync, timeout)
             );
+        });
+    }
+
+    private ServiceDirectory serviceDirectory() {
+        ServiceDirectory directory = serviceDirectory;
+        if (directory == null) {
+            synchronized (this) {
+                directory = serviceDirectory;
+                if (directory == null) {
+                    directory = serviceDirectory = new ServiceDirectory(register, nettyClient, circuitBreakerPolicy);
+                }
+            }
         }
+        return directory;
     }
 
     private class ObjectProxy<T> implements InvocationHandler {
         private Class<T> clazz;
         private String version;
         private boolean isAsync;
+        /**
+         * 引用上配置的超时时间，毫秒，0 表示使用全局配置
+         */
+        private long timeout;
+        /**
+         * 方法 -> 方法标识，用于在服务端下发的方法表中查找方法 ID
+         */
+        private final Map<Method, String> methodKeys = new ConcurrentHashMap<>();
+        /**
+         * 方法 -> 超时时间，优先级：方法上的 @RpcMethod > 引用上的 @RpcAutowired > 全局配置
+         */
+        private final Map<Method, Long> methodTimeouts = new ConcurrentHashMap<>();
+        /**
+         * 方法 -> 是否对冲
+         */
+        private final Map<Method, Boolean> methodHedges = new ConcurrentHashMap<>();
 
-        public ObjectProxy(Class<T> clazz, String version, boolean isAsync) {
+        public ObjectProxy(Class<T> clazz, String version, boolean isAsync, long timeout) {
             this.clazz = clazz;
             this.version = version;
             this.isAsync = isAsync;
+            this.timeout = timeout;
+        }
+
+        private long timeoutOf(Method method) {
+            RpcMethod rpcMethod = method.getAnnotation(RpcMethod.class);
+            if (rpcMethod != null && rpcMethod.timeout() > 0) {
+                return rpcMethod.timeout();
+            }
+            return timeout > 0 ? timeout : ProxyFactory.this.timeout;
+        }
+
+        private boolean hedgeOf(Method method) {
+            RpcMethod rpcMethod = method.getAnnotation(RpcMethod.class);
+            return rpcMethod != null && rpcMethod.hedge();
         }
 
         /**
@@ -102,31 +178,46 @@ public class ProxyFactory {
                     .parameters(args)
                     .parameterTypes(method.getParameterTypes())
                     .className(method.getDeclaringClass().getName())
-                    .requestId(UUID.randomUUID().toString())
                     .version(version)
+                    .methodKey(methodKeys.computeIfAbsent(method, m -> RpcMethodTable.methodKey(
+                            clazz.getName(), version, m.getName(), m.getParameterTypes())))
                     .build();
             String rpcServiceName = rpcRequest.getClassName();
             String version = rpcRequest.getVersion();
             String serviceKey = ServiceUtil.makeServiceKey(rpcServiceName, version);
-            // 从注册中心 拿到该rpcService下的所有server的Address
-            List<String> serviceUrlList = register.lookupService(serviceKey);
-            ;
-            // 负载均衡
-            String targetServiceUrl = loadBalance.selectServiceAddress(serviceUrlList, rpcRequest);
-            log.debug("Successfully found the com.dzgu.xprc.service address:[{}]", targetServiceUrl);
+            // 本地的服务地址快照，由注册中心推送更新，调用时不访问注册中心；被熔断的节点不交给负载均衡
+            EndpointSnapshot snapshot = serviceDirectory().snapshot(serviceKey);
+            // 截止时间取自身超时与服务端正在处理的请求剩余时间中较早的一个，随请求发给服务端
+            long methodTimeout = methodTimeouts.computeIfAbsent(method, this::timeoutOf);
             //封装Message
             RpcMessage rpcMessage = RpcMessage.builder()
                     .data(rpcRequest)
                     .codec(SerializerTypeEnum.getCode(serializer))
                     .compress(CompressTypeEnum.getCode(compress))
                     .requestId(REQUEST_ID.getAndIncrement())
+                    .serviceKey(serviceKey)
+                    .timeout(methodTimeout)
+                    .deadlineNanos(DeadlineContext.deadlineFor(methodTimeout))
                     .messageType(RpcConstants.REQUEST_TYPE).build();
-            // Netty向服务端发送请求
-            RpcResponse<Object> rpcResponse = null;
-            if (faultTolerantInvoker instanceof RetryInvoker) {
-                RetryInvoker.DEFAULT_RETRY_TIMES = retryTime;
+            // 由容错策略通过负载均衡选择节点，Netty向服务端发送请求
+            Invocation invocation = Invocation.builder()
+                    .nettyClient(nettyClient)
+                    .rpcMessage(rpcMessage)
+                    .rpcRequest(rpcRequest)
+                    .snapshot(snapshot)
+                    .loadBalance(loadBalance)
+                    .retries(retryTime)
+                    .isAsync(isAsync)
+                    .executor(futureExecutor).build();
+            // 回调方式的异步调用不对冲
+            boolean hedge = !isAsync && methodHedges.computeIfAbsent(method, this::hedgeOf);
+            if (method.getReturnType() == CompletableFuture.class) {
+                // 声明返回 CompletableFuture 的方法直接返回，收到响应时完成
+                return hedge ? hedgingInvoker.doinvokeAsync(invocation, faultTolerantInvoker)
+                        : faultTolerantInvoker.doinvokeAsync(invocation);
             }
-            rpcResponse = faultTolerantInvoker.doinvoke(nettyClient, rpcMessage, targetServiceUrl, isAsync);
+            RpcResponse<Object> rpcResponse = hedge ? hedgingInvoker.doinvoke(invocation, faultTolerantInvoker)
+                    : faultTolerantInvoker.doinvoke(invocation);
             this.check(rpcResponse, rpcRequest);
             return rpcResponse.getData();
 
@@ -137,10 +228,6 @@ public class ProxyFactory {
                 throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, "interfaceName" + ":" + rpcRequest.getMethodName());
             }
 
-            if (!rpcRequest.getRequestId().equals(rpcResponse.getRequestId())) {
-                throw new RpcException(RpcErrorMessageEnum.REQUEST_NOT_MATCH_RESPONSE, "interfaceName" + ":" + rpcRequest.getMethodName());
-            }
-
             if (rpcResponse.getCode() == null || !rpcResponse.getCode().equals(RpcResponseCodeEnum.SUCCESS.getCode())) {
                 throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, "interfaceName" + ":" + rpcRequest.getMethodName());
             }
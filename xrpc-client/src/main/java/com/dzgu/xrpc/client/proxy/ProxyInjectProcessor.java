@@ -34,9 +34,10 @@ public class ProxyInjectProcessor implements ApplicationListener<ContextRefreshe
                     if (rpcAutowired != null) {
                         String version = rpcAutowired.version();
                         boolean isAsync = rpcAutowired.isAsync();
+                        long timeout = rpcAutowired.timeout();
                         field.setAccessible(true);
                         try {
-                            field.set(bean, proxyFactory.getProxy(field.getType(), version, isAsync));
+                            field.set(bean, proxyFactory.getProxy(field.getType(), version, isAsync, timeout));
                         } catch (IllegalAccessException e) {
                             log.error("field.set error. bean={}, field={}", bean.getClass(), field.getName(), e);
                         }
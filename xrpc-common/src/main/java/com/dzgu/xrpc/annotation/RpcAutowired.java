@@ -18,4 +18,9 @@ import java.lang.annotation.Target;
 public @interface RpcAutowired {
     String version() default "";
     boolean isAsync() default false;
+
+    /**
+     * 该引用上所有方法的超时时间，毫秒，0 表示使用全局配置 xrpc.timeout。方法上的 {@link RpcMethod} 优先
+     */
+    long timeout() default 0;
 }
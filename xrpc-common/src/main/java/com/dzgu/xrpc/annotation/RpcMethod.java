@@ -0,0 +1,25 @@
+package com.dzgu.xrpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @description: 服务接口方法上的调用配置，客户端与服务端共用接口时两边都能读到
+ * @Author： dzgu
+ * @Date： 2022/5/15 14:30
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcMethod {
+    /**
+     * 超时时间，毫秒，0 表示沿用 {@link RpcAutowired#timeout()} 或全局配置
+     */
+    long timeout() default 0;
+
+    /**
+     * 是否对冲：请求在一段时间内没有响应时向另一个节点再发一份，取先到的响应。只能用于幂等的方法
+     */
+    boolean hedge() default false;
+}
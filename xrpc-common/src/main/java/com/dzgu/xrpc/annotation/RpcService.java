@@ -1,5 +1,6 @@
 package com.dzgu.xrpc.annotation;
 
+import com.dzgu.xrpc.consts.enums.RejectPolicyEnum;
 import org.springframework.stereotype.Component;
 
 import java.lang.annotation.ElementType;
@@ -19,4 +20,19 @@ public @interface RpcService {
     Class<?> value();
 
     String version() default "";
+
+    /**
+     * 独立线程池的线程数，0 表示使用所有服务共享的线程池。独立线程池与其他服务隔离，慢服务不会拖累其他服务
+     */
+    int threads() default 0;
+
+    /**
+     * 独立线程池的队列长度，0 表示不排队，没有空闲线程时直接拒绝
+     */
+    int queueCapacity() default 0;
+
+    /**
+     * 独立线程池已满时的处理方式
+     */
+    RejectPolicyEnum rejectPolicy() default RejectPolicyEnum.OVERLOAD;
 }
@@ -0,0 +1,156 @@
+package com.dzgu.xrpc.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * @description: 合并 flush，减少写系统调用。放在 pipeline 的最前面（靠近 head），看到的是编码后的 ByteBuf。
+ * 每次 flush 先攒着：读事件处理中产生的 flush 在本轮读完成（channelReadComplete）时一起刷出；
+ * 其他 flush（如业务线程写出的响应、调用方线程发出的请求）提交一个刷出任务到 EventLoop，
+ * 同一轮 EventLoop 中的写共用一次刷出，增加的延迟不超过一轮 EventLoop。
+ * 攒够 maxMessages 次 flush 或 maxBytes 字节时立即刷出
+ * @Author： dzgu
+ * @Date： 2022/5/14 19:30
+ */
+public class FlushBatchHandler extends ChannelDuplexHandler {
+    public static final int DEFAULT_MAX_MESSAGES = 64;
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+    private final int maxMessages;
+    private final int maxBytes;
+    private final Runnable flushTask;
+    private ChannelHandlerContext ctx;
+    /**
+     * 以下状态只在 EventLoop 中访问
+     */
+    private int pendingFlushes;
+    private long pendingBytes;
+    private boolean readInProgress;
+    private boolean flushScheduled;
+    /**
+     * 写出的消息数和实际刷出的次数，只在 EventLoop 中写入
+     */
+    private volatile long writes;
+    private volatile long flushes;
+
+    public FlushBatchHandler() {
+        this(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxMessages 攒够多少次 flush 时立即刷出
+     * @param maxBytes    攒够多少字节时立即刷出
+     */
+    public FlushBatchHandler(int maxMessages, int maxBytes) {
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("maxMessages: " + maxMessages + " (expected: > 0)");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.flushTask = () -> {
+            flushScheduled = false;
+            if (pendingFlushes > 0 && !readInProgress) {
+                flushNow(this.ctx);
+            }
+        };
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            pendingBytes += ((ByteBuf) msg).readableBytes();
+        }
+        writes++;
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (++pendingFlushes >= maxMessages || pendingBytes >= maxBytes) {
+            flushNow(ctx);
+        } else if (!readInProgress && !flushScheduled) {
+            // 读事件处理中的 flush 在 channelReadComplete 时刷出，其余的在本轮 EventLoop 结束前刷出
+            flushScheduled = true;
+            ctx.channel().eventLoop().execute(flushTask);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            // 出站缓冲区满了，尽快刷出
+            flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        flushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushIfNeeded(ctx);
+    }
+
+    private void flushIfNeeded(ChannelHandlerContext ctx) {
+        if (pendingFlushes > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        pendingFlushes = 0;
+        pendingBytes = 0;
+        flushes++;
+        ctx.flush();
+    }
+
+    /**
+     * 经过该 handler 写出的消息数
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * 实际刷出（写系统调用）的次数
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+}
@@ -1,20 +1,27 @@
 package com.dzgu.xrpc.codec;
 
 import com.dzgu.xrpc.compress.Compress;
+import com.dzgu.xrpc.compress.CompressPolicy;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionary;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionarySession;
 import com.dzgu.xrpc.consts.RpcConstants;
 import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
 import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcMethodTable;
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.dto.RpcResponse;
 import com.dzgu.xrpc.extension.ExtensionLoader;
 import com.dzgu.xrpc.serializer.Serializer;
+import com.dzgu.xrpc.util.ServiceUtil;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.dzgu.xrpc.consts.RpcConstants.*;
 
@@ -31,7 +38,10 @@ import static com.dzgu.xrpc.consts.RpcConstants.*;
  * +-------------------------------------------------------------------------------------------------------+
  * 4B  magic code（魔法数）   1B version（版本）   4B full length（消息长度）    1B messageType（消息类型）
  * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
+ * messageType 最高位置位时，帧头后紧跟 4B 剩余时间预算（毫秒）
+ * 4B dictionaryId（字典ID，仅当 compress 为 zstddict 时存在）
  * body（object类型数据）
+ * v2 协议（version 为 2）的请求，body 为 varint 方法 ID + 只含参数的 RpcRequest，方法 ID 来自服务端下发的方法表
  *
  * @description: 编解码具体逻辑
  * @Author： dzgu
@@ -39,28 +49,70 @@ import static com.dzgu.xrpc.consts.RpcConstants.*;
  */
 @Slf4j
 public class RpcCodec {
+    /**
+     * 使用默认压缩策略的编解码器。客户端和服务端各自创建带有自己压缩策略的实例，不修改它的压缩策略
+     */
     public static final RpcCodec INSTANCE = new RpcCodec();
+    /**
+     * 帧头中 compress 字节的偏移
+     */
+    private static final int COMPRESS_OFFSET = MAGIC_LENGTH + VERSION_LENGTH + FULL_LENGTH_LENGTH + 2;
+    /**
+     * 客户端连接上保存的服务端方法表
+     */
+    public static final AttributeKey<RpcMethodTable> METHOD_TABLE_KEY = AttributeKey.valueOf("xrpc.methodTable");
     private final Map<Byte, Class<?>> messageTypeMap;
+    /**
+     * 压缩策略，决定每一帧实际使用的压缩算法，并统计本实例编解码的帧
+     */
+    private final CompressPolicy compressPolicy;
 
     public RpcCodec() {
+        this(new CompressPolicy());
+    }
+
+    public RpcCodec(CompressPolicy compressPolicy) {
+        this.compressPolicy = compressPolicy;
         messageTypeMap = new HashMap<>();
         messageTypeMap.put(REQUEST_TYPE, RpcRequest.class);
         messageTypeMap.put(RESPONSE_TYPE, RpcResponse.class);
+        messageTypeMap.put(DICTIONARY_TYPE, ZstdDictionary.class);
+        messageTypeMap.put(METHOD_TABLE_TYPE, RpcMethodTable.class);
     }
 
     /**
      * ByteBuf 解码为RpcMessage
      */
     public Object decode(ByteBuf in) {
+        return decode(in, null);
+    }
+
+    /**
+     * ByteBuf 解码为RpcMessage
+     *
+     * @param session 连接上的字典状态，为空时不支持字典压缩
+     */
+    public Object decode(ByteBuf in, ZstdDictionarySession session) {
+        // 魔数和版本已由 Spliter 读取校验
+        byte version = in.getByte(in.readerIndex() - 1);
         int fullLength = in.readInt();
         byte messageType = in.readByte();
         byte codecType = in.readByte();
         byte compressType = in.readByte();
         int requestId = in.readInt();
+        int extensionLength = 0;
+        long deadlineNanos = 0;
+        if ((messageType & DEADLINE_FLAG) != 0) {
+            messageType &= ~DEADLINE_FLAG;
+            // 剩余时间预算换算为本机的截止时间
+            deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(in.readInt());
+            extensionLength = DEADLINE_LENGTH;
+        }
         RpcMessage rpcMessage = RpcMessage.builder()
                 .codec(codecType)
                 .requestId(requestId)
                 .compress(compressType)
+                .deadlineNanos(deadlineNanos)
                 .messageType(messageType).build();
         //心跳类型的请求、body 长度 0，不需要decode数据体
         if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
@@ -71,74 +123,239 @@ public class RpcCodec {
             rpcMessage.setData(RpcConstants.PONG);
             return rpcMessage;
         }
-        // 获取数据体body的长度
-        int bodyLength = fullLength - RpcConstants.HEAD_LENGTH;
-        byte[] bs = new byte[bodyLength];
-        in.readBytes(bs);
-        // 反压缩
-        String compressName = CompressTypeEnum.getName(compressType);
-        Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
-                .getExtension(compressName);
-        bs = compress.decompress(bs);
-        // 反序列化
+        // 获取数据体body的长度, 直接切片引用原始帧, 不做拷贝
+        int bodyLength = fullLength - RpcConstants.HEAD_LENGTH - extensionLength;
+        Compress compress = null;
+        if (compressType == CompressTypeEnum.ZSTD_DICT.getCode()) {
+            int dictionaryId = in.readInt();
+            bodyLength -= DICTIONARY_ID_LENGTH;
+            ZstdDictionary dictionary = session == null ? null : session.get(dictionaryId);
+            if (dictionary == null) {
+                throw new IllegalStateException("unknown zstd dictionary: " + dictionaryId);
+            }
+            compress = dictionary.getCompress();
+        } else if (compressType != CompressTypeEnum.DUMMY.getCode()) {
+            String compressName = CompressTypeEnum.getName(compressType);
+            compress = ExtensionLoader.getExtensionLoader(Compress.class)
+                    .getExtension(compressName);
+        }
+        ByteBuf body = in.readSlice(bodyLength);
         String codecName = SerializerTypeEnum.getName(rpcMessage.getCodec());
         Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class)
                 .getExtension(codecName);
+        Class<?> clazz = messageTypeMap.get(messageType);
+        Object object;
+        if (compress == null) {
+            // 未压缩, 直接从切片反序列化
+            object = deserialize(serializer, clazz, body, version, session);
+        } else {
+            // 反压缩到池化缓冲区, 再反序列化
+            ByteBuf plain = in.alloc().buffer(bodyLength << 1);
+            try {
+                long start = System.nanoTime();
+                compress.decompress(body, plain);
+                compressPolicy.recordDecompress(messageType, compressType, System.nanoTime() - start);
+                object = deserialize(serializer, clazz, plain, version, session);
+            } finally {
+                plain.release();
+            }
+        }
+        if (messageType == DICTIONARY_TYPE && session != null) {
+            session.onReceived((ZstdDictionary) object);
+        }
         // 设置decode后的消息体
-        Object object = serializer.deserialize(messageTypeMap.get(messageType), bs);
         rpcMessage.setData(object);
         return rpcMessage;
     }
 
+    /**
+     * 反序列化消息体。已启用字典的服务，请求体同样作为训练样本
+     */
+    private Object deserialize(Serializer serializer, Class<?> clazz, ByteBuf plain, byte version, ZstdDictionarySession session) {
+        int methodId = 0;
+        if (version == VERSION_V2 && clazz == RpcRequest.class) {
+            methodId = readVarInt(plain);
+        }
+        int plainStart = plain.readerIndex();
+        Object object = serializer.deserialize(clazz, plain);
+        if (methodId != 0) {
+            // 方法信息由服务端按方法 ID 补全，v2 请求体不用于训练字典
+            ((RpcRequest) object).setMethodId(methodId);
+        } else if (session != null && object instanceof RpcRequest) {
+            RpcRequest rpcRequest = (RpcRequest) object;
+            session.sample(ServiceUtil.makeServiceKey(rpcRequest.getClassName(), rpcRequest.getVersion()),
+                    plain.slice(plainStart, plain.writerIndex() - plainStart), false);
+        }
+        return object;
+    }
+
     public ByteBuf encode(RpcMessage rpcMessage, ByteBuf out) {
+        return encode(rpcMessage, out, null, null);
+    }
+
+    /**
+     * RpcMessage 编码进 out
+     *
+     * @param session     连接上的字典状态，为空时字典压缩退化为普通 zstd
+     * @param methodTable 服务端下发的方法表，请求的方法在表中时使用 v2 协议编码
+     */
+    public ByteBuf encode(RpcMessage rpcMessage, ByteBuf out, ZstdDictionarySession session, RpcMethodTable methodTable) {
+        // 记录帧起始位置, out 不一定从 0 开始写
+        int frameStart = out.writerIndex();
         try {
             // 4B magic code（魔数）
             out.writeBytes(RpcConstants.MAGIC_NUMBER);
+            byte messageType = rpcMessage.getMessageType();
+            Object data = rpcMessage.getData();
+            int methodId = 0;
+            if (messageType == REQUEST_TYPE && methodTable != null) {
+                RpcRequest rpcRequest = (RpcRequest) data;
+                if (rpcRequest.getMethodKey() != null) {
+                    methodId = methodTable.getMethodId(rpcRequest.getMethodKey());
+                }
+                if (methodId != 0) {
+                    // 另建请求对象，原请求重试时可能发往不支持 v2 的服务端
+                    data = RpcRequest.builder().parameters(rpcRequest.getParameters()).build();
+                }
+            }
             // 1B version（版本）
-            out.writeByte(RpcConstants.VERSION);
+            out.writeByte(methodId != 0 ? VERSION_V2 : VERSION);
             // 4B full length（消息长度）. 先空着，后面填。
-            out.writerIndex(out.writerIndex() + 4);
-            // 1B messageType（消息类型）
-            byte messageType = rpcMessage.getMessageType();
-            out.writeByte(messageType);
+            out.writerIndex(out.writerIndex() + FULL_LENGTH_LENGTH);
+            // 1B messageType（消息类型），带截止时间的请求置位最高位
+            boolean hasDeadline = messageType == REQUEST_TYPE && rpcMessage.getDeadlineNanos() != 0;
+            out.writeByte(hasDeadline ? messageType | DEADLINE_FLAG : messageType);
             // 1B codec（序列化类型）
             out.writeByte(rpcMessage.getCodec());
             // 1B compress（压缩类型）
             out.writeByte(rpcMessage.getCompress());
             // 4B requestId（请求的Id）
             out.writeInt(rpcMessage.getRequestId());
-            // 写body，并获取数据长度
-            byte[] bodyBytes = null;
-            int fullLength = RpcConstants.HEAD_LENGTH;
+            if (hasDeadline) {
+                // 4B 编码时剩余的时间预算（毫秒），已过期时为 0
+                long remaining = TimeUnit.NANOSECONDS.toMillis(rpcMessage.getDeadlineNanos() - System.nanoTime());
+                out.writeInt((int) Math.max(0, Math.min(remaining, Integer.MAX_VALUE)));
+            }
+            // 写body
             if (messageType != RpcConstants.HEARTBEAT_REQUEST_TYPE
                     && messageType != RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
-                // 序列化
                 String codecName = SerializerTypeEnum.getName(rpcMessage.getCodec());
                 Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class)
                         .getExtension(codecName);
-                bodyBytes = serializer.serialize(rpcMessage.getData());
-                // 压缩
-                String compressName = CompressTypeEnum.getName(rpcMessage.getCompress());
-                Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
-                        .getExtension(compressName);
-                bodyBytes = compress.compress(bodyBytes);
-                // 总长度=消息头长度+body
-                fullLength += bodyBytes.length;
-            }
-            if (bodyBytes != null) {
-                out.writeBytes(bodyBytes);
+                // 直接序列化进 out
+                int bodyStart = out.writerIndex();
+                if (methodId != 0) {
+                    writeVarInt(out, methodId);
+                }
+                serializer.serialize(data, out);
+                int bodyLength = out.writerIndex() - bodyStart;
+                // 按策略决定是否压缩，实际的压缩类型回填到帧头
+                byte compressType = compressPolicy.select(messageType, rpcMessage.getCompress(), bodyLength);
+                if (compressType == CompressTypeEnum.ZSTD_DICT.getCode()) {
+                    compressType = compressBodyWithDictionary(out, bodyStart, bodyLength, rpcMessage, session);
+                } else if (compressType != CompressTypeEnum.DUMMY.getCode()) {
+                    compressType = compressBody(out, bodyStart, bodyLength, messageType, compressType, null, null);
+                }
+                out.setByte(frameStart + COMPRESS_OFFSET, compressType);
+                if (messageType == DICTIONARY_TYPE && session != null) {
+                    session.onSent((ZstdDictionary) rpcMessage.getData());
+                }
             }
-            // 记录当前写指针
-            int writeIndex = out.writerIndex();
-            // 写空出的4B full length（消息长度）
-            out.writerIndex(MAGIC_LENGTH + VERSION_LENGTH);
-            out.writeInt(fullLength);
-            // 写指针复原
-            out.writerIndex(writeIndex);
+            // 总长度=消息头长度+body, 回填空出的4B full length（消息长度）
+            int fullLength = out.writerIndex() - frameStart;
+            out.setInt(frameStart + MAGIC_LENGTH + VERSION_LENGTH, fullLength);
         } catch (Exception e) {
+            // 丢弃写了一半的帧
+            out.writerIndex(frameStart);
             log.error("Encode request error!", e);
         }
         return out;
     }
 
+    /**
+     * 使用该服务的字典压缩消息体，字典尚未就绪时退化为普通 zstd，同时采样用于训练字典
+     *
+     * @return 实际使用的压缩类型
+     */
+    private byte compressBodyWithDictionary(ByteBuf out, int bodyStart, int bodyLength, RpcMessage rpcMessage,
+                                            ZstdDictionarySession session) {
+        byte messageType = rpcMessage.getMessageType();
+        String serviceKey = rpcMessage.getServiceKey();
+        ZstdDictionary dictionary = null;
+        if (session != null && serviceKey != null) {
+            session.sample(serviceKey, out.slice(bodyStart, bodyLength), true);
+            dictionary = session.dictionaryFor(serviceKey);
+        }
+        if (dictionary == null) {
+            return compressBody(out, bodyStart, bodyLength, messageType, CompressTypeEnum.ZSTD.getCode(), null, null);
+        }
+        return compressBody(out, bodyStart, bodyLength, messageType, CompressTypeEnum.ZSTD_DICT.getCode(), dictionary, session);
+    }
+
+    /**
+     * 压缩 out 中已写入的消息体。只有超过阈值的消息才会走到这里，压缩结果变小时才替换原文
+     *
+     * @param dictionary 字典压缩时使用的字典，其 ID 写在消息体之前
+     * @param session    字典压缩时所在连接的字典状态
+     * @return 实际使用的压缩类型
+     */
+    private byte compressBody(ByteBuf out, int bodyStart, int bodyLength, byte messageType, byte compressType,
+                              ZstdDictionary dictionary, ZstdDictionarySession session) {
+        Compress compress;
+        int prefixLength = 0;
+        if (dictionary != null) {
+            compress = dictionary.getCompress();
+            prefixLength = DICTIONARY_ID_LENGTH;
+        } else {
+            String compressName = CompressTypeEnum.getName(compressType);
+            compress = ExtensionLoader.getExtensionLoader(Compress.class)
+                    .getExtension(compressName);
+        }
+        ByteBuf compressed = out.alloc().buffer(bodyLength);
+        try {
+            long start = System.nanoTime();
+            compress.compress(out.slice(bodyStart, bodyLength), compressed);
+            int compressedLength = compressed.readableBytes() + prefixLength;
+            compressPolicy.recordCompress(messageType, compressType, bodyLength, compressedLength, System.nanoTime() - start);
+            if (dictionary != null) {
+                session.record(dictionary, bodyLength, compressedLength);
+            }
+            if (compressedLength >= bodyLength) {
+                // 压缩没有收益，保留原文
+                return CompressTypeEnum.DUMMY.getCode();
+            }
+            out.writerIndex(bodyStart);
+            if (dictionary != null) {
+                out.writeInt(dictionary.getId());
+            }
+            out.writeBytes(compressed);
+            return compressType;
+        } finally {
+            compressed.release();
+        }
+    }
+
+    private static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    public CompressPolicy getCompressPolicy() {
+        return compressPolicy;
+    }
 }
@@ -1,5 +1,7 @@
 package com.dzgu.xrpc.codec;
 
+import com.dzgu.xrpc.compress.zstd.ZstdDictionarySession;
+import com.dzgu.xrpc.dto.RpcMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -15,12 +17,25 @@ import java.util.List;
  */
 @Slf4j
 public class RpcDecoder extends ByteToMessageDecoder {
+    private final RpcCodec codec;
+
     public RpcDecoder() {
+        this(RpcCodec.INSTANCE);
+    }
+
+    /**
+     * @param codec 所属客户端或服务端的编解码器，解压的统计计入它的压缩策略
+     */
+    public RpcDecoder(RpcCodec codec) {
+        this.codec = codec;
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf byteBuf, List<Object> out) throws Exception {
-        out.add(RpcCodec.INSTANCE.decode(byteBuf));
+        long receiveNanos = System.nanoTime();
+        RpcMessage rpcMessage = (RpcMessage) codec.decode(byteBuf, ctx.channel().attr(ZstdDictionarySession.KEY).get());
+        rpcMessage.setReceiveNanos(receiveNanos);
+        out.add(rpcMessage);
     }
 
 }
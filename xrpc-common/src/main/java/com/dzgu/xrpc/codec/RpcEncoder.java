@@ -1,5 +1,6 @@
 package com.dzgu.xrpc.codec;
 
+import com.dzgu.xrpc.compress.zstd.ZstdDictionarySession;
 import com.dzgu.xrpc.dto.RpcMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -11,8 +12,22 @@ import io.netty.handler.codec.MessageToByteEncoder;
  * @Date： 2022/4/24 14:27
  */
 public class RpcEncoder extends MessageToByteEncoder<RpcMessage> {
+    private final RpcCodec codec;
+
+    public RpcEncoder() {
+        this(RpcCodec.INSTANCE);
+    }
+
+    /**
+     * @param codec 所属客户端或服务端的编解码器，决定使用的压缩策略
+     */
+    public RpcEncoder(RpcCodec codec) {
+        this.codec = codec;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf byteBuf) throws Exception {
-        RpcCodec.INSTANCE.encode(rpcMessage, byteBuf);
+        codec.encode(rpcMessage, byteBuf, ctx.channel().attr(ZstdDictionarySession.KEY).get(),
+                ctx.channel().attr(RpcCodec.METHOD_TABLE_KEY).get());
     }
 }
@@ -23,6 +23,7 @@ import static com.dzgu.xrpc.consts.RpcConstants.*;
  * +-------------------------------------------------------------------------------------------------------+
  * 4B  magic code（魔法数）   1B version（版本）   4B full length（消息长度）    1B messageType（消息类型）
  * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
+ * messageType 最高位置位时，帧头后紧跟 4B 剩余时间预算（毫秒）
  * body（object类型数据）
  *
  * @description: 拆包
@@ -82,7 +83,7 @@ public class Spliter extends LengthFieldBasedFrameDecoder {
         // 读取版本号
         byte version = in.readByte();
         // 比较版本号是否符合规定，不符合抛出异常
-        if (version != RpcConstants.VERSION) {
+        if (version != RpcConstants.VERSION && version != RpcConstants.VERSION_V2) {
             log.error("version isn't compatible" + version);
             return false;
         }
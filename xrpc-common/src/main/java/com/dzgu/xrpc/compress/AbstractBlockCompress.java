@@ -0,0 +1,145 @@
+package com.dzgu.xrpc.compress;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @description: 块压缩算法（LZ4、Snappy、Zstd 等 native 实现）的公共部分。
+ * 压缩结果格式为 [4 字节原文长度][压缩块]，解压时据此一次性分配好目标空间。
+ * 两端都是直接内存时走 ByteBuffer 接口，由 native 代码直接读写，否则走 byte[] 接口
+ * @Author： dzgu
+ * @Date： 2022/5/12 19:40
+ */
+public abstract class AbstractBlockCompress implements Compress {
+    protected static final int LENGTH_PREFIX = 4;
+    /**
+     * 解压后允许的最大长度，防止恶意构造的长度前缀导致超大内存分配
+     */
+    private static final int MAX_DECOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * 压缩结果的最大可能长度，不含长度前缀
+     */
+    protected abstract int maxCompressedLength(int length);
+
+    /**
+     * 压缩 src 的 [position, limit) 并从 dst 的 position 处写入，两者均为直接内存
+     *
+     * @return 压缩后的长度
+     */
+    protected abstract int compress(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * @return 压缩后的长度
+     */
+    protected abstract int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int maxDstLength);
+
+    /**
+     * 解压 src 的 [position, limit) 并从 dst 的 position 处写入 rawLength 个字节，两者均为直接内存
+     */
+    protected abstract void decompress(ByteBuffer src, ByteBuffer dst, int rawLength);
+
+    protected abstract void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int rawLength);
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        byte[] out = new byte[LENGTH_PREFIX + maxCompressedLength(bytes.length)];
+        writeLength(out, bytes.length);
+        int written = compress(bytes, 0, bytes.length, out, LENGTH_PREFIX, out.length - LENGTH_PREFIX);
+        return Arrays.copyOf(out, LENGTH_PREFIX + written);
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        if (bytes.length < LENGTH_PREFIX) {
+            throw new IllegalArgumentException(getCompressAlgorithm().getName() + " decompress error, truncated input");
+        }
+        int rawLength = checkLength(((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16)
+                | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff));
+        byte[] out = new byte[rawLength];
+        decompress(bytes, LENGTH_PREFIX, bytes.length - LENGTH_PREFIX, out, 0, rawLength);
+        return out;
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        int length = in.readableBytes();
+        int maxLength = maxCompressedLength(length);
+        out.ensureWritable(LENGTH_PREFIX + maxLength);
+        out.writeInt(length);
+        int dstIndex = out.writerIndex();
+        int written;
+        if (in.isDirect() && out.isDirect() && in.nioBufferCount() == 1 && out.nioBufferCount() == 1) {
+            written = compress(in.nioBuffer(in.readerIndex(), length), out.nioBuffer(dstIndex, maxLength));
+        } else if (out.hasArray()) {
+            written = compressToArray(in, length, out.array(), out.arrayOffset() + dstIndex, maxLength);
+        } else {
+            byte[] dst = new byte[maxLength];
+            written = compressToArray(in, length, dst, 0, maxLength);
+            out.setBytes(dstIndex, dst, 0, written);
+        }
+        in.skipBytes(length);
+        out.writerIndex(dstIndex + written);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        int rawLength = checkLength(in.readInt());
+        int length = in.readableBytes();
+        out.ensureWritable(rawLength);
+        int dstIndex = out.writerIndex();
+        if (in.isDirect() && out.isDirect() && in.nioBufferCount() == 1 && out.nioBufferCount() == 1) {
+            decompress(in.nioBuffer(in.readerIndex(), length), out.nioBuffer(dstIndex, rawLength), rawLength);
+        } else if (out.hasArray()) {
+            decompressToArray(in, length, out.array(), out.arrayOffset() + dstIndex, rawLength);
+        } else {
+            byte[] dst = new byte[rawLength];
+            decompressToArray(in, length, dst, 0, rawLength);
+            out.setBytes(dstIndex, dst);
+        }
+        in.skipBytes(length);
+        out.writerIndex(dstIndex + rawLength);
+    }
+
+    private int compressToArray(ByteBuf in, int length, byte[] dst, int dstOffset, int maxLength) {
+        if (in.hasArray()) {
+            return compress(in.array(), in.arrayOffset() + in.readerIndex(), length, dst, dstOffset, maxLength);
+        }
+        byte[] src = new byte[length];
+        in.getBytes(in.readerIndex(), src);
+        return compress(src, 0, length, dst, dstOffset, maxLength);
+    }
+
+    private void decompressToArray(ByteBuf in, int length, byte[] dst, int dstOffset, int rawLength) {
+        if (in.hasArray()) {
+            decompress(in.array(), in.arrayOffset() + in.readerIndex(), length, dst, dstOffset, rawLength);
+            return;
+        }
+        byte[] src = new byte[length];
+        in.getBytes(in.readerIndex(), src);
+        decompress(src, 0, length, dst, dstOffset, rawLength);
+    }
+
+    private int checkLength(int rawLength) {
+        if (rawLength < 0 || rawLength > MAX_DECOMPRESSED_LENGTH) {
+            throw new IllegalArgumentException(getCompressAlgorithm().getName()
+                    + " decompress error, illegal raw length: " + rawLength);
+        }
+        return rawLength;
+    }
+
+    private static void writeLength(byte[] bytes, int length) {
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+    }
+}
@@ -2,6 +2,7 @@ package com.dzgu.xrpc.compress;
 
 import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
 import com.dzgu.xrpc.extension.SPI;
+import io.netty.buffer.ByteBuf;
 
 /**
  * @description:
@@ -17,4 +18,22 @@ public interface Compress {
 
     CompressTypeEnum getCompressAlgorithm();
 
+    /**
+     * 将 in 的可读部分压缩后写入 out。默认实现退化为 byte[] 方式，兼容第三方扩展
+     */
+    default void compress(ByteBuf in, ByteBuf out) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        out.writeBytes(compress(bytes));
+    }
+
+    /**
+     * 将 in 的可读部分解压后写入 out，out 需可扩容
+     */
+    default void decompress(ByteBuf in, ByteBuf out) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        out.writeBytes(decompress(bytes));
+    }
+
 }
@@ -0,0 +1,204 @@
+package com.dzgu.xrpc.compress;
+
+import cn.hutool.core.util.StrUtil;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 压缩策略。按消息大小、方向（请求/响应）以及近期压缩收益决定每一帧实际使用的压缩算法，
+ * 选择结果写在帧头的 compress 字节中，解码端无需知道策略
+ * @Author： dzgu
+ * @Date： 2022/5/11 20:12
+ */
+@Slf4j
+public class CompressPolicy {
+    /**
+     * 近期压缩率的滑动平均系数
+     */
+    static final double RATIO_EWMA_ALPHA = 0.1;
+    /**
+     * 近期压缩率高于该值（节省不到 10%）视为收益不足
+     */
+    private static final double POOR_RATIO = 0.9;
+    /**
+     * 收益不足时，平均每多少帧仍压缩一次，用于探测数据特征是否发生变化
+     */
+    private static final int PROBE_INTERVAL = 64;
+    /**
+     * 默认压缩阈值，小于该大小的消息体不压缩
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+    /**
+     * 方向不指定压缩算法，沿用消息上的压缩类型
+     */
+    private static final byte FOLLOW_MESSAGE = -1;
+    private static final int REQUEST = 0;
+    private static final int RESPONSE = 1;
+
+    private volatile int threshold = DEFAULT_THRESHOLD;
+    private volatile boolean adaptive = true;
+    /**
+     * 按方向指定的压缩类型
+     */
+    private final byte[] directionCompress = {FOLLOW_MESSAGE, FOLLOW_MESSAGE};
+    /**
+     * [方向][压缩类型编码] 的统计
+     */
+    private final CompressStats[][] stats;
+    /**
+     * 因小于阈值而未压缩的帧数
+     */
+    private final LongAdder[] smallSkippedFrames = {new LongAdder(), new LongAdder()};
+    /**
+     * 压缩后没有变小、改为发送原文的帧数
+     */
+    private final LongAdder[] noGainFrames = {new LongAdder(), new LongAdder()};
+
+    public CompressPolicy() {
+        int size = 0;
+        for (CompressTypeEnum type : CompressTypeEnum.values()) {
+            size = Math.max(size, type.getCode() + 1);
+        }
+        stats = new CompressStats[2][size];
+        for (int direction = REQUEST; direction <= RESPONSE; direction++) {
+            for (int code = 0; code < size; code++) {
+                stats[direction][code] = new CompressStats();
+            }
+        }
+    }
+
+    /**
+     * @param threshold        压缩阈值，小于该大小的消息体不压缩
+     * @param adaptive         是否在压缩收益不足时自动跳过压缩
+     * @param requestCompress  请求使用的压缩算法，为空则沿用消息上的压缩类型
+     * @param responseCompress 响应使用的压缩算法，为空则沿用请求的压缩类型
+     */
+    public void configure(int threshold, boolean adaptive, String requestCompress, String responseCompress) {
+        this.threshold = threshold;
+        this.adaptive = adaptive;
+        directionCompress[REQUEST] = StrUtil.isBlank(requestCompress) ? FOLLOW_MESSAGE : CompressTypeEnum.getCode(requestCompress);
+        directionCompress[RESPONSE] = StrUtil.isBlank(responseCompress) ? FOLLOW_MESSAGE : CompressTypeEnum.getCode(responseCompress);
+        log.info("compress policy configured, threshold: {}, adaptive: {}, request: {}, response: {}",
+                threshold, adaptive, requestCompress, responseCompress);
+    }
+
+    /**
+     * 选出本帧实际使用的压缩算法
+     *
+     * @param messageType 消息类型
+     * @param requested   消息上指定的压缩类型
+     * @param bodySize    未压缩的消息体大小
+     * @return 压缩类型编码，不压缩时返回 {@link CompressTypeEnum#DUMMY} 的编码
+     */
+    public byte select(byte messageType, byte requested, int bodySize) {
+        int direction = direction(messageType);
+        if (direction < 0) {
+            return CompressTypeEnum.DUMMY.getCode();
+        }
+        byte compressType = directionCompress[direction] == FOLLOW_MESSAGE ? requested : directionCompress[direction];
+        if (compressType == CompressTypeEnum.DUMMY.getCode()) {
+            return compressType;
+        }
+        if (bodySize < threshold) {
+            smallSkippedFrames[direction].increment();
+            return CompressTypeEnum.DUMMY.getCode();
+        }
+        CompressStats compressStats = stats(direction, compressType);
+        if (adaptive && compressStats != null && compressStats.getRecentRatio() > POOR_RATIO
+                && ThreadLocalRandom.current().nextInt(PROBE_INTERVAL) != 0) {
+            compressStats.recordAdaptiveSkip();
+            return CompressTypeEnum.DUMMY.getCode();
+        }
+        return compressType;
+    }
+
+    /**
+     * 记录一次压缩
+     *
+     * @param rawSize        压缩前大小
+     * @param compressedSize 压缩后大小
+     * @param nanos          压缩耗时
+     */
+    public void recordCompress(byte messageType, byte compressType, int rawSize, int compressedSize, long nanos) {
+        int direction = direction(messageType);
+        CompressStats compressStats = stats(direction, compressType);
+        if (compressStats != null) {
+            compressStats.recordCompress(rawSize, compressedSize, nanos);
+        }
+        if (direction >= 0 && compressedSize >= rawSize) {
+            noGainFrames[direction].increment();
+        }
+    }
+
+    /**
+     * 记录一次解压
+     */
+    public void recordDecompress(byte messageType, byte compressType, long nanos) {
+        CompressStats compressStats = stats(direction(messageType), compressType);
+        if (compressStats != null) {
+            compressStats.recordDecompress(nanos);
+        }
+    }
+
+    /**
+     * 获取某个方向上某种压缩算法的统计
+     *
+     * @param request 请求方向为 true，响应方向为 false
+     */
+    public CompressStats getStats(boolean request, CompressTypeEnum compressType) {
+        return stats(request ? REQUEST : RESPONSE, compressType.getCode());
+    }
+
+    /**
+     * 因小于阈值而未压缩的帧数
+     */
+    public long getSmallSkippedFrames(boolean request) {
+        return smallSkippedFrames[request ? REQUEST : RESPONSE].sum();
+    }
+
+    /**
+     * 压缩后没有变小、改为发送原文的帧数
+     */
+    public long getNoGainFrames(boolean request) {
+        return noGainFrames[request ? REQUEST : RESPONSE].sum();
+    }
+
+    private CompressStats stats(int direction, byte compressType) {
+        if (direction < 0 || compressType < 0 || compressType >= stats[direction].length) {
+            return null;
+        }
+        return stats[direction][compressType];
+    }
+
+    private static int direction(byte messageType) {
+        if (messageType == RpcConstants.REQUEST_TYPE) {
+            return REQUEST;
+        }
+        if (messageType == RpcConstants.RESPONSE_TYPE) {
+            return RESPONSE;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CompressPolicy{threshold=").append(threshold)
+                .append(", adaptive=").append(adaptive);
+        for (int direction = REQUEST; direction <= RESPONSE; direction++) {
+            String name = direction == REQUEST ? "request" : "response";
+            sb.append(", ").append(name).append(".smallSkipped=").append(smallSkippedFrames[direction].sum())
+                    .append(", ").append(name).append(".noGain=").append(noGainFrames[direction].sum());
+            for (CompressTypeEnum type : CompressTypeEnum.values()) {
+                CompressStats compressStats = stats[direction][type.getCode()];
+                if (compressStats.getCompressFrames() > 0 || compressStats.getDecompressFrames() > 0) {
+                    sb.append(", ").append(name).append('.').append(type.getName()).append('=').append(compressStats);
+                }
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.dzgu.xrpc.compress;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 单个压缩算法在单个方向（请求/响应）上的压缩统计
+ * @Author： dzgu
+ * @Date： 2022/5/11 20:36
+ */
+public class CompressStats {
+    /**
+     * 压缩的帧数
+     */
+    private final LongAdder compressFrames = new LongAdder();
+    /**
+     * 压缩前的字节数
+     */
+    private final LongAdder rawBytes = new LongAdder();
+    /**
+     * 压缩后的字节数
+     */
+    private final LongAdder compressedBytes = new LongAdder();
+    /**
+     * 压缩耗时，纳秒
+     */
+    private final LongAdder compressNanos = new LongAdder();
+    /**
+     * 解压的帧数
+     */
+    private final LongAdder decompressFrames = new LongAdder();
+    /**
+     * 解压耗时，纳秒
+     */
+    private final LongAdder decompressNanos = new LongAdder();
+    /**
+     * 因压缩收益不足而跳过压缩的帧数
+     */
+    private final LongAdder adaptiveSkippedFrames = new LongAdder();
+    /**
+     * 近期压缩率（压缩后/压缩前）的指数滑动平均，只用于自适应判断，允许并发更新时的少量误差
+     */
+    private volatile double recentRatio = 0;
+
+    void recordCompress(int rawSize, int compressedSize, long nanos) {
+        compressFrames.increment();
+        rawBytes.add(rawSize);
+        compressedBytes.add(compressedSize);
+        compressNanos.add(nanos);
+        double ratio = (double) compressedSize / rawSize;
+        double last = recentRatio;
+        recentRatio = last == 0 ? ratio : last + CompressPolicy.RATIO_EWMA_ALPHA * (ratio - last);
+    }
+
+    void recordDecompress(long nanos) {
+        decompressFrames.increment();
+        decompressNanos.add(nanos);
+    }
+
+    void recordAdaptiveSkip() {
+        adaptiveSkippedFrames.increment();
+    }
+
+    double getRecentRatio() {
+        return recentRatio;
+    }
+
+    public long getCompressFrames() {
+        return compressFrames.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getDecompressFrames() {
+        return decompressFrames.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    public long getAdaptiveSkippedFrames() {
+        return adaptiveSkippedFrames.sum();
+    }
+
+    /**
+     * 累计压缩率（压缩后/压缩前），没有压缩过返回 1
+     */
+    public double getRatio() {
+        long raw = rawBytes.sum();
+        return raw == 0 ? 1 : (double) compressedBytes.sum() / raw;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressStats{" +
+                "compressFrames=" + getCompressFrames() +
+                ", ratio=" + String.format("%.3f", getRatio()) +
+                ", compressMs=" + TimeUnit.NANOSECONDS.toMillis(getCompressNanos()) +
+                ", decompressFrames=" + getDecompressFrames() +
+                ", decompressMs=" + TimeUnit.NANOSECONDS.toMillis(getDecompressNanos()) +
+                ", adaptiveSkippedFrames=" + getAdaptiveSkippedFrames() +
+                '}';
+    }
+}
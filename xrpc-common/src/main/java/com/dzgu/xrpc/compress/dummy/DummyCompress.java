@@ -2,6 +2,7 @@ package com.dzgu.xrpc.compress.dummy;
 
 import com.dzgu.xrpc.compress.Compress;
 import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import io.netty.buffer.ByteBuf;
 
 /**
  * @description: 不使用压缩算法
@@ -19,6 +20,16 @@ public class DummyCompress implements Compress {
         return bytes;
     }
 
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        out.writeBytes(in);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        out.writeBytes(in);
+    }
+
     @Override
     public CompressTypeEnum getCompressAlgorithm() {
         return CompressTypeEnum.DUMMY;
@@ -2,6 +2,9 @@ package com.dzgu.xrpc.compress.gzip;
 
 import com.dzgu.xrpc.compress.Compress;
 import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -53,6 +56,30 @@ public class GzipCompress implements Compress {
         }
     }
 
+    /**
+     * 直接以流的方式写入 out，不产生中间 byte[]
+     */
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        try (GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(out), BUFFER_SIZE)) {
+            in.readBytes(gzip, in.readableBytes());
+            gzip.finish();
+        } catch (IOException e) {
+            throw new RuntimeException("gzip compress error", e);
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        try (GZIPInputStream gunzip = new GZIPInputStream(new ByteBufInputStream(in), BUFFER_SIZE)) {
+            while (out.writeBytes(gunzip, BUFFER_SIZE) > 0) {
+                // 直到读完整个压缩流
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("gzip decompress error", e);
+        }
+    }
+
     @Override
     public CompressTypeEnum getCompressAlgorithm() {
         return GZIP;
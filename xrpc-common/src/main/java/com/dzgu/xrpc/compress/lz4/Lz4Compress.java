@@ -0,0 +1,71 @@
+package com.dzgu.xrpc.compress.lz4;
+
+import com.dzgu.xrpc.compress.AbstractBlockCompress;
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.LZ4;
+
+/**
+ * @description: LZ4 压缩算法（快速模式）。压缩器与解压器无状态且线程安全，全局共用一份
+ * @Author： dzgu
+ * @Date： 2022/5/12 20:05
+ */
+public class Lz4Compress extends AbstractBlockCompress {
+    protected static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+    /**
+     * 使用带边界检查的解压器，不信任对端传来的数据
+     */
+    private static final LZ4SafeDecompressor DECOMPRESSOR = FACTORY.safeDecompressor();
+
+    private final LZ4Compressor compressor;
+
+    public Lz4Compress() {
+        this(FACTORY.fastCompressor());
+    }
+
+    protected Lz4Compress(LZ4Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Override
+    protected int maxCompressedLength(int length) {
+        return compressor.maxCompressedLength(length);
+    }
+
+    @Override
+    protected int compress(ByteBuffer src, ByteBuffer dst) {
+        return compressor.compress(src, src.position(), src.remaining(), dst, dst.position(), dst.remaining());
+    }
+
+    @Override
+    protected int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int maxDstLength) {
+        return compressor.compress(src, srcOffset, srcLength, dst, dstOffset, maxDstLength);
+    }
+
+    @Override
+    protected void decompress(ByteBuffer src, ByteBuffer dst, int rawLength) {
+        checkDecompressed(DECOMPRESSOR.decompress(src, src.position(), src.remaining(), dst, dst.position(), rawLength), rawLength);
+    }
+
+    @Override
+    protected void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int rawLength) {
+        checkDecompressed(DECOMPRESSOR.decompress(src, srcOffset, srcLength, dst, dstOffset, rawLength), rawLength);
+    }
+
+    private void checkDecompressed(int decompressed, int rawLength) {
+        if (decompressed != rawLength) {
+            throw new RuntimeException(getCompressAlgorithm().getName() + " decompress error, expect "
+                    + rawLength + " bytes but got " + decompressed);
+        }
+    }
+
+    @Override
+    public CompressTypeEnum getCompressAlgorithm() {
+        return LZ4;
+    }
+}
@@ -0,0 +1,27 @@
+package com.dzgu.xrpc.compress.lz4;
+
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.LZ4_HC;
+
+/**
+ * @description: LZ4 高压缩率模式。压缩耗时数倍于快速模式，压缩结果格式相同，解压速度不变，
+ * 适合一次写多次读或带宽受限的场景
+ * @Author： dzgu
+ * @Date： 2022/5/12 20:21
+ */
+public class Lz4HcCompress extends Lz4Compress {
+    /**
+     * 压缩级别，取值 1~17，9 为 LZ4 默认值
+     */
+    private static final int LEVEL = 9;
+
+    public Lz4HcCompress() {
+        super(FACTORY.highCompressor(LEVEL));
+    }
+
+    @Override
+    public CompressTypeEnum getCompressAlgorithm() {
+        return LZ4_HC;
+    }
+}
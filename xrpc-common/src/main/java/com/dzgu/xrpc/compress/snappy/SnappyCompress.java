@@ -0,0 +1,75 @@
+package com.dzgu.xrpc.compress.snappy;
+
+import com.dzgu.xrpc.compress.AbstractBlockCompress;
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.SNAPPY;
+
+/**
+ * @description: Snappy 压缩算法，无状态，可直接并发调用
+ * @Author： dzgu
+ * @Date： 2022/5/12 20:34
+ */
+public class SnappyCompress extends AbstractBlockCompress {
+
+    @Override
+    protected int maxCompressedLength(int length) {
+        return Snappy.maxCompressedLength(length);
+    }
+
+    @Override
+    protected int compress(ByteBuffer src, ByteBuffer dst) {
+        try {
+            return Snappy.compress(src, dst);
+        } catch (IOException e) {
+            throw new RuntimeException("snappy compress error", e);
+        }
+    }
+
+    @Override
+    protected int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int maxDstLength) {
+        try {
+            return Snappy.rawCompress(src, srcOffset, srcLength, dst, dstOffset);
+        } catch (IOException e) {
+            throw new RuntimeException("snappy compress error", e);
+        }
+    }
+
+    @Override
+    protected void decompress(ByteBuffer src, ByteBuffer dst, int rawLength) {
+        try {
+            checkLength(Snappy.uncompressedLength(src), rawLength);
+            Snappy.uncompress(src, dst);
+        } catch (IOException e) {
+            throw new RuntimeException("snappy decompress error", e);
+        }
+    }
+
+    @Override
+    protected void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int rawLength) {
+        try {
+            checkLength(Snappy.uncompressedLength(src, srcOffset, srcLength), rawLength);
+            Snappy.rawUncompress(src, srcOffset, srcLength, dst, dstOffset);
+        } catch (IOException e) {
+            throw new RuntimeException("snappy decompress error", e);
+        }
+    }
+
+    /**
+     * 压缩块内记录的长度必须与长度前缀一致，否则可能写出目标区域
+     */
+    private static void checkLength(int uncompressedLength, int rawLength) {
+        if (uncompressedLength != rawLength) {
+            throw new RuntimeException("snappy decompress error, expect " + rawLength + " bytes but got " + uncompressedLength);
+        }
+    }
+
+    @Override
+    public CompressTypeEnum getCompressAlgorithm() {
+        return SNAPPY;
+    }
+}
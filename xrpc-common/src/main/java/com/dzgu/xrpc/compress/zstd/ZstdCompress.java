@@ -0,0 +1,86 @@
+package com.dzgu.xrpc.compress.zstd;
+
+import com.dzgu.xrpc.compress.AbstractBlockCompress;
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+
+import java.nio.ByteBuffer;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.ZSTD;
+
+/**
+ * @description: Zstandard 压缩算法。压缩/解压上下文持有 native 内存，创建代价较高且不是线程安全的，
+ * 每个线程复用一份
+ * @Author： dzgu
+ * @Date： 2022/5/12 20:48
+ */
+public class ZstdCompress extends AbstractBlockCompress {
+    /**
+     * 压缩级别，3 为 zstd 默认值，兼顾速度与压缩率
+     */
+    static final int LEVEL = 3;
+
+    private static final ThreadLocal<ZstdCompressCtx> COMPRESS_CTX = ThreadLocal.withInitial(() -> {
+        ZstdCompressCtx ctx = new ZstdCompressCtx();
+        ctx.setLevel(LEVEL);
+        // 原文长度已由长度前缀记录，帧内不再重复写入
+        ctx.setContentSize(false);
+        return ctx;
+    });
+    private static final ThreadLocal<ZstdDecompressCtx> DECOMPRESS_CTX = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+
+    /**
+     * 当前线程的压缩上下文
+     */
+    protected ZstdCompressCtx compressCtx() {
+        return COMPRESS_CTX.get();
+    }
+
+    /**
+     * 当前线程的解压上下文
+     */
+    protected ZstdDecompressCtx decompressCtx() {
+        return DECOMPRESS_CTX.get();
+    }
+
+    @Override
+    protected int maxCompressedLength(int length) {
+        return (int) Zstd.compressBound(length);
+    }
+
+    @Override
+    protected int compress(ByteBuffer src, ByteBuffer dst) {
+        return compressCtx().compressDirectByteBuffer(dst, dst.position(), dst.remaining(),
+                src, src.position(), src.remaining());
+    }
+
+    @Override
+    protected int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int maxDstLength) {
+        return compressCtx().compressByteArray(dst, dstOffset, maxDstLength, src, srcOffset, srcLength);
+    }
+
+    @Override
+    protected void decompress(ByteBuffer src, ByteBuffer dst, int rawLength) {
+        checkDecompressed(decompressCtx().decompressDirectByteBuffer(dst, dst.position(), rawLength,
+                src, src.position(), src.remaining()), rawLength);
+    }
+
+    @Override
+    protected void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int rawLength) {
+        checkDecompressed(decompressCtx().decompressByteArray(dst, dstOffset, rawLength,
+                src, srcOffset, srcLength), rawLength);
+    }
+
+    private static void checkDecompressed(int decompressed, int rawLength) {
+        if (decompressed != rawLength) {
+            throw new RuntimeException("zstd decompress error, expect " + rawLength + " bytes but got " + decompressed);
+        }
+    }
+
+    @Override
+    public CompressTypeEnum getCompressAlgorithm() {
+        return ZSTD;
+    }
+}
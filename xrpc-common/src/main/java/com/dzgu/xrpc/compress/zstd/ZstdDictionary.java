@@ -0,0 +1,61 @@
+package com.dzgu.xrpc.compress.zstd;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.io.Serializable;
+
+/**
+ * @description: 服务端按服务训练出的 zstd 字典，通过 {@link com.dzgu.xrpc.consts.RpcConstants#DICTIONARY_TYPE} 消息下发给客户端
+ * @Author： dzgu
+ * @Date： 2022/5/13 19:32
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@ToString(exclude = {"content", "compress"})
+public class ZstdDictionary implements Serializable {
+    /**
+     * 字典 ID，由服务端分配，同一服务端内唯一，每次重新训练都会分配新的 ID
+     */
+    private int id;
+    /**
+     * 字典所属的服务
+     */
+    private String serviceKey;
+    /**
+     * 字典内容
+     */
+    private byte[] content;
+    /**
+     * 由字典内容预处理得到的压缩器，不参与序列化
+     */
+    @Setter(AccessLevel.NONE)
+    private transient volatile ZstdDictionaryCompress compress;
+
+    public ZstdDictionary(int id, String serviceKey, byte[] content) {
+        this.id = id;
+        this.serviceKey = serviceKey;
+        this.content = content;
+    }
+
+    /**
+     * 绑定了该字典的压缩器，首次使用时创建
+     */
+    public ZstdDictionaryCompress getCompress() {
+        ZstdDictionaryCompress result = compress;
+        if (result == null) {
+            synchronized (this) {
+                result = compress;
+                if (result == null) {
+                    result = new ZstdDictionaryCompress(content);
+                    compress = result;
+                }
+            }
+        }
+        return result;
+    }
+}
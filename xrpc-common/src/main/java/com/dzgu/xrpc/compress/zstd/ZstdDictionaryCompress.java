@@ -0,0 +1,52 @@
+package com.dzgu.xrpc.compress.zstd;
+
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.ZSTD_DICT;
+
+/**
+ * @description: 绑定了某个字典的 zstd 压缩。字典在创建时预处理一次，各线程的上下文在每次使用前引用该字典，
+ * 不通过 SPI 加载，由 {@link ZstdDictionary#getCompress()} 获取
+ * @Author： dzgu
+ * @Date： 2022/5/13 19:48
+ */
+public class ZstdDictionaryCompress extends ZstdCompress {
+    /**
+     * 与不带字典的 zstd 分开使用上下文，避免字典残留在普通压缩的上下文中
+     */
+    private static final ThreadLocal<ZstdCompressCtx> COMPRESS_CTX = ThreadLocal.withInitial(() -> {
+        ZstdCompressCtx ctx = new ZstdCompressCtx();
+        ctx.setContentSize(false);
+        // 字典 ID 已经写在帧头中
+        ctx.setDictID(false);
+        return ctx;
+    });
+    private static final ThreadLocal<ZstdDecompressCtx> DECOMPRESS_CTX = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+
+    private final ZstdDictCompress compressDict;
+    private final ZstdDictDecompress decompressDict;
+
+    ZstdDictionaryCompress(byte[] dictionary) {
+        this.compressDict = new ZstdDictCompress(dictionary, LEVEL);
+        this.decompressDict = new ZstdDictDecompress(dictionary);
+    }
+
+    @Override
+    protected ZstdCompressCtx compressCtx() {
+        return COMPRESS_CTX.get().loadDict(compressDict);
+    }
+
+    @Override
+    protected ZstdDecompressCtx decompressCtx() {
+        return DECOMPRESS_CTX.get().loadDict(decompressDict);
+    }
+
+    @Override
+    public CompressTypeEnum getCompressAlgorithm() {
+        return ZSTD_DICT;
+    }
+}
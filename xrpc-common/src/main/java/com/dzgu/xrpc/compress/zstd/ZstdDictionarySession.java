@@ -0,0 +1,180 @@
+package com.dzgu.xrpc.compress.zstd;
+
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import com.dzgu.xrpc.dto.RpcMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @description: 单个连接上的字典状态，挂在 channel 的属性上，由编解码器使用。
+ * 服务端共用训练器中的字典表，并记录已下发给该连接的字典，对端收到之前不会用它压缩；
+ * 对端字典表中保留的版本（最近下发的两个）在字典表中被引用，对端用它们压缩的请求总能解码；
+ * 客户端每个连接持有自己的字典表，内容全部来自服务端下发
+ * @Author： dzgu
+ * @Date： 2022/5/13 21:02
+ */
+@Slf4j
+public class ZstdDictionarySession {
+    public static final AttributeKey<ZstdDictionarySession> KEY = AttributeKey.valueOf("xrpc.zstdDictionarySession");
+
+    private final Channel channel;
+    private final ZstdDictionaryStore store;
+    /**
+     * 服务端的训练器，客户端为 null
+     */
+    private final ZstdDictionaryTrainer trainer;
+    /**
+     * 已编码进该连接的字典 ID，只在 channel 的 EventLoop 中访问
+     */
+    private final Set<Integer> sent = new HashSet<>();
+    /**
+     * 已提交下发、尚未编码的字典 ID，只在 channel 的 EventLoop 中访问
+     */
+    private final Set<Integer> pushing = new HashSet<>();
+    /**
+     * serviceKey -> 最近下发的字典和再上一个字典，与对端字典表保留的版本一致，只在 channel 的 EventLoop 中访问
+     */
+    private final Map<String, ZstdDictionary> sentCurrent = new HashMap<>();
+    private final Map<String, ZstdDictionary> sentPrevious = new HashMap<>();
+
+    /**
+     * 客户端
+     */
+    public ZstdDictionarySession(Channel channel) {
+        this.channel = channel;
+        this.store = new ZstdDictionaryStore();
+        this.trainer = null;
+    }
+
+    /**
+     * 服务端
+     */
+    public ZstdDictionarySession(Channel channel, ZstdDictionaryTrainer trainer) {
+        this.channel = channel;
+        this.store = trainer.getStore();
+        this.trainer = trainer;
+        // 连接关闭后对端不会再发来请求，释放引用
+        channel.closeFuture().addListener(future -> releaseAll());
+    }
+
+    /**
+     * 获取可用于压缩该服务消息的字典，没有或对端尚未收到时返回 null。在 EventLoop 中调用
+     */
+    public ZstdDictionary dictionaryFor(String serviceKey) {
+        ZstdDictionary dictionary = store.current(serviceKey);
+        if (dictionary == null || trainer == null || sent.contains(dictionary.getId())) {
+            return dictionary;
+        }
+        // 新训练出的字典，先下发，之后的帧再使用
+        push(dictionary);
+        return null;
+    }
+
+    /**
+     * 按 ID 获取字典，用于解压
+     */
+    public ZstdDictionary get(int id) {
+        return store.get(id);
+    }
+
+    /**
+     * 采样消息体，只有服务端会采样
+     *
+     * @param register 该服务尚未启用字典时是否开始为它采样
+     */
+    public void sample(String serviceKey, ByteBuf body, boolean register) {
+        if (trainer != null && serviceKey != null) {
+            trainer.sample(serviceKey, body, register);
+        }
+    }
+
+    /**
+     * 记录一次字典压缩的结果
+     */
+    public void record(ZstdDictionary dictionary, int rawSize, int compressedSize) {
+        if (trainer != null) {
+            trainer.record(dictionary, rawSize, compressedSize);
+        }
+    }
+
+    /**
+     * 字典消息已编码进该连接，之后的帧可以使用它。在 EventLoop 中调用
+     */
+    public void onSent(ZstdDictionary dictionary) {
+        sent.add(dictionary.getId());
+        pushing.remove(dictionary.getId());
+        if (trainer == null) {
+            return;
+        }
+        // 对端收到后用它压缩请求，直到收到更新的字典；对端字典表保留两个版本，更早的才能释放
+        store.retain(dictionary);
+        ZstdDictionary last = sentCurrent.put(dictionary.getServiceKey(), dictionary);
+        if (last == null) {
+            return;
+        }
+        ZstdDictionary evicted = sentPrevious.put(dictionary.getServiceKey(), last);
+        if (evicted != null) {
+            store.release(evicted);
+        }
+    }
+
+    /**
+     * 收到对端下发的字典
+     */
+    public void onReceived(ZstdDictionary dictionary) {
+        store.put(dictionary);
+        log.info("zstd dictionary received: {}", dictionary);
+    }
+
+    /**
+     * 连接建立时下发当前所有字典
+     */
+    public void pushAll() {
+        if (trainer == null) {
+            return;
+        }
+        channel.eventLoop().execute(() -> {
+            for (ZstdDictionary dictionary : store.currentDictionaries()) {
+                push(dictionary);
+            }
+        });
+    }
+
+    private void releaseAll() {
+        for (ZstdDictionary dictionary : sentCurrent.values()) {
+            store.release(dictionary);
+        }
+        for (ZstdDictionary dictionary : sentPrevious.values()) {
+            store.release(dictionary);
+        }
+        sentCurrent.clear();
+        sentPrevious.clear();
+    }
+
+    private void push(ZstdDictionary dictionary) {
+        if (sent.contains(dictionary.getId()) || !pushing.add(dictionary.getId())) {
+            return;
+        }
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .messageType(RpcConstants.DICTIONARY_TYPE)
+                .codec(trainer.getCodec())
+                .compress(CompressTypeEnum.DUMMY.getCode())
+                .data(dictionary).build();
+        // 可能正处于编码过程中，放到下一个任务里写出，字典帧仍先于使用它的帧
+        channel.eventLoop().execute(() -> channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                pushing.remove(dictionary.getId());
+                log.warn("push zstd dictionary [{}] failed", dictionary.getId(), future.cause());
+            }
+        }));
+    }
+}
@@ -0,0 +1,93 @@
+package com.dzgu.xrpc.compress.zstd;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description: 字典表。每个服务保留当前字典和上一个字典，上一个字典用于解码切换过程中仍在途的帧；
+ * 被连接引用的字典（对端可能仍在用它压缩）在引用释放前不会淘汰
+ * @Author： dzgu
+ * @Date： 2022/5/13 20:05
+ */
+public class ZstdDictionaryStore {
+    /**
+     * 字典 ID -> 字典
+     */
+    private final Map<Integer, ZstdDictionary> dictionaries = new ConcurrentHashMap<>();
+    /**
+     * serviceKey -> 当前字典
+     */
+    private final Map<String, ZstdDictionary> current = new ConcurrentHashMap<>();
+    /**
+     * serviceKey -> 上一个字典
+     */
+    private final Map<String, ZstdDictionary> previous = new ConcurrentHashMap<>();
+    /**
+     * 字典 ID -> 引用该字典的连接数，访问时持有 this 锁
+     */
+    private final Map<Integer, Integer> references = new HashMap<>();
+
+    public ZstdDictionary get(int id) {
+        return dictionaries.get(id);
+    }
+
+    public ZstdDictionary current(String serviceKey) {
+        return current.get(serviceKey);
+    }
+
+    public Collection<ZstdDictionary> currentDictionaries() {
+        return current.values();
+    }
+
+    /**
+     * 加入新字典并设为该服务的当前字典，淘汰更早的版本
+     */
+    public synchronized void put(ZstdDictionary dictionary) {
+        dictionaries.put(dictionary.getId(), dictionary);
+        ZstdDictionary last = current.put(dictionary.getServiceKey(), dictionary);
+        if (last == null) {
+            return;
+        }
+        ZstdDictionary evicted = previous.put(dictionary.getServiceKey(), last);
+        if (evicted != null && !references.containsKey(evicted.getId())) {
+            dictionaries.remove(evicted.getId());
+        }
+    }
+
+    /**
+     * 连接把字典下发给对端后引用它，对端可能一直用它压缩到收到更新的字典
+     */
+    public synchronized void retain(ZstdDictionary dictionary) {
+        references.merge(dictionary.getId(), 1, Integer::sum);
+        dictionaries.putIfAbsent(dictionary.getId(), dictionary);
+    }
+
+    /**
+     * 释放连接对字典的引用，已不是当前或上一个版本且没有其他引用时淘汰
+     */
+    public synchronized void release(ZstdDictionary dictionary) {
+        Integer count = references.get(dictionary.getId());
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(dictionary.getId(), count - 1);
+            return;
+        }
+        references.remove(dictionary.getId());
+        String serviceKey = dictionary.getServiceKey();
+        if (!isSame(current.get(serviceKey), dictionary) && !isSame(previous.get(serviceKey), dictionary)) {
+            dictionaries.remove(dictionary.getId());
+        }
+    }
+
+    private static boolean isSame(ZstdDictionary a, ZstdDictionary b) {
+        return a != null && a.getId() == b.getId();
+    }
+
+    public int size() {
+        return dictionaries.size();
+    }
+}
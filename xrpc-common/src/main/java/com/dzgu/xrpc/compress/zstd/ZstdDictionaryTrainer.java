@@ -0,0 +1,231 @@
+package com.dzgu.xrpc.compress.zstd;
+
+import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
+import com.dzgu.xrpc.util.threadpool.ThreadPoolFactoryUtil;
+import com.github.luben.zstd.ZstdDictTrainer;
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 服务端的字典训练器。按服务采样序列化后的消息体，样本足够后在后台线程训练 zstd 字典；
+ * 字典上线后持续统计压缩率，明显劣化时重新采样训练并轮换字典
+ * @Author： dzgu
+ * @Date： 2022/5/13 20:26
+ */
+@Slf4j
+public class ZstdDictionaryTrainer {
+    /**
+     * 字典上线后用前多少帧的平均压缩率作为基线
+     */
+    private static final int BASELINE_FRAMES = 64;
+    private static final double RATIO_EWMA_ALPHA = 0.05;
+
+    private final ZstdDictionaryStore store = new ZstdDictionaryStore();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Map<String, ServiceSamples> services = new ConcurrentHashMap<>();
+    private final ExecutorService trainExecutor = Executors.newSingleThreadExecutor(
+            ThreadPoolFactoryUtil.createThreadFactory("xrpc-zstd-dictionary-trainer", true));
+    private final LongAdder trainedDictionaries = new LongAdder();
+    private final LongAdder failedTrainings = new LongAdder();
+
+    /**
+     * 每次训练使用的样本数
+     */
+    private volatile int sampleCount = 256;
+    /**
+     * 超过该大小的消息体不作为样本，字典主要对小消息有效
+     */
+    private volatile int maxSampleSize = 16 * 1024;
+    /**
+     * 字典的最大大小
+     */
+    private volatile int dictionarySize = 16 * 1024;
+    /**
+     * 近期压缩率比基线差多少（比例）时重新训练
+     */
+    private volatile double rotateDegradation = 0.2;
+    /**
+     * 下发字典时使用的序列化类型
+     */
+    private volatile byte codec = SerializerTypeEnum.KRYO.getCode();
+
+    /**
+     * @param serializer        下发字典时使用的序列化方式
+     * @param sampleCount       每次训练使用的样本数
+     * @param maxSampleSize     样本的最大大小
+     * @param dictionarySize    字典的最大大小
+     * @param rotateDegradation 近期压缩率比基线差多少（比例）时重新训练
+     */
+    public void configure(String serializer, int sampleCount, int maxSampleSize, int dictionarySize, double rotateDegradation) {
+        this.codec = SerializerTypeEnum.getCode(serializer);
+        this.sampleCount = sampleCount;
+        this.maxSampleSize = maxSampleSize;
+        this.dictionarySize = dictionarySize;
+        this.rotateDegradation = rotateDegradation;
+        log.info("zstd dictionary trainer configured, sampleCount: {}, maxSampleSize: {}, dictionarySize: {}, rotateDegradation: {}",
+                sampleCount, maxSampleSize, dictionarySize, rotateDegradation);
+    }
+
+    /**
+     * 采样一个消息体
+     *
+     * @param body     未压缩的消息体，只读取不移动读指针
+     * @param register 该服务尚未启用字典时是否开始为它采样。只有选择了字典压缩的帧才应当启用
+     */
+    public void sample(String serviceKey, ByteBuf body, boolean register) {
+        ServiceSamples samples = register ? services.computeIfAbsent(serviceKey, ServiceSamples::new) : services.get(serviceKey);
+        if (samples == null || !samples.sampling) {
+            return;
+        }
+        int length = body.readableBytes();
+        if (length == 0 || length > maxSampleSize) {
+            return;
+        }
+        byte[] bytes = new byte[length];
+        body.getBytes(body.readerIndex(), bytes);
+        List<byte[]> batch = samples.add(bytes, sampleCount);
+        if (batch != null) {
+            trainExecutor.execute(() -> train(samples, batch));
+        }
+    }
+
+    /**
+     * 记录一次字典压缩的结果，用于判断字典是否需要轮换
+     */
+    public void record(ZstdDictionary dictionary, int rawSize, int compressedSize) {
+        ServiceSamples samples = services.get(dictionary.getServiceKey());
+        if (samples == null || samples.dictionaryId != dictionary.getId()) {
+            // 已经被轮换掉的字典
+            return;
+        }
+        double ratio = (double) compressedSize / rawSize;
+        long frames = ++samples.frames;
+        if (frames <= BASELINE_FRAMES) {
+            samples.baselineRatio += (ratio - samples.baselineRatio) / frames;
+            samples.recentRatio = samples.baselineRatio;
+            return;
+        }
+        samples.recentRatio += RATIO_EWMA_ALPHA * (ratio - samples.recentRatio);
+        // 正在采样或训练新字典时不重复触发
+        if (!samples.sampling && !samples.training.get()
+                && samples.recentRatio > samples.baselineRatio * (1 + rotateDegradation)) {
+            log.info("zstd dictionary [{}] of [{}] degraded, baseline ratio: {}, recent ratio: {}, start resampling",
+                    dictionary.getId(), dictionary.getServiceKey(), samples.baselineRatio, samples.recentRatio);
+            samples.sampling = true;
+        }
+    }
+
+    private void train(ServiceSamples samples, List<byte[]> batch) {
+        try {
+            int totalSize = 0;
+            for (byte[] sample : batch) {
+                totalSize += sample.length;
+            }
+            // 字典不应大于样本总量，否则训练会失败
+            ZstdDictTrainer trainer = new ZstdDictTrainer(totalSize, Math.min(dictionarySize, totalSize / 4));
+            for (byte[] sample : batch) {
+                trainer.addSample(sample);
+            }
+            ZstdDictionary dictionary = new ZstdDictionary(nextId.getAndIncrement(), samples.serviceKey, trainer.trainSamples());
+            // 预处理字典，避免首个使用它的 IO 线程承担
+            dictionary.getCompress();
+            store.put(dictionary);
+            samples.reset(dictionary.getId());
+            trainedDictionaries.increment();
+            log.info("zstd dictionary [{}] trained for [{}], samples: {}, sample bytes: {}, dictionary bytes: {}",
+                    dictionary.getId(), samples.serviceKey, batch.size(), totalSize, dictionary.getContent().length);
+        } catch (RuntimeException e) {
+            failedTrainings.increment();
+            // 重新采样，下一批样本到齐后再试
+            samples.sampling = true;
+            log.warn("zstd dictionary training for [{}] failed: {}", samples.serviceKey, e.getMessage());
+        } finally {
+            samples.training.set(false);
+        }
+    }
+
+    public ZstdDictionaryStore getStore() {
+        return store;
+    }
+
+    public byte getCodec() {
+        return codec;
+    }
+
+    public long getTrainedDictionaries() {
+        return trainedDictionaries.sum();
+    }
+
+    public long getFailedTrainings() {
+        return failedTrainings.sum();
+    }
+
+    public void shutdown() {
+        trainExecutor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ZstdDictionaryTrainer{trained=").append(getTrainedDictionaries())
+                .append(", failed=").append(getFailedTrainings());
+        for (ServiceSamples samples : services.values()) {
+            sb.append(", ").append(samples.serviceKey).append("={dictionary=").append(samples.dictionaryId)
+                    .append(", baselineRatio=").append(String.format("%.3f", samples.baselineRatio))
+                    .append(", recentRatio=").append(String.format("%.3f", samples.recentRatio))
+                    .append(", sampling=").append(samples.sampling).append('}');
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 单个服务的采样状态。压缩率统计在多个 IO 线程上更新，允许少量误差
+     */
+    private static final class ServiceSamples {
+        private final String serviceKey;
+        private final AtomicBoolean training = new AtomicBoolean();
+        private List<byte[]> pending = new ArrayList<>();
+        private volatile boolean sampling = true;
+        private volatile int dictionaryId;
+        private volatile long frames;
+        private volatile double baselineRatio;
+        private volatile double recentRatio;
+
+        private ServiceSamples(String serviceKey) {
+            this.serviceKey = serviceKey;
+        }
+
+        /**
+         * 加入一个样本，样本数达到 sampleCount 且当前没有在训练时返回这一批样本
+         */
+        private synchronized List<byte[]> add(byte[] sample, int sampleCount) {
+            if (!sampling) {
+                return null;
+            }
+            pending.add(sample);
+            if (pending.size() < sampleCount || !training.compareAndSet(false, true)) {
+                return null;
+            }
+            List<byte[]> batch = pending;
+            pending = new ArrayList<>();
+            sampling = false;
+            return batch;
+        }
+
+        private void reset(int dictionaryId) {
+            this.frames = 0;
+            this.baselineRatio = 0;
+            this.recentRatio = 0;
+            this.dictionaryId = dictionaryId;
+        }
+    }
+}
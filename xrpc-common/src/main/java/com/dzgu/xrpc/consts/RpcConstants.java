@@ -13,6 +13,10 @@ public interface RpcConstants {
      */
     byte[] MAGIC_NUMBER = {(byte) 'x', (byte) 'r', (byte) 'p', (byte) 'c'};
     byte VERSION = 1;
+    /**
+     * 紧凑协议：请求只携带方法 ID 和参数，需要服务端先下发方法表
+     */
+    byte VERSION_V2 = 2;
     /**
      * 请求 Id
      */
@@ -40,13 +44,34 @@ public interface RpcConstants {
     byte RESPONSE_TYPE = 2;
     byte HEARTBEAT_REQUEST_TYPE = 3;
     byte HEARTBEAT_RESPONSE_TYPE = 4;
+    /**
+     * 服务端向客户端下发压缩字典
+     */
+    byte DICTIONARY_TYPE = 5;
+    /**
+     * 服务端向客户端下发方法表
+     */
+    byte METHOD_TABLE_TYPE = 6;
     int HEAD_LENGTH = 16;
+    /**
+     * 使用字典压缩时，帧头后追加的字典 ID 长度
+     */
+    int DICTIONARY_ID_LENGTH = 4;
+    /**
+     * 消息类型的最高位，置位时帧头后追加请求剩余的时间预算（毫秒），服务端据此丢弃已过期的请求
+     */
+    byte DEADLINE_FLAG = (byte) 0x80;
+    int DEADLINE_LENGTH = 4;
     String PING = "ping";
     String PONG = "pong";
     int MAX_FRAME_LENGTH = 8 * 1024 * 1024;
     /**
-     *  客户端重连次数
+     *  客户端建连失败后冷却时间的指数上限，连续失败时冷却时间依次为 1、2、4 … 2^MAX_RETRY 秒
      */
     int MAX_RETRY = 5;
+    /**
+     * 请求的默认超时时间，毫秒
+     */
+    long DEFAULT_TIMEOUT = 5000;
 
 }
@@ -16,7 +16,18 @@ public enum CompressTypeEnum {
      */
     DUMMY((byte) 0, "dummy"),
     GZIP((byte) 1, "gzip"),
-    UNZIP((byte) 2, "unzip");
+    UNZIP((byte) 2, "unzip"),
+    LZ4((byte) 3, "lz4"),
+    /**
+     * LZ4 高压缩率模式，压缩更慢，解压速度与 LZ4 相同
+     */
+    LZ4_HC((byte) 4, "lz4hc"),
+    SNAPPY((byte) 5, "snappy"),
+    ZSTD((byte) 6, "zstd"),
+    /**
+     * 使用服务端按服务训练的字典进行 zstd 压缩，帧头额外携带 4 字节字典 ID
+     */
+    ZSTD_DICT((byte) 7, "zstddict");
 
     private final byte code;
     private final String name;
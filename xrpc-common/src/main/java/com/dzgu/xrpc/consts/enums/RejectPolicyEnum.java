@@ -0,0 +1,24 @@
+package com.dzgu.xrpc.consts.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @description: 服务端线程池已满时的处理方式
+ * @Author： dzgu
+ * @Date： 2022/5/15 20:10
+ */
+@AllArgsConstructor
+@Getter
+public enum RejectPolicyEnum {
+    /**
+     * 立即以 {@link RpcResponseCodeEnum#OVERLOAD} 回复，客户端可以换一个服务端重试
+     */
+    OVERLOAD("overload"),
+    /**
+     * 转到所有服务共享的线程池执行，共享线程池也已满时按 {@link #OVERLOAD} 处理。不会在 IO 线程中执行
+     */
+    SHARED_POOL("shared-pool");
+
+    private final String name;
+}
@@ -14,7 +14,11 @@ import lombok.ToString;
 @ToString
 public enum RpcResponseCodeEnum {
     SUCCESS(200, "success"),
-    FAIL(500, "fail");
+    FAIL(500, "fail"),
+    /**
+     * 服务端线程池已满，请求没有执行，客户端可以换一个服务端重试
+     */
+    OVERLOAD(503, "server overloaded");
     private final int code;
 
     private final String message;
@@ -37,4 +37,21 @@ public class RpcMessage implements Serializable {
      * request data
      */
     private Object data;
+    /**
+     * 消息所属的服务，不参与编码，用于按服务选择压缩字典
+     */
+    private transient String serviceKey;
+    /**
+     * 请求超时时间，毫秒，不参与编码。小于等于 0 时使用客户端默认值
+     */
+    private transient long timeout;
+    /**
+     * 开始解码这一帧的时间（System.nanoTime），不参与编码。服务端用于计算请求在队列中等待的时间
+     */
+    private transient long receiveNanos;
+    /**
+     * 请求的截止时间（本机 System.nanoTime），0 表示没有。不直接编码，帧中携带的是编码时剩余的毫秒数，
+     * 对端解码时换算成自己的截止时间，不受两端时钟差影响
+     */
+    private transient long deadlineNanos;
 }
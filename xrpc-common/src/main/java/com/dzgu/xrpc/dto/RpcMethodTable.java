@@ -0,0 +1,70 @@
+package com.dzgu.xrpc.dto;
+
+import com.dzgu.xrpc.util.ServiceUtil;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @description: 服务端发布的方法表，连接建立时下发。v2 协议的请求只携带方法在表中的下标，
+ * 下标从 1 开始，0 表示未使用方法表
+ * @Author： dzgu
+ * @Date： 2022/5/14 10:12
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@ToString(exclude = "index")
+public class RpcMethodTable implements Serializable {
+    /**
+     * 下标即方法 ID，元素为 {@link #methodKey} 生成的方法标识，下标 0 不使用，固定为空串
+     */
+    private String[] methodKeys;
+    /**
+     * 方法标识 -> 方法 ID，不参与序列化，首次查找时建立
+     */
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private transient volatile Map<String, Integer> index;
+
+    public RpcMethodTable(String[] methodKeys) {
+        this.methodKeys = methodKeys;
+    }
+
+    /**
+     * @return 方法 ID，表中没有该方法时返回 0
+     */
+    public int getMethodId(String methodKey) {
+        Map<String, Integer> map = index;
+        if (map == null) {
+            map = new HashMap<>(methodKeys.length * 2);
+            for (int i = 1; i < methodKeys.length; i++) {
+                map.put(methodKeys[i], i);
+            }
+            index = map;
+        }
+        Integer methodId = map.get(methodKey);
+        return methodId == null ? 0 : methodId;
+    }
+
+    /**
+     * 生成方法标识：服务标识.方法名(参数类型,...)
+     */
+    public static String methodKey(String className, String version, String methodName, Class<?>[] parameterTypes) {
+        StringBuilder sb = new StringBuilder(ServiceUtil.makeServiceKey(className, version))
+                .append('.').append(methodName).append('(');
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(parameterTypes[i].getName());
+        }
+        return sb.append(')').toString();
+    }
+}
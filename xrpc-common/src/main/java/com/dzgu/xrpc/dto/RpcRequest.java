@@ -17,10 +17,17 @@ import java.io.Serializable;
 @Data
 public class RpcRequest implements Serializable {
     private static final long serialVersionUID = 2176648719840392878L;
-    private String requestId;
     private String className;
     private String methodName;
     private Class<?>[] parameterTypes;
     private Object[] parameters;
     private String version;
+    /**
+     * v2 协议中由服务端方法表解析出的方法 ID，0 表示 v1 请求，不参与序列化
+     */
+    private transient int methodId;
+    /**
+     * 客户端缓存的方法标识，用于在方法表中查找方法 ID，不参与序列化
+     */
+    private transient String methodKey;
 }
@@ -19,7 +19,6 @@ import java.io.Serializable;
 @Data
 public class RpcResponse<T> implements Serializable {
     private static final long serialVersionUID = 715745410605631233L;
-    private String requestId;
     /**
      * response code
      */
@@ -32,11 +31,13 @@ public class RpcResponse<T> implements Serializable {
      * response body
      */
     private T data;
-    public static <T> RpcResponse<T> success(T data, String requestId) {
+    /**
+     * 请求与响应按帧头的 requestId 对应，响应体不再携带请求 ID
+     */
+    public static <T> RpcResponse<T> success(T data) {
         RpcResponse<T> response = new RpcResponse<>();
         response.setCode(RpcResponseCodeEnum.SUCCESS.getCode());
         response.setMessage(RpcResponseCodeEnum.SUCCESS.getMessage());
-        response.setRequestId(requestId);
         if (null != data) {
             response.setData(data);
         }
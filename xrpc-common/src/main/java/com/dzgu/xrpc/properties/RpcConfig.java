@@ -3,6 +3,9 @@ package com.dzgu.xrpc.properties;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * @description: Rpc配置类
  * @Author： dzgu
@@ -32,6 +35,31 @@ public class RpcConfig {
      */
     private Integer serverPort = 9999;
 
+    /**
+     * 传输层：nio 或 epoll（仅 Linux），epoll 原生库不可用时自动退回 nio
+     */
+    private String transport = "nio";
+
+    /**
+     * 服务端 accept 线程数，epoll 下通过 SO_REUSEPORT 多次绑定同一端口，nio 下固定为 1
+     */
+    private Integer acceptors = 1;
+
+    /**
+     * 服务端共享业务线程池的线程数，0 表示 CPU 核数的 2 倍。@RpcService 配置了 threads 的服务使用自己的线程池
+     */
+    private Integer serviceThreads = 0;
+
+    /**
+     * 服务端共享业务线程池的队列长度，-1 表示不限长度；设置为有界时，队列满后直接回复过载
+     */
+    private Integer serviceQueueCapacity = -1;
+
+    /**
+     * 服务端按排队时间自适应丢弃请求（CoDel）的配置
+     */
+    private CodelConfig codel = new CodelConfig();
+
     /**
      * 序列化类型
      */
@@ -43,23 +71,301 @@ public class RpcConfig {
     private String compress = "gzip";
 
     /**
-     * 负载均衡算法
+     * 响应使用的压缩算法，为空则沿用请求的压缩算法
+     */
+    private String responseCompress = "";
+
+    /**
+     * 压缩阈值，消息体小于该字节数时不压缩
+     */
+    private Integer compressThreshold = 1024;
+
+    /**
+     * 是否自适应压缩，压缩收益不足时自动跳过压缩
+     */
+    private boolean compressAdaptive = true;
+
+    /**
+     * zstd 字典压缩配置，压缩算法为 'zstddict' 时生效，只需在服务端配置
+     */
+    private ZstdDictConfig zstdDict = new ZstdDictConfig();
+
+    /**
+     * 负载均衡算法：random、full-round、consistent-hash、peak-ewma
      */
     private String loadBalance = "random";
 
     /**
-     * 容错策略
+     * 一致性哈希负载均衡的配置，load-balance 为 consistent-hash 时生效
+     */
+    private ConsistentHashConfig consistentHash = new ConsistentHashConfig();
+
+    /**
+     * 容错策略：fail-fast、retry（同一节点重试）、failover（换节点重试）
      */
     private String faultTolerant = "retry";
 
     /**
-     * 重试次数，只有容错策略是 'retry' 的时候才有效
+     * 重试次数，只有容错策略是 'retry' 或 'failover' 的时候才有效
      */
     private Integer retryTimes = 3;
 
+    /**
+     * 故障转移的重试预算，容错策略是 'failover' 时生效
+     */
+    private RetryBudgetConfig retryBudget = new RetryBudgetConfig();
+
+    /**
+     * 客户端按节点熔断、摘除离群节点的配置
+     */
+    private CircuitBreakerConfig circuitBreaker = new CircuitBreakerConfig();
+
+    /**
+     * 对冲请求的配置，对 @RpcMethod(hedge = true) 的方法生效
+     */
+    private HedgeConfig hedge = new HedgeConfig();
+
+    /**
+     * 客户端请求的默认超时时间，毫秒，包含建连时间。可在 @RpcAutowired 和接口方法的 @RpcMethod 上单独配置
+     */
+    private Long timeout = 5000L;
+
+    /**
+     * 返回 CompletableFuture 的接口方法，是否在回调线程池中完成结果。
+     * 默认 false，直接在 IO 线程上完成，此时 thenApply 等后续回调中不能有阻塞操作
+     */
+    private boolean futureOnCallbackExecutor = false;
+
+
+    /**
+     * 客户端到每个服务端地址的连接数。连接按需建立，首个连接建好后在后台补齐其余连接
+     */
+    private Integer channelPoolSize = 1;
+
+    /**
+     * 合并 flush 配置，客户端和服务端分别生效
+     */
+    private FlushConfig flush = new FlushConfig();
+
+    /**
+     * 服务端调用服务方法的方式：methodhandle（默认，注册时生成方法句柄）、cglib、jdk（反射）
+     */
+    private String proxyType = "methodhandle";
+
+    /**
+     * kryo 序列化配置
+     */
+    private KryoConfig kryo = new KryoConfig();
+
+    @Data
+    public static class KryoConfig {
+        /**
+         * 是否要求所有类事先注册
+         */
+        private boolean registrationRequired = false;
+
+        /**
+         * 是否支持循环引用
+         */
+        private boolean references = true;
+
+        /**
+         * 用户类注册表 {ID: 类全名}，客户端与服务端必须一致，ID 从 100 开始
+         */
+        private Map<Integer, String> registrations = new HashMap<>();
+    }
+
+    /**
+     * 高 QPS 下合并多条消息的 flush，减少写系统调用，单条消息增加的延迟不超过一轮 EventLoop
+     */
+    @Data
+    public static class FlushConfig {
+        /**
+         * 是否启用
+         */
+        private boolean enabled = false;
+
+        /**
+         * 攒够多少条消息时立即刷出
+         */
+        private int maxMessages = 64;
+
+        /**
+         * 攒够多少字节时立即刷出
+         */
+        private int maxBytes = 64 * 1024;
+    }
+
+    /**
+     * 一个区间内请求的最短排队时间都超过 target 时认为队列持续积压，之后排队超过 target 的请求直接回复过载；
+     * 否则只丢弃排队超过 interval 的请求。排队时间从开始解码到业务线程开始执行
+     */
+    @Data
+    public static class CodelConfig {
+        /**
+         * 是否启用，未启用时仍统计排队时间
+         */
+        private boolean enabled = false;
+
+        /**
+         * 目标排队时间，毫秒
+         */
+        private long targetMs = 5;
+
+        /**
+         * 观察区间，毫秒
+         */
+        private long intervalMs = 100;
+    }
 
     /**
-     * 服务代理类型 reflect：
+     * 令牌桶：每个请求存入 ratio 个令牌，每次重试取走一个，最多存 burst 个
      */
-    private String proxyType = "cglib";
+    @Data
+    public static class RetryBudgetConfig {
+        /**
+         * 重试数占请求数的最大比例
+         */
+        private double ratio = 0.1;
+
+        /**
+         * 桶的容量，请求较少时也允许少量重试
+         */
+        private int burst = 10;
+    }
+
+    /**
+     * 请求超过对冲延迟没有响应时向另一个节点再发一份，取先到的响应
+     */
+    @Data
+    public static class HedgeConfig {
+        /**
+         * 固定的对冲延迟，毫秒，0 表示按该方法近期延迟的百分位计算
+         */
+        private long delayMs = 0;
+
+        /**
+         * 对冲延迟取近期延迟的百分位
+         */
+        private double percentile = 0.95;
+
+        /**
+         * 对冲请求数占请求数的最大比例
+         */
+        private double ratio = 0.1;
+
+        /**
+         * 令牌桶的容量，请求较少时也允许少量对冲
+         */
+        private int burst = 10;
+    }
+
+    /**
+     * 节点连续失败或失败率过高时熔断，延迟远高于其他节点时摘除；被摘除的节点不参与负载均衡，
+     * 期满后放出一个探测请求，成功则恢复
+     */
+    @Data
+    public static class CircuitBreakerConfig {
+        /**
+         * 是否启用
+         */
+        private boolean enabled = true;
+
+        /**
+         * 连续失败多少次后熔断，0 表示不按连续失败熔断
+         */
+        private int consecutiveFailures = 5;
+
+        /**
+         * 统计窗口内失败率达到该值时熔断，0 表示不按失败率熔断
+         */
+        private double errorRate = 0.5;
+
+        /**
+         * 统计窗口内请求数达到该值才按失败率判断
+         */
+        private int minRequests = 20;
+
+        /**
+         * 失败率的统计窗口，毫秒
+         */
+        private long windowMs = 10000;
+
+        /**
+         * 第一次熔断的时长，毫秒，连续熔断时逐次增加
+         */
+        private long baseEjectionMs = 30000;
+
+        /**
+         * 熔断时长的上限，毫秒
+         */
+        private long maxEjectionMs = 300000;
+
+        /**
+         * 一个服务最多摘除的节点比例，百分比
+         */
+        private int maxEjectionPercent = 50;
+
+        /**
+         * 延迟超过各节点中位数的多少倍时摘除，0 表示不按延迟摘除
+         */
+        private double latencyFactor = 3;
+
+        /**
+         * 延迟低于该值的节点不按延迟摘除，毫秒
+         */
+        private long minOutlierLatencyMs = 50;
+
+        /**
+         * 按延迟检查离群节点的间隔，毫秒
+         */
+        private long latencyIntervalMs = 10000;
+    }
+
+    /**
+     * 相同的哈希键总是发往同一个节点；开启有界负载后，节点的在途请求超过平均值的 loadFactor 倍时顺延到环上的下一个节点
+     */
+    @Data
+    public static class ConsistentHashConfig {
+        /**
+         * 每个节点的虚拟节点数
+         */
+        private int replicas = 160;
+
+        /**
+         * 有界负载系数，大于 1 时生效（建议 1.25），0 表示不限制
+         */
+        private double loadFactor = 0;
+
+        /**
+         * 参与哈希的参数下标，小于 0 时使用全部参数
+         */
+        private int argumentIndex = 0;
+    }
+
+    /**
+     * 字典主要提升小消息的压缩率，启用时通常需要同时调低 compressThreshold
+     */
+    @Data
+    public static class ZstdDictConfig {
+        /**
+         * 每次训练使用的样本数
+         */
+        private int sampleCount = 256;
+
+        /**
+         * 超过该大小的消息体不作为样本
+         */
+        private int maxSampleSize = 16 * 1024;
+
+        /**
+         * 字典的最大大小
+         */
+        private int dictionarySize = 16 * 1024;
+
+        /**
+         * 近期压缩率比字典上线时差多少（比例）时重新训练并轮换字典
+         */
+        private double rotateDegradation = 0.2;
+    }
 }
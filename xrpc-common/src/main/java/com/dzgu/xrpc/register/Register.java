@@ -3,6 +3,7 @@ package com.dzgu.xrpc.register;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * @description: 注册中心
@@ -31,6 +32,12 @@ public interface Register {
      */
     public List<String> lookupService(String serviceKey);
 
+    /**
+     * 订阅服务的地址变更，注册中心推送时以完整的、不可修改的地址列表回调。默认不推送
+     */
+    default void subscribe(String serviceKey, Consumer<List<String>> listener) {
+    }
+
     /**
      *  关闭注册中心
      */
@@ -11,6 +11,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @description:
@@ -51,6 +52,11 @@ public class NacosRegister implements Register {
         return serviceUrlList;
     }
 
+    @Override
+    public void subscribe(String serviceKey, Consumer<List<String>> listener) {
+        NacosUtils.addListener(namingService, serviceKey, listener);
+    }
+
     @Override
     public void stop() {
         namingService = null;
@@ -11,17 +11,24 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * @description: Nacos 工具类
  */
 @Slf4j
 public class NacosUtils {
+    /**
+     * 服务 -> 地址列表，列表不可修改，变更时整体替换
+     */
     private static final Map<String, List<String>> SERVICE_ADDRESS_MAP = new ConcurrentHashMap<>();
+    private static final Map<String, List<Consumer<List<String>>>> SERVICE_LISTENERS = new ConcurrentHashMap<>();
     private static final Set<String> REGISTERED_PATH_SET = ConcurrentHashMap.newKeySet();
     private static NamingService namingService;
 
@@ -57,11 +64,7 @@ public class NacosUtils {
         if (SERVICE_ADDRESS_MAP.containsKey(serviceName)) {
             return SERVICE_ADDRESS_MAP.get(serviceName);
         }
-        List<Instance> allInstances = namingService.getAllInstances(serviceName);
-        List<String> addressList = new ArrayList<>();
-        for (Instance instance : allInstances) {
-            addressList.add(instance.getIp() + ":" + instance.getPort());
-        }
+        List<String> addressList = toAddressList(namingService.getAllInstances(serviceName));
         SERVICE_ADDRESS_MAP.put(serviceName, addressList);
         registerWatcher(namingService, serviceName);
         return addressList;
@@ -95,14 +98,46 @@ public class NacosUtils {
             @SneakyThrows
             @Override
             public void onEvent(Event event) {
-                List<Instance> allInstances = namingService.getAllInstances(serviceName);
-                List<String> addressList = new ArrayList<>();
-                for (Instance instance : allInstances) {
-                    addressList.add(instance.getIp() + ":" + instance.getPort());
-                }
+                List<String> addressList = toAddressList(namingService.getAllInstances(serviceName));
                 SERVICE_ADDRESS_MAP.put(serviceName, addressList);
+                notifyListeners(serviceName, addressList);
             }
         });
 
     }
+
+    private static List<String> toAddressList(List<Instance> allInstances) {
+        List<String> addressList = new ArrayList<>(allInstances.size());
+        for (Instance instance : allInstances) {
+            addressList.add(instance.getIp() + ":" + instance.getPort());
+        }
+        return Collections.unmodifiableList(addressList);
+    }
+
+    /**
+     * 订阅服务的地址变更，监听器在实例变化时收到完整的地址列表
+     */
+    public static void addListener(NamingService namingService, String serviceName, Consumer<List<String>> listener) {
+        SERVICE_LISTENERS.computeIfAbsent(serviceName, k -> new CopyOnWriteArrayList<>()).add(listener);
+        // 确保已经订阅了实例变更
+        try {
+            getAllInstance(namingService, serviceName);
+        } catch (NacosException e) {
+            log.error("subscribe service [{}] fail", serviceName, e);
+        }
+    }
+
+    private static void notifyListeners(String serviceName, List<String> addressList) {
+        List<Consumer<List<String>>> listeners = SERVICE_LISTENERS.get(serviceName);
+        if (listeners == null) {
+            return;
+        }
+        for (Consumer<List<String>> listener : listeners) {
+            try {
+                listener.accept(addressList);
+            } catch (Exception e) {
+                log.error("notify service [{}] address change fail", serviceName, e);
+            }
+        }
+    }
 }
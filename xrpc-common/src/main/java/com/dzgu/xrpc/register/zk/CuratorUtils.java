@@ -10,18 +10,26 @@ import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Slf4j
 public class CuratorUtils {
     private static final int BASE_SLEEP_TIME = 1000;
     private static final int MAX_RETRIES = 3;
     public static final String ZK_REGISTER_ROOT_PATH = "/xrpc";
+    /**
+     * 服务 -> 地址列表，列表不可修改，变更时整体替换
+     */
     private static final Map<String, List<String>> SERVICE_ADDRESS_MAP = new ConcurrentHashMap<>();
+    private static final Map<String, List<Consumer<List<String>>>> SERVICE_LISTENERS = new ConcurrentHashMap<>();
     private static final Set<String> REGISTERED_PATH_SET = ConcurrentHashMap.newKeySet();
     private static CuratorFramework zkClient;
 
@@ -59,7 +67,7 @@ public class CuratorUtils {
         List<String> result = null;
         String servicePath = ZK_REGISTER_ROOT_PATH + "/" + rpcServiceName;
         try {
-            result = zkClient.getChildren().forPath(servicePath);
+            result = Collections.unmodifiableList(new ArrayList<>(zkClient.getChildren().forPath(servicePath)));
             SERVICE_ADDRESS_MAP.put(rpcServiceName, result);
             registerWatcher(rpcServiceName, zkClient);
         } catch (Exception e) {
@@ -114,6 +122,29 @@ public class CuratorUtils {
         zkClient.start();
     }
 
+    /**
+     * 订阅服务的地址变更，监听器在节点变化时收到完整的地址列表
+     */
+    public static void addListener(CuratorFramework zkClient, String rpcServiceName, Consumer<List<String>> listener) {
+        SERVICE_LISTENERS.computeIfAbsent(rpcServiceName, k -> new CopyOnWriteArrayList<>()).add(listener);
+        // 确保已经注册了节点监听
+        getChildrenNodes(zkClient, rpcServiceName);
+    }
+
+    private static void notifyListeners(String rpcServiceName, List<String> serviceAddresses) {
+        List<Consumer<List<String>>> listeners = SERVICE_LISTENERS.get(rpcServiceName);
+        if (listeners == null) {
+            return;
+        }
+        for (Consumer<List<String>> listener : listeners) {
+            try {
+                listener.accept(serviceAddresses);
+            } catch (Exception e) {
+                log.error("notify service [{}] address change fail", rpcServiceName, e);
+            }
+        }
+    }
+
     /**
      * Registers to listen for changes to the specified node
      *
@@ -122,8 +153,10 @@ public class CuratorUtils {
         String servicePath = ZK_REGISTER_ROOT_PATH + "/" + rpcServiceName;
         PathChildrenCache pathChildrenCache = new PathChildrenCache(zkClient, servicePath, true);
         PathChildrenCacheListener pathChildrenCacheListener = (curatorFramework, pathChildrenCacheEvent) -> {
-            List<String> serviceAddresses = curatorFramework.getChildren().forPath(servicePath);
+            List<String> serviceAddresses = Collections.unmodifiableList(
+                    new ArrayList<>(curatorFramework.getChildren().forPath(servicePath)));
             SERVICE_ADDRESS_MAP.put(rpcServiceName, serviceAddresses);
+            notifyListeners(rpcServiceName, serviceAddresses);
         };
         pathChildrenCache.getListenable().addListener(pathChildrenCacheListener);
         pathChildrenCache.start();
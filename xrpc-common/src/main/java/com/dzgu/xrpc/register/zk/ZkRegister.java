@@ -8,6 +8,7 @@ import org.apache.curator.framework.CuratorFramework;
 
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @description: zookeeper注册中心
@@ -43,6 +44,11 @@ public class ZkRegister implements Register {
         return serviceUrlList;
     }
 
+    @Override
+    public void subscribe(String serviceKey, Consumer<List<String>> listener) {
+        CuratorUtils.addListener(zkClient, serviceKey, listener);
+    }
+
     @Override
     public void stop() {
         this.zkClient.close();
@@ -2,6 +2,7 @@ package com.dzgu.xrpc.serializer;
 
 import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.extension.SPI;
+import io.netty.buffer.ByteBuf;
 
 /**
  * @description:
@@ -16,4 +17,36 @@ public interface Serializer {
     byte[] serialize(Object object);
 
     <T> T deserialize(Class<T> clazz, byte[] bytes);
+
+    /**
+     * 直接序列化到 ByteBuf，省去中间 byte[] 的分配与拷贝。
+     * 默认实现退化为 byte[] 方式，保证只实现了 byte[] 方法的第三方扩展仍然可用
+     *
+     * @param object 待序列化对象
+     * @param out    输出缓冲区，从 writerIndex 处开始写
+     */
+    default void serialize(Object object, ByteBuf out) {
+        out.writeBytes(serialize(object));
+    }
+
+    /**
+     * 直接从 ByteBuf 反序列化
+     *
+     * @param clazz 目标类型
+     * @param in    消息体，可读部分即为完整的序列化数据
+     */
+    default <T> T deserialize(Class<T> clazz, ByteBuf in) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        return deserialize(clazz, bytes);
+    }
+
+    /**
+     * 对服务接口做预处理（如提前生成参数、返回值类型的 schema），避免首批请求承担初始化开销。
+     * 默认不做任何处理
+     *
+     * @param serviceInterface 服务接口
+     */
+    default void prepare(Class<?> serviceInterface) {
+    }
 }
@@ -5,6 +5,9 @@ import com.caucho.hessian.io.HessianOutput;
 import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.exception.SerializeException;
 import com.dzgu.xrpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -40,4 +43,26 @@ public class HessianSerializer implements Serializer {
             throw new SerializeException("Hessian Deserialization failed:", e.getMessage());
         }
     }
+
+    @Override
+    public void serialize(Object object, ByteBuf out) {
+        try {
+            HessianOutput hessianOutput = new HessianOutput(new ByteBufOutputStream(out));
+            hessianOutput.writeObject(object);
+            hessianOutput.flush();
+        } catch (Exception e) {
+            throw new SerializeException("Hessian Serialization failed:", e.getMessage());
+        }
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> clazz, ByteBuf in) {
+        try {
+            HessianInput hessianInput = new HessianInput(new ByteBufInputStream(in));
+            Object o = hessianInput.readObject();
+            return clazz.cast(o);
+        } catch (Exception e) {
+            throw new SerializeException("Hessian Deserialization failed:", e.getMessage());
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package com.dzgu.xrpc.serializer.kryo;
 
+import com.dzgu.xrpc.compress.zstd.ZstdDictionary;
 import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
+import com.dzgu.xrpc.dto.RpcMethodTable;
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.dto.RpcResponse;
 import com.dzgu.xrpc.exception.SerializeException;
@@ -8,53 +10,225 @@ import com.dzgu.xrpc.serializer.Serializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @description: Kryo 序列化
  */
+@Slf4j
 public class KryoSerializer implements Serializer {
     /**
-     * Because Kryo is not thread safe. So, use ThreadLocal to store Kryo objects
+     * 框架内部类的注册 ID，客户端与服务端必须一致。用户自定义类的 ID 请从 {@link #USER_REGISTRATION_ID_START} 开始
      */
-    private final ThreadLocal<Kryo> kryoThreadLocal = ThreadLocal.withInitial(() -> {
-        Kryo kryo = new Kryo();
-        kryo.register(RpcResponse.class);
-        kryo.register(RpcRequest.class);
-        return kryo;
-    });
+    private static final int RPC_REQUEST_ID = 10;
+    private static final int RPC_RESPONSE_ID = 11;
+    private static final int OBJECT_ARRAY_ID = 12;
+    private static final int CLASS_ARRAY_ID = 13;
+    private static final int CLASS_ID = 14;
+    private static final int ZSTD_DICTIONARY_ID = 15;
+    private static final int METHOD_TABLE_ID = 16;
+    private static final int BYTE_ARRAY_ID = 17;
+    private static final int STRING_ARRAY_ID = 18;
+    public static final int USER_REGISTRATION_ID_START = 100;
+
+    /**
+     * Output 初始缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 4 * 1024;
+    /**
+     * 缓冲区超过该大小后不再复用，避免一次大消息让线程长期持有大数组
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    /**
+     * 当前生效的配置，重新配置后各线程缓存的 Kryo 会在下次使用时重建
+     */
+    private volatile KryoOptions options = new KryoOptions(false, true, Collections.emptyMap());
+
+    /**
+     * Kryo 不是线程安全的，每个线程持有一份 Kryo 及其读写缓冲区并一直复用。
+     * 编解码都在固定数量的 Netty IO 线程上执行，因此按线程池化即可，没有跨线程的借还开销
+     */
+    private final ThreadLocal<KryoHolder> holderThreadLocal = new ThreadLocal<>();
 
     @Override
     public SerializerTypeEnum getSerializerAlgorithm() {
         return SerializerTypeEnum.KRYO;
     }
 
+    /**
+     * 配置 Kryo 的类注册
+     *
+     * @param registrationRequired 是否要求所有类都事先注册，开启后未注册的类会直接报错，但序列化结果不再携带类名
+     * @param references           是否开启循环引用支持，关闭可以减少开销，但对象图中不能有重复引用
+     * @param registrations        用户类注册表 {ID: 类全名}，客户端与服务端必须一致，ID 不小于 {@link #USER_REGISTRATION_ID_START}
+     */
+    public void configure(boolean registrationRequired, boolean references, Map<Integer, String> registrations) {
+        Map<Integer, Class<?>> classes = new HashMap<>();
+        if (registrations != null) {
+            for (Map.Entry<Integer, String> entry : registrations.entrySet()) {
+                if (entry.getKey() < USER_REGISTRATION_ID_START) {
+                    throw new IllegalArgumentException("Kryo registration id must not be less than "
+                            + USER_REGISTRATION_ID_START + ": " + entry);
+                }
+                try {
+                    classes.put(entry.getKey(), Class.forName(entry.getValue()));
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Kryo registration class not found: " + entry.getValue(), e);
+                }
+            }
+        }
+        this.options = new KryoOptions(registrationRequired, references, classes);
+        log.info("kryo configured, registrationRequired: {}, references: {}, registrations: {}",
+                registrationRequired, references, classes.size());
+    }
+
     @Override
     public byte[] serialize(Object obj) {
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-             Output output = new Output(byteArrayOutputStream)) {
-            Kryo kryo = kryoThreadLocal.get();
-            kryo.writeObject(output, obj);
-            kryoThreadLocal.remove();
+        KryoHolder holder = getHolder();
+        Output output = holder.output;
+        try {
+            output.clear();
+            holder.kryo.writeObject(output, obj);
             return output.toBytes();
         } catch (Exception e) {
-            throw new SerializeException("Kryo Serialization failed",e.getMessage());
+            throw new SerializeException("Kryo Serialization failed", e.getMessage());
+        } finally {
+            holder.trimOutput();
         }
     }
 
     @Override
     public <T> T deserialize(Class<T> clazz, byte[] bytes) {
-        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-             Input input = new Input(byteArrayInputStream)) {
-            Kryo kryo = kryoThreadLocal.get();
-            T res = kryo.readObject(input, clazz);
-            kryoThreadLocal.remove();
-            return res;
+        KryoHolder holder = getHolder();
+        Input input = holder.arrayInput;
+        try {
+            input.setBuffer(bytes);
+            return holder.kryo.readObject(input, clazz);
+        } catch (Exception e) {
+            throw new SerializeException("Kryo DeSerialization failed", e.getMessage());
+        } finally {
+            input.setBuffer(EMPTY_BYTES);
+        }
+    }
+
+    /**
+     * 先写入线程复用的 Output 缓冲区，再一次性拷贝进 out，不产生任何临时对象
+     */
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        KryoHolder holder = getHolder();
+        Output output = holder.output;
+        try {
+            output.clear();
+            holder.kryo.writeObject(output, obj);
+            out.writeBytes(output.getBuffer(), 0, output.position());
         } catch (Exception e) {
-            throw new SerializeException("Kryo DeSerialization failed",e.getMessage());
+            throw new SerializeException("Kryo Serialization failed", e.getMessage());
+        } finally {
+            holder.trimOutput();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> clazz, ByteBuf in) {
+        KryoHolder holder = getHolder();
+        try {
+            if (in.hasArray()) {
+                // 堆内存直接读底层数组
+                Input input = holder.arrayInput;
+                int offset = in.arrayOffset() + in.readerIndex();
+                try {
+                    input.setBuffer(in.array(), offset, in.readableBytes());
+                    T res = holder.kryo.readObject(input, clazz);
+                    in.skipBytes(input.position() - offset);
+                    return res;
+                } finally {
+                    input.setBuffer(EMPTY_BYTES);
+                }
+            }
+            Input input = holder.streamInput;
+            try {
+                input.setInputStream(new ByteBufInputStream(in));
+                return holder.kryo.readObject(input, clazz);
+            } finally {
+                input.setInputStream(null);
+            }
+        } catch (Exception e) {
+            throw new SerializeException("Kryo DeSerialization failed", e.getMessage());
+        }
+    }
+
+    private KryoHolder getHolder() {
+        KryoOptions current = options;
+        KryoHolder holder = holderThreadLocal.get();
+        if (holder == null || holder.options != current) {
+            holder = new KryoHolder(current);
+            holderThreadLocal.set(holder);
+        }
+        return holder;
+    }
+
+    /**
+     * Kryo 的注册配置，不可变，整体替换
+     */
+    private static final class KryoOptions {
+        private final boolean registrationRequired;
+        private final boolean references;
+        private final Map<Integer, Class<?>> registrations;
+
+        private KryoOptions(boolean registrationRequired, boolean references, Map<Integer, Class<?>> registrations) {
+            this.registrationRequired = registrationRequired;
+            this.references = references;
+            this.registrations = registrations;
+        }
+
+        private Kryo newKryo() {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(registrationRequired);
+            kryo.setReferences(references);
+            kryo.register(RpcRequest.class, RPC_REQUEST_ID);
+            kryo.register(RpcResponse.class, RPC_RESPONSE_ID);
+            kryo.register(Object[].class, OBJECT_ARRAY_ID);
+            kryo.register(Class[].class, CLASS_ARRAY_ID);
+            kryo.register(Class.class, CLASS_ID);
+            kryo.register(ZstdDictionary.class, ZSTD_DICTIONARY_ID);
+            kryo.register(RpcMethodTable.class, METHOD_TABLE_ID);
+            kryo.register(byte[].class, BYTE_ARRAY_ID);
+            kryo.register(String[].class, STRING_ARRAY_ID);
+            for (Map.Entry<Integer, Class<?>> entry : registrations.entrySet()) {
+                kryo.register(entry.getValue(), entry.getKey());
+            }
+            return kryo;
+        }
+    }
+
+    /**
+     * 单个线程持有的 Kryo 实例及可复用的读写缓冲区
+     */
+    private static final class KryoHolder {
+        private final KryoOptions options;
+        private final Kryo kryo;
+        private final Input arrayInput = new Input();
+        private final Input streamInput = new Input(BUFFER_SIZE);
+        private Output output = new Output(BUFFER_SIZE, -1);
+
+        private KryoHolder(KryoOptions options) {
+            this.options = options;
+            this.kryo = options.newKryo();
+        }
 
+        private void trimOutput() {
+            if (output.getBuffer().length > MAX_POOLED_BUFFER_SIZE) {
+                output = new Output(BUFFER_SIZE, -1);
+            }
         }
     }
 }
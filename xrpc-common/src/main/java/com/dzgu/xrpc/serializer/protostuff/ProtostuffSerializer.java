@@ -2,21 +2,44 @@ package com.dzgu.xrpc.serializer.protostuff;
 
 
 import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.SerializeException;
 import com.dzgu.xrpc.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import io.protostuff.LinkedBuffer;
 import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
 import io.protostuff.runtime.RuntimeSchema;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 
 /**
  * @description: Protostuff序列化
  */
+@Slf4j
 public class ProtostuffSerializer implements Serializer {
     /**
-     * Avoid re applying buffer space every time serialization
+     * 每个线程复用一个缓冲区。编码在所有 Netty IO 线程上并发执行，不能共用同一个 LinkedBuffer
      */
-    private static final LinkedBuffer BUFFER = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+    private static final ThreadLocal<LinkedBuffer> BUFFER = ThreadLocal.withInitial(
+            () -> LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE));
+
+    static {
+        // 框架自身的消息体总会用到，类加载时即生成 schema
+        RuntimeSchema.getSchema(RpcRequest.class);
+        RuntimeSchema.getSchema(RpcResponse.class);
+    }
 
     @Override
     public SerializerTypeEnum getSerializerAlgorithm() {
@@ -27,11 +50,12 @@ public class ProtostuffSerializer implements Serializer {
     public byte[] serialize(Object obj) {
         Class<?> clazz = obj.getClass();
         Schema schema = RuntimeSchema.getSchema(clazz);
+        LinkedBuffer buffer = BUFFER.get();
         byte[] bytes;
         try {
-            bytes = ProtostuffIOUtil.toByteArray(obj, schema, BUFFER);
+            bytes = ProtostuffIOUtil.toByteArray(obj, schema, buffer);
         } finally {
-            BUFFER.clear();
+            buffer.clear();
         }
 
         return bytes;
@@ -44,4 +68,85 @@ public class ProtostuffSerializer implements Serializer {
         ProtostuffIOUtil.mergeFrom(bytes, obj, schema);
         return obj;
     }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        Schema schema = RuntimeSchema.getSchema(obj.getClass());
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            ProtostuffIOUtil.writeTo(new ByteBufOutputStream(out), obj, schema, buffer);
+        } catch (IOException e) {
+            throw new SerializeException("Protostuff Serialization failed", e.getMessage());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(Class<T> clazz, ByteBuf in) {
+        Schema<T> schema = RuntimeSchema.getSchema(clazz);
+        T obj = schema.newMessage();
+        try {
+            if (in.hasArray()) {
+                // 堆内存直接使用底层数组，无需拷贝
+                ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes(), obj, schema);
+                in.skipBytes(in.readableBytes());
+            } else {
+                // 借用线程的缓冲区作为读缓冲，避免每次新建
+                LinkedBuffer buffer = BUFFER.get();
+                try {
+                    ProtostuffIOUtil.mergeFrom(new ByteBufInputStream(in), obj, schema, buffer);
+                } finally {
+                    buffer.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new SerializeException("Protostuff Deserialization failed", e.getMessage());
+        }
+        return obj;
+    }
+
+    /**
+     * 提前生成服务接口中参数及返回值类型的 schema
+     */
+    @Override
+    public void prepare(Class<?> serviceInterface) {
+        Set<Class<?>> classes = new LinkedHashSet<>();
+        for (Method method : serviceInterface.getMethods()) {
+            for (Type type : method.getGenericParameterTypes()) {
+                collectMessageClasses(type, classes);
+            }
+            collectMessageClasses(method.getGenericReturnType(), classes);
+        }
+        for (Class<?> clazz : classes) {
+            try {
+                RuntimeSchema.getSchema(clazz);
+            } catch (RuntimeException e) {
+                log.warn("protostuff schema for [{}] can not be prepared: {}", clazz.getName(), e.getMessage());
+            }
+        }
+        log.info("protostuff schema prepared for [{}]: {}", serviceInterface.getName(), classes);
+    }
+
+    /**
+     * 收集类型中需要生成 schema 的 POJO 类，展开数组和泛型参数
+     */
+    private static void collectMessageClasses(Type type, Set<Class<?>> classes) {
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            collectMessageClasses(parameterizedType.getRawType(), classes);
+            for (Type argument : parameterizedType.getActualTypeArguments()) {
+                collectMessageClasses(argument, classes);
+            }
+        } else if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (clazz.isArray()) {
+                collectMessageClasses(clazz.getComponentType(), classes);
+            } else if (!clazz.isPrimitive() && !clazz.isInterface() && !clazz.isEnum()
+                    && !Modifier.isAbstract(clazz.getModifiers())
+                    && !clazz.getName().startsWith("java.")) {
+                classes.add(clazz);
+            }
+        }
+    }
 }
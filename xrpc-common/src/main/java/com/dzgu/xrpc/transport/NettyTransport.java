@@ -0,0 +1,137 @@
+package com.dzgu.xrpc.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @description: Netty 传输层实现。epoll 为 Linux 原生传输：边缘触发、TCP_QUICKACK，
+ * 服务端可通过 SO_REUSEPORT 由多个线程分别 bind 同一端口并行 accept；
+ * 原生库不可用（非 Linux 或加载失败）时自动退回 NIO
+ * @Author： dzgu
+ * @Date： 2022/5/15 10:12
+ */
+@Slf4j
+@AllArgsConstructor
+@Getter
+public enum NettyTransport {
+    NIO("nio") {
+        @Override
+        public EventLoopGroup eventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> channelClass() {
+            return NioSocketChannel.class;
+        }
+    },
+    EPOLL("epoll") {
+        @Override
+        public EventLoopGroup eventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> channelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public int acceptors(int acceptors) {
+            return Math.max(1, acceptors);
+        }
+
+        @Override
+        public void configure(ServerBootstrap bootstrap, int acceptors) {
+            bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                    // 收到数据后立即回 ACK，不等待延迟确认，降低请求-响应模式下的延迟
+                    .childOption(EpollChannelOption.TCP_QUICKACK, true);
+            if (acceptors > 1) {
+                // 多个监听 socket 绑定同一端口，由内核在它们之间分配新连接
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+        }
+
+        @Override
+        public void configure(Bootstrap bootstrap) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                    .option(EpollChannelOption.TCP_QUICKACK, true);
+        }
+    };
+
+    private final String name;
+
+    /**
+     * 按名称选择传输层，'epoll' 在原生库不可用时退回 NIO，未知名称使用 NIO
+     */
+    public static NettyTransport resolve(String name) {
+        if (EPOLL.name.equalsIgnoreCase(name)) {
+            if (Epoll.isAvailable()) {
+                return EPOLL;
+            }
+            log.warn("epoll transport is not available, fall back to nio: {}", String.valueOf(Epoll.unavailabilityCause()));
+            return NIO;
+        }
+        if (!NIO.name.equalsIgnoreCase(name)) {
+            log.warn("unknown transport [{}], use nio", name);
+        }
+        return NIO;
+    }
+
+    /**
+     * @param threads 线程数，0 表示使用 Netty 的默认值（CPU 核数的 2 倍）
+     */
+    public abstract EventLoopGroup eventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends SocketChannel> channelClass();
+
+    /**
+     * 实际使用的 accept 线程数（监听 socket 数），只有支持 SO_REUSEPORT 的传输层可以大于 1
+     */
+    public int acceptors(int acceptors) {
+        return 1;
+    }
+
+    /**
+     * 设置服务端传输层相关的参数
+     *
+     * @param acceptors {@link #acceptors(int)} 的返回值
+     */
+    public void configure(ServerBootstrap bootstrap, int acceptors) {
+    }
+
+    /**
+     * 设置客户端传输层相关的参数
+     */
+    public void configure(Bootstrap bootstrap) {
+    }
+}
@@ -0,0 +1,50 @@
+package com.dzgu.xrpc.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 当前线程正在处理的请求的截止时间。服务端执行服务方法期间设置，方法内发起的嵌套调用据此继承剩余的时间预算。
+ * 返回 CompletableFuture 的方法只在方法返回前有效，之后在回调中发起的调用不继承
+ * @Author： dzgu
+ * @Date： 2022/5/16 14:30
+ */
+public class DeadlineContext {
+    private static final ThreadLocal<Long> LOCAL_DEADLINE = new ThreadLocal<>();
+
+    private DeadlineContext() {
+    }
+
+    /**
+     * @param deadlineNanos 截止时间（System.nanoTime），0 表示没有
+     */
+    public static void set(long deadlineNanos) {
+        if (deadlineNanos == 0) {
+            LOCAL_DEADLINE.remove();
+        } else {
+            LOCAL_DEADLINE.set(deadlineNanos);
+        }
+    }
+
+    public static void clear() {
+        LOCAL_DEADLINE.remove();
+    }
+
+    /**
+     * @return 当前的截止时间，0 表示没有
+     */
+    public static long get() {
+        Long deadline = LOCAL_DEADLINE.get();
+        return deadline == null ? 0 : deadline;
+    }
+
+    /**
+     * 新发起调用的截止时间：自身超时与继承的截止时间中较早的一个
+     *
+     * @param timeoutMs 调用自身的超时时间，毫秒
+     */
+    public static long deadlineFor(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        long inherited = get();
+        return inherited != 0 && inherited - deadline < 0 ? inherited : deadline;
+    }
+}
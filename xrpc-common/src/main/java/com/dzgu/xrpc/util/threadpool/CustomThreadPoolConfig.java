@@ -5,6 +5,8 @@ import lombok.Setter;
 
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,4 +35,21 @@ public class CustomThreadPoolConfig {
     private TimeUnit unit = DEFAULT_TIME_UNIT;
     // 使用有界队列
     private BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(BLOCKING_QUEUE_CAPACITY);
+
+    /**
+     * 固定线程数的线程池配置，有界队列满时拒绝
+     *
+     * @param queueCapacity 队列长度，0 表示不排队，负数表示不限长度
+     */
+    public static CustomThreadPoolConfig fixed(int threads, int queueCapacity) {
+        CustomThreadPoolConfig config = new CustomThreadPoolConfig();
+        config.setCorePoolSize(threads);
+        config.setMaximumPoolSize(threads);
+        if (queueCapacity < 0) {
+            config.setWorkQueue(new LinkedBlockingQueue<>());
+        } else {
+            config.setWorkQueue(queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>());
+        }
+        return config;
+    }
 }
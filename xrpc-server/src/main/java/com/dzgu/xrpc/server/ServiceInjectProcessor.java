@@ -1,8 +1,12 @@
 package com.dzgu.xrpc.server;
 
 import com.dzgu.xrpc.annotation.RpcService;
+import com.dzgu.xrpc.serializer.Serializer;
 import com.dzgu.xrpc.server.core.NettyServer;
 import com.dzgu.xrpc.server.core.ServiceRegisterCache;
+import com.dzgu.xrpc.util.ServiceUtil;
+import com.dzgu.xrpc.util.threadpool.CustomThreadPoolConfig;
+import com.dzgu.xrpc.util.threadpool.ThreadPoolFactoryUtil;
 import lombok.Setter;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
@@ -10,6 +14,7 @@ import org.springframework.context.event.ContextRefreshedEvent;
 
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @description: Spring 启动完毕 启动netty 并注册服务
@@ -20,6 +25,7 @@ import java.util.Objects;
 public class ServiceInjectProcessor implements ApplicationListener<ContextRefreshedEvent> {
     private NettyServer nettyServer;
     private ServiceRegisterCache serviceRegisterCache;
+    private Serializer serializer;
 
     @Override
     public void onApplicationEvent(ContextRefreshedEvent contextRefreshedEvent) {
@@ -30,9 +36,18 @@ public class ServiceInjectProcessor implements ApplicationListener<ContextRefres
             if (serviceBeanMap != null && !serviceBeanMap.isEmpty()) {
                 for (Object serviceBean : serviceBeanMap.values()) {
                     RpcService rpcService = serviceBean.getClass().getAnnotation(RpcService.class);
-                    String interfaceName = rpcService.value().getName();
                     String version = rpcService.version();
-                    serviceRegisterCache.addService(interfaceName, version, serviceBean);
+                    ExecutorService executor = null;
+                    if (rpcService.threads() > 0) {
+                        // 服务独立的线程池，与其他服务隔离
+                        String serviceKey = ServiceUtil.makeServiceKey(rpcService.value().getName(), version);
+                        executor = ThreadPoolFactoryUtil.createCustomThreadPoolIfAbsent(
+                                CustomThreadPoolConfig.fixed(rpcService.threads(), rpcService.queueCapacity()),
+                                "xrpc-service-" + serviceKey, false);
+                    }
+                    serviceRegisterCache.addService(rpcService.value(), version, serviceBean, executor, rpcService.rejectPolicy());
+                    // 提前完成序列化的初始化工作，首批请求不再承担
+                    serializer.prepare(rpcService.value());
 
                 }
             }
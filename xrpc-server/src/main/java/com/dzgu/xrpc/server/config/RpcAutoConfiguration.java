@@ -1,9 +1,13 @@
 package com.dzgu.xrpc.server.config;
 
+import com.dzgu.xrpc.compress.zstd.ZstdDictionaryTrainer;
+import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.extension.ExtensionLoader;
 import com.dzgu.xrpc.properties.RpcConfig;
 import com.dzgu.xrpc.register.Register;
 import com.dzgu.xrpc.register.RegisterFactory;
+import com.dzgu.xrpc.serializer.Serializer;
+import com.dzgu.xrpc.serializer.kryo.KryoSerializer;
 import com.dzgu.xrpc.server.ServiceInjectProcessor;
 import com.dzgu.xrpc.server.core.NettyServer;
 import com.dzgu.xrpc.server.core.ServiceRegisterCache;
@@ -34,6 +38,7 @@ public class RpcAutoConfiguration implements DisposableBean {
     private NettyServer nettyServer;
     private ServiceRegisterCache serviceRegisterCache;
     private Invoker invoker;
+    private ZstdDictionaryTrainer dictionaryTrainer;
 
 
     @Bean
@@ -51,6 +56,7 @@ public class RpcAutoConfiguration implements DisposableBean {
 
     @Bean
     public NettyServer nettyServer(@Autowired RpcConfig rpcConfig) {
+        configureKryo(rpcConfig.getKryo());
         RegisterFactory registerFactory = ExtensionLoader.getExtensionLoader(RegisterFactory.class).getExtension(rpcConfig.getRegister());
         Register register = registerFactory.getRegister(rpcConfig.getRegisterAddress());
         String host = null;
@@ -61,23 +67,57 @@ public class RpcAutoConfiguration implements DisposableBean {
         }
         InetSocketAddress inetSocketAddress = new InetSocketAddress(host == null ? "127.0.0.1" : host, rpcConfig.getServerPort());
         nettyServer = new NettyServer();
+        nettyServer.getCompressPolicy().configure(rpcConfig.getCompressThreshold(), rpcConfig.isCompressAdaptive(),
+                rpcConfig.getCompress(), rpcConfig.getResponseCompress());
         nettyServer.setRegister(register);
         nettyServer.setInvoker(invoker);
         nettyServer.setServerAddress(inetSocketAddress);
+        nettyServer.setSerializer(rpcConfig.getSerializer());
+        nettyServer.setTransport(rpcConfig.getTransport());
+        nettyServer.setAcceptors(rpcConfig.getAcceptors());
+        nettyServer.setServiceThreads(rpcConfig.getServiceThreads());
+        nettyServer.setServiceQueueCapacity(rpcConfig.getServiceQueueCapacity());
+        RpcConfig.CodelConfig codelConfig = rpcConfig.getCodel();
+        nettyServer.setCodelEnabled(codelConfig.isEnabled());
+        nettyServer.setCodelTargetMs(codelConfig.getTargetMs());
+        nettyServer.setCodelIntervalMs(codelConfig.getIntervalMs());
+        nettyServer.setDictionaryTrainer(dictionaryTrainer(rpcConfig));
+        RpcConfig.FlushConfig flushConfig = rpcConfig.getFlush();
+        if (flushConfig.isEnabled()) {
+            nettyServer.setFlushMaxMessages(flushConfig.getMaxMessages());
+            nettyServer.setFlushMaxBytes(flushConfig.getMaxBytes());
+        }
         return nettyServer;
     }
 
     @Bean
-    public ServiceInjectProcessor injectProcessor() {
+    public ServiceInjectProcessor injectProcessor(@Autowired RpcConfig rpcConfig) {
         ServiceInjectProcessor serviceInjectProcessor = new ServiceInjectProcessor();
         serviceInjectProcessor.setNettyServer(nettyServer);
         serviceInjectProcessor.setServiceRegisterCache(serviceRegisterCache);
+        serviceInjectProcessor.setSerializer(ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(rpcConfig.getSerializer()));
         return serviceInjectProcessor;
     }
 
+    private ZstdDictionaryTrainer dictionaryTrainer(RpcConfig rpcConfig) {
+        RpcConfig.ZstdDictConfig zstdDictConfig = rpcConfig.getZstdDict();
+        dictionaryTrainer = new ZstdDictionaryTrainer();
+        dictionaryTrainer.configure(rpcConfig.getSerializer(), zstdDictConfig.getSampleCount(), zstdDictConfig.getMaxSampleSize(),
+                zstdDictConfig.getDictionarySize(), zstdDictConfig.getRotateDegradation());
+        return dictionaryTrainer;
+    }
+
+    /**
+     * kryo 的类注册需要与客户端保持一致
+     */
+    private void configureKryo(RpcConfig.KryoConfig kryoConfig) {
+        Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(SerializerTypeEnum.KRYO.getName());
+        ((KryoSerializer) serializer).configure(kryoConfig.isRegistrationRequired(), kryoConfig.isReferences(), kryoConfig.getRegistrations());
+    }
 
     @Override
     public void destroy() {
         nettyServer.stop();
+        dictionaryTrainer.shutdown();
     }
 }
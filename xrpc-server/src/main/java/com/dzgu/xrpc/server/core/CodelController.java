@@ -0,0 +1,54 @@
+package com.dzgu.xrpc.server.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description: 按排队时间丢弃请求（CoDel）。业务线程开始执行请求时调用，每个线程池一个实例。
+ * 上一个区间内的最短排队时间超过 target，说明队列一直没有排空，是持续积压而不是突发，
+ * 这时排队超过 target 的请求直接回复过载；队列能排空时只丢弃排队超过 interval 的请求，允许短时突发。
+ * 业务线程池有多个出队线程，这里不按 RFC 8289 逐个计算下一次丢弃时间，而是整个区间使用同一个上限
+ * @Author： dzgu
+ * @Date： 2022/5/16 10:20
+ */
+public class CodelController {
+    private static final long NO_SAMPLE = Long.MAX_VALUE;
+
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final AtomicLong intervalEnd;
+    /**
+     * 当前区间内的最短排队时间
+     */
+    private final AtomicLong minDelay = new AtomicLong(NO_SAMPLE);
+    private volatile boolean overloaded;
+
+    public CodelController(long targetMs, long intervalMs) {
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.intervalEnd = new AtomicLong(System.nanoTime() + intervalNanos);
+    }
+
+    /**
+     * @param delayNanos 请求的排队时间
+     * @param now        当前时间，System.nanoTime()
+     * @return 是否执行这个请求，false 时应直接回复过载
+     */
+    public boolean admit(long delayNanos, long now) {
+        long end = intervalEnd.get();
+        if (now - end >= 0 && intervalEnd.compareAndSet(end, now + intervalNanos)) {
+            // 进入新区间，上一个区间没有请求时认为队列是空的
+            long min = minDelay.getAndSet(NO_SAMPLE);
+            overloaded = min != NO_SAMPLE && min > targetNanos;
+        }
+        long min;
+        while (delayNanos < (min = minDelay.get()) && !minDelay.compareAndSet(min, delayNanos)) {
+            // 竞争失败时重读
+        }
+        return delayNanos <= (overloaded ? targetNanos : intervalNanos);
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+}
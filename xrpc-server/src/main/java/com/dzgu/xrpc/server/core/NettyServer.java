@@ -1,27 +1,41 @@
 package com.dzgu.xrpc.server.core;
 
+import com.dzgu.xrpc.codec.FlushBatchHandler;
+import com.dzgu.xrpc.codec.RpcCodec;
 import com.dzgu.xrpc.codec.RpcDecoder;
 import com.dzgu.xrpc.codec.RpcEncoder;
 import com.dzgu.xrpc.codec.Spliter;
+import com.dzgu.xrpc.compress.CompressPolicy;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionarySession;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionaryTrainer;
+import com.dzgu.xrpc.consts.enums.SerializerTypeEnum;
 import com.dzgu.xrpc.register.Register;
 import com.dzgu.xrpc.server.invoke.Invoker;
+import com.dzgu.xrpc.transport.NettyTransport;
 import com.dzgu.xrpc.util.RuntimeUtil;
+import com.dzgu.xrpc.util.threadpool.CustomThreadPoolConfig;
 import com.dzgu.xrpc.util.threadpool.ThreadPoolFactoryUtil;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -37,6 +51,43 @@ public class NettyServer {
     private Invoker invoker;
     protected ServiceRegisterCache serviceRegisterCache;
     private InetSocketAddress serverAddress;
+    private ZstdDictionaryTrainer dictionaryTrainer = new ZstdDictionaryTrainer();
+    /**
+     * 本服务端的编解码器，压缩策略只属于这个服务端，不与同一进程中的客户端共用
+     */
+    private final RpcCodec codec = new RpcCodec();
+    /**
+     * 服务端主动下发消息时使用的序列化方式
+     */
+    private String serializer = SerializerTypeEnum.KRYO.getName();
+    /**
+     * 合并 flush 的配置，flushMaxMessages 为 0 时不启用
+     */
+    private int flushMaxMessages = 0;
+    private int flushMaxBytes = FlushBatchHandler.DEFAULT_MAX_BYTES;
+    /**
+     * 传输层，nio 或 epoll
+     */
+    private String transport = NettyTransport.NIO.getName();
+    /**
+     * accept 线程数，epoll 下通过 SO_REUSEPORT 绑定多个监听 socket
+     */
+    private int acceptors = 1;
+    /**
+     * 共享业务线程池的线程数（0 表示 CPU 核数的 2 倍）和队列长度（-1 表示不限长度），有界队列满时直接回复过载
+     */
+    private int serviceThreads = 0;
+    private int serviceQueueCapacity = -1;
+    /**
+     * 按排队时间丢弃请求（CoDel），每个业务线程池一个控制器
+     */
+    private boolean codelEnabled = false;
+    private long codelTargetMs = 5;
+    private long codelIntervalMs = 100;
+    /**
+     * 业务线程使用统计
+     */
+    private final ServiceHandlerStats serviceHandlerStats = new ServiceHandlerStats();
 
     public NettyServer() {
 
@@ -45,20 +96,21 @@ public class NettyServer {
 
     public void start() {
         thread = new Thread(new Runnable() {
-            DefaultEventExecutorGroup serviceHandlerGroup = new DefaultEventExecutorGroup(
-                    RuntimeUtil.cpus() * 2,
-                    ThreadPoolFactoryUtil.createThreadFactory("com.dzgu.xrpc.service-handler-group", false));
-
             @Override
             public void run() {
-                // 负责服务器通道新连接的IO事件的监听
-                NioEventLoopGroup bossGroup = new NioEventLoopGroup(1);
-                // 负责传输通道的IO事件的处理, 无参数的构造函数默认最大可用的CPU处理器数量 的2倍
-                NioEventLoopGroup workerGroup = new NioEventLoopGroup();
+                ExecutorService serviceHandlerExecutor = createServiceHandlerExecutor();
+                Map<ExecutorService, CodelController> codelControllers = createCodelControllers(serviceHandlerExecutor);
+                NettyTransport nettyTransport = NettyTransport.resolve(transport);
+                int acceptorCount = nettyTransport.acceptors(acceptors);
+                // 负责服务器通道新连接的IO事件的监听，每个监听 socket 一个线程
+                EventLoopGroup bossGroup = nettyTransport.eventLoopGroup(acceptorCount, new DefaultThreadFactory("xrpc-server-boss"));
+                // 负责传输通道的IO事件的处理, 线程数为 0 时默认最大可用的CPU处理器数量 的2倍
+                EventLoopGroup workerGroup = nettyTransport.eventLoopGroup(0, new DefaultThreadFactory("xrpc-server-worker"));
                 try {
                     ServerBootstrap bootstrap = new ServerBootstrap();
+                    nettyTransport.configure(bootstrap, acceptorCount);
                     bootstrap.group(bossGroup, workerGroup)
-                            .channel(NioServerSocketChannel.class)
+                            .channel(nettyTransport.serverChannelClass())
                             // TCP默认开启了 Nagle 算法，该算法的作用是尽可能的发送大数据快，减少网络传输。TCP_NODELAY 参数的作用就是控制是否启用 Nagle 算法。
                             .childOption(ChannelOption.TCP_NODELAY, true)
                             // 是否开启 TCP 底层心跳机制
@@ -66,30 +118,45 @@ public class NettyServer {
                             //表示系统用于临时存放已完成三次握手的请求的队列的最大长度,如果连接建立频繁，服务器处理创建新连接较慢，可以适当调大这个参数
                             .option(ChannelOption.SO_BACKLOG, 128)
                             .handler(new LoggingHandler(LogLevel.DEBUG))
-                            .childHandler(new ChannelInitializer<NioSocketChannel>() {
+                            .childHandler(new ChannelInitializer<SocketChannel>() {
                                 @Override
-                                protected void initChannel(NioSocketChannel ch) throws Exception {
+                                protected void initChannel(SocketChannel ch) throws Exception {
+                                    ch.attr(ZstdDictionarySession.KEY).set(new ZstdDictionarySession(ch, dictionaryTrainer));
+                                    if (flushMaxMessages > 0) {
+                                        // 合并业务线程写出的响应的 flush
+                                        ch.pipeline().addLast(new FlushBatchHandler(flushMaxMessages, flushMaxBytes));
+                                    }
                                     // 心跳,空闲检测
                                     ch.pipeline().addLast(new IdleStateHandler(15, 0, 0, TimeUnit.SECONDS));
                                     // 处理粘包包
                                     ch.pipeline().addLast(new Spliter());
-                                    ch.pipeline().addLast(new RpcDecoder());
-                                    ch.pipeline().addLast(new RpcEncoder());
-                                    ch.pipeline().addLast(serviceHandlerGroup, new NettyServerHandler(invoker, serviceRegisterCache));
+                                    ch.pipeline().addLast(new RpcDecoder(codec));
+                                    ch.pipeline().addLast(new RpcEncoder(codec));
+                                    // 在 IO 线程上解码并分发到业务线程池，线程池已满时在 IO 线程上直接回复过载
+                                    ch.pipeline().addLast(new NettyServerHandler(invoker, serviceRegisterCache,
+                                            SerializerTypeEnum.getCode(serializer), serviceHandlerStats, serviceHandlerExecutor,
+                                            codelControllers));
 
                                 }
                             });
                     // 绑定端口，同步等待绑定成功
                     //bind操作(对应初始化)是异步的，通过sync改为同步等待初始化的完成，否则立即操作对象(未初始完全)可能会报错
-                    ChannelFuture f = bootstrap.bind(serverAddress).sync();
+                    // SO_REUSEPORT 时同一端口绑定多次，每个监听 socket 注册到不同的 boss 线程
+                    List<Channel> serverChannels = new ArrayList<>(acceptorCount);
+                    for (int i = 0; i < acceptorCount; i++) {
+                        serverChannels.add(bootstrap.bind(serverAddress).sync().channel());
+                    }
                     if (register != null) {
                         register.registerServiceMap(serviceRegisterCache.getserviceMap(), serverAddress);
                     } else {
                         log.warn("ServiceRegistry cannot be found and started");
                     }
-                    log.info("Netty Server started on address {}", serverAddress);
+                    log.info("Netty Server started on address {}, transport: {}, acceptors: {}",
+                            serverAddress, nettyTransport.getName(), acceptorCount);
                     // 不会立即执行 finally，而阻塞在这里，等待服务端监听端口关闭
-                    f.channel().closeFuture().sync();
+                    for (Channel serverChannel : serverChannels) {
+                        serverChannel.closeFuture().sync();
+                    }
                 } catch (Exception e) {
                     if (e instanceof InterruptedException) {
                         log.info("Rpc server remoting server stop");
@@ -98,6 +165,7 @@ public class NettyServer {
                     }
                 } finally {
                     try {
+                        log.info("Rpc server stopped, {}", serviceHandlerStats);
                         register.unregisterAllMyService(serverAddress);
                         // 关闭EventLoopGroup
                         // 释放掉所有资源，包括创建的反应器线程
@@ -112,6 +180,46 @@ public class NettyServer {
         thread.start();
     }
 
+    /**
+     * 创建共享业务线程池，并把它与各服务独立线程池的线程数计入统计
+     */
+    private ExecutorService createServiceHandlerExecutor() {
+        int threads = serviceThreads > 0 ? serviceThreads : RuntimeUtil.cpus() * 2;
+        ExecutorService executor = ThreadPoolFactoryUtil.createCustomThreadPoolIfAbsent(
+                CustomThreadPoolConfig.fixed(threads, serviceQueueCapacity), "xrpc-service-handler", false);
+        int totalThreads = threads;
+        for (ExecutorService serviceExecutor : serviceRegisterCache.getExecutors().values()) {
+            if (serviceExecutor instanceof ThreadPoolExecutor) {
+                totalThreads += ((ThreadPoolExecutor) serviceExecutor).getMaximumPoolSize();
+            }
+        }
+        serviceHandlerStats.setThreads(totalThreads);
+        return executor;
+    }
+
+    private Map<ExecutorService, CodelController> createCodelControllers(ExecutorService serviceHandlerExecutor) {
+        if (!codelEnabled) {
+            return Collections.emptyMap();
+        }
+        Map<ExecutorService, CodelController> controllers = new IdentityHashMap<>();
+        controllers.put(serviceHandlerExecutor, new CodelController(codelTargetMs, codelIntervalMs));
+        for (ExecutorService serviceExecutor : serviceRegisterCache.getExecutors().values()) {
+            controllers.put(serviceExecutor, new CodelController(codelTargetMs, codelIntervalMs));
+        }
+        return controllers;
+    }
+
+    /**
+     * 本服务端的压缩策略，在启动前配置
+     */
+    public CompressPolicy getCompressPolicy() {
+        return codec.getCompressPolicy();
+    }
+
+    public ServiceHandlerStats getServiceHandlerStats() {
+        return serviceHandlerStats;
+    }
+
     public void stop() {
         // destroy server thread
         if (thread != null && thread.isAlive()) {
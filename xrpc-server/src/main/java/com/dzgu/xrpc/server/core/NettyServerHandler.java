@@ -1,11 +1,16 @@
 package com.dzgu.xrpc.server.core;
 
+import com.dzgu.xrpc.compress.zstd.ZstdDictionarySession;
 import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import com.dzgu.xrpc.consts.enums.RejectPolicyEnum;
 import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
 import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcMethodTable;
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.dto.RpcResponse;
 import com.dzgu.xrpc.server.invoke.Invoker;
+import com.dzgu.xrpc.util.DeadlineContext;
 import com.dzgu.xrpc.util.ServiceUtil;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -15,6 +20,13 @@ import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * @description: Netty 服务端业务逻辑
  * @Author： dzgu
@@ -24,9 +36,50 @@ import lombok.extern.slf4j.Slf4j;
 public class NettyServerHandler extends SimpleChannelInboundHandler<RpcMessage> {
     private Invoker invoker;
     private ServiceRegisterCache serviceRegisterCache;
-    public NettyServerHandler(Invoker invoker,ServiceRegisterCache serviceRegisterCache) {
-        this.invoker=invoker;
-        this.serviceRegisterCache=serviceRegisterCache;
+    /**
+     * 下发方法表、字典等控制消息使用的序列化类型
+     */
+    private final byte codec;
+    private final ServiceHandlerStats stats;
+    /**
+     * 共享业务线程池，未配置独立线程池的服务在这里执行
+     */
+    private final ExecutorService serviceHandlerExecutor;
+    /**
+     * 线程池 -> 按排队时间丢弃请求的控制器，没有对应控制器的线程池不丢弃
+     */
+    private final Map<ExecutorService, CodelController> codelControllers;
+
+    public NettyServerHandler(Invoker invoker, ServiceRegisterCache serviceRegisterCache, byte codec, ServiceHandlerStats stats,
+                              ExecutorService serviceHandlerExecutor) {
+        this(invoker, serviceRegisterCache, codec, stats, serviceHandlerExecutor, Collections.emptyMap());
+    }
+
+    public NettyServerHandler(Invoker invoker, ServiceRegisterCache serviceRegisterCache, byte codec, ServiceHandlerStats stats,
+                              ExecutorService serviceHandlerExecutor, Map<ExecutorService, CodelController> codelControllers) {
+        this.invoker = invoker;
+        this.serviceRegisterCache = serviceRegisterCache;
+        this.codec = codec;
+        this.stats = stats;
+        this.serviceHandlerExecutor = serviceHandlerExecutor;
+        this.codelControllers = codelControllers;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        // 连接建立时下发方法表，客户端收到后改用 v2 协议发送请求
+        RpcMessage methodTableMessage = RpcMessage.builder()
+                .messageType(RpcConstants.METHOD_TABLE_TYPE)
+                .codec(codec)
+                .compress(CompressTypeEnum.DUMMY.getCode())
+                .data(serviceRegisterCache.getMethodTable()).build();
+        ctx.writeAndFlush(methodTableMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        // 下发已训练好的压缩字典
+        ZstdDictionarySession dictionarySession = ctx.channel().attr(ZstdDictionarySession.KEY).get();
+        if (dictionarySession != null) {
+            dictionarySession.pushAll();
+        }
+        super.channelActive(ctx);
     }
 
     @Override
@@ -37,21 +90,132 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<RpcMessage>
         if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
             rpcMessage.setMessageType(RpcConstants.HEARTBEAT_RESPONSE_TYPE);
             rpcMessage.setData(RpcConstants.PONG);
-        } else {
-            RpcRequest rpcRequest = (RpcRequest) rpcMessage.getData();
-            // 根据请求的参数，找到对应的服务，反射执行方法
-            Object result = handle(rpcRequest);
-            log.info(String.format("server get result: %s", result.toString()));
-            rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
-            if (ctx.channel().isActive() && ctx.channel().isWritable()) {
-                RpcResponse<Object> rpcResponse = RpcResponse.success(result, rpcRequest.getRequestId());
-                rpcMessage.setData(rpcResponse);
+            writeResponse(ctx, rpcMessage);
+            return;
+        }
+        if (expired(rpcMessage, System.nanoTime())) {
+            return;
+        }
+        RpcRequest rpcRequest = (RpcRequest) rpcMessage.getData();
+        ServiceMethod serviceMethod = resolve(rpcRequest);
+        ExecutorService executor = serviceMethod != null && serviceMethod.getExecutor() != null
+                ? serviceMethod.getExecutor() : serviceHandlerExecutor;
+        CodelController codel = codelControllers.get(executor);
+        Runnable task = () -> process(ctx, rpcMessage, rpcRequest, serviceMethod, codel);
+        if (tryExecute(executor, task)) {
+            return;
+        }
+        if (executor != serviceHandlerExecutor && serviceMethod.getRejectPolicy() == RejectPolicyEnum.SHARED_POOL) {
+            // 独立线程池已满，转到共享线程池执行，不在 IO 线程上执行
+            CodelController sharedCodel = codelControllers.get(serviceHandlerExecutor);
+            if (tryExecute(serviceHandlerExecutor, () -> process(ctx, rpcMessage, rpcRequest, serviceMethod, sharedCodel))) {
+                return;
+            }
+        }
+        // 线程池已满，不排队等待，立即回复过载，客户端可以换一个服务端重试
+        stats.recordRejected();
+        log.warn("service handler pool is full, reject request {}", rpcMessage.getRequestId());
+        replyOverload(ctx, rpcMessage);
+    }
+
+    private static boolean tryExecute(ExecutorService executor, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 客户端已经放弃的请求直接丢弃，不回复
+     */
+    private boolean expired(RpcMessage rpcMessage, long now) {
+        long deadlineNanos = rpcMessage.getDeadlineNanos();
+        if (deadlineNanos == 0 || now - deadlineNanos < 0) {
+            return false;
+        }
+        stats.recordExpired();
+        log.warn("request {} expired {}us ago, dropped", rpcMessage.getRequestId(), (now - deadlineNanos) / 1000);
+        return true;
+    }
+
+    private void replyOverload(ChannelHandlerContext ctx, RpcMessage rpcMessage) {
+        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+        rpcMessage.setData(RpcResponse.fail(RpcResponseCodeEnum.OVERLOAD));
+        writeResponse(ctx, rpcMessage);
+    }
+
+    /**
+     * 在业务线程中执行服务方法并回复
+     */
+    private void process(ChannelHandlerContext ctx, RpcMessage rpcMessage, RpcRequest rpcRequest, ServiceMethod serviceMethod,
+                         CodelController codel) {
+        long start = System.nanoTime();
+        if (rpcMessage.getReceiveNanos() != 0) {
+            long queueDelay = start - rpcMessage.getReceiveNanos();
+            stats.recordQueueDelay(queueDelay);
+            if (codel != null && !codel.admit(queueDelay, start)) {
+                // 排队太久，客户端可能已经放弃，不再执行
+                stats.recordShed();
+                log.warn("request {} waited {}us in queue, shed", rpcMessage.getRequestId(), queueDelay / 1000);
+                replyOverload(ctx, rpcMessage);
+                return;
+            }
+        }
+        if (expired(rpcMessage, start)) {
+            return;
+        }
+        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+        try {
+            // 根据请求的参数，找到对应的服务，反射执行方法。方法内发起的嵌套调用继承剩余的时间预算
+            DeadlineContext.set(rpcMessage.getDeadlineNanos());
+            Object result;
+            try {
+                result = handle(rpcRequest, rpcMessage, serviceMethod);
+            } finally {
+                DeadlineContext.clear();
+            }
+            if (result instanceof CompletionStage) {
+                // 返回 CompletableFuture / CompletionStage 的方法在结果完成时回复，业务线程立即释放
+                stats.asyncStarted();
+                ((CompletionStage<?>) result).whenComplete((value, cause) -> {
+                    stats.asyncCompleted();
+                    if (cause != null) {
+                        log.error("async service method failed",
+                                cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+                        rpcMessage.setData(RpcResponse.fail(RpcResponseCodeEnum.FAIL));
+                        writeResponse(ctx, rpcMessage);
+                    } else {
+                        reply(ctx, rpcMessage, value);
+                    }
+                });
             } else {
-                RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
-                rpcMessage.setData(rpcResponse);
-                log.error("not writable now, message dropped");
+                reply(ctx, rpcMessage, result);
             }
+        } catch (Exception e) {
+            log.error("service method failed", e);
+            rpcMessage.setData(RpcResponse.fail(RpcResponseCodeEnum.FAIL));
+            writeResponse(ctx, rpcMessage);
+        } finally {
+            stats.recordBusy(System.nanoTime() - start);
         }
+    }
+
+    private void reply(ChannelHandlerContext ctx, RpcMessage rpcMessage, Object result) {
+        log.info("server get result: {}", result);
+        if (ctx.channel().isActive() && ctx.channel().isWritable()) {
+            RpcResponse<Object> rpcResponse = RpcResponse.success(result);
+            rpcMessage.setData(rpcResponse);
+        } else {
+            RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
+            rpcMessage.setData(rpcResponse);
+            log.error("not writable now, message dropped");
+        }
+        writeResponse(ctx, rpcMessage);
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, RpcMessage rpcMessage) {
         ctx.writeAndFlush(rpcMessage).addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture future) throws Exception {
@@ -86,10 +250,29 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<RpcMessage>
         ctx.close();
     }
 
-    private Object handle(RpcRequest request) {
+    /**
+     * 在 IO 线程上定位服务方法，用于选择线程池
+     */
+    private ServiceMethod resolve(RpcRequest request) {
+        if (request.getMethodId() != 0) {
+            // v2 请求，按方法 ID 直接定位
+            ServiceMethod serviceMethod = serviceRegisterCache.getMethod(request.getMethodId());
+            serviceMethod.fill(request);
+            return serviceMethod;
+        }
+        return serviceRegisterCache.getMethod(RpcMethodTable.methodKey(request.getClassName(), request.getVersion(),
+                request.getMethodName(), request.getParameterTypes()));
+    }
+
+    private Object handle(RpcRequest request, RpcMessage rpcMessage, ServiceMethod serviceMethod) {
+        if (serviceMethod != null) {
+            rpcMessage.setServiceKey(serviceMethod.getServiceKey());
+            return invoker.invoke(serviceMethod, request);
+        }
         String className = request.getClassName();
         String version = request.getVersion();
         String serviceKey = ServiceUtil.makeServiceKey(className, version);
+        rpcMessage.setServiceKey(serviceKey);
         Object serviceBean = serviceRegisterCache.getService(serviceKey);
         if (serviceBean == null) {
             log.error("Can not find com.dzgu.xprc.service implement with interface name: {} and version: {}", className, version);
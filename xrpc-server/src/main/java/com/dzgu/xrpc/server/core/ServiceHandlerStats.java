@@ -0,0 +1,156 @@
+package com.dzgu.xrpc.server.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 业务线程池的使用统计。busy 为业务线程实际执行请求的时间，返回 CompletionStage 的方法只计到方法返回为止，
+ * 等待结果完成的时间不占用业务线程，计入 pendingAsync。rejected 为线程池已满、直接回复过载的请求数，
+ * shed 为排队时间过长被 CoDel 丢弃的请求数，expired 为超过客户端截止时间、不再执行也不回复的请求数。
+ * 排队时间按 2 的幂（微秒）分桶统计
+ * @Author： dzgu
+ * @Date： 2022/5/15 17:10
+ */
+public class ServiceHandlerStats {
+    public static final int QUEUE_DELAY_BUCKETS = 25;
+
+    private volatile int threads = 1;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder asyncRequests = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    /**
+     * 排队时间直方图，第 i 个桶为 [2^(i-1), 2^i) 微秒，第 0 个桶为不足 1 微秒，最后一个桶包含更长的时间
+     */
+    private final AtomicLongArray queueDelayBuckets = new AtomicLongArray(QUEUE_DELAY_BUCKETS);
+    /**
+     * 已返回 CompletionStage、尚未回复的请求数
+     */
+    private final AtomicInteger pendingAsync = new AtomicInteger();
+
+    /**
+     * 共享线程池与各服务独立线程池的线程总数，服务端启动时设置
+     */
+    void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    void recordBusy(long nanos) {
+        busyNanos.add(nanos);
+        requests.increment();
+    }
+
+    void asyncStarted() {
+        asyncRequests.increment();
+        pendingAsync.incrementAndGet();
+    }
+
+    void asyncCompleted() {
+        pendingAsync.decrementAndGet();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getAsyncRequests() {
+        return asyncRequests.sum();
+    }
+
+    void recordShed() {
+        shed.increment();
+    }
+
+    void recordExpired() {
+        expired.increment();
+    }
+
+    void recordQueueDelay(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(Math.max(micros, 0)), QUEUE_DELAY_BUCKETS - 1);
+        queueDelayBuckets.incrementAndGet(bucket);
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    /**
+     * 排队时间直方图的快照
+     */
+    public long[] getQueueDelayHistogram() {
+        long[] counts = new long[QUEUE_DELAY_BUCKETS];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = queueDelayBuckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * 排队时间的百分位数，返回所在桶的上界，微秒
+     *
+     * @param percentile 0 ~ 1
+     */
+    public long getQueueDelayPercentileMicros(double percentile) {
+        long[] counts = getQueueDelayHistogram();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int getPendingAsync() {
+        return pendingAsync.get();
+    }
+
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * 启动以来业务线程的平均使用率，0 ~ 1
+     */
+    public double getUtilization() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : (double) busyNanos.sum() / ((double) elapsed * threads);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ServiceHandlerStats{threads=%d, requests=%d, asyncRequests=%d, pendingAsync=%d, " +
+                        "rejected=%d, shed=%d, expired=%d, " +
+                        "queueDelayP50<=%dus, queueDelayP99<=%dus, utilization=%.3f}",
+                threads, getRequests(), getAsyncRequests(), getPendingAsync(), getRejected(), getShed(), getExpired(),
+                getQueueDelayPercentileMicros(0.5), getQueueDelayPercentileMicros(0.99), getUtilization());
+    }
+}
@@ -0,0 +1,72 @@
+package com.dzgu.xrpc.server.core;
+
+import com.dzgu.xrpc.consts.enums.RejectPolicyEnum;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.server.invoke.MethodInvocation;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @description: 方法表中的一项，v2 请求按方法 ID 直接定位到服务实例和方法
+ * @Author： dzgu
+ * @Date： 2022/5/14 10:46
+ */
+@Getter
+public class ServiceMethod {
+    private final String serviceKey;
+    private final String className;
+    private final String version;
+    private final Object service;
+    private final Method method;
+    /**
+     * 注册时生成的调用，调用时不再有反射查找
+     */
+    @Getter(AccessLevel.NONE)
+    private final MethodInvocation invocation;
+    /**
+     * 服务独立的线程池，为 null 时使用共享线程池
+     */
+    private final ExecutorService executor;
+    /**
+     * 独立线程池已满时的处理方式
+     */
+    private final RejectPolicyEnum rejectPolicy;
+
+    public ServiceMethod(String serviceKey, String className, String version, Object service, Method method) {
+        this(serviceKey, className, version, service, method, null, RejectPolicyEnum.OVERLOAD);
+    }
+
+    public ServiceMethod(String serviceKey, String className, String version, Object service, Method method,
+                         ExecutorService executor, RejectPolicyEnum rejectPolicy) {
+        this.serviceKey = serviceKey;
+        this.className = className;
+        this.version = version;
+        this.service = service;
+        this.method = method;
+        this.invocation = MethodInvocation.of(method);
+        this.executor = executor;
+        this.rejectPolicy = rejectPolicy;
+    }
+
+    /**
+     * 调用服务方法，基本类型的返回值装箱，void 方法返回 null
+     *
+     * @param parameters 方法参数，无参方法可以为 null
+     */
+    public Object invoke(Object[] parameters) throws Throwable {
+        return invocation.invoke(service, parameters);
+    }
+
+    /**
+     * 补全 v2 请求省略的方法信息，调用器按 v1 请求的方式处理
+     */
+    public void fill(RpcRequest rpcRequest) {
+        rpcRequest.setClassName(className);
+        rpcRequest.setVersion(version);
+        rpcRequest.setMethodName(method.getName());
+        rpcRequest.setParameterTypes(method.getParameterTypes());
+    }
+}
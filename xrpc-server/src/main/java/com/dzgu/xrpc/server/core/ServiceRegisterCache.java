@@ -1,10 +1,20 @@
 package com.dzgu.xrpc.server.core;
+import com.dzgu.xrpc.consts.enums.RejectPolicyEnum;
 import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
+import com.dzgu.xrpc.dto.RpcMethodTable;
 import com.dzgu.xrpc.exception.RpcException;
 import com.dzgu.xrpc.util.ServiceUtil;
 import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @description: 注册中心服务端缓存
@@ -17,9 +27,27 @@ public class ServiceRegisterCache {
      *  服务缓存
      */
     private final Map<String, Object> serviceMap;
+    /**
+     * 方法表，下标即方法 ID，下标 0 不使用。只在启动注册服务时追加
+     */
+    private final List<ServiceMethod> methods = new ArrayList<>();
+    /**
+     * 按方法 ID 分发用的快照
+     */
+    private volatile ServiceMethod[] methodArray = new ServiceMethod[1];
+    private volatile RpcMethodTable methodTable = new RpcMethodTable(new String[]{""});
+    /**
+     * 方法标识 -> 方法，v1 请求按方法名和参数类型定位
+     */
+    private volatile Map<String, ServiceMethod> methodsByKey = new HashMap<>();
+    /**
+     * 服务标识 -> 服务独立的线程池
+     */
+    private final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
 
     public ServiceRegisterCache() {
         serviceMap = new ConcurrentHashMap<>();
+        methods.add(null);
     }
 
     public void addService(String interfaceName, String version, Object serviceBean) {
@@ -28,6 +56,49 @@ public class ServiceRegisterCache {
         log.info("Adding com.dzgu.xprc.service, interface: {}, version: {}, bean：{}", interfaceName, version, serviceBean);
     }
 
+    /**
+     * 注册服务，同时把接口的方法加入方法表
+     */
+    public void addService(Class<?> interfaceClass, String version, Object serviceBean) {
+        addService(interfaceClass, version, serviceBean, null, RejectPolicyEnum.OVERLOAD);
+    }
+
+    /**
+     * 注册服务，同时把接口的方法加入方法表
+     *
+     * @param executor     服务独立的线程池，为 null 时使用共享线程池
+     * @param rejectPolicy 独立线程池已满时的处理方式
+     */
+    public synchronized void addService(Class<?> interfaceClass, String version, Object serviceBean,
+                                        ExecutorService executor, RejectPolicyEnum rejectPolicy) {
+        String interfaceName = interfaceClass.getName();
+        addService(interfaceName, version, serviceBean);
+        String serviceKey = ServiceUtil.makeServiceKey(interfaceName, version);
+        if (executor != null) {
+            executors.put(serviceKey, executor);
+        }
+        Method[] interfaceMethods = interfaceClass.getMethods();
+        // 排序只是为了同一份代码每次启动得到相同的方法表，便于排查
+        Arrays.sort(interfaceMethods, Comparator.comparing(Method::toGenericString));
+        for (Method method : interfaceMethods) {
+            methods.add(new ServiceMethod(serviceKey, interfaceName, version, serviceBean, method, executor, rejectPolicy));
+        }
+        String[] methodKeys = new String[methods.size()];
+        Map<String, ServiceMethod> keyMap = new HashMap<>(methods.size() * 2);
+        // 部分序列化方式不支持数组中的 null
+        methodKeys[0] = "";
+        for (int i = 1; i < methods.size(); i++) {
+            ServiceMethod serviceMethod = methods.get(i);
+            Method method = serviceMethod.getMethod();
+            methodKeys[i] = RpcMethodTable.methodKey(serviceMethod.getClassName(), serviceMethod.getVersion(),
+                    method.getName(), method.getParameterTypes());
+            keyMap.put(methodKeys[i], serviceMethod);
+        }
+        methodArray = methods.toArray(new ServiceMethod[0]);
+        methodsByKey = keyMap;
+        methodTable = new RpcMethodTable(methodKeys);
+    }
+
     public Object getService(String rpcServiceName) {
         Object service = serviceMap.get(rpcServiceName);
         if (null == service) {
@@ -36,6 +107,38 @@ public class ServiceRegisterCache {
         return service;
     }
 
+    /**
+     * 按方法 ID 获取方法
+     */
+    public ServiceMethod getMethod(int methodId) {
+        ServiceMethod[] array = methodArray;
+        if (methodId <= 0 || methodId >= array.length) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND, "methodId: " + methodId);
+        }
+        return array[methodId];
+    }
+
+    /**
+     * 按方法标识获取方法，未按接口注册的服务返回 null
+     */
+    public ServiceMethod getMethod(String methodKey) {
+        return methodsByKey.get(methodKey);
+    }
+
+    /**
+     * 下发给客户端的方法表
+     */
+    public RpcMethodTable getMethodTable() {
+        return methodTable;
+    }
+
+    /**
+     * 服务独立的线程池
+     */
+    public Map<String, ExecutorService> getExecutors() {
+        return executors;
+    }
+
     public Map<String, Object> getserviceMap() {
         return serviceMap;
     }
@@ -2,6 +2,7 @@ package com.dzgu.xrpc.server.invoke;
 
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.extension.SPI;
+import com.dzgu.xrpc.server.core.ServiceMethod;
 import com.dzgu.xrpc.util.ServiceUtil;
 
 /**
@@ -9,8 +10,18 @@ import com.dzgu.xrpc.util.ServiceUtil;
  * @Author： dzgu
  * @Date： 2022/5/2 15:58
  */
-@SPI(value = "jdk")
+@SPI(value = "methodhandle")
 public interface Invoker {
+    /**
+     * 按请求中的方法名和参数类型查找方法并调用
+     */
     Object invoke(RpcRequest rpcRequest, Object service);
 
+    /**
+     * 调用注册时已解析好的方法
+     */
+    default Object invoke(ServiceMethod serviceMethod, RpcRequest rpcRequest) {
+        return invoke(rpcRequest, serviceMethod.getService());
+    }
+
 }
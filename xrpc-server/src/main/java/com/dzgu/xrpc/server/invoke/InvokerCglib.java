@@ -2,7 +2,12 @@ package com.dzgu.xrpc.server.invoke;
 
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.server.core.ServiceMethod;
 import net.sf.cglib.reflect.FastClass;
+import net.sf.cglib.reflect.FastMethod;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @description:
@@ -10,12 +15,17 @@ import net.sf.cglib.reflect.FastClass;
  * @Date： 2022/5/2 16:01
  */
 public class InvokerCglib implements Invoker{
+    /**
+     * 生成 FastClass 需要生成字节码，每个实现类只生成一次
+     */
+    private final Map<Class<?>, FastClass> fastClassCache = new ConcurrentHashMap<>();
+    private final Map<ServiceMethod, FastMethod> fastMethodCache = new ConcurrentHashMap<>();
+
     @Override
     public Object invoke(RpcRequest rpcRequest, Object service) {
         Object result;
         try {
-            Class<?> serviceClass = service.getClass();
-            FastClass fastClass = FastClass.create(serviceClass);
+            FastClass fastClass = fastClassCache.computeIfAbsent(service.getClass(), FastClass::create);
             int methodIndex = fastClass.getIndex(rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
             result = fastClass.invoke(methodIndex, service, rpcRequest.getParameters());
         } catch (Exception e) {
@@ -23,4 +33,19 @@ public class InvokerCglib implements Invoker{
         }
         return result;
     }
+
+    @Override
+    public Object invoke(ServiceMethod serviceMethod, RpcRequest rpcRequest) {
+        Object result;
+        try {
+            FastMethod fastMethod = fastMethodCache.computeIfAbsent(serviceMethod, m -> {
+                FastClass fastClass = fastClassCache.computeIfAbsent(m.getService().getClass(), FastClass::create);
+                return fastClass.getMethod(m.getMethod().getName(), m.getMethod().getParameterTypes());
+            });
+            result = fastMethod.invoke(serviceMethod.getService(), rpcRequest.getParameters());
+        } catch (Exception e) {
+            throw new RpcException(e.getMessage(), e);
+        }
+        return result;
+    }
 }
@@ -2,6 +2,7 @@ package com.dzgu.xrpc.server.invoke;
 
 import com.dzgu.xrpc.dto.RpcRequest;
 import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.server.core.ServiceMethod;
 import lombok.extern.slf4j.Slf4j;
 
 import java.lang.reflect.InvocationTargetException;
@@ -16,13 +17,27 @@ import java.lang.reflect.Method;
 public class InvokerJDK implements Invoker{
     @Override
     public Object invoke(RpcRequest rpcRequest, Object service) {
-        Object result;
         try {
             Method method = service.getClass().getMethod(rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
             method.setAccessible(true);
+            return invoke(method, rpcRequest, service);
+        } catch (NoSuchMethodException e) {
+            throw new RpcException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Object invoke(ServiceMethod serviceMethod, RpcRequest rpcRequest) {
+        // 注册时已解析好的接口方法，不再按名称查找
+        return invoke(serviceMethod.getMethod(), rpcRequest, serviceMethod.getService());
+    }
+
+    private Object invoke(Method method, RpcRequest rpcRequest, Object service) {
+        Object result;
+        try {
             result = method.invoke(service, rpcRequest.getParameters());
-            log.info("com.dzgu.xprc.service:[{}] successful invoke method:[{}]", rpcRequest.getClassName(), rpcRequest.getMethodName());
-        } catch (NoSuchMethodException | IllegalArgumentException | InvocationTargetException | IllegalAccessException e) {
+            log.debug("com.dzgu.xprc.service:[{}] successful invoke method:[{}]", rpcRequest.getClassName(), rpcRequest.getMethodName());
+        } catch (IllegalArgumentException | InvocationTargetException | IllegalAccessException e) {
             throw new RpcException(e.getMessage(), e);
         }
         return result;
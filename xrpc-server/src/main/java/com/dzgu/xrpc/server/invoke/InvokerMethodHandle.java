@@ -0,0 +1,82 @@
+package com.dzgu.xrpc.server.invoke;
+
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.server.core.ServiceMethod;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description: 预生成调用器。按接口注册的服务在注册时为每个方法生成调用（见 {@link MethodInvocation}），调用时没有反射查找；
+ * 其余服务按实现类和方法签名缓存，首次调用时生成
+ * @Author： dzgu
+ * @Date： 2022/5/15 18:20
+ */
+public class InvokerMethodHandle implements Invoker {
+    private final Map<MethodSignature, ServiceMethod> methodCache = new ConcurrentHashMap<>();
+
+    @Override
+    public Object invoke(ServiceMethod serviceMethod, RpcRequest rpcRequest) {
+        try {
+            return serviceMethod.invoke(rpcRequest.getParameters());
+        } catch (RpcException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RpcException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Object invoke(RpcRequest rpcRequest, Object service) {
+        MethodSignature signature = new MethodSignature(service.getClass(), rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
+        ServiceMethod serviceMethod = methodCache.get(signature);
+        if (serviceMethod == null) {
+            serviceMethod = methodCache.computeIfAbsent(signature, s -> {
+                try {
+                    return new ServiceMethod(null, rpcRequest.getClassName(), rpcRequest.getVersion(), service,
+                            s.serviceClass.getMethod(s.methodName, s.parameterTypes));
+                } catch (NoSuchMethodException e) {
+                    throw new RpcException(e.getMessage(), e);
+                }
+            });
+        }
+        return invoke(serviceMethod, rpcRequest);
+    }
+
+    /**
+     * 实现类 + 方法名 + 参数类型
+     */
+    private static final class MethodSignature {
+        private final Class<?> serviceClass;
+        private final String methodName;
+        private final Class<?>[] parameterTypes;
+        private final int hash;
+
+        MethodSignature(Class<?> serviceClass, String methodName, Class<?>[] parameterTypes) {
+            this.serviceClass = serviceClass;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes == null ? new Class<?>[0] : parameterTypes;
+            this.hash = 31 * (31 * serviceClass.hashCode() + methodName.hashCode()) + Arrays.hashCode(this.parameterTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MethodSignature)) {
+                return false;
+            }
+            MethodSignature that = (MethodSignature) o;
+            return serviceClass == that.serviceClass && methodName.equals(that.methodName)
+                    && Arrays.equals(parameterTypes, that.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.dzgu.xrpc.server.invoke;
+
+import com.dzgu.xrpc.exception.RpcException;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * @description: 预先生成的方法调用。参数不超过 4 个、有返回值的方法由 LambdaMetafactory 生成直接调用服务方法的实现类，
+ * 与手写代码调用相同；其余方法使用展开参数数组的方法句柄
+ * @Author： dzgu
+ * @Date： 2022/5/15 19:05
+ */
+@FunctionalInterface
+public interface MethodInvocation {
+    /**
+     * @param parameters 方法参数，无参方法可以为 null
+     * @return 基本类型的返回值装箱，void 方法返回 null
+     */
+    Object invoke(Object service, Object[] parameters) throws Throwable;
+
+    @FunctionalInterface
+    interface Call0 {
+        Object call(Object service);
+    }
+
+    @FunctionalInterface
+    interface Call1 {
+        Object call(Object service, Object p0);
+    }
+
+    @FunctionalInterface
+    interface Call2 {
+        Object call(Object service, Object p0, Object p1);
+    }
+
+    @FunctionalInterface
+    interface Call3 {
+        Object call(Object service, Object p0, Object p1, Object p2);
+    }
+
+    @FunctionalInterface
+    interface Call4 {
+        Object call(Object service, Object p0, Object p1, Object p2, Object p3);
+    }
+
+    Class<?>[] CALL_TYPES = {Call0.class, Call1.class, Call2.class, Call3.class, Call4.class};
+
+    static MethodInvocation of(Method method) {
+        try {
+            // 非 public 的接口也能调用
+            method.setAccessible(true);
+        } catch (RuntimeException e) {
+            // 模块不开放时按普通访问权限处理
+        }
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new RpcException("can not access method: " + method, e);
+        }
+        int parameterCount = method.getParameterCount();
+        if (parameterCount < CALL_TYPES.length && method.getReturnType() != void.class) {
+            try {
+                return generate(handle, parameterCount);
+            } catch (Throwable e) {
+                // 接口对当前类加载器不可见等情况，退回方法句柄
+            }
+        }
+        MethodHandle spreader = handle.asSpreader(Object[].class, parameterCount)
+                .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+        return (service, parameters) -> (Object) spreader.invokeExact(service, parameters);
+    }
+
+    static MethodInvocation generate(MethodHandle handle, int parameterCount) throws Throwable {
+        Class<?> callType = CALL_TYPES[parameterCount];
+        Object call = LambdaMetafactory.metafactory(MethodHandles.lookup(), "call", MethodType.methodType(callType),
+                MethodType.genericMethodType(parameterCount + 1), handle,
+                handle.type().wrap().changeReturnType(Object.class)).getTarget().invoke();
+        switch (parameterCount) {
+            case 0:
+                Call0 call0 = (Call0) call;
+                return (service, parameters) -> call0.call(service);
+            case 1:
+                Call1 call1 = (Call1) call;
+                return (service, parameters) -> call1.call(service, parameters[0]);
+            case 2:
+                Call2 call2 = (Call2) call;
+                return (service, parameters) -> call2.call(service, parameters[0], parameters[1]);
+            case 3:
+                Call3 call3 = (Call3) call;
+                return (service, parameters) -> call3.call(service, parameters[0], parameters[1], parameters[2]);
+            default:
+                Call4 call4 = (Call4) call;
+                return (service, parameters) -> call4.call(service, parameters[0], parameters[1], parameters[2], parameters[3]);
+        }
+    }
+}
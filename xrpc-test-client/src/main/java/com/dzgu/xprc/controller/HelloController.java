@@ -6,6 +6,10 @@ import com.dzgu.xrpc.annotation.RpcAutowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @description:
  * @Author： dzgu
@@ -51,6 +55,16 @@ public class HelloController {
         }
     }
 
+    public void testFuture() {
+        // 一个线程同时发出多个请求，全部完成后汇总
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(helloService.helloAsync(new Hello("hello", "hello future " + i)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenRun(() -> futures.forEach(future -> System.out.println("----future:" + future.join())));
+    }
+
     public void testSyncBenchMark() throws InterruptedException {
         helloService.hello(new Hello("hello", "hello sync"));
     }
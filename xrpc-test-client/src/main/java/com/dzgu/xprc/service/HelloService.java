@@ -2,6 +2,8 @@ package com.dzgu.xprc.service;
 
 import com.dzgu.xprc.entity.Hello;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @description:
  * @Author： dzgu
@@ -10,4 +12,6 @@ import com.dzgu.xprc.entity.Hello;
 public interface HelloService {
     String hello(Hello hello);
 
+    CompletableFuture<String> helloAsync(Hello hello);
+
 }
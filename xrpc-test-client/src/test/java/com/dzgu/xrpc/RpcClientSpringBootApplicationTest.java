@@ -7,7 +7,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
 
-@SpringBootTest(classes = RpcClientSpringBootApplication.class)
+@SpringBootTest(classes = RpcClientSpringBootApplication.class,
+        properties = "spring.autoconfigure.exclude=com.dzgu.xrpc.server.config.RpcAutoConfiguration")
 public class RpcClientSpringBootApplicationTest {
     @Autowired
     HelloController helloController;
@@ -0,0 +1,193 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.RejectPolicyEnum;
+import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.server.core.NettyServerHandler;
+import com.dzgu.xrpc.server.core.ServiceHandlerStats;
+import com.dzgu.xrpc.server.core.ServiceRegisterCache;
+import com.dzgu.xrpc.server.invoke.InvokerMethodHandle;
+import com.dzgu.xrpc.util.threadpool.CustomThreadPoolConfig;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @description: 业务线程隔离对比：慢服务占满线程后，共享线程池下快服务的请求全部被拒绝，
+ * 慢服务使用独立线程池时快服务不受影响，慢服务自己的请求立即以 503 拒绝而不是排队，或者按配置转到共享线程池
+ * @Author： dzgu
+ * @Date： 2022/5/15 20:40
+ */
+public class BulkheadCompareTest {
+    private static final int THREADS = 2;
+    private static final int REQUESTS = 20;
+
+    public interface SlowService {
+        String slow(String value);
+    }
+
+    public interface FastService {
+        String fast(String value);
+    }
+
+    /**
+     * 共享线程池：慢服务占满线程和队列后，快服务同样被拒绝
+     */
+    @Test
+    public void sharedPoolTest() throws Exception {
+        assertEquals(0, fastSucceeded(false));
+    }
+
+    /**
+     * 慢服务使用独立线程池：快服务的请求全部成功
+     */
+    @Test
+    public void bulkheadTest() throws Exception {
+        assertEquals(REQUESTS, fastSucceeded(true));
+    }
+
+    /**
+     * 独立线程池已满时按 SHARED_POOL 转到共享线程池执行，不在 IO 线程上执行；共享线程池也满时回复过载
+     */
+    @Test
+    public void sharedPoolFallbackTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        SlowService slowService = value -> {
+            threads.add(Thread.currentThread());
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        };
+        ExecutorService shared = newPool(1, 0);
+        ExecutorService bulkhead = newPool(1, 0);
+        ServiceRegisterCache cache = new ServiceRegisterCache();
+        cache.addService(SlowService.class, "", slowService, bulkhead, RejectPolicyEnum.SHARED_POOL);
+        ServiceHandlerStats stats = new ServiceHandlerStats();
+        ResponseCollector collector = new ResponseCollector();
+        EmbeddedChannel channel = new EmbeddedChannel(collector, new NettyServerHandler(new InvokerMethodHandle(), cache,
+                KRYO.getCode(), stats, shared));
+        try {
+            collector.getResponses().take();
+            // 第一个占满独立线程池，第二个转到共享线程池，第三个两个线程池都满
+            for (int i = 0; i < 3; i++) {
+                channel.writeInbound(request(i, SlowService.class, "slow"));
+            }
+            RpcMessage response = collector.getResponses().poll(5, TimeUnit.SECONDS);
+            assertNotNull(response);
+            assertEquals(2, response.getRequestId());
+            assertEquals(RpcResponseCodeEnum.OVERLOAD.getCode(), ((RpcResponse<?>) response.getData()).getCode());
+            release.countDown();
+            for (int i = 0; i < 2; i++) {
+                response = collector.getResponses().poll(5, TimeUnit.SECONDS);
+                assertNotNull(response);
+                assertEquals(RpcResponseCodeEnum.SUCCESS.getCode(), ((RpcResponse<?>) response.getData()).getCode());
+            }
+            assertEquals(2, threads.size());
+            assertFalse(threads.contains(Thread.currentThread()));
+        } finally {
+            release.countDown();
+            channel.finishAndReleaseAll();
+            shared.shutdown();
+            bulkhead.shutdown();
+        }
+    }
+
+    private int fastSucceeded(boolean isolated) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SlowService slowService = value -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        };
+        FastService fastService = value -> value;
+        ExecutorService shared = newPool(THREADS, REQUESTS);
+        ExecutorService bulkhead = isolated ? newPool(THREADS, 0) : null;
+        ServiceRegisterCache cache = new ServiceRegisterCache();
+        cache.addService(SlowService.class, "", slowService, bulkhead, RejectPolicyEnum.OVERLOAD);
+        cache.addService(FastService.class, "", fastService);
+        ServiceHandlerStats stats = new ServiceHandlerStats();
+        ResponseCollector collector = new ResponseCollector();
+        EmbeddedChannel channel = new EmbeddedChannel(collector, new NettyServerHandler(new InvokerMethodHandle(), cache,
+                KRYO.getCode(), stats, shared));
+        try {
+            // 方法表
+            collector.getResponses().take();
+            // 慢服务的请求数多于共享线程池的线程和队列，多出的立即被拒绝
+            int slowRequests = THREADS * 2 + REQUESTS;
+            for (int i = 0; i < slowRequests; i++) {
+                channel.writeInbound(request(i, SlowService.class, "slow"));
+            }
+            int slowRejected = 0;
+            RpcMessage response;
+            while ((response = collector.getResponses().poll()) != null) {
+                assertEquals(RpcResponseCodeEnum.OVERLOAD.getCode(), ((RpcResponse<?>) response.getData()).getCode());
+                slowRejected++;
+            }
+            assertTrue(slowRejected >= THREADS, "slow rejected " + slowRejected);
+
+            for (int i = 0; i < REQUESTS; i++) {
+                channel.writeInbound(request(slowRequests + i, FastService.class, "fast"));
+            }
+            int succeeded = 0;
+            for (int i = 0; i < REQUESTS; i++) {
+                response = collector.getResponses().poll(5, TimeUnit.SECONDS);
+                assertNotNull(response);
+                if (((RpcResponse<?>) response.getData()).getCode() == RpcResponseCodeEnum.SUCCESS.getCode()) {
+                    succeeded++;
+                }
+            }
+            System.out.printf("isolated=%s fast succeeded=%d/%d, %s%n", isolated, succeeded, REQUESTS, stats);
+            return succeeded;
+        } finally {
+            release.countDown();
+            channel.finishAndReleaseAll();
+            shared.shutdown();
+            shared.awaitTermination(5, TimeUnit.SECONDS);
+            if (bulkhead != null) {
+                bulkhead.shutdown();
+            }
+        }
+    }
+
+    private static ExecutorService newPool(int threads, int queueCapacity) {
+        CustomThreadPoolConfig config = CustomThreadPoolConfig.fixed(threads, queueCapacity);
+        return new ThreadPoolExecutor(config.getCorePoolSize(), config.getMaximumPoolSize(), config.getKeepAliveTime(),
+                config.getUnit(), config.getWorkQueue());
+    }
+
+    private static RpcMessage request(int requestId, Class<?> service, String methodName) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .className(service.getName())
+                .methodName(methodName)
+                .version("")
+                .parameterTypes(new Class[]{String.class})
+                .parameters(new Object[]{"我是参数"}).build();
+        return RpcMessage.builder()
+                .requestId(requestId)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(KRYO.getCode())
+                .data(rpcRequest).build();
+    }
+}
@@ -0,0 +1,213 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.async.RpcFuture;
+import com.dzgu.xrpc.client.core.CircuitBreaker;
+import com.dzgu.xrpc.client.core.CircuitBreakerPolicy;
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.core.OutlierDetector;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.RandomLoadBalance;
+import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.invoke.EndpointSimulator.Behavior;
+import com.dzgu.xrpc.invoke.EndpointSimulator.Result;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 熔断对比。按模拟时钟推进，请求按固定速率到达，随机负载均衡。
+ * 一个节点不响应（每个请求等到 5s 超时）或者延迟远高于其他节点时，比较不摘除与按熔断状态摘除时发往问题节点的请求比例；
+ * 另外验证半开探测后恢复、半开时只认探测请求的结果、最多摘除的比例、失败率触发和可用节点不变时返回同一个快照
+ * @Author： dzgu
+ * @Date： 2022/5/17 20:00
+ */
+public class CircuitBreakerCompareTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * 每秒 200 个请求，共 300s
+     */
+    private static final long ARRIVAL_INTERVAL = 5 * MS;
+    private static final int REQUESTS = 60000;
+    private static final long TIMEOUT = 5 * SECOND;
+    private static final RpcRequest RPC_REQUEST = RpcRequest.builder()
+            .className("com.dzgu.xrpc.HelloService")
+            .methodName("hello")
+            .version("1.0").build();
+
+    /**
+     * 五个节点中的一个不响应，每个发往它的请求都要等到超时
+     */
+    @Test
+    public void blackHoleTest() {
+        Behavior blackHole = (index, now, jitter) -> index == 0 ? -TIMEOUT : EndpointSimulator.jitter(MS, jitter);
+        Result plain = simulate(null, blackHole, 0);
+        Result breaker = simulate(new CircuitBreakerPolicy(), blackHole, 0);
+        System.out.printf("black hole: plain %s%n            breaker %s%n", plain, breaker);
+        assertTrue(plain.badShare > 0.15);
+        assertTrue(breaker.badShare < 0.01, "bad share " + breaker.badShare);
+        assertTrue(breaker.failures * 10 < plain.failures);
+    }
+
+    /**
+     * 节点在 60s 后恢复，熔断期满后探测成功，重新分到流量
+     */
+    @Test
+    public void recoveryTest() {
+        Behavior recovering = (index, now, jitter) -> index == 0 && now < 60 * SECOND ? -TIMEOUT : EndpointSimulator.jitter(MS, jitter);
+        // 统计最后 100s 的请求
+        Result result = simulate(new CircuitBreakerPolicy(), recovering, 200 * SECOND);
+        System.out.printf("recovery: last 100s %s%n", result);
+        assertEquals(CircuitBreaker.State.CLOSED, result.snapshot.get(0).getCircuitBreaker().getState());
+        assertTrue(result.badShare > 0.15, "recovered share " + result.badShare);
+    }
+
+    /**
+     * 一个节点的延迟是其他节点的 100 倍，不会失败，按延迟摘除
+     */
+    @Test
+    public void latencyOutlierTest() {
+        Behavior slow = (index, now, jitter) -> EndpointSimulator.jitter(index == 0 ? 100 * MS : MS, jitter);
+        Result plain = simulate(null, slow, 0);
+        Result breaker = simulate(new CircuitBreakerPolicy(), slow, 0);
+        System.out.printf("slow node: plain %s%n           breaker %s%n", plain, breaker);
+        assertTrue(breaker.badShare < 0.05, "slow share " + breaker.badShare);
+        assertTrue(breaker.meanNanos * 2 < plain.meanNanos);
+    }
+
+    /**
+     * 四个节点中三个连续失败，最多摘除一半
+     */
+    @Test
+    public void maxEjectionTest() {
+        EndpointSnapshot all = EndpointSimulator.snapshot(4);
+        OutlierDetector detector = new OutlierDetector(new CircuitBreakerPolicy());
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 5; j++) {
+                all.get(i).getCircuitBreaker().onComplete(false);
+            }
+        }
+        EndpointSnapshot available = detector.filter(all, SECOND);
+        assertEquals(2, available.size());
+        assertSame(all.get(3), available.get(1));
+        assertEquals(CircuitBreaker.State.CLOSED, all.get(2).getCircuitBreaker().getState());
+        // 可用节点不变时返回同一个快照，负载均衡按地址列表缓存的结构不失效
+        assertSame(available, detector.filter(all, 2 * SECOND));
+        assertSame(available.getUrls(), detector.filter(all, 3 * SECOND).getUrls());
+
+        // 只有一个节点时不摘除
+        EndpointSnapshot single = EndpointSimulator.snapshot(1);
+        for (int j = 0; j < 10; j++) {
+            single.get(0).getCircuitBreaker().onComplete(false);
+        }
+        assertSame(single, detector.filter(single, SECOND));
+    }
+
+    /**
+     * 失败率达到阈值时熔断，请求数不足时不判断，窗口滚动后重新计数
+     */
+    @Test
+    public void errorRateTest() {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+        EndpointSnapshot all = EndpointSimulator.snapshot(2);
+        OutlierDetector detector = new OutlierDetector(policy);
+        CircuitBreaker breaker = all.get(0).getCircuitBreaker();
+        // 成功、失败、失败交替，不会连续失败 5 次
+        for (int i = 0; i < 18; i++) {
+            breaker.onComplete(i % 3 == 0);
+        }
+        assertEquals(2, detector.filter(all, SECOND).size());
+        // 窗口滚动，之前的计数作废
+        long next = SECOND + TimeUnit.MILLISECONDS.toNanos(policy.getWindowMillis());
+        assertEquals(2, detector.filter(all, next).size());
+        for (int i = 0; i < 18; i++) {
+            breaker.onComplete(i % 3 == 0);
+        }
+        assertEquals(2, detector.filter(all, next + SECOND).size());
+        breaker.onComplete(false);
+        breaker.onComplete(true);
+        assertEquals(1, detector.filter(all, next + 2 * SECOND).size());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    /**
+     * 请求完成时更新熔断计数：连接失败计为失败，业务异常不计
+     */
+    @Test
+    public void rpcFutureTest() {
+        EndpointSnapshot all = EndpointSimulator.snapshot(2);
+        Endpoint endpoint = all.get(0);
+        OutlierDetector detector = new OutlierDetector(new CircuitBreakerPolicy());
+        for (int i = 0; i < 10; i++) {
+            RpcFuture future = new RpcFuture();
+            future.setEndpoint(endpoint);
+            future.complete(RpcResponse.fail(RpcResponseCodeEnum.FAIL));
+        }
+        assertEquals(2, detector.filter(all, SECOND).size());
+        for (int i = 0; i < 5; i++) {
+            RpcFuture future = new RpcFuture();
+            future.setEndpoint(endpoint);
+            future.fail(new RpcException("connection refused", null));
+        }
+        assertEquals(1, detector.filter(all, SECOND).size());
+        assertEquals(0, endpoint.getStats().getInFlight());
+    }
+
+    /**
+     * 半开时只认探测请求的结果：熔断前发出的请求迟到的成功、并发选中该节点的第二个请求、上一次半开的探测请求都不能关闭熔断器
+     */
+    @Test
+    public void probeTokenTest() {
+        EndpointSnapshot all = EndpointSimulator.snapshot(2);
+        OutlierDetector detector = new OutlierDetector(new CircuitBreakerPolicy());
+        CircuitBreaker breaker = all.get(0).getCircuitBreaker();
+        long stale = breaker.onSend();
+        assertEquals(CircuitBreaker.NO_PROBE, stale);
+        for (int i = 0; i < 5; i++) {
+            breaker.onComplete(false);
+        }
+        assertEquals(1, detector.filter(all, SECOND).size());
+
+        // 熔断 30s 后半开
+        assertEquals(2, detector.filter(all, 32 * SECOND).size());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onComplete(stale, true);
+        long probe = breaker.onSend();
+        long concurrent = breaker.onSend();
+        assertNotEquals(CircuitBreaker.NO_PROBE, probe);
+        assertEquals(CircuitBreaker.NO_PROBE, concurrent);
+        breaker.onComplete(concurrent, true);
+        assertEquals(1, detector.filter(all, 33 * SECOND).size());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onComplete(probe, false);
+        assertEquals(1, detector.filter(all, 34 * SECOND).size());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // 第二次熔断 60s 后再次半开，上一次的探测请求迟到的成功不计入
+        assertEquals(2, detector.filter(all, 95 * SECOND).size());
+        breaker.onComplete(probe, true);
+        assertEquals(2, detector.filter(all, 96 * SECOND).size());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        long next = breaker.onSend();
+        assertNotEquals(probe, next);
+        breaker.onComplete(next, true);
+        assertEquals(2, detector.filter(all, 97 * SECOND).size());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * @param policy    为 null 时不摘除节点
+     * @param countFrom 从该时间开始统计
+     */
+    private Result simulate(CircuitBreakerPolicy policy, Behavior behavior, long countFrom) {
+        OutlierDetector detector = policy == null ? null : new OutlierDetector(policy);
+        RandomLoadBalance random = new RandomLoadBalance();
+        EndpointSimulator.Selector selector = (all, now) -> random.select(detector == null ? all : detector.filter(all, now), RPC_REQUEST);
+        return new EndpointSimulator(SECOND, ARRIVAL_INTERVAL, REQUESTS).simulate(5, selector, behavior, 0, countFrom);
+    }
+}
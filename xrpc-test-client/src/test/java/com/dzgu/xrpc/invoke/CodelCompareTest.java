@@ -0,0 +1,135 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.server.core.CodelController;
+import com.dzgu.xrpc.server.core.NettyServerHandler;
+import com.dzgu.xrpc.server.core.ServiceHandlerStats;
+import com.dzgu.xrpc.server.core.ServiceRegisterCache;
+import com.dzgu.xrpc.server.invoke.InvokerMethodHandle;
+import com.dzgu.xrpc.util.threadpool.CustomThreadPoolConfig;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 按排队时间丢弃请求（CoDel）对比。一个业务线程、每个请求耗时 2ms，一次到达 BURST 个请求，
+ * 100ms 后再发一个探测请求：不丢弃时探测请求要等前面积压的请求全部执行完，其中大部分客户端早已超时；
+ * 启用 CoDel 时积压的请求很快被丢弃，探测请求几乎不用排队
+ * @Author： dzgu
+ * @Date： 2022/5/16 11:05
+ */
+public class CodelCompareTest {
+    private static final int BURST = 200;
+    private static final long SERVICE_MILLIS = 2;
+
+    public interface SlowService {
+        String slow(String value);
+    }
+
+    @Test
+    public void burstTest() throws Exception {
+        long withoutCodel = probeLatencyMillis(false);
+        long withCodel = probeLatencyMillis(true);
+        assertTrue(withCodel < 100, "probe latency with codel " + withCodel + "ms");
+        assertTrue(withCodel < withoutCodel, withCodel + "ms vs " + withoutCodel + "ms");
+    }
+
+    /**
+     * 区间内最短排队时间超过 target 后，只放行排队不超过 target 的请求；队列排空后恢复
+     */
+    @Test
+    public void controllerTest() {
+        CodelController codel = new CodelController(5, 100);
+        long now = System.nanoTime();
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        // 突发：排队不超过 interval 的请求都放行
+        assertTrue(codel.admit(50 * ms, now));
+        assertFalse(codel.admit(150 * ms, now));
+        assertFalse(codel.isOverloaded());
+        // 上一个区间内排队都超过 target
+        now += 101 * ms;
+        assertFalse(codel.admit(50 * ms, now));
+        assertTrue(codel.isOverloaded());
+        assertTrue(codel.admit(3 * ms, now));
+        // 这个区间里队列排空过，恢复
+        now += 101 * ms;
+        assertTrue(codel.admit(50 * ms, now));
+        assertFalse(codel.isOverloaded());
+    }
+
+    private long probeLatencyMillis(boolean codelEnabled) throws Exception {
+        SlowService slowService = value -> {
+            try {
+                Thread.sleep(SERVICE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        };
+        CustomThreadPoolConfig config = CustomThreadPoolConfig.fixed(1, BURST * 2);
+        ExecutorService executor = new ThreadPoolExecutor(config.getCorePoolSize(), config.getMaximumPoolSize(),
+                config.getKeepAliveTime(), config.getUnit(), config.getWorkQueue());
+        ServiceRegisterCache cache = new ServiceRegisterCache();
+        cache.addService(SlowService.class, "", slowService);
+        Map<ExecutorService, CodelController> controllers = codelEnabled
+                ? Collections.singletonMap(executor, new CodelController(5, 20)) : Collections.emptyMap();
+        ServiceHandlerStats stats = new ServiceHandlerStats();
+        ResponseCollector collector = new ResponseCollector();
+        EmbeddedChannel channel = new EmbeddedChannel(collector, new NettyServerHandler(new InvokerMethodHandle(), cache,
+                KRYO.getCode(), stats, executor, controllers));
+        try {
+            // 方法表
+            collector.getResponses().take();
+            for (int i = 0; i < BURST; i++) {
+                channel.writeInbound(request(i));
+            }
+            Thread.sleep(100);
+            long start = System.nanoTime();
+            channel.writeInbound(request(BURST));
+            RpcMessage response;
+            do {
+                response = collector.getResponses().poll(5, TimeUnit.SECONDS);
+                assertNotNull(response);
+            } while (response.getRequestId() != BURST);
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals(RpcResponseCodeEnum.SUCCESS.getCode(), ((RpcResponse<?>) response.getData()).getCode());
+            System.out.printf("codel=%s probe latency=%dms, %s%n", codelEnabled, latency, stats);
+            if (codelEnabled) {
+                assertTrue(stats.getShed() > 0);
+            } else {
+                assertEquals(0, stats.getShed());
+            }
+            return latency;
+        } finally {
+            channel.finishAndReleaseAll();
+            executor.shutdownNow();
+        }
+    }
+
+    private static RpcMessage request(int requestId) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .className(SlowService.class.getName())
+                .methodName("slow")
+                .version("")
+                .parameterTypes(new Class[]{String.class})
+                .parameters(new Object[]{"我是参数"}).build();
+        return RpcMessage.builder()
+                .requestId(requestId)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(KRYO.getCode())
+                .receiveNanos(System.nanoTime())
+                .data(rpcRequest).build();
+    }
+}
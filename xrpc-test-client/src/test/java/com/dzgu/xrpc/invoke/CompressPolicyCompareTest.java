@@ -0,0 +1,67 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.codec.RpcCodec;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.CompressTypeEnum;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @description: 压缩策略按编解码器隔离：同一进程中的客户端和服务端各自配置压缩阈值，
+ * 原来两边都修改 RpcCodec.INSTANCE 上共用的策略，后配置的覆盖先配置的
+ * @Author： dzgu
+ * @Date： 2022/5/11 21:00
+ */
+public class CompressPolicyCompareTest {
+    /**
+     * 帧头中 compress 字节的偏移
+     */
+    private static final int COMPRESS_OFFSET = 11;
+
+    @Test
+    public void separatePolicyTest() {
+        RpcCodec client = new RpcCodec();
+        RpcCodec server = new RpcCodec();
+        client.getCompressPolicy().configure(64, false, null, null);
+        server.getCompressPolicy().configure(4096, false, null, null);
+
+        assertEquals(CompressTypeEnum.GZIP.getCode(), compressOf(client));
+        assertEquals(CompressTypeEnum.DUMMY.getCode(), compressOf(server));
+        // 默认实例不受两边配置的影响，阈值仍是 1024
+        assertEquals(CompressTypeEnum.DUMMY.getCode(), compressOf(RpcCodec.INSTANCE));
+    }
+
+    /**
+     * 请求使用 gzip，消息体约 500 字节、容易压缩
+     */
+    private static byte compressOf(RpcCodec codec) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            value.append("我是参数").append(i);
+        }
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .className("com.dzgu.xrpc.HelloService")
+                .methodName("hello")
+                .version("1.0")
+                .parameterTypes(new Class[]{String.class})
+                .parameters(new Object[]{value.toString()}).build();
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .requestId(1)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(KRYO.getCode())
+                .compress(CompressTypeEnum.GZIP.getCode())
+                .data(rpcRequest).build();
+        ByteBuf frame = codec.encode(rpcMessage, Unpooled.buffer());
+        try {
+            return frame.getByte(COMPRESS_OFFSET);
+        } finally {
+            frame.release();
+        }
+    }
+}
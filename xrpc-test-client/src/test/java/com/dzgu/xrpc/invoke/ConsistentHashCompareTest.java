@@ -0,0 +1,311 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.ConsistentHashLoadBalance;
+import com.dzgu.xrpc.dto.RpcRequest;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 一致性哈希对比：原来每次选择计算 MD5、按 TreeMap 查找，且对参数流对象的 toString 求哈希，
+ * 同一个键每次落到不同节点；现在用排好序的 long[] 环和 64 位混合哈希，按参数值求哈希。
+ * 另外验证地址变化时增量更新的环与重新构建的一致、有界负载把热点键溢出到其他节点，以及参数对象按 hashCode 计算哈希
+ * @Author： dzgu
+ * @Date： 2022/5/17 15:30
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class ConsistentHashCompareTest {
+    private static final int NODES = 10;
+
+    /**
+     * 原来的实现，按方法名缓存选择器，对 "方法名 + 参数流对象" 计算 MD5
+     */
+    public static class LegacyConsistentHash implements LoadBalance {
+        private final ConcurrentHashMap<String, TreeMap<Long, String>> selectors = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Integer> identities = new ConcurrentHashMap<>();
+
+        @Override
+        public String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest) {
+            int identityHashCode = System.identityHashCode(serviceAddresses);
+            String rpcServiceName = rpcRequest.getMethodName();
+            TreeMap<Long, String> selector = selectors.get(rpcServiceName);
+            if (selector == null || identities.get(rpcServiceName) != identityHashCode) {
+                selector = new TreeMap<>();
+                for (String invoker : serviceAddresses) {
+                    for (int i = 0; i < 160 / 4; i++) {
+                        byte[] digest = md5(invoker + i);
+                        for (int h = 0; h < 4; h++) {
+                            selector.put(hash(digest, h), invoker);
+                        }
+                    }
+                }
+                selectors.put(rpcServiceName, selector);
+                identities.put(rpcServiceName, identityHashCode);
+            }
+            long hashCode = hash(md5(rpcServiceName + Arrays.stream(rpcRequest.getParameters())), 0);
+            Map.Entry<Long, String> entry = selector.ceilingEntry(hashCode);
+            return (entry == null ? selector.firstEntry() : entry).getValue();
+        }
+
+        static byte[] md5(String key) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("MD5");
+                md.update(key.getBytes(StandardCharsets.UTF_8));
+                return md.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        static long hash(byte[] digest, int idx) {
+            return ((long) (digest[3 + idx * 4] & 255) << 24 | (long) (digest[2 + idx * 4] & 255) << 16
+                    | (long) (digest[1 + idx * 4] & 255) << 8 | (long) (digest[idx * 4] & 255)) & 4294967295L;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RingState {
+        EndpointSnapshot snapshot;
+        LegacyConsistentHash legacy;
+        ConsistentHashLoadBalance ring;
+        RpcRequest[] requests;
+
+        @Setup
+        public void setup() {
+            snapshot = EndpointSimulator.snapshot(NODES);
+            legacy = new LegacyConsistentHash();
+            ring = new ConsistentHashLoadBalance();
+            requests = new RpcRequest[1024];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = request("user-" + i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public String legacyMd5(RingState state, Cursor cursor) {
+        RpcRequest request = state.requests[cursor.next++ & 1023];
+        return state.legacy.selectServiceAddress(state.snapshot.getUrls(), request);
+    }
+
+    @Benchmark
+    public Endpoint sortedRing(RingState state, Cursor cursor) {
+        RpcRequest request = state.requests[cursor.next++ & 1023];
+        return state.ring.select(state.snapshot, request);
+    }
+
+    /**
+     * 相同的参数总是落到同一个节点；原来的实现对参数流对象求哈希，同一个键落到多个节点
+     */
+    @Test
+    public void affinityTest() {
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(NODES);
+        ConsistentHashLoadBalance ring = new ConsistentHashLoadBalance();
+        LegacyConsistentHash legacy = new LegacyConsistentHash();
+        Set<String> ringTargets = new HashSet<>();
+        Set<String> legacyTargets = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            // 每次调用都是新的请求对象和新的参数对象
+            ringTargets.add(ring.select(snapshot, request(new String("user-42"))).getUrl());
+            legacyTargets.add(legacy.selectServiceAddress(snapshot.getUrls(), request(new String("user-42"))));
+        }
+        System.out.printf("distinct targets for one key: legacy=%d ring=%d%n", legacyTargets.size(), ringTargets.size());
+        assertEquals(1, ringTargets.size());
+        assertTrue(legacyTargets.size() > 1);
+
+        // 整数键按值计算，与对象无关
+        assertEquals(ConsistentHashLoadBalance.hashKey(123456789L), ConsistentHashLoadBalance.hashKey(Long.valueOf(123456789L)));
+        assertEquals(ConsistentHashLoadBalance.hashKey("user-42"), ConsistentHashLoadBalance.hashKey(new StringBuilder("user-42")));
+    }
+
+    public static class UserKey {
+        private final long userId;
+
+        UserKey(long userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof UserKey && ((UserKey) o).userId == userId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(userId);
+        }
+    }
+
+    /**
+     * 覆盖了 hashCode 的参数对象按值计算，相同的键落到同一个节点；没有覆盖 hashCode 的对象按地址计算，调用时直接拒绝
+     */
+    @Test
+    public void pojoKeyTest() {
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(NODES);
+        ConsistentHashLoadBalance ring = new ConsistentHashLoadBalance();
+        Set<String> targets = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            targets.add(ring.select(snapshot, request(new UserKey(42))).getUrl());
+        }
+        assertEquals(1, targets.size());
+        assertEquals(ConsistentHashLoadBalance.hashKey(TimeUnit.SECONDS), ConsistentHashLoadBalance.hashKey("SECONDS"));
+
+        assertThrows(IllegalArgumentException.class, () -> ring.select(snapshot, request(new Object())));
+        assertThrows(IllegalArgumentException.class, () -> ConsistentHashLoadBalance.hashKey(new long[]{42}));
+        // 取出参数中的字段作为哈希键
+        ring.setKeyExtractor(request -> ((long[]) request.getParameters()[0])[0]);
+        assertEquals(ring.select(snapshot, request(new long[]{42})), ring.select(snapshot, request(new long[]{42})));
+    }
+
+    /**
+     * 160 个虚拟节点时各节点分到的键数接近平均值
+     */
+    @Test
+    public void distributionTest() {
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(NODES);
+        ConsistentHashLoadBalance ring = new ConsistentHashLoadBalance();
+        Map<String, Integer> counts = new HashMap<>();
+        int keys = 100000;
+        for (int i = 0; i < keys; i++) {
+            counts.merge(ring.select(snapshot, request("user-" + i)).getUrl(), 1, Integer::sum);
+        }
+        System.out.println("keys per node: " + counts.values());
+        assertEquals(NODES, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(Math.abs(count - keys / NODES) < keys / NODES * 0.25, "count " + count);
+        }
+    }
+
+    /**
+     * 地址变化时增量更新的环与新建的环选择结果一致，只有被移除节点上的键和新节点分走的键迁移
+     */
+    @Test
+    public void incrementalTest() {
+        ConsistentHashLoadBalance incremental = new ConsistentHashLoadBalance();
+        EndpointSnapshot before = EndpointSimulator.snapshot(NODES);
+        // 去掉第一个节点，新增一个节点，顺序也变了
+        EndpointSnapshot after = EndpointSimulator.snapshot(1, NODES + 1, 2);
+        List<Endpoint> reversed = new ArrayList<>();
+        for (int i = after.size() - 1; i >= 0; i--) {
+            reversed.add(after.get(i));
+        }
+        after = new EndpointSnapshot(2, reversed.toArray(new Endpoint[0]));
+        int keys = 20000;
+        String[] owners = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            owners[i] = incremental.select(before, request("user-" + i)).getUrl();
+        }
+        ConsistentHashLoadBalance fresh = new ConsistentHashLoadBalance();
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            String owner = incremental.select(after, request("user-" + i)).getUrl();
+            assertEquals(fresh.select(after, request("user-" + i)).getUrl(), owner);
+            if (!owner.equals(owners[i])) {
+                moved++;
+                // 迁移的键来自被移除的节点，或者去了新节点
+                assertTrue(owners[i].endsWith(":9000") || owner.endsWith(":" + (9000 + NODES)), owners[i] + " -> " + owner);
+            }
+        }
+        System.out.printf("moved %d/%d keys%n", moved, keys);
+        assertTrue(moved < keys * 3 / NODES);
+    }
+
+    /**
+     * 排除节点后在完整的环上跳过它们，结果与去掉这些节点后新建的环相同；全部排除时返回 null
+     */
+    @Test
+    public void excludeTest() {
+        ConsistentHashLoadBalance ring = new ConsistentHashLoadBalance();
+        EndpointSnapshot all = EndpointSimulator.snapshot(NODES);
+        List<Endpoint> excluded = Arrays.asList(all.get(0), all.get(3));
+        List<Endpoint> kept = new ArrayList<>();
+        for (int i = 0; i < all.size(); i++) {
+            if (!excluded.contains(all.get(i))) {
+                kept.add(all.get(i));
+            }
+        }
+        EndpointSnapshot remaining = new EndpointSnapshot(1, kept.toArray(new Endpoint[0]));
+        ConsistentHashLoadBalance fresh = new ConsistentHashLoadBalance();
+        for (int i = 0; i < 20000; i++) {
+            Endpoint selected = ring.select(all, request("user-" + i), excluded);
+            assertFalse(excluded.contains(selected));
+            assertSame(fresh.select(remaining, request("user-" + i)), selected);
+        }
+        List<Endpoint> everything = new ArrayList<>();
+        for (int i = 0; i < all.size(); i++) {
+            everything.add(all.get(i));
+        }
+        assertNull(ring.select(all, request("user-0"), everything));
+    }
+
+    /**
+     * 同一个热点键：不限制时全部压在一个节点；有界负载时每个节点的在途请求不超过平均值的 loadFactor 倍
+     */
+    @Test
+    public void boundedLoadTest() {
+        int requests = 100;
+        assertEquals(requests, maxInFlight(0, requests));
+        int bounded = maxInFlight(1.25, requests);
+        System.out.printf("hot key max in-flight: unbounded=%d bounded=%d%n", requests, bounded);
+        assertTrue(bounded <= Math.ceil(1.25 * requests / NODES), "max in-flight " + bounded);
+    }
+
+    private static int maxInFlight(double loadFactor, int requests) {
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(NODES);
+        ConsistentHashLoadBalance ring = new ConsistentHashLoadBalance();
+        ring.configure(160, loadFactor, 0);
+        for (int i = 0; i < requests; i++) {
+            ring.select(snapshot, request("hot-key")).getStats().onSend();
+        }
+        int max = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            max = Math.max(max, snapshot.get(i).getStats().getInFlight());
+        }
+        return max;
+    }
+
+    @Test
+    public void allocationTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ConsistentHashCompareTest.class.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    private static RpcRequest request(Object key) {
+        return RpcRequest.builder()
+                .className("com.dzgu.xrpc.UserService")
+                .methodName("getUser")
+                .version("1.0")
+                .parameterTypes(new Class[]{key.getClass()})
+                .parameters(new Object[]{key}).build();
+    }
+}
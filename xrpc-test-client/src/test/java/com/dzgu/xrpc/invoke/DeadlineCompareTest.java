@@ -0,0 +1,199 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.codec.RpcCodec;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.server.core.NettyServerHandler;
+import com.dzgu.xrpc.server.core.ServiceHandlerStats;
+import com.dzgu.xrpc.server.core.ServiceRegisterCache;
+import com.dzgu.xrpc.server.invoke.InvokerMethodHandle;
+import com.dzgu.xrpc.util.DeadlineContext;
+import com.dzgu.xrpc.util.threadpool.CustomThreadPoolConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.DUMMY;
+import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 截止时间对比。一个业务线程、每个请求耗时 2ms，一次到达 BURST 个请求，客户端 50ms 后放弃：
+ * 不携带截止时间时服务端把所有请求执行完，大部分结果没人接收；携带截止时间时过期的请求不再执行
+ * @Author： dzgu
+ * @Date： 2022/5/16 15:10
+ */
+public class DeadlineCompareTest {
+    private static final int BURST = 200;
+    private static final long SERVICE_MILLIS = 2;
+    private static final long CLIENT_TIMEOUT_MILLIS = 50;
+
+    public interface SlowService {
+        String slow(String value);
+
+        /**
+         * 返回服务方法中看到的剩余时间预算，毫秒
+         */
+        long remaining();
+    }
+
+    @Test
+    public void burstTest() throws Exception {
+        int withoutDeadline = executedInBurst(false);
+        int withDeadline = executedInBurst(true);
+        assertEquals(BURST, withoutDeadline);
+        assertTrue(withDeadline < BURST / 2, "executed with deadline " + withDeadline);
+    }
+
+    /**
+     * 帧中携带剩余时间，解码后换算为本机截止时间；没有截止时间的请求帧头不变
+     */
+    @Test
+    public void codecTest() {
+        RpcMessage withDeadline = request(1, "slow");
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        withDeadline.setDeadlineNanos(deadline);
+        RpcMessage decoded = roundTrip(withDeadline, RpcConstants.DEADLINE_LENGTH);
+        // 剩余时间按毫秒截断，编解码之间经过的时间计入对端的截止时间
+        assertTrue(decoded.getDeadlineNanos() - deadline > -TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(decoded.getDeadlineNanos() - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(RpcConstants.REQUEST_TYPE, decoded.getMessageType());
+        assertEquals("我是参数", ((RpcRequest) decoded.getData()).getParameters()[0]);
+
+        decoded = roundTrip(request(2, "slow"), 0);
+        assertEquals(0, decoded.getDeadlineNanos());
+        assertEquals(RpcConstants.REQUEST_TYPE, decoded.getMessageType());
+    }
+
+    /**
+     * 过期的请求不回复；服务方法中能看到剩余的时间预算，嵌套调用据此继承
+     */
+    @Test
+    public void expiredTest() throws Exception {
+        ServiceHandlerStats stats = new ServiceHandlerStats();
+        ExecutorService executor = newPool();
+        ResponseCollector collector = new ResponseCollector();
+        EmbeddedChannel channel = new EmbeddedChannel(collector, new NettyServerHandler(new InvokerMethodHandle(),
+                cache(new AtomicInteger()), KRYO.getCode(), stats, executor));
+        try {
+            // 方法表
+            collector.getResponses().take();
+            RpcMessage expired = request(1, "remaining");
+            expired.setDeadlineNanos(System.nanoTime() - 1);
+            channel.writeInbound(expired);
+            RpcMessage alive = request(2, "remaining");
+            alive.setDeadlineNanos(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000));
+            channel.writeInbound(alive);
+            RpcMessage response = collector.getResponses().poll(5, TimeUnit.SECONDS);
+            assertNotNull(response);
+            assertEquals(2, response.getRequestId());
+            long remaining = (Long) ((RpcResponse<?>) response.getData()).getData();
+            assertTrue(remaining > 500 && remaining <= 1000, "remaining " + remaining);
+            assertEquals(1, stats.getExpired());
+            assertNull(collector.getResponses().poll(50, TimeUnit.MILLISECONDS));
+            assertEquals(0, DeadlineContext.get());
+        } finally {
+            channel.finishAndReleaseAll();
+            executor.shutdownNow();
+        }
+    }
+
+    private int executedInBurst(boolean withDeadline) throws Exception {
+        AtomicInteger executed = new AtomicInteger();
+        ServiceHandlerStats stats = new ServiceHandlerStats();
+        ExecutorService executor = newPool();
+        ResponseCollector collector = new ResponseCollector();
+        EmbeddedChannel channel = new EmbeddedChannel(collector, new NettyServerHandler(new InvokerMethodHandle(),
+                cache(executed), KRYO.getCode(), stats, executor));
+        try {
+            // 方法表
+            collector.getResponses().take();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLIENT_TIMEOUT_MILLIS);
+            for (int i = 0; i < BURST; i++) {
+                RpcMessage rpcMessage = request(i, "slow");
+                if (withDeadline) {
+                    rpcMessage.setDeadlineNanos(deadline);
+                }
+                channel.writeInbound(rpcMessage);
+            }
+            // 过期的请求没有回复，一段时间没有新的回复时认为已处理完
+            while (collector.getResponses().poll(200, TimeUnit.MILLISECONDS) != null) {
+                assertTrue(executed.get() > 0);
+            }
+            System.out.printf("deadline=%s executed=%d, %s%n", withDeadline, executed.get(), stats);
+            return executed.get();
+        } finally {
+            channel.finishAndReleaseAll();
+            executor.shutdownNow();
+        }
+    }
+
+    private static ServiceRegisterCache cache(AtomicInteger executed) {
+        SlowService slowService = new SlowService() {
+            @Override
+            public String slow(String value) {
+                executed.incrementAndGet();
+                try {
+                    Thread.sleep(SERVICE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return value;
+            }
+
+            @Override
+            public long remaining() {
+                // 嵌套调用的截止时间：自身超时与继承的剩余时间中较早的一个
+                return TimeUnit.NANOSECONDS.toMillis(DeadlineContext.deadlineFor(RpcConstants.DEFAULT_TIMEOUT) - System.nanoTime());
+            }
+        };
+        ServiceRegisterCache cache = new ServiceRegisterCache();
+        cache.addService(SlowService.class, "", slowService);
+        return cache;
+    }
+
+    private static ExecutorService newPool() {
+        CustomThreadPoolConfig config = CustomThreadPoolConfig.fixed(1, BURST * 2);
+        return new ThreadPoolExecutor(config.getCorePoolSize(), config.getMaximumPoolSize(),
+                config.getKeepAliveTime(), config.getUnit(), config.getWorkQueue());
+    }
+
+    private static RpcMessage roundTrip(RpcMessage rpcMessage, int extensionLength) {
+        ByteBuf frame = RpcCodec.INSTANCE.encode(rpcMessage, Unpooled.buffer());
+        try {
+            RpcMessage plain = request(rpcMessage.getRequestId(), "slow");
+            ByteBuf plainFrame = RpcCodec.INSTANCE.encode(plain, Unpooled.buffer());
+            assertEquals(plainFrame.readableBytes() + extensionLength, frame.readableBytes());
+            plainFrame.release();
+            // 魔数和版本由 Spliter 读取
+            frame.skipBytes(RpcConstants.MAGIC_LENGTH + RpcConstants.VERSION_LENGTH);
+            return (RpcMessage) RpcCodec.INSTANCE.decode(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static RpcMessage request(int requestId, String methodName) {
+        boolean slow = "slow".equals(methodName);
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .className(SlowService.class.getName())
+                .methodName(methodName)
+                .version("")
+                .parameterTypes(slow ? new Class[]{String.class} : new Class[0])
+                .parameters(slow ? new Object[]{"我是参数"} : new Object[0]).build();
+        return RpcMessage.builder()
+                .requestId(requestId)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(KRYO.getCode())
+                .compress(DUMMY.getCode())
+                .data(rpcRequest).build();
+    }
+}
@@ -0,0 +1,143 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.codec.FlushBatchHandler;
+import com.dzgu.xrpc.codec.RpcDecoder;
+import com.dzgu.xrpc.codec.RpcEncoder;
+import com.dzgu.xrpc.codec.Spliter;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.transport.NettyTransport;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.DUMMY;
+import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+
+/**
+ * @description: 压测用的本地回显服务端，pipeline 与 NettyServer 一致，响应在业务线程写出
+ * @Author： dzgu
+ * @Date： 2022/5/15 11:02
+ */
+public class EchoServer {
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final DefaultEventExecutorGroup serviceGroup;
+    private final List<Channel> serverChannels = new ArrayList<>();
+    private final List<FlushBatchHandler> flushBatchHandlers = new CopyOnWriteArrayList<>();
+    /**
+     * 收到的请求 ID
+     */
+    private final List<Integer> requestIds = new CopyOnWriteArrayList<>();
+    /**
+     * 还要延迟回复的请求数
+     */
+    private final AtomicInteger delayedResponses = new AtomicInteger();
+    private volatile long responseDelayMillis;
+
+    /**
+     * @param flushMaxMessages 大于 0 时安装 FlushBatchHandler
+     */
+    public EchoServer(NettyTransport transport, int port, int acceptors, int flushMaxMessages) throws InterruptedException {
+        int acceptorCount = transport.acceptors(acceptors);
+        bossGroup = transport.eventLoopGroup(acceptorCount, new DefaultThreadFactory("echo-boss"));
+        workerGroup = transport.eventLoopGroup(2, new DefaultThreadFactory("echo-worker"));
+        serviceGroup = new DefaultEventExecutorGroup(8);
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        transport.configure(bootstrap, acceptorCount);
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(transport.serverChannelClass())
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (flushMaxMessages > 0) {
+                            FlushBatchHandler flushBatchHandler = new FlushBatchHandler(flushMaxMessages, FlushBatchHandler.DEFAULT_MAX_BYTES);
+                            flushBatchHandlers.add(flushBatchHandler);
+                            ch.pipeline().addLast(flushBatchHandler);
+                        }
+                        ch.pipeline().addLast(new Spliter());
+                        ch.pipeline().addLast(new RpcDecoder());
+                        ch.pipeline().addLast(new RpcEncoder());
+                        ch.pipeline().addLast(serviceGroup, new EchoHandler());
+                    }
+                });
+        for (int i = 0; i < acceptorCount; i++) {
+            serverChannels.add(bootstrap.bind(port).sync().channel());
+        }
+    }
+
+    public List<FlushBatchHandler> getFlushBatchHandlers() {
+        return flushBatchHandlers;
+    }
+
+    public List<Integer> getRequestIds() {
+        return requestIds;
+    }
+
+    /**
+     * 接下来的 count 个请求延迟 millis 毫秒回复，用于模拟超时
+     */
+    public void delayResponses(int count, long millis) {
+        responseDelayMillis = millis;
+        delayedResponses.set(count);
+    }
+
+    public void close() throws InterruptedException {
+        for (Channel serverChannel : serverChannels) {
+            serverChannel.close().sync();
+        }
+        serviceGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        bossGroup.shutdownGracefully().sync();
+    }
+
+    /**
+     * 构造一个请求
+     */
+    public static RpcMessage request() {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .className("com.dzgu.xprc.service.HelloService")
+                .methodName("hello")
+                .version("1.0")
+                .parameterTypes(new Class[]{String.class})
+                .parameters(new Object[]{"我是参数"}).build();
+        return RpcMessage.builder()
+                .requestId(RpcConstants.REQUEST_ID.getAndIncrement())
+                .compress(DUMMY.getCode())
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(KRYO.getCode())
+                .data(rpcRequest).build();
+    }
+
+    private class EchoHandler extends SimpleChannelInboundHandler<RpcMessage> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, RpcMessage rpcMessage) {
+            if (rpcMessage.getMessageType() != RpcConstants.REQUEST_TYPE) {
+                return;
+            }
+            requestIds.add(rpcMessage.getRequestId());
+            RpcRequest rpcRequest = (RpcRequest) rpcMessage.getData();
+            rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+            rpcMessage.setData(RpcResponse.success(rpcRequest.getParameters()[0]));
+            if (delayedResponses.get() > 0 && delayedResponses.getAndDecrement() > 0) {
+                ctx.executor().schedule(() -> ctx.writeAndFlush(rpcMessage), responseDelayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                ctx.writeAndFlush(rpcMessage);
+            }
+        }
+    }
+}
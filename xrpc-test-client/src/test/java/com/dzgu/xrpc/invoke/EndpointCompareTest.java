@@ -0,0 +1,253 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.ChannelPool;
+import com.dzgu.xrpc.client.core.ChannelProvider;
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.core.ServiceDirectory;
+import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.RandomLoadBalance;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.register.Register;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 选择服务端地址的开销对比：每次调用查询注册中心缓存、随机选一个地址字符串、
+ * 解析 host:port 并按新建的 InetSocketAddress 查连接池，与读取本地地址快照、直接取出绑定了连接池的 Endpoint
+ * @Author： dzgu
+ * @Date： 2022/5/16 17:10
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class EndpointCompareTest {
+    private static final String SERVICE_KEY = "com.dzgu.xrpc.HelloService#1.0";
+    private static final List<String> URLS = Collections.unmodifiableList(Arrays.asList(
+            "127.0.0.1:9001", "127.0.0.1:9002", "127.0.0.1:9003", "127.0.0.1:9004"));
+    private static final RpcRequest RPC_REQUEST = RpcRequest.builder()
+            .className("com.dzgu.xrpc.HelloService")
+            .methodName("hello")
+            .version("1.0").build();
+
+    /**
+     * 只保存地址列表、可以手动推送变更的注册中心
+     */
+    public static class PushRegister implements Register {
+        private final Map<String, List<String>> services = new ConcurrentHashMap<>();
+        private final Map<String, Consumer<List<String>>> listeners = new ConcurrentHashMap<>();
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public void registerService(String rpcServiceName, InetSocketAddress inetSocketAddress) {
+        }
+
+        @Override
+        public void unregisterAllMyService(InetSocketAddress inetSocketAddress) {
+        }
+
+        @Override
+        public List<String> lookupService(String serviceKey) {
+            lookups.incrementAndGet();
+            return services.get(serviceKey);
+        }
+
+        @Override
+        public void subscribe(String serviceKey, Consumer<List<String>> listener) {
+            listeners.put(serviceKey, listener);
+        }
+
+        public void push(String serviceKey, List<String> urls) {
+            services.put(serviceKey, urls);
+            Consumer<List<String>> listener = listeners.get(serviceKey);
+            if (listener != null) {
+                listener.accept(urls);
+            }
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    /**
+     * 原来的随机负载均衡：每次调用新建 Random
+     */
+    private static final LoadBalance LEGACY_LOAD_BALANCE = (serviceAddresses, rpcRequest) ->
+            serviceAddresses.get(new Random().nextInt(serviceAddresses.size()));
+
+    @State(Scope.Benchmark)
+    public static class ClientState {
+        PushRegister register;
+        NettyClient nettyClient;
+        ChannelProvider channelProvider;
+        ServiceDirectory serviceDirectory;
+        LoadBalance loadBalance;
+
+        @Setup
+        public void setup() {
+            register = new PushRegister();
+            register.push(SERVICE_KEY, URLS);
+            // 不会建连，只比较选择地址和查找连接池的开销
+            channelProvider = new ChannelProvider(1, address -> new CompletableFuture<>());
+            nettyClient = new NettyClient(1);
+            serviceDirectory = new ServiceDirectory(register, nettyClient);
+            loadBalance = new RandomLoadBalance();
+        }
+
+        @TearDown
+        public void tearDown() {
+            nettyClient.stop();
+        }
+    }
+
+    @Benchmark
+    public ChannelPool lookupEveryCall(ClientState state) {
+        List<String> serviceUrlList = state.register.lookupService(SERVICE_KEY);
+        String targetServiceUrl = LEGACY_LOAD_BALANCE.selectServiceAddress(serviceUrlList, RPC_REQUEST);
+        String[] socketAddressArray = targetServiceUrl.split(":");
+        InetSocketAddress address = new InetSocketAddress(socketAddressArray[0], Integer.parseInt(socketAddressArray[1]));
+        return state.channelProvider.get(address);
+    }
+
+    @Benchmark
+    public ChannelPool snapshot(ClientState state) {
+        EndpointSnapshot snapshot = state.serviceDirectory.snapshot(SERVICE_KEY);
+        return state.loadBalance.select(snapshot, RPC_REQUEST).getChannelPool();
+    }
+
+    /**
+     * 只在第一次使用时查询注册中心，之后按推送整体替换快照；仍然存在的地址沿用原来的 Endpoint
+     */
+    @Test
+    public void pushUpdateTest() {
+        PushRegister register = new PushRegister();
+        NettyClient nettyClient = new NettyClient(1);
+        try {
+            register.push(SERVICE_KEY, Arrays.asList("127.0.0.1:9001", "127.0.0.1:9002"));
+            ServiceDirectory serviceDirectory = new ServiceDirectory(register, nettyClient);
+            EndpointSnapshot first = serviceDirectory.snapshot(SERVICE_KEY);
+            assertSame(first, serviceDirectory.snapshot(SERVICE_KEY));
+            assertEquals(1, register.lookups.get());
+            assertEquals(1, first.getVersion());
+            assertEquals(2, first.size());
+            Endpoint kept = first.find("127.0.0.1:9002");
+            assertEquals(new InetSocketAddress("127.0.0.1", 9002), kept.getAddress());
+
+            register.push(SERVICE_KEY, Arrays.asList("127.0.0.1:9002", "127.0.0.1:9003"));
+            EndpointSnapshot second = serviceDirectory.snapshot(SERVICE_KEY);
+            assertEquals(2, second.getVersion());
+            assertEquals(Arrays.asList("127.0.0.1:9002", "127.0.0.1:9003"), second.getUrls());
+            assertSame(kept, second.find("127.0.0.1:9002"));
+            assertNull(second.find("127.0.0.1:9001"));
+            // 旧快照不受影响
+            assertEquals(2, first.size());
+            assertNotNull(first.find("127.0.0.1:9001"));
+            assertEquals(1, register.lookups.get());
+
+            // 默认的负载均衡同样从快照中选择
+            LoadBalance roundOne = (serviceAddresses, rpcRequest) -> serviceAddresses.get(1);
+            assertSame(second.get(1), roundOne.select(second, RPC_REQUEST));
+
+            register.push(SERVICE_KEY, Collections.emptyList());
+            assertThrows(RpcException.class, () -> serviceDirectory.snapshot(SERVICE_KEY));
+        } finally {
+            nettyClient.stop();
+        }
+    }
+
+    /**
+     * 查询期间地址发生变更：先注册监听再查询，推送的新列表不会被查询到的旧列表覆盖，也不会丢失
+     */
+    @Test
+    public void subscribeRaceTest() {
+        List<String> stale = Arrays.asList("127.0.0.1:9001");
+        List<String> fresh = Arrays.asList("127.0.0.1:9001", "127.0.0.1:9002");
+        PushRegister register = new PushRegister() {
+            @Override
+            public List<String> lookupService(String serviceKey) {
+                List<String> result = super.lookupService(serviceKey);
+                // 查询结果返回前，注册中心推送了变更
+                push(serviceKey, fresh);
+                return result;
+            }
+        };
+        NettyClient nettyClient = new NettyClient(1);
+        try {
+            register.push(SERVICE_KEY, stale);
+            ServiceDirectory serviceDirectory = new ServiceDirectory(register, nettyClient);
+            assertEquals(fresh, serviceDirectory.snapshot(SERVICE_KEY).getUrls());
+        } finally {
+            nettyClient.stop();
+        }
+    }
+
+    /**
+     * 地址下线后释放连接池：另一个服务仍然引用同一地址时保留，都不再引用时从 ChannelProvider 移除并关闭，
+     * 重新上线时使用新的连接池
+     */
+    @Test
+    public void removedEndpointTest() {
+        String otherService = "com.dzgu.xrpc.OtherService#1.0";
+        PushRegister register = new PushRegister();
+        NettyClient nettyClient = new NettyClient(1);
+        try {
+            register.push(SERVICE_KEY, Arrays.asList("127.0.0.1:9001", "127.0.0.1:9002"));
+            register.push(otherService, Arrays.asList("127.0.0.1:9001"));
+            ServiceDirectory serviceDirectory = new ServiceDirectory(register, nettyClient);
+            ChannelPool pool = serviceDirectory.snapshot(SERVICE_KEY).find("127.0.0.1:9001").getChannelPool();
+            assertSame(pool, serviceDirectory.snapshot(otherService).get(0).getChannelPool());
+            assertEquals(2, nettyClient.getChannelProvider().getPools().size());
+
+            register.push(SERVICE_KEY, Arrays.asList("127.0.0.1:9002"));
+            assertEquals(2, nettyClient.getChannelProvider().getPools().size());
+            assertFalse(pool.isClosed());
+
+            register.push(otherService, Collections.emptyList());
+            assertEquals(1, nettyClient.getChannelProvider().getPools().size());
+            assertFalse(nettyClient.getChannelProvider().getPools().contains(pool));
+            assertTrue(pool.isClosed());
+
+            register.push(otherService, Arrays.asList("127.0.0.1:9001"));
+            ChannelPool recreated = serviceDirectory.snapshot(otherService).get(0).getChannelPool();
+            assertNotSame(pool, recreated);
+            assertEquals(2, nettyClient.getChannelProvider().getPools().size());
+        } finally {
+            nettyClient.stop();
+        }
+    }
+
+    @Test
+    public void allocationTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EndpointCompareTest.class.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
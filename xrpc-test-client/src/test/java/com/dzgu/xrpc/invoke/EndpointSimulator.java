@@ -0,0 +1,176 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * @description: 负载均衡、熔断、对冲对比共用的模拟节点。节点不建连，只用于比较选择结果；
+ * 按模拟时钟推进时请求按固定间隔到达，不因为前面的请求变慢而减少，完成时更新节点的延迟统计和熔断计数
+ * @Author： dzgu
+ * @Date： 2022/5/17 22:40
+ */
+public class EndpointSimulator {
+    public static final int BASE_PORT = 9000;
+
+    /**
+     * 节点的行为：第 index 个节点在 now 收到请求时的延迟（纳秒），返回负数表示请求在其绝对值之后失败
+     */
+    public interface Behavior {
+        long latency(int index, long now, Random random);
+    }
+
+    /**
+     * 在 now 时从全部节点中选择一个
+     */
+    public interface Selector {
+        Endpoint select(EndpointSnapshot all, long now);
+    }
+
+    public static class Result {
+        EndpointSnapshot snapshot;
+        long p50;
+        long p99;
+        long meanNanos;
+        /**
+         * 统计范围内发往问题节点的请求比例
+         */
+        double badShare;
+        int failures;
+
+        @Override
+        public String toString() {
+            return String.format("p50=%.2fms p99=%.2fms mean=%.2fms badShare=%.4f failures=%d",
+                    p50 / 1e6, p99 / 1e6, meanNanos / 1e6, badShare, failures);
+        }
+    }
+
+    private static class Completion {
+        final long time;
+        final long sendTime;
+        final Endpoint endpoint;
+        final long probeToken;
+        final boolean success;
+
+        Completion(long time, long sendTime, Endpoint endpoint, long probeToken, boolean success) {
+            this.time = time;
+            this.sendTime = sendTime;
+            this.endpoint = endpoint;
+            this.probeToken = probeToken;
+            this.success = success;
+        }
+    }
+
+    private final long start;
+    private final long arrivalInterval;
+    private final int requests;
+
+    /**
+     * @param start           第一个请求到达的时间
+     * @param arrivalInterval 请求到达的间隔
+     */
+    public EndpointSimulator(long start, long arrivalInterval, int requests) {
+        this.start = start;
+        this.arrivalInterval = arrivalInterval;
+        this.requests = requests;
+    }
+
+    /**
+     * @param badIndex  问题节点的下标
+     * @param countFrom 从该时间开始统计，之前的请求只用于预热
+     */
+    public Result simulate(int size, Selector selector, Behavior behavior, int badIndex, long countFrom) {
+        EndpointSnapshot all = snapshot(size);
+        Random random = new Random(42);
+        PriorityQueue<Completion> completions = new PriorityQueue<>((a, b) -> Long.compare(a.time, b.time));
+        long[] observed = new long[requests];
+        int counted = 0;
+        int bad = 0;
+        int failures = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < requests; i++) {
+            long now = start + i * arrivalInterval;
+            // 先处理到达前已经完成的请求
+            while (!completions.isEmpty() && completions.peek().time <= now) {
+                complete(completions.poll());
+            }
+            Endpoint endpoint = selector.select(all, now);
+            int index = indexOf(all, endpoint);
+            long latency = behavior.latency(index, now, random);
+            boolean success = latency >= 0;
+            latency = Math.abs(latency);
+            endpoint.getStats().onSend();
+            long probeToken = endpoint.getCircuitBreaker().onSend();
+            completions.add(new Completion(now + latency, now, endpoint, probeToken, success));
+            if (now >= countFrom) {
+                observed[counted++] = latency;
+                totalNanos += latency;
+                if (index == badIndex) {
+                    bad++;
+                }
+                if (!success) {
+                    failures++;
+                }
+            }
+        }
+        long[] sorted = Arrays.copyOf(observed, counted);
+        Arrays.sort(sorted);
+        Result result = new Result();
+        result.snapshot = all;
+        result.p50 = sorted[counted / 2];
+        result.p99 = sorted[counted * 99 / 100];
+        result.meanNanos = totalNanos / counted;
+        result.badShare = bad / (double) counted;
+        result.failures = failures;
+        return result;
+    }
+
+    private static void complete(Completion completion) {
+        completion.endpoint.getStats().onComplete(completion.time - completion.sendTime, completion.time, completion.success);
+        completion.endpoint.getCircuitBreaker().onComplete(completion.probeToken, completion.success);
+    }
+
+    /**
+     * 延迟在 [latency / 2, latency * 1.5) 内均匀抖动
+     */
+    public static long jitter(long latency, Random random) {
+        return latency / 2 + (long) (random.nextDouble() * latency);
+    }
+
+    public static EndpointSnapshot snapshot(int size) {
+        return snapshot(0, size, 1);
+    }
+
+    /**
+     * 端口为 BASE_PORT + from 到 BASE_PORT + to - 1 的节点
+     */
+    public static EndpointSnapshot snapshot(int from, int to, long version) {
+        Endpoint[] endpoints = new Endpoint[to - from];
+        for (int i = from; i < to; i++) {
+            // 只比较选择结果，不建连
+            endpoints[i - from] = new Endpoint("127.0.0.1:" + (BASE_PORT + i),
+                    InetSocketAddress.createUnresolved("127.0.0.1", BASE_PORT + i), null);
+        }
+        return new EndpointSnapshot(version, endpoints);
+    }
+
+    /**
+     * 节点的下标，由端口换算
+     */
+    public static int indexOf(Endpoint endpoint) {
+        return endpoint.getAddress().getPort() - BASE_PORT;
+    }
+
+    public static int indexOf(EndpointSnapshot snapshot, Endpoint endpoint) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.get(i) == endpoint) {
+                return i;
+            }
+        }
+        throw new IllegalStateException(endpoint.getUrl());
+    }
+}
@@ -0,0 +1,154 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.faultTolerantInvoker.FailoverInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.Invocation;
+import com.dzgu.xrpc.client.faultTolerantInvoker.RetryBudget;
+import com.dzgu.xrpc.client.faultTolerantInvoker.RetryInvoker;
+import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.transport.NettyTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 容错策略对比。负载均衡总是先选第一个节点，而第一个节点已经宕机：
+ * retry 在同一个节点上用完所有重试后失败，failover 排除失败的节点后换到存活的节点。
+ * 所有节点都宕机时，retry 每个调用都尝试 retry-times 次，failover 的重试受预算限制
+ * @Author： dzgu
+ * @Date： 2022/5/17 17:40
+ */
+public class FailoverCompareTest {
+    private static final int LIVE_PORT = 18911;
+    private static final int DEAD_PORT = 18912;
+    private static final int RETRIES = 3;
+    private static final int CALLS = 200;
+    /**
+     * 总是选择快照中的第一个节点
+     */
+    private static final LoadBalance FIRST = (serviceAddresses, rpcRequest) -> serviceAddresses.get(0);
+
+    private EchoServer echoServer;
+    private NettyClient nettyClient;
+
+    @BeforeEach
+    public void setup() throws InterruptedException {
+        echoServer = new EchoServer(NettyTransport.NIO, LIVE_PORT, 1, 0);
+        nettyClient = new NettyClient(1);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        nettyClient.stop();
+        echoServer.close();
+    }
+
+    @Test
+    public void deadNodeTest() throws Exception {
+        EndpointSnapshot snapshot = snapshot(DEAD_PORT, LIVE_PORT);
+        assertThrows(RpcException.class, () -> new RetryInvoker().doinvoke(invocation(snapshot)));
+
+        FailoverInvoker failover = new FailoverInvoker();
+        assertEquals("我是参数", failover.doinvoke(invocation(snapshot)).getData());
+        assertEquals("我是参数", failover.doinvokeAsync(invocation(snapshot)).get(5, TimeUnit.SECONDS));
+        assertEquals(2, failover.getRetryBudget().getRetried());
+    }
+
+    /**
+     * 第一次请求超时后重试成功：每次尝试使用新的请求 ID，超时请求迟到的响应不会被当成重试的结果
+     */
+    @Test
+    public void timeoutThenRetryTest() throws Exception {
+        EndpointSnapshot snapshot = snapshot(LIVE_PORT);
+        RetryInvoker retry = new RetryInvoker();
+        echoServer.delayResponses(1, 300);
+        assertEquals("我是参数", retry.doinvoke(invocation(snapshot, 100)).getData());
+        // 两个节点指向同一个服务端，failover 换到第二个节点重试
+        EndpointSnapshot twins = snapshot(LIVE_PORT, LIVE_PORT);
+        FailoverInvoker failover = new FailoverInvoker();
+        echoServer.delayResponses(1, 300);
+        assertEquals("我是参数", failover.doinvoke(invocation(twins, 100)).getData());
+        assertEquals(4, echoServer.getRequestIds().size());
+        assertEquals(4, new HashSet<>(echoServer.getRequestIds()).size());
+        // 等迟到的响应到达并被丢弃，连接上没有残留的登记
+        Thread.sleep(500);
+        assertEquals(0, snapshot.get(0).getChannelPool().getInFlight());
+    }
+
+    /**
+     * 全部节点宕机：没有预算时尝试次数是调用数的 RETRIES 倍，有预算时只多出调用数的 10% 和初始的 burst 次
+     */
+    @Test
+    public void retryBudgetTest() {
+        EndpointSnapshot snapshot = snapshot(DEAD_PORT, DEAD_PORT + 1, DEAD_PORT + 2);
+        FailoverInvoker failover = new FailoverInvoker();
+        RetryBudget budget = new RetryBudget(0.1, 10);
+        failover.setRetryBudget(budget);
+        for (int i = 0; i < CALLS; i++) {
+            assertThrows(RpcException.class, () -> failover.doinvoke(invocation(snapshot)));
+        }
+        long attempts = CALLS + budget.getRetried();
+        System.out.printf("all dead: retry attempts=%d, failover attempts=%d, %s%n", CALLS * RETRIES, attempts, budget);
+        assertTrue(attempts <= CALLS * 1.1 + 10, "attempts " + attempts);
+        assertTrue(budget.getRejected() > 0);
+    }
+
+    /**
+     * 预算按请求数累积，不超过容量
+     */
+    @Test
+    public void budgetTest() {
+        RetryBudget budget = new RetryBudget(0.1, 2);
+        assertTrue(budget.tryRetry());
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+        for (int i = 0; i < 9; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryRetry());
+        budget.deposit();
+        assertTrue(budget.tryRetry());
+        for (int i = 0; i < 1000; i++) {
+            budget.deposit();
+        }
+        assertTrue(budget.tryRetry());
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+        assertEquals(5, budget.getRetried());
+        assertEquals(3, budget.getRejected());
+    }
+
+    private EndpointSnapshot snapshot(int... ports) {
+        Endpoint[] endpoints = new Endpoint[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            endpoints[i] = nettyClient.endpoint("127.0.0.1:" + ports[i]);
+        }
+        return new EndpointSnapshot(1, endpoints);
+    }
+
+    private Invocation invocation(EndpointSnapshot snapshot) {
+        return invocation(snapshot, 1000);
+    }
+
+    private Invocation invocation(EndpointSnapshot snapshot, long timeout) {
+        RpcMessage rpcMessage = EchoServer.request();
+        rpcMessage.setTimeout(timeout);
+        return Invocation.builder()
+                .nettyClient(nettyClient)
+                .rpcMessage(rpcMessage)
+                .rpcRequest((RpcRequest) rpcMessage.getData())
+                .snapshot(snapshot)
+                .loadBalance(FIRST)
+                .retries(RETRIES).build();
+    }
+}
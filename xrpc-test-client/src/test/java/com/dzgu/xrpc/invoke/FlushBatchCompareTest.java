@@ -0,0 +1,82 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.codec.FlushBatchHandler;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.transport.NettyTransport;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+
+/**
+ * @description: 合并 flush 对比。本地起一个回显服务端（响应在业务线程写出，与 NettyServer 一致），
+ * 客户端和服务端都装 FlushBatchHandler：maxMessages=1 即每条消息刷出一次，相当于不合并；
+ * maxMessages=64 为合并。结束时打印两端每个请求的刷出（写系统调用）次数
+ * @Author： dzgu
+ * @Date： 2022/5/14 20:10
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+public class FlushBatchCompareTest {
+    private static final int PORT = 19876;
+
+    @Param({"1", "64"})
+    public int maxMessages;
+
+    private EchoServer echoServer;
+    private NettyClient nettyClient;
+    private FlushBatchHandler clientHandler;
+
+    @Setup
+    public void setup() throws Exception {
+        echoServer = new EchoServer(NettyTransport.NIO, PORT, 1, maxMessages);
+        nettyClient = new NettyClient(1);
+        nettyClient.configureFlush(true, maxMessages, FlushBatchHandler.DEFAULT_MAX_BYTES);
+        clientHandler = nettyClient.getChannelAsync(new InetSocketAddress("127.0.0.1", PORT)).get()
+                .pipeline().get(FlushBatchHandler.class);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        long serverWrites = 0;
+        long serverFlushes = 0;
+        for (FlushBatchHandler handler : echoServer.getFlushBatchHandlers()) {
+            serverWrites += handler.getWrites();
+            serverFlushes += handler.getFlushes();
+        }
+        System.out.printf("%nmaxMessages=%d client flushes/request=%.3f (%d/%d), server flushes/response=%.3f (%d/%d)%n",
+                maxMessages, (double) clientHandler.getFlushes() / clientHandler.getWrites(),
+                clientHandler.getFlushes(), clientHandler.getWrites(),
+                (double) serverFlushes / serverWrites, serverFlushes, serverWrites);
+        nettyClient.stop();
+        echoServer.close();
+    }
+
+    @Benchmark
+    public RpcResponse<Object> syncCall() {
+        return nettyClient.sendRequest(EchoServer.request(), "127.0.0.1:" + PORT, false);
+    }
+
+    /**
+     * 不同并发下的吞吐量
+     */
+    @Test
+    public void concurrencyTest() throws RunnerException {
+        for (int threads : new int[]{1, 16, 64, 256}) {
+            Options options = new OptionsBuilder()
+                    .include(FlushBatchCompareTest.class.getName() + ".*")
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.faultTolerantInvoker.Invocation;
+import com.dzgu.xrpc.client.faultTolerantInvoker.RetryInvoker;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.transport.NettyTransport;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * @description: 每个线程完成 FAN_OUT 次调用的耗时：同步调用逐个等待，与返回 CompletableFuture 一次全部发出后等待汇总
+ * @Author： dzgu
+ * @Date： 2022/5/15 16:05
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@State(Scope.Benchmark)
+public class FutureCompareTest {
+    private static final int PORT = 19878;
+    private static final int FAN_OUT = 100;
+    private static final String ADDRESS = "127.0.0.1:" + PORT;
+
+    private EchoServer echoServer;
+    private NettyClient nettyClient;
+
+    @Setup
+    public void setup() throws Exception {
+        echoServer = new EchoServer(NettyTransport.NIO, PORT, 1, 0);
+        nettyClient = new NettyClient(1);
+        nettyClient.getChannelAsync(new InetSocketAddress("127.0.0.1", PORT)).get();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        nettyClient.stop();
+        echoServer.close();
+    }
+
+    @Benchmark
+    public int syncSequential() {
+        int completed = 0;
+        for (int i = 0; i < FAN_OUT; i++) {
+            if (nettyClient.sendRequest(EchoServer.request(), ADDRESS, false).getData() != null) {
+                completed++;
+            }
+        }
+        return completed;
+    }
+
+    @Benchmark
+    public int futureFanOut() {
+        CompletableFuture<?>[] futures = new CompletableFuture[FAN_OUT];
+        for (int i = 0; i < FAN_OUT; i++) {
+            futures[i] = nettyClient.sendRequestAsync(EchoServer.request(), ADDRESS, null);
+        }
+        CompletableFuture.allOf(futures).join();
+        return futures.length;
+    }
+
+    @Test
+    public void speedTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FutureCompareTest.class.getName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * 一个线程发出的所有调用都拿到回显结果
+     */
+    @Test
+    public void fanOutTest() throws Exception {
+        setup();
+        try {
+            CompletableFuture<?>[] futures = new CompletableFuture[FAN_OUT];
+            for (int i = 0; i < FAN_OUT; i++) {
+                futures[i] = nettyClient.sendRequestAsync(EchoServer.request(), ADDRESS, null);
+            }
+            CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+            for (CompletableFuture<?> future : futures) {
+                assertEquals("我是参数", future.join());
+            }
+        } finally {
+            tearDown();
+        }
+    }
+
+    /**
+     * 异步调用第一次超时后重试成功：重试使用新的请求 ID，超时请求迟到的响应不会被当成重试的结果
+     */
+    @Test
+    public void retryTimeoutTest() throws Exception {
+        setup();
+        try {
+            EndpointSnapshot snapshot = new EndpointSnapshot(1, new Endpoint[]{nettyClient.endpoint(ADDRESS)});
+            RpcMessage rpcMessage = EchoServer.request();
+            rpcMessage.setTimeout(100);
+            Invocation invocation = Invocation.builder()
+                    .nettyClient(nettyClient)
+                    .rpcMessage(rpcMessage)
+                    .rpcRequest((RpcRequest) rpcMessage.getData())
+                    .snapshot(snapshot)
+                    .loadBalance((serviceAddresses, rpcRequest) -> serviceAddresses.get(0))
+                    .retries(3).build();
+            // 预热编解码，避免首次调用本身超时
+            assertEquals("我是参数", nettyClient.sendRequestAsync(EchoServer.request(), ADDRESS, null).get(5, TimeUnit.SECONDS));
+            echoServer.getRequestIds().clear();
+            echoServer.delayResponses(1, 300);
+            assertEquals("我是参数", new RetryInvoker().doinvokeAsync(invocation).get(5, TimeUnit.SECONDS));
+            assertEquals(2, echoServer.getRequestIds().size());
+            assertNotEquals(echoServer.getRequestIds().get(0), echoServer.getRequestIds().get(1));
+            // 等迟到的响应到达并被丢弃，连接上没有残留的登记
+            Thread.sleep(500);
+            assertEquals(0, snapshot.get(0).getChannelPool().getInFlight());
+        } finally {
+            tearDown();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.client.faultTolerantInvoker.FailFastInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.FailoverInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.HedgingInvoker;
+import com.dzgu.xrpc.client.faultTolerantInvoker.Invocation;
+import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.RandomLoadBalance;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.invoke.EndpointSimulator.Behavior;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 对冲请求对比。客户端只替换发送请求的方法，按节点模拟延迟：平时 2ms 左右，2% 的请求遇到 200ms 的停顿。
+ * 比较不对冲与按 p95 对冲的 p99 延迟，并验证对冲请求发往另一个节点、对冲数受令牌桶限制、原请求失败时对冲请求的结果生效、
+ * 原请求先经过容错策略重试、延迟样本取先成功的请求
+ * @Author： dzgu
+ * @Date： 2022/5/17 21:40
+ */
+public class HedgeCompareTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int NODES = 4;
+    private static final int THREADS = 16;
+    private static final int PER_THREAD = 200;
+    /**
+     * 总是选择快照中的第一个节点
+     */
+    private static final LoadBalance FIRST = (serviceAddresses, rpcRequest) -> serviceAddresses.get(0);
+
+    /**
+     * 只模拟发送请求，按节点的行为延迟完成
+     */
+    private static class SimulatedClient extends NettyClient {
+        private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        private final Behavior behavior;
+        /**
+         * 请求体 -> 发往的节点，原请求与对冲请求共用请求体
+         */
+        private final Map<Object, List<Endpoint>> targets = Collections.synchronizedMap(new IdentityHashMap<>());
+
+        SimulatedClient(Behavior behavior) {
+            super(1);
+            this.behavior = behavior;
+        }
+
+        @Override
+        public CompletableFuture<Object> sendRequestAsync(RpcMessage rpcMessage, Endpoint endpoint, Executor executor) {
+            targets.computeIfAbsent(rpcMessage.getData(), k -> Collections.synchronizedList(new ArrayList<>())).add(endpoint);
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            long latency = behavior.latency(EndpointSimulator.indexOf(endpoint), System.nanoTime(), ThreadLocalRandom.current());
+            scheduler.schedule(() -> {
+                if (latency < 0) {
+                    future.completeExceptionally(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT));
+                } else {
+                    future.complete("我是结果");
+                }
+            }, Math.abs(latency), TimeUnit.NANOSECONDS);
+            return future;
+        }
+
+        @Override
+        public void stop() {
+            scheduler.shutdownNow();
+            super.stop();
+        }
+    }
+
+    private SimulatedClient client;
+
+    @AfterEach
+    public void tearDown() {
+        if (client != null) {
+            client.stop();
+        }
+    }
+
+    /**
+     * 个别请求遇到停顿：对冲后 p99 不再是停顿时长，对冲数不超过请求数的 10% 加上初始令牌
+     */
+    @Test
+    public void tailLatencyTest() throws Exception {
+        client = new SimulatedClient((node, now, random) ->
+                random.nextDouble() < 0.02 ? 200 * MS : TimeUnit.MICROSECONDS.toNanos(1500 + random.nextInt(1000)));
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(NODES);
+        LoadBalance random = new RandomLoadBalance();
+        long[] plain = run(invocation -> new FailFastInvoker().doinvokeAsync(invocation).get(), snapshot, random);
+        HedgingInvoker hedging = new HedgingInvoker();
+        long[] hedged = run(invocation -> hedging.doinvoke(invocation).getData(), snapshot, random);
+        HedgingInvoker.HedgeStats stats = hedging.getStats("hello");
+        System.out.printf("plain:  p50=%.2fms p99=%.2fms%nhedged: p50=%.2fms p99=%.2fms %s%n",
+                plain[plain.length / 2] / 1e6, p99(plain) / 1e6, hedged[hedged.length / 2] / 1e6, p99(hedged) / 1e6, stats);
+        assertTrue(p99(hedged) * 3 < p99(plain), p99(hedged) + " vs " + p99(plain));
+        assertTrue(stats.getHedgeWins() > 0);
+        assertTrue(stats.getHedged() <= stats.getRequests() * 0.1 + 10, stats.toString());
+        // 对冲请求发往另一个节点
+        for (List<Endpoint> endpoints : client.targets.values()) {
+            if (endpoints.size() == 2) {
+                assertNotSame(endpoints.get(0), endpoints.get(1));
+            }
+        }
+    }
+
+    /**
+     * 所有请求都慢于固定的对冲延迟时，对冲数受令牌桶限制
+     */
+    @Test
+    public void budgetTest() throws Exception {
+        client = new SimulatedClient((node, now, random) -> 30 * MS);
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(NODES);
+        HedgingInvoker hedging = new HedgingInvoker();
+        hedging.configure(5, 0.95, 0.1, 10);
+        int calls = 300;
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            futures.add(hedging.doinvokeAsync(invocation(snapshot, new RandomLoadBalance())));
+        }
+        for (CompletableFuture<Object> future : futures) {
+            assertEquals("我是结果", future.get(5, TimeUnit.SECONDS));
+        }
+        HedgingInvoker.HedgeStats stats = hedging.getStats("hello");
+        System.out.println("all slow: " + stats);
+        assertTrue(stats.getHedged() <= calls * 0.1 + 10, stats.toString());
+        assertTrue(stats.getThrottled() > 0);
+    }
+
+    /**
+     * 原请求在对冲请求发出后失败，对冲请求的结果生效；没有发出对冲请求时直接失败
+     */
+    @Test
+    public void primaryFailureTest() throws Exception {
+        client = new SimulatedClient((node, now, random) -> node == 0 ? -50 * MS : MS);
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(2);
+        HedgingInvoker hedging = new HedgingInvoker();
+        hedging.configure(10, 0.95, 0.1, 10);
+        assertEquals("我是结果", hedging.doinvoke(invocation(snapshot, FIRST)).getData());
+        assertEquals(1, hedging.getStats("hello").getHedgeWins());
+
+        client.stop();
+        client = new SimulatedClient((node, now, random) -> node == 0 ? -MS : MS);
+        CompletableFuture<Object> failed = hedging.doinvokeAsync(invocation(snapshot, FIRST));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RpcException);
+        assertEquals(1, hedging.getStats("hello").getHedged());
+    }
+
+    /**
+     * 对冲包在容错策略外面：原请求失败后先按容错策略换节点重试，不需要等到对冲
+     */
+    @Test
+    public void failoverTest() throws Exception {
+        client = new SimulatedClient((node, now, random) -> node == 0 ? -MS : MS);
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(2);
+        HedgingInvoker hedging = new HedgingInvoker();
+        hedging.configure(100, 0.95, 0.1, 10);
+        assertEquals("我是结果", hedging.doinvoke(invocation(snapshot, FIRST, 2), new FailoverInvoker()).getData());
+        assertEquals(0, hedging.getStats("hello").getHedged());
+        List<Endpoint> endpoints = client.targets.values().iterator().next();
+        assertEquals(Arrays.asList(snapshot.get(0), snapshot.get(1)), endpoints);
+    }
+
+    /**
+     * 按先成功的请求的延迟计入样本：原请求所在的节点一直很慢、总是被对冲请求抢先时，百分位反映对冲请求的延迟
+     */
+    @Test
+    public void winnerLatencyTest() throws Exception {
+        client = new SimulatedClient((node, now, random) -> node == 0 ? 100 * MS : MS);
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(2);
+        HedgingInvoker hedging = new HedgingInvoker();
+        hedging.configure(5, 0.5, 1, 1000);
+        for (int i = 0; i < 150; i++) {
+            assertEquals("我是结果", hedging.doinvoke(invocation(snapshot, FIRST)).getData());
+        }
+        HedgingInvoker.HedgeStats stats = hedging.getStats("hello");
+        assertEquals(150, stats.getHedgeWins());
+        long p50 = stats.getPercentileNanos(0.5);
+        assertTrue(p50 > 0 && p50 < 20 * MS, "p50 " + p50);
+    }
+
+    private interface Call {
+        Object call(Invocation invocation) throws Exception;
+    }
+
+    /**
+     * THREADS 个线程各自顺序调用，返回排好序的延迟
+     */
+    private long[] run(Call call, EndpointSnapshot snapshot, LoadBalance loadBalance) throws Exception {
+        long[] latencies = new long[THREADS * PER_THREAD];
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t * PER_THREAD;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    long start = System.nanoTime();
+                    assertEquals("我是结果", call.call(invocation(snapshot, loadBalance)));
+                    latencies[offset + i] = System.nanoTime() - start;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long p99(long[] sorted) {
+        return sorted[sorted.length * 99 / 100];
+    }
+
+    private Invocation invocation(EndpointSnapshot snapshot, LoadBalance loadBalance) {
+        return invocation(snapshot, loadBalance, 1);
+    }
+
+    private Invocation invocation(EndpointSnapshot snapshot, LoadBalance loadBalance, int retries) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .className("com.dzgu.xprc.service.HelloService")
+                .methodName("hello")
+                .methodKey("hello")
+                .version("1.0")
+                .parameterTypes(new Class[]{String.class})
+                .parameters(new Object[]{"我是参数"}).build();
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .requestId(RpcConstants.REQUEST_ID.getAndIncrement())
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .timeout(1000)
+                .data(rpcRequest).build();
+        return Invocation.builder()
+                .nettyClient(client)
+                .rpcMessage(rpcMessage)
+                .rpcRequest(rpcRequest)
+                .snapshot(snapshot)
+                .loadBalance(loadBalance)
+                .retries(retries).build();
+    }
+}
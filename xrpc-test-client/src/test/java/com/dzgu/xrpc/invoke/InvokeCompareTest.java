@@ -10,12 +10,13 @@ import org.springframework.boot.test.context.SpringBootTest;
 import java.util.concurrent.*;
 
 /**
- * @description: 压力测试
+ * @description: 压力测试，需要启动注册中心和服务端。服务端调用器的对比见 {@link InvokerCompareTest}
  * @Author： dzgu
  * @Date： 2022/5/7 19:22
  */
 @Slf4j
-@SpringBootTest(classes = RpcClientSpringBootApplication.class)
+@SpringBootTest(classes = RpcClientSpringBootApplication.class,
+        properties = "spring.autoconfigure.exclude=com.dzgu.xrpc.server.config.RpcAutoConfiguration")
 public class InvokeCompareTest {
     @Autowired
     HelloController helloController;
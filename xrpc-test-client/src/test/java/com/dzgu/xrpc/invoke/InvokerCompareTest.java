@@ -0,0 +1,105 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xprc.entity.Hello;
+import com.dzgu.xprc.service.HelloService;
+import com.dzgu.xrpc.dto.RpcMethodTable;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.extension.ExtensionLoader;
+import com.dzgu.xrpc.server.core.ServiceMethod;
+import com.dzgu.xrpc.server.core.ServiceRegisterCache;
+import com.dzgu.xrpc.server.invoke.Invoker;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @description: 服务端调用器对比，不经过网络。byServiceMethod 为服务端实际的调用方式（方法已在注册时解析），
+ * byRequest 为按请求中的方法名和参数类型查找后调用
+ * @Author： dzgu
+ * @Date： 2022/5/15 18:40
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class InvokerCompareTest {
+    @Param({"jdk", "cglib", "methodhandle"})
+    public String invokerName;
+
+    private Invoker invoker;
+    private ServiceMethod serviceMethod;
+    private Object service;
+    private RpcRequest rpcRequest;
+
+    @Setup
+    public void setup() {
+        invoker = ExtensionLoader.getExtensionLoader(Invoker.class).getExtension(invokerName);
+        service = new HelloServiceImpl();
+        ServiceRegisterCache serviceRegisterCache = new ServiceRegisterCache();
+        serviceRegisterCache.addService(HelloService.class, "1.0", service);
+        rpcRequest = RpcRequest.builder()
+                .className(HelloService.class.getName())
+                .methodName("hello")
+                .version("1.0")
+                .parameterTypes(new Class[]{Hello.class})
+                .parameters(new Object[]{new Hello("hello", "invoke")}).build();
+        serviceMethod = serviceRegisterCache.getMethod(RpcMethodTable.methodKey(HelloService.class.getName(), "1.0",
+                "hello", new Class[]{Hello.class}));
+    }
+
+    @Benchmark
+    public Object byServiceMethod() {
+        return invoker.invoke(serviceMethod, rpcRequest);
+    }
+
+    @Benchmark
+    public Object byRequest() {
+        return invoker.invoke(rpcRequest, service);
+    }
+
+    @Test
+    public void speedTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(InvokerCompareTest.class.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * 所有调用器的结果一致
+     */
+    @Test
+    public void resultTest() {
+        for (String name : new String[]{"jdk", "cglib", "methodhandle"}) {
+            invokerName = name;
+            setup();
+            assertEquals("Hello description is invoke", byServiceMethod());
+            assertEquals("Hello description is invoke", byRequest());
+        }
+    }
+
+    public static class HelloServiceImpl implements HelloService {
+        @Override
+        public String hello(Hello hello) {
+            return "Hello description is " + hello.getDescription();
+        }
+
+        @Override
+        public CompletableFuture<String> helloAsync(Hello hello) {
+            return CompletableFuture.completedFuture(hello(hello));
+        }
+    }
+}
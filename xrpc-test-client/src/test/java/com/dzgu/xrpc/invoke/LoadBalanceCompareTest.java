@@ -0,0 +1,184 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.async.RpcFuture;
+import com.dzgu.xrpc.client.core.Endpoint;
+import com.dzgu.xrpc.client.core.EndpointSnapshot;
+import com.dzgu.xrpc.client.core.EndpointStats;
+import com.dzgu.xrpc.client.loadbalance.LoadBalance;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.FullRoundBalance;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.PeakEwmaLoadBalance;
+import com.dzgu.xrpc.client.loadbalance.loadbalancer.RandomLoadBalance;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.extension.ExtensionLoader;
+import com.dzgu.xrpc.invoke.EndpointSimulator.Result;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 负载均衡对比。按模拟时钟推进，请求按固定速率到达，节点延迟固定加随机抖动。
+ * 一组节点中有一个慢节点，或者某个节点 GC 停顿一段时间，比较随机与 Peak-EWMA 随机选二的 p99 延迟和发往问题节点的请求比例
+ * @Author： dzgu
+ * @Date： 2022/5/17 11:00
+ */
+public class LoadBalanceCompareTest {
+    private static final int REQUESTS = 50000;
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * 请求按固定间隔到达，每秒 20000 个，不因为前面的请求变慢而减少
+     */
+    private static final long ARRIVAL_INTERVAL = MS / 20;
+    private static final RpcRequest RPC_REQUEST = RpcRequest.builder()
+            .className("com.dzgu.xrpc.HelloService")
+            .methodName("hello")
+            .version("1.0").build();
+
+    /**
+     * 五个节点，其中一个的延迟是其他的 20 倍
+     */
+    @Test
+    public void slowNodeTest() {
+        long[] latencies = {MS, MS, MS, MS, 20 * MS};
+        Result random = simulate(false, latencies, 0, 0);
+        Result peakEwma = simulate(true, latencies, 0, 0);
+        System.out.printf("slow node: random %s%n           peak-ewma %s%n", random, peakEwma);
+        assertTrue(peakEwma.p99 * 4 < random.p99, peakEwma.p99 + " vs " + random.p99);
+        assertTrue(peakEwma.badShare < 0.05, "slow node share " + peakEwma.badShare);
+    }
+
+    /**
+     * 五个节点延迟相同，第一个节点在 1s 时停顿 500ms，停顿期间到达的请求在停顿结束后才完成
+     */
+    @Test
+    public void gcPauseTest() {
+        long[] latencies = {MS, MS, MS, MS, MS};
+        Result random = simulate(false, latencies, 1000 * MS, 500 * MS);
+        Result peakEwma = simulate(true, latencies, 1000 * MS, 500 * MS);
+        System.out.printf("gc pause: random %s%n          peak-ewma %s%n", random, peakEwma);
+        assertTrue(peakEwma.p99 < random.p99, peakEwma.p99 + " vs " + random.p99);
+        assertTrue(peakEwma.badShare < random.badShare, peakEwma.badShare + " vs " + random.badShare);
+    }
+
+    /**
+     * 高延迟立即生效，低延迟按时间衰减；没有新样本时估计值也逐渐衰减
+     */
+    @Test
+    public void peakEwmaTest() {
+        EndpointStats stats = new EndpointStats();
+        long now = 1000 * MS;
+        assertEquals(0, stats.cost(now));
+        stats.onSend();
+        // 还没有样本时有在途请求，代价按失败惩罚计算
+        assertTrue(stats.cost(now) >= EndpointStats.FAILURE_PENALTY_NANOS);
+        stats.onComplete(10 * MS, now, true);
+        assertEquals(10 * MS, stats.latencyNanos(now), 1);
+        stats.onSend();
+        stats.onComplete(50 * MS, now, true);
+        assertEquals(50 * MS, stats.latencyNanos(now), 1);
+        assertEquals(50 * MS, stats.cost(now), 1);
+        stats.onSend();
+        assertEquals(100 * MS, stats.cost(now), 1);
+        // 一个衰减时间常数后的低延迟样本：50 * e^-1 + 10 * (1 - e^-1)
+        now += EndpointStats.DECAY_NANOS;
+        stats.onComplete(10 * MS, now, true);
+        assertEquals((50 * Math.exp(-1) + 10 * (1 - Math.exp(-1))) * MS, stats.latencyNanos(now), 1000);
+        assertEquals(0, stats.getInFlight());
+        // 失败按惩罚计入
+        stats.onSend();
+        stats.onComplete(MS, now, false);
+        assertEquals(EndpointStats.FAILURE_PENALTY_NANOS, stats.latencyNanos(now), 1);
+        assertTrue(stats.latencyNanos(now + 5 * EndpointStats.DECAY_NANOS) < 10 * MS);
+    }
+
+    /**
+     * 请求完成（响应、失败、超时）时更新发往地址的统计，重复完成只计一次
+     */
+    @Test
+    public void rpcFutureTest() throws Exception {
+        EndpointStats stats = new EndpointStats();
+        RpcFuture success = new RpcFuture();
+        success.setEndpointStats(stats);
+        RpcFuture failure = new RpcFuture();
+        failure.setEndpointStats(stats);
+        assertEquals(2, stats.getInFlight());
+        Thread.sleep(5);
+        assertTrue(success.complete(RpcResponse.success("我是结果")));
+        assertFalse(success.complete(RpcResponse.success("我是结果")));
+        assertEquals(1, stats.getInFlight());
+        assertTrue(stats.latencyNanos(System.nanoTime()) >= 5 * MS);
+        assertTrue(failure.fail(new RpcException("connection closed", null)));
+        assertFalse(failure.fail(new RpcException("connection closed", null)));
+        assertEquals(0, stats.getInFlight());
+        assertTrue(stats.latencyNanos(System.nanoTime()) >= EndpointStats.FAILURE_PENALTY_NANOS / 2);
+    }
+
+    /**
+     * 轮询在多个线程间共享，地址列表变短时不越界，每个地址被选中的次数相同
+     */
+    @Test
+    public void fullRoundTest() throws Exception {
+        FullRoundBalance fullRound = new FullRoundBalance();
+        List<String> four = Arrays.asList("a", "b", "c", "d");
+        for (int i = 0; i < 3; i++) {
+            fullRound.selectServiceAddress(four, RPC_REQUEST);
+        }
+        List<String> two = Arrays.asList("a", "b");
+        assertNotNull(fullRound.selectServiceAddress(two, RPC_REQUEST));
+
+        int threads = 4;
+        int perThread = 10000;
+        AtomicInteger[] counts = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+        EndpointSnapshot snapshot = EndpointSimulator.snapshot(4);
+        FullRoundBalance shared = new FullRoundBalance();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    Endpoint endpoint = shared.select(snapshot, RPC_REQUEST);
+                    counts[EndpointSimulator.indexOf(endpoint)].incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (AtomicInteger count : counts) {
+            assertEquals(threads * perThread / 4, count.get());
+        }
+    }
+
+    @Test
+    public void extensionTest() {
+        ExtensionLoader<LoadBalance> loader = ExtensionLoader.getExtensionLoader(LoadBalance.class);
+        assertTrue(loader.getExtension("peak-ewma") instanceof PeakEwmaLoadBalance);
+        assertTrue(loader.getExtension("full-round") instanceof FullRoundBalance);
+        assertTrue(loader.getDefaultExtension() instanceof RandomLoadBalance);
+    }
+
+    /**
+     * @param pauseAt    第一个节点开始停顿的时间，0 表示不停顿；不停顿时最后一个节点计为问题节点
+     * @param pauseNanos 停顿时长
+     */
+    private Result simulate(boolean peakEwma, long[] latencies, long pauseAt, long pauseNanos) {
+        RandomLoadBalance random = new RandomLoadBalance();
+        PeakEwmaLoadBalance p2c = new PeakEwmaLoadBalance();
+        EndpointSimulator.Selector selector = (all, now) -> peakEwma ? p2c.select(all, now) : random.select(all, RPC_REQUEST);
+        EndpointSimulator.Behavior behavior = (index, now, jitter) -> {
+            long latency = EndpointSimulator.jitter(latencies[index], jitter);
+            if (index == 0 && pauseNanos > 0 && now + latency > pauseAt && now < pauseAt + pauseNanos) {
+                // 停顿期间在服务端的请求要等停顿结束
+                latency = Math.max(now + latency, pauseAt + pauseNanos) + latencies[index] - now;
+            }
+            return latency;
+        };
+        int badIndex = pauseNanos > 0 ? 0 : latencies.length - 1;
+        return new EndpointSimulator(MS, ARRIVAL_INTERVAL, REQUESTS).simulate(latencies.length, selector, behavior, badIndex, 0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.codec.RpcCodec;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcMethodTable;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.exception.RpcException;
+import com.dzgu.xrpc.server.core.ServiceMethod;
+import com.dzgu.xrpc.server.core.ServiceRegisterCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.DUMMY;
+import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: v2 协议编解码。方法在服务端下发的方法表中时请求只携带方法 ID 和参数，帧比 v1 小，
+ * 服务端按方法 ID 补全方法信息；方法不在表中时退回 v1；方法 ID 超出服务端的方法表时定位失败
+ * @Author： dzgu
+ * @Date： 2022/5/17 22:10
+ */
+public class MethodTableCompareTest {
+
+    public interface GreetService {
+        String greet(String name);
+
+        int add(int a, int b);
+    }
+
+    private static final String VERSION = "1.0";
+
+    @Test
+    public void v2RoundTripTest() {
+        ServiceRegisterCache cache = registerCache();
+        RpcMethodTable methodTable = cache.getMethodTable();
+        RpcRequest request = request("greet", new Class[]{String.class}, new Object[]{"我是参数"});
+
+        ByteBuf v1 = RpcCodec.INSTANCE.encode(message(request), Unpooled.buffer());
+        ByteBuf v2 = RpcCodec.INSTANCE.encode(message(request), Unpooled.buffer(), null, methodTable);
+        try {
+            assertEquals(RpcConstants.VERSION_V2, v2.getByte(RpcConstants.MAGIC_LENGTH));
+            System.out.printf("request frame: v1=%dB v2=%dB%n", v1.readableBytes(), v2.readableBytes());
+            assertTrue(v2.readableBytes() < v1.readableBytes());
+
+            RpcRequest decoded = decode(v2);
+            int methodId = methodTable.getMethodId(request.getMethodKey());
+            assertEquals(methodId, decoded.getMethodId());
+            assertNull(decoded.getClassName());
+            assertNull(decoded.getMethodName());
+            ServiceMethod serviceMethod = cache.getMethod(decoded.getMethodId());
+            serviceMethod.fill(decoded);
+            assertEquals(GreetService.class.getName(), decoded.getClassName());
+            assertEquals(VERSION, decoded.getVersion());
+            assertEquals("greet", decoded.getMethodName());
+            assertArrayEquals(new Class[]{String.class}, decoded.getParameterTypes());
+            assertArrayEquals(new Object[]{"我是参数"}, decoded.getParameters());
+            // 编码 v2 时另建请求对象，原请求不变，可以按 v1 重试
+            assertEquals(GreetService.class.getName(), request.getClassName());
+        } finally {
+            v1.release();
+            v2.release();
+        }
+    }
+
+    /**
+     * 方法不在方法表中（例如服务端是旧版本）或者没有方法表时按 v1 编码，服务端按方法名和参数类型定位
+     */
+    @Test
+    public void v1FallbackTest() {
+        ServiceRegisterCache cache = registerCache();
+        RpcRequest request = request("greet", new Class[]{String.class, String.class}, new Object[]{"a", "b"});
+        assertEquals(0, cache.getMethodTable().getMethodId(request.getMethodKey()));
+        RpcRequest withoutKey = request("greet", new Class[]{String.class}, new Object[]{"我是参数"});
+        withoutKey.setMethodKey(null);
+        for (RpcRequest rpcRequest : Arrays.asList(request, withoutKey)) {
+            ByteBuf frame = RpcCodec.INSTANCE.encode(message(rpcRequest), Unpooled.buffer(), null, cache.getMethodTable());
+            try {
+                assertEquals(RpcConstants.VERSION, frame.getByte(RpcConstants.MAGIC_LENGTH));
+                RpcRequest decoded = decode(frame);
+                assertEquals(0, decoded.getMethodId());
+                assertEquals(GreetService.class.getName(), decoded.getClassName());
+                assertEquals("greet", decoded.getMethodName());
+                assertArrayEquals(rpcRequest.getParameterTypes(), decoded.getParameterTypes());
+                assertArrayEquals(rpcRequest.getParameters(), decoded.getParameters());
+            } finally {
+                frame.release();
+            }
+        }
+        assertNull(cache.getMethod(RpcMethodTable.methodKey(GreetService.class.getName(), VERSION, "greet",
+                new Class[]{String.class, String.class})));
+    }
+
+    /**
+     * 客户端持有的方法表比服务端的大时，方法 ID 超出服务端方法表，按 ID 定位失败而不是调用到别的方法。
+     * 方法 ID 超过 127 时 varint 占多个字节
+     */
+    @Test
+    public void unknownMethodIdTest() {
+        ServiceRegisterCache cache = registerCache();
+        String[] methodKeys = new String[300];
+        Arrays.fill(methodKeys, "");
+        RpcRequest request = request("greet", new Class[]{String.class}, new Object[]{"我是参数"});
+        methodKeys[299] = request.getMethodKey();
+        RpcMethodTable clientTable = new RpcMethodTable(methodKeys);
+
+        ByteBuf frame = RpcCodec.INSTANCE.encode(message(request), Unpooled.buffer(), null, clientTable);
+        try {
+            assertEquals(RpcConstants.VERSION_V2, frame.getByte(RpcConstants.MAGIC_LENGTH));
+            RpcRequest decoded = decode(frame);
+            assertEquals(299, decoded.getMethodId());
+            assertArrayEquals(new Object[]{"我是参数"}, decoded.getParameters());
+            assertThrows(RpcException.class, () -> cache.getMethod(decoded.getMethodId()));
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static ServiceRegisterCache registerCache() {
+        ServiceRegisterCache cache = new ServiceRegisterCache();
+        cache.addService(GreetService.class, VERSION, new GreetService() {
+            @Override
+            public String greet(String name) {
+                return name;
+            }
+
+            @Override
+            public int add(int a, int b) {
+                return a + b;
+            }
+        });
+        return cache;
+    }
+
+    private static RpcRequest request(String methodName, Class<?>[] parameterTypes, Object[] parameters) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .className(GreetService.class.getName())
+                .methodName(methodName)
+                .version(VERSION)
+                .parameterTypes(parameterTypes)
+                .parameters(parameters).build();
+        rpcRequest.setMethodKey(RpcMethodTable.methodKey(GreetService.class.getName(), VERSION, methodName, parameterTypes));
+        return rpcRequest;
+    }
+
+    private static RpcMessage message(RpcRequest rpcRequest) {
+        return RpcMessage.builder()
+                .requestId(1)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(KRYO.getCode())
+                .compress(DUMMY.getCode())
+                .data(rpcRequest).build();
+    }
+
+    private static RpcRequest decode(ByteBuf frame) {
+        ByteBuf copy = frame.copy();
+        try {
+            // 魔数和版本由 Spliter 读取
+            copy.skipBytes(RpcConstants.MAGIC_LENGTH + RpcConstants.VERSION_LENGTH);
+            return (RpcRequest) ((RpcMessage) RpcCodec.INSTANCE.decode(copy)).getData();
+        } finally {
+            copy.release();
+        }
+    }
+}
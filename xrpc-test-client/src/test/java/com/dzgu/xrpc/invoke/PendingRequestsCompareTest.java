@@ -0,0 +1,162 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.async.RpcFuture;
+import com.dzgu.xrpc.client.core.PendingRpcRequests;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 请求与响应的对应方式对比：UUID 字符串 + 全局 ConcurrentHashMap，
+ * 与帧头 int requestId + 每个连接一张、只在 EventLoop 中访问的 IntObjectHashMap。
+ * 每次操作包含生成 ID、登记、把 ID 写进请求和响应、按响应找回 Future 并完成
+ * @Author： dzgu
+ * @Date： 2022/5/14 15:20
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class PendingRequestsCompareTest {
+    private static final Map<String, RpcFuture> LEGACY_FUTURES = new ConcurrentHashMap<>();
+    private static final AtomicInteger REQUEST_ID = new AtomicInteger();
+    private static final RpcResponse<Object> RESPONSE = RpcResponse.success("我是结果");
+
+    /**
+     * 每个压测线程相当于一个连接的 EventLoop
+     */
+    @State(Scope.Thread)
+    public static class ChannelState {
+        PendingRpcRequests pending;
+        ByteBuf buffer;
+
+        @Setup
+        public void setup() {
+            pending = new PendingRpcRequests();
+            buffer = ByteBufAllocator.DEFAULT.heapBuffer(256);
+        }
+
+        @TearDown
+        public void tearDown() {
+            buffer.release();
+        }
+    }
+
+    @Benchmark
+    public RpcResponse<Object> uuidString(ChannelState state) throws Exception {
+        String requestId = UUID.randomUUID().toString();
+        RpcFuture future = new RpcFuture();
+        LEGACY_FUTURES.put(requestId, future);
+        ByteBuf buffer = state.buffer.clear();
+        // 帧头的 int ID 仍然要写，字符串 ID 在请求体和响应体中各写一次
+        buffer.writeInt(REQUEST_ID.getAndIncrement());
+        buffer.writeCharSequence(requestId, StandardCharsets.UTF_8);
+        buffer.writeCharSequence(requestId, StandardCharsets.UTF_8);
+        String responseId = buffer.toString(4, requestId.length(), StandardCharsets.UTF_8);
+        LEGACY_FUTURES.remove(responseId).complete(RESPONSE);
+        return future.get();
+    }
+
+    @Benchmark
+    public RpcResponse<Object> frameInt(ChannelState state) throws Exception {
+        int requestId = REQUEST_ID.getAndIncrement();
+        RpcFuture future = new RpcFuture();
+        state.pending.reserve();
+        state.pending.put(requestId, future);
+        ByteBuf buffer = state.buffer.clear();
+        buffer.writeInt(requestId);
+        state.pending.complete(buffer.getInt(0), RESPONSE);
+        return future.get();
+    }
+
+    @Test
+    public void closeFailsPendingTest() throws Exception {
+        PendingRpcRequests pending = new PendingRpcRequests();
+        RpcFuture completed = new RpcFuture();
+        RpcFuture outstanding = new RpcFuture();
+        pending.reserve();
+        pending.put(1, completed);
+        pending.reserve();
+        pending.put(2, outstanding);
+        assertTrue(pending.complete(1, RESPONSE));
+        assertFalse(pending.complete(1, RESPONSE));
+        pending.failAll(new RpcException("connection closed", null));
+        assertEquals(0, pending.size());
+        assertEquals(0, pending.inFlight());
+        assertSame(RESPONSE, completed.get(1, TimeUnit.SECONDS));
+        assertTrue(outstanding.isDone());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> outstanding.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RpcException);
+    }
+
+    /**
+     * 请求 ID 重复时被顶替的请求释放预占并失败，在途请求数不会只增不减
+     */
+    @Test
+    public void duplicateRequestIdTest() throws Exception {
+        PendingRpcRequests pending = new PendingRpcRequests();
+        RpcFuture displaced = new RpcFuture();
+        RpcFuture current = new RpcFuture();
+        pending.reserve();
+        pending.put(1, displaced);
+        pending.reserve();
+        pending.put(1, current);
+        assertEquals(1, pending.size());
+        assertEquals(1, pending.inFlight());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> displaced.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RpcException);
+        assertTrue(pending.complete(1, RESPONSE));
+        assertSame(RESPONSE, current.get(1, TimeUnit.SECONDS));
+        assertEquals(0, pending.inFlight());
+    }
+
+    /**
+     * 超时后延迟执行的移除只移除自己的登记，不会移除之后以同一个 ID 登记的请求
+     */
+    @Test
+    public void staleRemoveTest() throws Exception {
+        PendingRpcRequests pending = new PendingRpcRequests();
+        RpcFuture timedOut = new RpcFuture();
+        RpcFuture retry = new RpcFuture();
+        pending.reserve();
+        pending.put(1, timedOut);
+        assertTrue(pending.remove(1, timedOut));
+        pending.reserve();
+        pending.put(1, retry);
+        assertFalse(pending.remove(1, timedOut));
+        assertEquals(1, pending.inFlight());
+        assertTrue(pending.complete(1, RESPONSE));
+        assertSame(RESPONSE, retry.get(1, TimeUnit.SECONDS));
+        assertEquals(0, pending.inFlight());
+    }
+
+    @Test
+    public void allocationTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PendingRequestsCompareTest.class.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
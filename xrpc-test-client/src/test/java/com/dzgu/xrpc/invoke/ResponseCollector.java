@@ -0,0 +1,33 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.dto.RpcMessage;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * @description: 收集 NettyServerHandler 写出的消息。响应在业务线程写出，EmbeddedChannel 的出站缓冲不是线程安全的，
+ * 在这里收集后不再向下传递
+ * @Author： dzgu
+ * @Date： 2022/5/16 10:50
+ */
+public class ResponseCollector extends ChannelOutboundHandlerAdapter {
+    private final BlockingQueue<RpcMessage> responses = new LinkedBlockingQueue<>();
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        responses.add((RpcMessage) msg);
+        promise.setSuccess();
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+    }
+
+    public BlockingQueue<RpcMessage> getResponses() {
+        return responses;
+    }
+}
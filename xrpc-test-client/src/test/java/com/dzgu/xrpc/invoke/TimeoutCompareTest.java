@@ -0,0 +1,138 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.async.ResponseCallback;
+import com.dzgu.xrpc.client.async.RpcContext;
+import com.dzgu.xrpc.client.core.ChannelPool;
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.consts.enums.RpcErrorMessageEnum;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.exception.RpcException;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: 请求超时的登记与取消开销对比：时间轮与 ScheduledThreadPoolExecutor（堆，O(log n)）。
+ * 压测前先登记 inFlight 个不会到期的超时，模拟大量在途请求；每次操作登记一个超时并在收到响应时取消
+ * @Author： dzgu
+ * @Date： 2022/5/15 14:40
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TimeoutCompareTest {
+    @Param({"1000", "100000"})
+    public int inFlight;
+
+    private HashedWheelTimer wheelTimer;
+    private ScheduledThreadPoolExecutor scheduledExecutor;
+
+    @Setup
+    public void setup() {
+        wheelTimer = new HashedWheelTimer(new DefaultThreadFactory("timeout-wheel"), 10, TimeUnit.MILLISECONDS, 512);
+        scheduledExecutor = new ScheduledThreadPoolExecutor(1);
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        for (int i = 0; i < inFlight; i++) {
+            wheelTimer.newTimeout(timeout -> {
+            }, 1, TimeUnit.HOURS);
+            scheduledExecutor.schedule(() -> {
+            }, 1, TimeUnit.HOURS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        wheelTimer.stop();
+        scheduledExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean hashedWheel() {
+        Timeout timeout = wheelTimer.newTimeout(t -> {
+        }, 5, TimeUnit.SECONDS);
+        return timeout.cancel();
+    }
+
+    @Benchmark
+    public boolean scheduledExecutor() {
+        ScheduledFuture<?> future = scheduledExecutor.schedule(() -> {
+        }, 5, TimeUnit.SECONDS);
+        return future.cancel(false);
+    }
+
+    @Test
+    public void speedTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TimeoutCompareTest.class.getName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * 服务端只接受连接不回复，同步和异步调用都在配置的超时时间后以超时失败
+     */
+    @Test
+    public void unansweredRequestTimeoutTest() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            String address = "127.0.0.1:" + serverSocket.getLocalPort();
+            NettyClient nettyClient = new NettyClient();
+            try {
+                RpcMessage syncMessage = EchoServer.request();
+                syncMessage.setTimeout(200);
+                long start = System.nanoTime();
+                RpcException syncError = assertThrows(RpcException.class,
+                        () -> nettyClient.sendRequest(syncMessage, address, false));
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue(syncError.getCause().getMessage().contains(RpcErrorMessageEnum.REQUEST_TIMEOUT.getMessage()));
+                assertTrue(elapsed >= 200 && elapsed < 1000, "elapsed " + elapsed);
+
+                CompletableFuture<Exception> asyncError = new CompletableFuture<>();
+                RpcContext.setCallback(new ResponseCallback() {
+                    @Override
+                    public void callBack(RpcResponse<Object> result) {
+                        asyncError.complete(null);
+                    }
+
+                    @Override
+                    public void onException(RpcResponse<Object> result, Exception e) {
+                        asyncError.complete(e);
+                    }
+                });
+                RpcMessage asyncMessage = EchoServer.request();
+                asyncMessage.setTimeout(200);
+                nettyClient.sendRequest(asyncMessage, address, true);
+                Exception e = asyncError.get(2, TimeUnit.SECONDS);
+                assertNotNull(e);
+                assertTrue(e.getMessage().contains(RpcErrorMessageEnum.REQUEST_TIMEOUT.getMessage()));
+                // 到期的请求在连接的 EventLoop 中移除
+                ChannelPool channelPool = nettyClient.getChannelProvider().getPools().iterator().next();
+                for (int i = 0; i < 100 && channelPool.getInFlight() > 0; i++) {
+                    Thread.sleep(10);
+                }
+                assertEquals(0, channelPool.getInFlight());
+            } finally {
+                nettyClient.stop();
+            }
+        }
+    }
+}
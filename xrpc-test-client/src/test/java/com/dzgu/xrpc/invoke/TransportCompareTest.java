@@ -0,0 +1,67 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.client.core.NettyClient;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.transport.NettyTransport;
+import io.netty.channel.Channel;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+
+/**
+ * @description: 传输层对比：本地回环上 nio 与 epoll（边缘触发、TCP_QUICKACK、SO_REUSEPORT 多 acceptor）的吞吐量和分配。
+ * epoll 不可用的平台上两组结果都是 nio
+ * @Author： dzgu
+ * @Date： 2022/5/15 11:20
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@Threads(16)
+@State(Scope.Benchmark)
+public class TransportCompareTest {
+    private static final int PORT = 19877;
+
+    @Param({"nio", "epoll"})
+    public String transport;
+
+    private EchoServer echoServer;
+    private NettyClient nettyClient;
+
+    @Setup
+    public void setup() throws Exception {
+        NettyTransport nettyTransport = NettyTransport.resolve(transport);
+        echoServer = new EchoServer(nettyTransport, PORT, 4, 0);
+        nettyClient = new NettyClient(4, transport);
+        Channel channel = nettyClient.getChannelAsync(new InetSocketAddress("127.0.0.1", PORT)).get();
+        System.out.printf("%ntransport=%s channel=%s%n", nettyTransport.getName(), channel.getClass().getSimpleName());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        nettyClient.stop();
+        echoServer.close();
+    }
+
+    @Benchmark
+    public RpcResponse<Object> syncCall() {
+        return nettyClient.sendRequest(EchoServer.request(), "127.0.0.1:" + PORT, false);
+    }
+
+    @Test
+    public void speedTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TransportCompareTest.class.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,250 @@
+package com.dzgu.xrpc.invoke;
+
+import com.dzgu.xrpc.codec.RpcCodec;
+import com.dzgu.xrpc.codec.RpcEncoder;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionary;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionarySession;
+import com.dzgu.xrpc.compress.zstd.ZstdDictionaryTrainer;
+import com.dzgu.xrpc.consts.RpcConstants;
+import com.dzgu.xrpc.dto.RpcMessage;
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.ZSTD;
+import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.ZSTD_DICT;
+import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @description: zstd 字典压缩的编解码。服务端连接经过 RpcEncoder 编码响应，客户端用自己的字典状态解码：
+ * 字典训练出来并下发之前退化为普通 zstd；下发后使用字典压缩；字典轮换后，用上一个字典压缩、还在路上的帧仍能解码，
+ * 再轮换一次后更早的字典被淘汰。客户端用服务端已轮换掉的字典压缩的请求，在连接关闭前都能解码
+ * @Author： dzgu
+ * @Date： 2022/5/17 22:30
+ */
+public class ZstdDictionaryCompareTest {
+    private static final String SERVICE_KEY = "com.dzgu.xrpc.UserService1.0";
+    private static final int SAMPLES = 128;
+    /**
+     * 帧头中 compress 字节的偏移
+     */
+    private static final int COMPRESS_OFFSET = RpcConstants.MAGIC_LENGTH + RpcConstants.VERSION_LENGTH
+            + RpcConstants.FULL_LENGTH_LENGTH + 2;
+
+    private ZstdDictionaryTrainer trainer;
+    private EmbeddedChannel serverChannel;
+    private ZstdDictionarySession clientSession;
+    private int sequence;
+
+    @BeforeEach
+    public void setup() {
+        trainer = new ZstdDictionaryTrainer();
+        trainer.configure("kryo", SAMPLES, 16 * 1024, 8 * 1024, 0.2);
+        serverChannel = new EmbeddedChannel(new RpcEncoder());
+        serverChannel.attr(ZstdDictionarySession.KEY).set(new ZstdDictionarySession(serverChannel, trainer));
+        clientSession = new ZstdDictionarySession(new EmbeddedChannel());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        serverChannel.finishAndReleaseAll();
+        trainer.shutdown();
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        // 字典就绪前退化为普通 zstd，同时采样
+        for (int i = 0; i < SAMPLES; i++) {
+            ByteBuf frame = send();
+            assertEquals(ZSTD.getCode(), frame.getByte(COMPRESS_OFFSET));
+            receive(frame);
+        }
+        ZstdDictionary first = awaitDictionary();
+
+        // 新字典先下发，下发前的帧仍用普通 zstd
+        ByteBuf beforePush = send();
+        assertEquals(ZSTD.getCode(), beforePush.getByte(COMPRESS_OFFSET));
+        int plainSize = beforePush.readableBytes();
+        receive(beforePush);
+        deliverDictionaries();
+        assertNotNull(clientSession.get(first.getId()));
+
+        ByteBuf withDictionary = send();
+        assertEquals(ZSTD_DICT.getCode(), withDictionary.getByte(COMPRESS_OFFSET));
+        assertEquals(first.getId(), withDictionary.getInt(RpcConstants.HEAD_LENGTH));
+        System.out.printf("frame: zstd=%dB zstd with dictionary=%dB%n", plainSize, withDictionary.readableBytes());
+        assertTrue(withDictionary.readableBytes() < plainSize);
+        receive(withDictionary);
+
+        // 用第一个字典压缩、尚未到达客户端的帧
+        ByteBuf inFlight = send();
+        assertEquals(first.getId(), inFlight.getInt(RpcConstants.HEAD_LENGTH));
+
+        // 轮换：客户端先收到新字典，再收到用上一个字典压缩的帧
+        ZstdDictionary second = rotate(first, 1000);
+        receive(inFlight);
+        ByteBuf withSecond = send();
+        assertEquals(second.getId(), withSecond.getInt(RpcConstants.HEAD_LENGTH));
+        receive(withSecond);
+
+        // 再轮换一次，两端都淘汰第一个字典
+        rotate(second, 1001);
+        assertNull(clientSession.get(first.getId()));
+        assertNotNull(clientSession.get(second.getId()));
+        assertNull(trainer.getStore().get(first.getId()));
+    }
+
+    /**
+     * 客户端一直用收到的最新字典压缩请求。字典因其他连接上的流量轮换了两次、不再是服务端的当前或上一个版本时，
+     * 该连接仍引用它，请求照常解码；连接关闭后才淘汰
+     */
+    @Test
+    public void evictedDictionaryRequestTest() throws Exception {
+        for (int i = 0; i < SAMPLES; i++) {
+            receive(send());
+        }
+        ZstdDictionary first = awaitDictionary();
+        receive(send());
+        deliverDictionaries();
+        ByteBuf request = sendRequest();
+        assertEquals(ZSTD_DICT.getCode(), request.getByte(COMPRESS_OFFSET));
+        assertEquals(first.getId(), request.getInt(RpcConstants.HEAD_LENGTH));
+        receiveRequest(request);
+
+        trainer.getStore().put(new ZstdDictionary(1000, SERVICE_KEY, first.getContent()));
+        trainer.getStore().put(new ZstdDictionary(1001, SERVICE_KEY, first.getContent()));
+        ByteBuf stale = sendRequest();
+        assertEquals(first.getId(), stale.getInt(RpcConstants.HEAD_LENGTH));
+        receiveRequest(stale);
+
+        serverChannel.close();
+        assertNull(trainer.getStore().get(first.getId()));
+        assertNotNull(trainer.getStore().get(1000));
+    }
+
+    /**
+     * 服务端换上新字典并下发给客户端，返回新字典
+     */
+    private ZstdDictionary rotate(ZstdDictionary current, int id) {
+        assertSame(current, trainer.getStore().current(SERVICE_KEY));
+        ZstdDictionary next = new ZstdDictionary(id, SERVICE_KEY, current.getContent());
+        trainer.getStore().put(next);
+        // 新字典下发前退化为普通 zstd
+        ByteBuf beforePush = send();
+        assertEquals(ZSTD.getCode(), beforePush.getByte(COMPRESS_OFFSET));
+        receive(beforePush);
+        deliverDictionaries();
+        assertNotNull(clientSession.get(id));
+        return next;
+    }
+
+    private ZstdDictionary awaitDictionary() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() - deadline < 0) {
+            ZstdDictionary current = trainer.getStore().current(SERVICE_KEY);
+            if (current != null) {
+                return current;
+            }
+            Thread.sleep(10);
+        }
+        fail("dictionary not trained: " + trainer);
+        return null;
+    }
+
+    /**
+     * 执行服务端连接上排队的下发任务，把字典帧交给客户端
+     */
+    private void deliverDictionaries() {
+        serverChannel.runPendingTasks();
+        serverChannel.runPendingTasks();
+        ByteBuf frame;
+        while ((frame = serverChannel.readOutbound()) != null) {
+            RpcMessage rpcMessage = receive(frame);
+            assertEquals(RpcConstants.DICTIONARY_TYPE, rpcMessage.getMessageType());
+        }
+    }
+
+    /**
+     * 服务端编码一个响应
+     */
+    private ByteBuf send() {
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .requestId(sequence)
+                .messageType(RpcConstants.RESPONSE_TYPE)
+                .codec(KRYO.getCode())
+                .compress(ZSTD_DICT.getCode())
+                .serviceKey(SERVICE_KEY)
+                .data(RpcResponse.success(payload(sequence++))).build();
+        assertTrue(serverChannel.writeOutbound(rpcMessage));
+        return serverChannel.readOutbound();
+    }
+
+    /**
+     * 客户端编码一个请求
+     */
+    private ByteBuf sendRequest() {
+        int requestId = sequence++;
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .requestId(requestId)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(KRYO.getCode())
+                .compress(ZSTD_DICT.getCode())
+                .serviceKey(SERVICE_KEY)
+                .data(RpcRequest.builder().parameters(new Object[]{payload(requestId)}).build()).build();
+        return RpcCodec.INSTANCE.encode(rpcMessage, Unpooled.buffer(), clientSession, null);
+    }
+
+    /**
+     * 服务端解码，请求与发送的内容一致
+     */
+    private void receiveRequest(ByteBuf frame) {
+        try {
+            frame.skipBytes(RpcConstants.MAGIC_LENGTH + RpcConstants.VERSION_LENGTH);
+            RpcMessage rpcMessage = (RpcMessage) RpcCodec.INSTANCE.decode(frame, serverChannel.attr(ZstdDictionarySession.KEY).get());
+            RpcRequest rpcRequest = (RpcRequest) rpcMessage.getData();
+            assertArrayEquals(new Object[]{payload(rpcMessage.getRequestId())}, rpcRequest.getParameters());
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * 客户端解码，响应与发送的内容一致
+     */
+    private RpcMessage receive(ByteBuf frame) {
+        try {
+            // 魔数和版本由 Spliter 读取
+            frame.skipBytes(RpcConstants.MAGIC_LENGTH + RpcConstants.VERSION_LENGTH);
+            RpcMessage rpcMessage = (RpcMessage) RpcCodec.INSTANCE.decode(frame, clientSession);
+            if (rpcMessage.getMessageType() == RpcConstants.RESPONSE_TYPE) {
+                assertEquals(payload(rpcMessage.getRequestId()), ((RpcResponse<?>) rpcMessage.getData()).getData());
+            }
+            return rpcMessage;
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * 结构相同、取值不同的 2KB 左右的响应，字典能学到其中的公共部分
+     */
+    private static String payload(int seed) {
+        StringBuilder sb = new StringBuilder("{\"users\":[");
+        for (int i = 0; i < 16; i++) {
+            int id = seed * 16 + i;
+            sb.append("{\"userId\":").append(id)
+                    .append(",\"userName\":\"user-").append(Integer.toHexString(id * 0x9E3779B1))
+                    .append("\",\"email\":\"user").append(id % 97).append("@example.com\"")
+                    .append(",\"status\":\"").append(id % 3 == 0 ? "ACTIVE" : "INACTIVE").append("\"},");
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.dzgu.xrpc.serialize;
+
+import com.dzgu.xrpc.dto.RpcRequest;
+import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.serializer.kryo.KryoSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum.SUCCESS;
+
+/**
+ * @description: Kryo 池化前后对比，关注 gc.alloc.rate.norm（每次调用分配的字节数）
+ * @Author： dzgu
+ * @Date： 2022/5/10 21:14
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+//测量次数,每次测量的持续时间
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Thread)
+public class KryoPoolCompareTest {
+    private final KryoSerializer kryoSerializer = new KryoSerializer();
+    private final RpcResponse<Object> response = RpcResponse.builder()
+            .message(SUCCESS.getMessage())
+            .code(SUCCESS.getCode())
+            .data("我是结果，我是结果，我是结果").build();
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        buffer = PooledByteBufAllocator.DEFAULT.directBuffer(1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    /**
+     * 池化前的实现：每次调用都新建 Kryo、注册类并新建流
+     */
+    @Benchmark
+    public Object newKryoPerCall() {
+        Kryo kryo = new Kryo();
+        kryo.register(RpcResponse.class);
+        kryo.register(RpcRequest.class);
+        byte[] bytes;
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+             Output output = new Output(byteArrayOutputStream)) {
+            kryo.writeObject(output, response);
+            bytes = output.toBytes();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        kryo = new Kryo();
+        kryo.register(RpcResponse.class);
+        kryo.register(RpcRequest.class);
+        try (Input input = new Input(new ByteArrayInputStream(bytes))) {
+            return kryo.readObject(input, RpcResponse.class);
+        }
+    }
+
+    @Benchmark
+    public Object pooledKryo() {
+        byte[] bytes = kryoSerializer.serialize(response);
+        return kryoSerializer.deserialize(RpcResponse.class, bytes);
+    }
+
+    @Benchmark
+    public Object pooledKryoByteBuf() {
+        buffer.clear();
+        kryoSerializer.serialize(response, buffer);
+        return kryoSerializer.deserialize(RpcResponse.class, buffer);
+    }
+
+    @Test
+    public void allocationTest() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(KryoPoolCompareTest.class.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
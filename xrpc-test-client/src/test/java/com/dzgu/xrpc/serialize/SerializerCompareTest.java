@@ -1,10 +1,14 @@
 package com.dzgu.xrpc.serialize;
 
+import com.dzgu.xrpc.compress.Compress;
 import com.dzgu.xrpc.dto.RpcMessage;
 import com.dzgu.xrpc.dto.RpcResponse;
+import com.dzgu.xrpc.extension.ExtensionLoader;
 import com.dzgu.xrpc.serializer.hessian.HessianSerializer;
 import com.dzgu.xrpc.serializer.kryo.KryoSerializer;
 import com.dzgu.xrpc.serializer.protostuff.ProtostuffSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.junit.jupiter.api.Test;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.runner.Runner;
@@ -12,12 +16,14 @@ import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.dzgu.xrpc.consts.RpcConstants.REQUEST_TYPE;
 import static com.dzgu.xrpc.consts.enums.CompressTypeEnum.GZIP;
 import static com.dzgu.xrpc.consts.enums.RpcResponseCodeEnum.SUCCESS;
 import static com.dzgu.xrpc.consts.enums.SerializerTypeEnum.KRYO;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @Fork(1)
@@ -28,7 +34,6 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 public class SerializerCompareTest {
     private static RpcMessage buildMessage() {
         RpcResponse<Object> rpcResponse = RpcResponse.builder()
-                .requestId(UUID.randomUUID().toString())
                 .message(SUCCESS.getMessage())
                 .code(SUCCESS.getCode())
                 .data(new String("我是结果，我是结果，我是结果")).build();
@@ -73,6 +78,80 @@ public class SerializerCompareTest {
         assertEquals(out, data);
     }
 
+    /**
+     * 压缩算法对比用的消息体：一个包含较多记录的查询结果，kryo 序列化后约 20KB
+     */
+    private static byte[] buildCompressPayload() {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            rows.add("{\"orderId\":" + (100000 + i) + ",\"userId\":" + (i % 37) + ",\"status\":\"PAID\","
+                    + "\"sku\":\"SKU-" + (i % 13) + "\",\"amount\":" + (i * 17 % 1000) + ".00,\"remark\":\"我是结果\"}");
+        }
+        RpcResponse<Object> rpcResponse = RpcResponse.builder()
+                .message(SUCCESS.getMessage())
+                .code(SUCCESS.getCode())
+                .data(rows).build();
+        return new KryoSerializer().serialize(rpcResponse);
+    }
+
+    @State(Scope.Thread)
+    public static class CompressState {
+        @Param({"gzip", "lz4", "lz4hc", "snappy", "zstd"})
+        public String compressName;
+        private Compress compress;
+        private ByteBuf raw;
+        private ByteBuf compressed;
+        private ByteBuf decompressed;
+
+        @Setup
+        public void setup() {
+            compress = ExtensionLoader.getExtensionLoader(Compress.class).getExtension(compressName);
+            byte[] payload = buildCompressPayload();
+            raw = PooledByteBufAllocator.DEFAULT.directBuffer(payload.length);
+            raw.writeBytes(payload);
+            compressed = PooledByteBufAllocator.DEFAULT.directBuffer(payload.length);
+            decompressed = PooledByteBufAllocator.DEFAULT.directBuffer(payload.length);
+        }
+
+        @TearDown
+        public void tearDown() {
+            raw.release();
+            compressed.release();
+            decompressed.release();
+        }
+    }
+
+    /**
+     * 与 RpcCodec 中相同的 ByteBuf 路径，压缩后再解压一次
+     */
+    @Benchmark
+    public static int compressRoundTrip(CompressState state) {
+        state.raw.readerIndex(0);
+        state.compressed.clear();
+        state.decompressed.clear();
+        state.compress.compress(state.raw, state.compressed);
+        state.compress.decompress(state.compressed, state.decompressed);
+        return state.decompressed.readableBytes();
+    }
+
+    @Test
+    public void compressRatioTest() {
+        byte[] payload = buildCompressPayload();
+        for (String name : new String[]{"gzip", "lz4", "lz4hc", "snappy", "zstd"}) {
+            Compress compress = ExtensionLoader.getExtensionLoader(Compress.class).getExtension(name);
+            byte[] compressed = compress.compress(payload);
+            assertArrayEquals(payload, compress.decompress(compressed));
+            System.out.printf("%s: %d -> %d bytes, ratio %.3f%n", name, payload.length, compressed.length,
+                    (double) compressed.length / payload.length);
+        }
+    }
+
+    @Test
+    public void compressSpeedTest() throws RunnerException {
+        Options options = new OptionsBuilder().include(SerializerCompareTest.class.getName() + ".compressRoundTrip").build();
+        new Runner(options).run();
+    }
+
     @Test
     public void sizeTest() {
         kryoSerializeSizeTest();
@@ -4,6 +4,8 @@ import com.dzgu.xrpc.annotation.RpcService;
 import com.dzgu.xprc.entity.Hello;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @description:
  * @Author： dzgu
@@ -29,4 +31,9 @@ public class HelloServiceImp1 implements HelloService {
         //}
         return result;
     }
+
+    @Override
+    public CompletableFuture<String> helloAsync(Hello hello) {
+        return CompletableFuture.completedFuture(hello(hello));
+    }
 }